@@ -48,8 +48,10 @@ import org.junit.runners.Suite
         UriTest::class,
 
         QueryTest::class,
+        CompiledQueryCacheTest::class,
         QueryTokenizerTest::class,
         QueryUtilsTest::class,
+        QueryUtilsBookNamesTest::class,
 
         NoteRemindersTest::class,
 
@@ -67,6 +69,7 @@ import org.junit.runners.Suite
         NoteUpdateDeadlineTimeTest::class,
         NoteUpdateScheduledTimeTest::class,
 
+        AgendaOccurrencesTest::class,
         AgendaUtilsTest::class,
         EncodingDetectTest::class,
         MiscUtilsTest::class,
@@ -0,0 +1,106 @@
+package com.orgzly.android.external
+
+import android.content.Intent
+import com.orgzly.android.OrgzlyTest
+import com.orgzly.android.external.actionhandlers.RunSearch
+import com.orgzly.android.external.types.Note
+import com.orgzly.android.external.types.Response
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+class RunSearchTest : OrgzlyTest() {
+    @Before
+    override fun setUp() {
+        super.setUp()
+
+        testUtils.setupBook("book-a", """
+            * Note 1
+            :PROPERTIES:
+            :prop: value
+            :END:
+            Content 1
+            * Note 2
+            * Note 3
+            * Note 4
+        """.trimIndent())
+    }
+
+    @Test
+    fun testLimitAndOffset() {
+        val response = search { putExtra("LIMIT", 2); putExtra("OFFSET", 1) }
+
+        assertTrue(response.success)
+        assertEquals(listOf("Note 2", "Note 3"), titles(response))
+    }
+
+    @Test
+    fun testOffsetWithoutLimit() {
+        assertEquals(listOf("Note 3", "Note 4"), titles(search { putExtra("OFFSET", 2) }))
+    }
+
+    @Test
+    fun testInvalidOffset() {
+        val response = search { putExtra("OFFSET", -1) }
+
+        assertFalse(response.success)
+        assertEquals("invalid offset", response.result)
+    }
+
+    @Test
+    fun testInvalidLimit() {
+        val response = search { putExtra("LIMIT", -2) }
+
+        assertFalse(response.success)
+        assertEquals("invalid limit", response.result)
+    }
+
+    @Test
+    fun testSkipFields() {
+        val response = search { putExtra("SKIP_FIELDS", "content, properties") }
+
+        val note = notes(response).first()
+
+        assertNull(note.content)
+        assertNull(note.properties)
+        assertNotNull(note.inheritedTags)
+    }
+
+    @Test
+    fun testPropertiesNotSkipped() {
+        val note = notes(search { }).first()
+
+        assertEquals("Content 1", note.content)
+        assertEquals(mapOf("prop" to "value"), note.properties)
+    }
+
+    @Test
+    fun testInvalidSkipField() {
+        val response = search { putExtra("SKIP_FIELDS", "content,unknown") }
+
+        assertFalse(response.success)
+        assertEquals("invalid field to skip: unknown", response.result)
+    }
+
+    private fun search(extras: Intent.() -> Unit): Response {
+        val intent = Intent("com.orgzly.android.SEARCH")
+                .putExtra("QUERY", "b.book-a")
+                .apply(extras)
+
+        return RunSearch().handle(intent, context)!!
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun notes(response: Response): List<Note> {
+        assertTrue(response.success)
+        return response.result as List<Note>
+    }
+
+    private fun titles(response: Response): List<String> {
+        return notes(response).map { it.title }
+    }
+}
@@ -0,0 +1,84 @@
+package com.orgzly.android.misc
+
+import com.orgzly.android.OrgzlyTest
+import org.junit.Assert
+import org.junit.Ignore
+import org.junit.Test
+
+/**
+ * Benchmark for loading large books, written as a failing test (to display the results).
+ *
+ * Same generated books can be loaded before and after a change to the loader,
+ * by running this class on both revisions on the same device.
+ */
+@Ignore("Not a test")
+class BookLoadingSpeedTest : OrgzlyTest() {
+    @Test
+    fun notes1k() {
+        test(1_000)
+    }
+
+    @Test
+    fun notes10k() {
+        test(10_000)
+    }
+
+    @Test
+    fun notes100k() {
+        test(100_000)
+    }
+
+    private fun test(count: Int) {
+        val content = generate(count)
+
+        val times = LongArray(ITERATIONS)
+
+        for (i in 0 until ITERATIONS) {
+            val t1 = System.currentTimeMillis()
+
+            testUtils.setupBook("book-$i", content)
+
+            times[i] = System.currentTimeMillis() - t1
+        }
+
+        Assert.assertEquals(count, dataRepository.getNoteCount(dataRepository.getBook("book-0")!!.id))
+
+        val measured = times.drop(SKIP_FIRST).sorted()
+
+        Assert.fail("$count notes: median ${measured[measured.size / 2]} ms, " +
+                measured.stream().mapToLong { it }.summaryStatistics())
+    }
+
+    /**
+     * Generates a book with notes nested up to [MAX_LEVEL] levels deep,
+     * with some tags, properties and times.
+     */
+    private fun generate(count: Int): String {
+        return buildString {
+            for (i in 1..count) {
+                val level = (i - 1) % MAX_LEVEL + 1
+
+                append("*".repeat(level)).append(" TODO Note $i")
+                if (i % 3 == 0) {
+                    append(" :tag${i % 10}:")
+                }
+                append("\n")
+
+                if (i % 5 == 0) {
+                    append("SCHEDULED: <2018-01-${(i % 28 + 1).toString().padStart(2, '0')} Mon>\n")
+                }
+
+                append(":PROPERTIES:\n:ID: note-$i\n:END:\n")
+
+                append("Content of note $i\n\n")
+            }
+        }
+    }
+
+    companion object {
+        private const val ITERATIONS = 6
+        private const val SKIP_FIRST = 1
+
+        private const val MAX_LEVEL = 5
+    }
+}
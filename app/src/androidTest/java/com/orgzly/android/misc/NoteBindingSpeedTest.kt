@@ -0,0 +1,92 @@
+package com.orgzly.android.misc
+
+import android.view.ContextThemeWrapper
+import android.view.LayoutInflater
+import android.view.View
+import androidx.test.platform.app.InstrumentationRegistry
+import com.orgzly.R
+import com.orgzly.android.OrgzlyTest
+import com.orgzly.android.db.entity.NoteView
+import com.orgzly.android.ui.notes.NoteItemViewBinder
+import com.orgzly.android.ui.notes.NoteItemViewHolder
+import com.orgzly.android.ui.notes.NoteSpannedCache
+import com.orgzly.databinding.ItemHeadBinding
+import org.junit.Assert
+import org.junit.Ignore
+import org.junit.Test
+
+/**
+ * Benchmark for binding notes to their views (time per item, in microseconds),
+ * written as a failing test (to display the results).
+ */
+@Ignore("Not a test")
+class NoteBindingSpeedTest : OrgzlyTest() {
+    @Test
+    fun notes5k() {
+        test(5_000)
+    }
+
+    private fun test(count: Int) {
+        testUtils.setupBook("book", generate(count))
+
+        val notes = dataRepository.getNotes("book")
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync {
+            val themedContext = ContextThemeWrapper(context, R.style.AppLightTheme)
+
+            val binder = NoteItemViewBinder(themedContext, true)
+
+            val holders = (1..HOLDERS).map {
+                val binding = ItemHeadBinding.inflate(LayoutInflater.from(themedContext))
+
+                NoteItemViewHolder(binding, object : NoteItemViewHolder.ClickListener {
+                    override fun onClick(view: View, position: Int) {}
+                    override fun onLongClick(view: View, position: Int) {}
+                })
+            }
+
+            NoteSpannedCache.clear()
+
+            /* Nothing cached, every title and content is parsed. */
+            val cold = bindAll(binder, holders, notes)
+
+            /* Scrolling back through the same notes. */
+            val warm = bindAll(binder, holders, notes)
+
+            Assert.fail("$count notes\ncold: ${cold.summaryStatistics()}\nwarm: ${warm.summaryStatistics()}")
+        }
+    }
+
+    private fun bindAll(binder: NoteItemViewBinder, holders: List<NoteItemViewHolder>, notes: List<NoteView>): java.util.stream.LongStream {
+        val times = LongArray(notes.size)
+
+        notes.forEachIndexed { i, noteView ->
+            val t1 = System.nanoTime()
+
+            binder.bind(holders[i % holders.size], noteView)
+
+            times[i] = (System.nanoTime() - t1) / 1000
+        }
+
+        return times.asList().stream().mapToLong { it }
+    }
+
+    /**
+     * Generates a book with notes with markup, links, checkboxes and drawers in their content.
+     */
+    private fun generate(count: Int): String {
+        return buildString {
+            for (i in 1..count) {
+                append("* TODO Note *$i* with [[https://www.orgzly.com][a link]] :tag${i % 10}:\n")
+                append(":LOGBOOK:\nCLOCK: [2018-01-01 Mon 10:00]--[2018-01-01 Mon 11:00] =>  1:00\n:END:\n")
+                append("Content of /note/ $i with =code= and https://www.orgzly.com\n")
+                append("- [ ] First\n- [X] Second\n\n")
+            }
+        }
+    }
+
+    companion object {
+        /* About as many as a list on the screen recycles. */
+        private const val HOLDERS = 10
+    }
+}
@@ -0,0 +1,98 @@
+package com.orgzly.android.misc
+
+import com.orgzly.android.OrgzlyTest
+import com.orgzly.android.ui.NotePlace
+import com.orgzly.android.ui.Place
+import com.orgzly.android.usecase.NoteRefile
+import com.orgzly.android.usecase.UseCaseRunner
+import org.junit.Assert
+import org.junit.Ignore
+import org.junit.Test
+
+/**
+ * Benchmark for refiling large subtrees between books, written as a failing test (to display the results).
+ */
+@Ignore("Not a test")
+class RefileSpeedTest : OrgzlyTest() {
+    @Test
+    fun notes10() {
+        test(10)
+    }
+
+    @Test
+    fun notes1k() {
+        test(1_000)
+    }
+
+    @Test
+    fun notes10k() {
+        test(10_000)
+    }
+
+    private fun test(count: Int) {
+        val bookA = testUtils.setupBook("book-a", generate("A", count))
+        val bookB = testUtils.setupBook("book-b", generate("B", OTHER_NOTES))
+
+        val projectId = dataRepository.getLastNote("Project A")!!.id
+
+        val times = LongArray(ITERATIONS)
+
+        for (i in 0 until ITERATIONS) {
+            /* Back and forth, between two notes of the other book. */
+            val (book, targetTitle) = if (i % 2 == 0) {
+                bookB to "Note B-${OTHER_NOTES / 2}"
+            } else {
+                bookA to "Note A-${OTHER_NOTES / 2}"
+            }
+
+            val target = NotePlace(book.book.id, dataRepository.getLastNote(targetTitle)!!.id, Place.BELOW)
+
+            val t1 = System.currentTimeMillis()
+
+            UseCaseRunner.run(NoteRefile(setOf(projectId), target))
+
+            times[i] = System.currentTimeMillis() - t1
+        }
+
+        val project = dataRepository.getLastNote("Project A")!!
+
+        Assert.assertEquals(count - 1, project.position.descendantsCount)
+        Assert.assertEquals(
+                count + OTHER_NOTES,
+                dataRepository.getNoteCount(if (ITERATIONS % 2 == 0) bookA.book.id else bookB.book.id))
+
+        Assert.fail("$count notes: " + times.drop(SKIP_FIRST).stream().mapToLong { it }.summaryStatistics())
+    }
+
+    /**
+     * Generates a book with a number of top-level notes and
+     * a project subtree of [count] notes nested up to [MAX_LEVEL] levels deep.
+     */
+    private fun generate(name: String, count: Int): String {
+        return buildString {
+            for (i in 1..OTHER_NOTES) {
+                append("* Note $name-$i\n")
+            }
+
+            if (name == "A") {
+                append("* Project A\n")
+
+                for (i in 2..count) {
+                    val level = (i - 2) % MAX_LEVEL + 2
+
+                    append("*".repeat(level)).append(" TODO Task $i :tag${i % 10}:\n")
+                    append("Content of task $i\n")
+                }
+            }
+        }
+    }
+
+    companion object {
+        private const val ITERATIONS = 6
+        private const val SKIP_FIRST = 1
+
+        private const val OTHER_NOTES = 100
+
+        private const val MAX_LEVEL = 5
+    }
+}
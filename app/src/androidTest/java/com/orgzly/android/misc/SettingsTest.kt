@@ -42,6 +42,31 @@ class SettingsTest : OrgzlyTest() {
         }
     }
 
+    @Test
+    @Throws(IOException::class)
+    fun testNotesReparseResumed() {
+        testUtils.setupBook("booky", "* TODO Note 1\n* TODO Note 2\n* TODO Note 3")
+
+        AppPreferences.states(context, "")
+
+        val firstNoteId = dataRepository.getLastNote("Note 1")!!.id
+
+        val lastNoteIds = mutableListOf<Long>()
+
+        assertEquals(2, dataRepository.reParseNotesStateAndTitles(firstNoteId) { lastNoteId, parsed, total ->
+            assertEquals(2, parsed)
+            assertEquals(2, total)
+            lastNoteIds.add(lastNoteId)
+            true
+        })
+
+        assertEquals(listOf(dataRepository.getLastNote("TODO Note 3")?.id), lastNoteIds)
+
+        assertEquals("TODO", dataRepository.getLastNote("Note 1")?.state)
+        assertNull(dataRepository.getLastNote("TODO Note 2")?.state)
+        assertNull(dataRepository.getLastNote("TODO Note 3")?.state)
+    }
+
     @Test
     @Throws(IOException::class)
     fun testStarInContent() {
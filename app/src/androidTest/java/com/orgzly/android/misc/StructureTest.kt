@@ -211,6 +211,29 @@ class StructureTest : OrgzlyTest() {
         Assert.assertEquals(0, getNote("Note A-01").position.descendantsCount)
     }
 
+    @Test
+    fun testBookNoteCountAfterCutPasteAndDelete() {
+        val bookA = testUtils.setupBook("Book A", "* TODO Note A-01\n** Note A-02\n*** Note A-03\n")
+        val bookB = testUtils.setupBook("Book B", "* Note B-01\n")
+
+        Assert.assertEquals(3, dataRepository.getBookView(bookA.book.id)?.noteCount)
+        Assert.assertEquals(1, dataRepository.getBookView(bookB.book.id)?.noteCount)
+
+        UseCaseRunner.run(NoteCut(bookA.book.id, setOf(getNote("Note A-02").id)))
+
+        Assert.assertEquals(1, dataRepository.getBookView(bookA.book.id)?.noteCount)
+
+        val n = getNote("Note B-01")
+        UseCaseRunner.run(NotePaste(n.position.bookId, n.id, Place.UNDER))
+
+        Assert.assertEquals(1, dataRepository.getBookView(bookA.book.id)?.noteCount)
+        Assert.assertEquals(3, dataRepository.getBookView(bookB.book.id)?.noteCount)
+
+        UseCaseRunner.run(NoteDelete(bookB.book.id, setOf(getNote("Note A-03").id)))
+
+        Assert.assertEquals(2, dataRepository.getBookView(bookB.book.id)?.noteCount)
+    }
+
     @Test
     fun testDescendantCountAfterDelete() {
         val book = testUtils.setupBook("Book A", "* Note A-01\n** Note A-02\n")
@@ -1313,6 +1336,66 @@ class StructureTest : OrgzlyTest() {
         Assert.assertEquals(2, getNoteView("A-03").getInheritedTagsList().size)
     }
 
+    @Test
+    @Throws(IOException::class)
+    fun testInheritedTagsAndCountsAfterRefileToDifferentBook() {
+        val book = testUtils.setupBook(
+                "Book A",
+                """
+                    * A-01 :a:
+                    ** A-02 :b:
+                    *** A-03 :c:
+                    **** A-04
+                    ** A-05
+                """.trimIndent())
+
+        val (bookB) = testUtils.setupBook(
+                "Book B",
+                """
+                    * B-01 :d:
+                    ** B-02
+                    * B-03
+                """.trimIndent())
+
+        UseCaseRunner.run(NoteRefile(
+                setOf(getNote("A-02").id, getNote("A-05").id),
+                NotePlace(bookB.id, getNote("B-02").id, Place.UNDER)))
+
+        Assert.assertEquals("* A-01 :a:\n", dataRepository.getBookContent("Book A", BookFormat.ORG))
+
+        Assert.assertEquals(
+                """
+                    * B-01 :d:
+                    ** B-02
+                    *** A-02 :b:
+                    **** A-03 :c:
+                    ***** A-04
+                    *** A-05
+                    * B-03
+
+                """.trimIndent(),
+                dataRepository.getBookContent("Book B", BookFormat.ORG))
+
+        Assert.assertEquals(0, getNote("A-01").position.descendantsCount)
+        Assert.assertEquals(5, getNote("B-01").position.descendantsCount)
+        Assert.assertEquals(4, getNote("B-02").position.descendantsCount)
+        Assert.assertEquals(2, getNote("A-02").position.descendantsCount)
+
+        Assert.assertEquals(getNote("B-02").id, getNote("A-02").position.parentId)
+        Assert.assertEquals(getNote("B-02").id, getNote("A-05").position.parentId)
+
+        Assert.assertEquals(listOf("d"), getNoteView("A-02").getInheritedTagsList())
+        Assert.assertEquals(listOf("b", "c", "d"), getNoteView("A-04").getInheritedTagsList().sorted())
+        Assert.assertEquals(listOf("d"), getNoteView("A-05").getInheritedTagsList())
+
+        Assert.assertEquals(
+                listOf("B-01", "B-02", "A-02", "A-03"),
+                dataRepository.getNoteAncestors(getNote("A-04").id).map { it.title })
+
+        Assert.assertEquals(book.book.id, getNote("A-01").position.bookId)
+        Assert.assertEquals(bookB.id, getNote("A-04").position.bookId)
+    }
+
     /**
      * Test that root node's rgt is larger then notes' rgt.
      */
@@ -1743,6 +1826,86 @@ class StructureTest : OrgzlyTest() {
         }
     }
 
+    @Test
+    @Throws(IOException::class)
+    fun testNewNoteDoesNotMoveOtherNotes() {
+        val book = testUtils.setupBook(
+                "Book A",
+                """
+                    * Note A-01
+                    * Note A-02
+                    ** Note A-03
+                """.trimIndent())
+
+        val titles = listOf("Note A-01", "Note A-02", "Note A-03")
+
+        val positions = titles.map { getNote(it).position.lft to getNote(it).position.rgt }
+
+        UseCaseRunner.run(NoteCreate(
+                NotePayload("Note A-00"),
+                NotePlace(book.book.id, getNote("Note A-01").id, Place.ABOVE)))
+
+        UseCaseRunner.run(NoteCreate(
+                NotePayload("Note A-04"),
+                NotePlace(book.book.id, getNote("Note A-02").id, Place.UNDER)))
+
+        Assert.assertEquals(positions, titles.map { getNote(it).position.lft to getNote(it).position.rgt })
+
+        Assert.assertEquals(
+                """
+                    * Note A-00
+                    * Note A-01
+                    * Note A-02
+                    ** Note A-03
+                    ** Note A-04
+
+                """.trimIndent(),
+                dataRepository.getBookContent("Book A", BookFormat.ORG))
+    }
+
+    @Test
+    @Throws(IOException::class)
+    fun testNewNotesAfterGapIsUsedUp() {
+        val book = testUtils.setupBook(
+                "Book A",
+                """
+                    * Note A-01
+                    ** Note A-02
+                    * Note A-03
+                """.trimIndent())
+
+        // Keep inserting at the same place, until notes around it have to be renumbered
+        for (i in 1..40) {
+            UseCaseRunner.run(NoteCreate(
+                    NotePayload("Note B-%02d".format(i)),
+                    NotePlace(book.book.id, getNote("Note A-02").id, Place.BELOW)))
+        }
+
+        val expected = StringBuilder("* Note A-01\n** Note A-02\n")
+        for (i in 40 downTo 1) {
+            expected.append("** Note B-%02d\n".format(i))
+        }
+        expected.append("* Note A-03\n")
+
+        Assert.assertEquals(expected.toString(), dataRepository.getBookContent("Book A", BookFormat.ORG))
+
+        val nA01 = getNote("Note A-01")
+        val nA03 = getNote("Note A-03")
+
+        for (i in 1..40) {
+            val note = getNote("Note B-%02d".format(i))
+
+            Assert.assertEquals(nA01.id, note.position.parentId)
+            Assert.assertTrue(nA01.position.lft < note.position.lft)
+            Assert.assertTrue(note.position.lft < note.position.rgt)
+            Assert.assertTrue(note.position.rgt < nA01.position.rgt)
+        }
+
+        Assert.assertEquals(41, nA01.position.descendantsCount)
+        Assert.assertTrue(nA01.position.rgt < nA03.position.lft)
+        Assert.assertTrue(nA03.position.rgt < getRootNode(book.book.id).position.rgt)
+    }
+
     private fun getNote(title: String): Note {
         return dataRepository.getLastNote(title)!!
     }
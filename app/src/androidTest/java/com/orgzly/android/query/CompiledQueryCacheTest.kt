@@ -0,0 +1,86 @@
+package com.orgzly.android.query
+
+import com.orgzly.android.OrgzlyTest
+import com.orgzly.android.query.sql.CompiledQueryCache
+import com.orgzly.android.query.sql.SqlArgument
+import com.orgzly.android.query.sql.SqliteQueryBuilder
+import org.junit.Assert
+import org.junit.Test
+import java.util.Calendar
+
+class CompiledQueryCacheTest : OrgzlyTest() {
+    @Test
+    fun testCompiledOnceForSamePreferences() {
+        val cache = CompiledQueryCache()
+        val preferences = SqliteQueryBuilder.Preferences(setOf("TODO"), setOf("DONE"), "B")
+
+        var compiled = 0
+
+        repeat(3) {
+            cache.get(cache.parse("i.todo s.today"), preferences) {
+                compiled++
+                CompiledQueryCache.CompiledQuery("", emptyList())
+            }
+        }
+
+        Assert.assertEquals(1, compiled)
+    }
+
+    @Test
+    fun testCompiledAgainWhenKeywordsChange() {
+        val cache = CompiledQueryCache()
+        val query = cache.parse("it.todo")
+
+        var compiled = 0
+
+        listOf(setOf("TODO"), setOf("TODO", "NEXT"), setOf("TODO")).forEach { todoKeywords ->
+            val preferences = SqliteQueryBuilder.Preferences(todoKeywords, setOf("DONE"), "B")
+
+            cache.get(query, preferences) {
+                compiled++
+                CompiledQueryCache.CompiledQuery("", emptyList())
+            }
+        }
+
+        Assert.assertEquals(2, compiled)
+    }
+
+    @Test
+    fun testBindPage() {
+        val compiledQuery = CompiledQueryCache.CompiledQuery("SELECT * FROM notes WHERE id > ?", listOf(SqlArgument.Value("1")))
+
+        val page = compiledQuery.bindPage(10, 20)
+
+        Assert.assertEquals("SELECT * FROM notes WHERE id > ? LIMIT ? OFFSET ?", page.sql)
+        Assert.assertEquals(3, page.argCount)
+    }
+
+    @Test
+    fun testSelectPages() {
+        testUtils.setupBook("book-a", "* Note 1\n* Note 2\n* Note 3\n* Note 4\n* Note 5")
+
+        val query = CompiledQueryCache().parse("b.book-a")
+
+        fun titles(limit: Int, offset: Int) =
+                dataRepository.selectNotesFromQuery(query, limit, offset).map { it.note.title }
+
+        Assert.assertEquals(listOf("Note 2", "Note 3"), titles(2, 1))
+        Assert.assertEquals(listOf("Note 4", "Note 5"), titles(-1, 3))
+        Assert.assertEquals(listOf("Note 5"), titles(10, 4))
+        Assert.assertEquals(emptyList<String>(), titles(2, 5))
+        Assert.assertEquals(emptyList<String>(), titles(0, 0))
+    }
+
+    @Test
+    fun testRelativeTimesBoundWhenRun() {
+        val query = CompiledQueryCache().parse("s.eq.today")
+
+        val sqlQuery = SqliteQueryBuilder(context).build(query)
+
+        Assert.assertEquals(
+                listOf(
+                        SqlArgument.TimeFromNow(Calendar.DAY_OF_MONTH, 0),
+                        SqlArgument.TimeFromNow(Calendar.DAY_OF_MONTH, 0, true)),
+                sqlQuery.arguments)
+    }
+}
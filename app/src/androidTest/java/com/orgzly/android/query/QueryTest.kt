@@ -117,8 +117,8 @@ class QueryTest(private val param: Parameter) : OrgzlyTest() {
                     Parameter(
                             queryString = "(it.todo b.gtd )or .s.none",
                             expectedQueryString = "it.todo b.gtd or .s.none",
-                            expectedSqlSelection = "((COALESCE(state, '') IN (?, ?) AND book_name = ?) OR (title LIKE ? OR content LIKE ? OR tags LIKE ?))",
-                            expectedSelectionArgs = listOf("TODO", "NEXT", "gtd", "%.s.none%", "%.s.none%", "%.s.none%")
+                            expectedSqlSelection = "((COALESCE(state, '') IN (?, ?) AND book_name = ?) OR (id IN (SELECT rowid FROM notes_fts WHERE notes_fts MATCH ?)))",
+                            expectedSelectionArgs = listOf("TODO", "NEXT", "gtd", "\"s none*\"")
                     ),
                     Parameter(
                             queryString = "it.todo",
@@ -148,14 +148,14 @@ class QueryTest(private val param: Parameter) : OrgzlyTest() {
                     Parameter(
                             queryString = "tnn.tag1",
                             expectedQueryString = "tnn.tag1",
-                            expectedSqlSelection = "((title LIKE ? OR content LIKE ? OR tags LIKE ?))",
-                            expectedSelectionArgs = listOf("%tnn.tag1%", "%tnn.tag1%", "%tnn.tag1%")
+                            expectedSqlSelection = "((id IN (SELECT rowid FROM notes_fts WHERE notes_fts MATCH ?)))",
+                            expectedSelectionArgs = listOf("\"tnn tag1*\"")
                     ),
                     Parameter(
                             queryString = "p.",
                             expectedQueryString = "p.",
-                            expectedSqlSelection = "((title LIKE ? OR content LIKE ? OR tags LIKE ?))",
-                            expectedSelectionArgs = listOf("%p.%", "%p.%", "%p.%")
+                            expectedSqlSelection = "((id IN (SELECT rowid FROM notes_fts WHERE notes_fts MATCH ?)))",
+                            expectedSelectionArgs = listOf("\"p*\"")
                     ),
                     Parameter( // Operator with no expression before it
                             queryString = "and t.tag",
@@ -178,27 +178,34 @@ class QueryTest(private val param: Parameter) : OrgzlyTest() {
                     Parameter(
                             queryString = "s.le.2w",
                             expectedQueryString = "s.2w",
-                            expectedSqlSelection = "((scheduled_is_active = 1 AND scheduled_time_timestamp != 0 AND scheduled_time_timestamp < " + TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, 14+1) + "))"
+                            expectedSqlSelection = "((scheduled_is_active = 1 AND scheduled_time_timestamp != 0 AND scheduled_time_timestamp < ?))",
+                            expectedSelectionArgs = listOf(TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, 14+1).toString())
                     ),
                     Parameter(
                             queryString = "s.le.3d",
                             expectedQueryString = "s.3d",
-                            expectedSqlSelection = "((scheduled_is_active = 1 AND scheduled_time_timestamp != 0 AND scheduled_time_timestamp < " + TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, 3+1) + "))"
+                            expectedSqlSelection = "((scheduled_is_active = 1 AND scheduled_time_timestamp != 0 AND scheduled_time_timestamp < ?))",
+                            expectedSelectionArgs = listOf(TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, 3+1).toString())
                     ),
                     Parameter(
                             queryString = "d.tom",
                             expectedQueryString = "d.tomorrow",
-                            expectedSqlSelection = "((deadline_is_active = 1 AND deadline_time_timestamp != 0 AND deadline_time_timestamp < " + TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, 1+1) + "))"
+                            expectedSqlSelection = "((deadline_is_active = 1 AND deadline_time_timestamp != 0 AND deadline_time_timestamp < ?))",
+                            expectedSelectionArgs = listOf(TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, 1+1).toString())
                     ),
                     Parameter(
                             queryString = "c.eq.today",
                             expectedQueryString = "c.today",
-                            expectedSqlSelection = "((closed_time_timestamp != 0 AND ${TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, 0)} <= closed_time_timestamp AND closed_time_timestamp < " + TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, 0+1) + "))"
+                            expectedSqlSelection = "((closed_time_timestamp != 0 AND ? <= closed_time_timestamp AND closed_time_timestamp < ?))",
+                            expectedSelectionArgs = listOf(
+                                    TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, 0).toString(),
+                                    TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, 0+1).toString())
                     ),
                     Parameter(
                             queryString = "c.ge.-1d", // Since yesterday
                             expectedQueryString = "c.ge.yesterday",
-                            expectedSqlSelection = "((closed_time_timestamp != 0 AND ${TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, -1)} <= closed_time_timestamp))"
+                            expectedSqlSelection = "((closed_time_timestamp != 0 AND ? <= closed_time_timestamp))",
+                            expectedSelectionArgs = listOf(TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, -1).toString())
                     ),
                     Parameter(
                             queryString = "p.a",
@@ -224,15 +231,15 @@ class QueryTest(private val param: Parameter) : OrgzlyTest() {
                     Parameter(
                             queryString = "\"(o.s o.d)\"",
                             expectedQueryString = "\"(o.s o.d)\"",
-                            expectedSqlSelection = "((title LIKE ? OR content LIKE ? OR tags LIKE ?))",
-                            expectedSelectionArgs = listOf("%(o.s o.d)%", "%(o.s o.d)%", "%(o.s o.d)%")
+                            expectedSqlSelection = "((id IN (SELECT rowid FROM notes_fts WHERE notes_fts MATCH ?)))",
+                            expectedSelectionArgs = listOf("\"o s o d*\"")
                     ),
                     Parameter(
                             queryString = "\"or\"",
                             expectedQueryString = "\"or\"",
                             expectedParsedQuery = "Query(condition=And(operands=[HasText(text=or, isQuoted=true)]), sortOrders=[], options=Options(agendaDays=0))",
-                            expectedSqlSelection = "((title LIKE ? OR content LIKE ? OR tags LIKE ?))",
-                            expectedSelectionArgs = listOf("%or%", "%or%", "%or%")
+                            expectedSqlSelection = "((id IN (SELECT rowid FROM notes_fts WHERE notes_fts MATCH ?)))",
+                            expectedSelectionArgs = listOf("\"or*\"")
                     ),
                     Parameter(
                             queryString = "\"\"",
@@ -263,7 +270,8 @@ class QueryTest(private val param: Parameter) : OrgzlyTest() {
                     Parameter(
                             queryString = "s.ge.3d",
                             expectedQueryString = "s.ge.3d",
-                            expectedSqlSelection = "((scheduled_is_active = 1 AND scheduled_time_timestamp != 0 AND ${TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, 3)} <= scheduled_time_timestamp))"
+                            expectedSqlSelection = "((scheduled_is_active = 1 AND scheduled_time_timestamp != 0 AND ? <= scheduled_time_timestamp))",
+                            expectedSelectionArgs = listOf(TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, 3).toString())
                     ),
                     Parameter(
                             queryString = "((i.todo s.no) or i.later) o.state",
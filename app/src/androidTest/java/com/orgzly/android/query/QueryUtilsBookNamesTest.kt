@@ -0,0 +1,36 @@
+package com.orgzly.android.query
+
+import com.orgzly.android.query.user.DottedQueryParser
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.Parameterized
+
+@RunWith(value = Parameterized::class)
+class QueryUtilsBookNamesTest(private val param: Parameter) {
+
+    data class Parameter(val query: String, val bookNames: Set<String>?)
+
+    companion object {
+        @JvmStatic @Parameterized.Parameters(name = "{index}: query {0} should match notes from books {1}")
+        fun data(): Collection<Parameter> {
+            return listOf(
+                    Parameter("b.foo", setOf("foo")),
+                    Parameter("b.foo t.tag", setOf("foo")),
+                    Parameter("b.foo or b.bar", setOf("foo", "bar")),
+                    Parameter("(b.foo or b.bar) t.tag", setOf("foo", "bar")),
+                    Parameter("b.foo or t.tag", null),
+                    Parameter(".b.foo", null),
+                    Parameter("t.tag", null),
+                    Parameter("", null)
+            )
+        }
+    }
+
+    @Test
+    fun testBookNamesMatchedByCondition() {
+        val condition = DottedQueryParser().parse(param.query).condition
+        val result = QueryUtils.bookNamesMatchedByCondition(condition)
+        assertEquals(param.bookNames, result)
+    }
+}
@@ -18,8 +18,8 @@ class TimeSensitiveQueryTest : OrgzlyTest() {
     fun testScheduledWithinHours1() {
         // Parse query
         val queryString = "s.le.2h"
-        val expectedSqlSelection = "((scheduled_is_active = 1 AND scheduled_time_timestamp != 0 AND scheduled_time_timestamp < " + TimeUtils.timeFromNow(
-            Calendar.HOUR_OF_DAY, 2+1) + "))"
+        val expectedSqlSelection = "((scheduled_is_active = 1 AND scheduled_time_timestamp != 0 AND scheduled_time_timestamp < ?))"
+        val expectedSelectionArgs = listOf(TimeUtils.timeFromNow(Calendar.HOUR_OF_DAY, 2+1).toString())
         val parser = DottedQueryParser()
         val query = parser.parse(queryString)
 
@@ -37,14 +37,20 @@ class TimeSensitiveQueryTest : OrgzlyTest() {
                 Matchers.`is`(expectedSqlSelection)
             )
         }
+
+        ViewMatchers.assertThat(
+            queryString,
+            sqlQuery.selectionArgs,
+            Matchers.`is`(expectedSelectionArgs)
+        )
     }
 
     @Test
     fun testScheduledWithinHours2() {
         // Parse query
         val queryString = "s.le.+2h"
-        val expectedSqlSelection = "((scheduled_is_active = 1 AND scheduled_time_timestamp != 0 AND scheduled_time_timestamp < " + TimeUtils.timeFromNow(
-            Calendar.HOUR_OF_DAY, 2+1) + "))"
+        val expectedSqlSelection = "((scheduled_is_active = 1 AND scheduled_time_timestamp != 0 AND scheduled_time_timestamp < ?))"
+        val expectedSelectionArgs = listOf(TimeUtils.timeFromNow(Calendar.HOUR_OF_DAY, 2+1).toString())
         val parser = DottedQueryParser()
         val query = parser.parse(queryString)
 
@@ -62,13 +68,20 @@ class TimeSensitiveQueryTest : OrgzlyTest() {
                 Matchers.`is`(expectedSqlSelection)
             )
         }
+
+        ViewMatchers.assertThat(
+            queryString,
+            sqlQuery.selectionArgs,
+            Matchers.`is`(expectedSelectionArgs)
+        )
     }
 
     @Test
     fun testClosedRecently() {
         // Parse query
         val queryString = "c.gt.-1h"
-        val expectedSqlSelection = "((closed_time_timestamp != 0 AND ${TimeUtils.timeFromNow(Calendar.HOUR_OF_DAY, 0)} <= closed_time_timestamp))"
+        val expectedSqlSelection = "((closed_time_timestamp != 0 AND ? <= closed_time_timestamp))"
+        val expectedSelectionArgs = listOf(TimeUtils.timeFromNow(Calendar.HOUR_OF_DAY, 0).toString())
         val parser = DottedQueryParser()
         val query = parser.parse(queryString)
 
@@ -86,5 +99,11 @@ class TimeSensitiveQueryTest : OrgzlyTest() {
                 Matchers.`is`(expectedSqlSelection)
             )
         }
+
+        ViewMatchers.assertThat(
+            queryString,
+            sqlQuery.selectionArgs,
+            Matchers.`is`(expectedSelectionArgs)
+        )
     }
 }
\ No newline at end of file
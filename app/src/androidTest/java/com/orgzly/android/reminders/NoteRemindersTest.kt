@@ -3,6 +3,7 @@ package com.orgzly.android.reminders
 import com.orgzly.android.OrgzlyTest
 import com.orgzly.android.db.dao.ReminderTimeDao
 import com.orgzly.android.reminders.NoteReminders.getNoteReminders
+import com.orgzly.org.datetime.OrgDateTime
 import org.joda.time.Instant
 import org.junit.Assert
 import org.junit.Test
@@ -133,4 +134,34 @@ class NoteRemindersTest : OrgzlyTest() {
             Assert.assertEquals("2017-03-16T09:00:00.000", runTime.toLocalDateTime().toString())
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    fun testReminderTimesUpdatedWhenScheduledTimeChanges() {
+        testUtils.setupBook(
+                "notebook",
+                """
+                    * Note 1
+                    SCHEDULED: <2017-03-20 Mon 16:00>
+                    * Note 2
+                    SCHEDULED: <2017-03-21 Tue 16:00>
+                """.trimIndent())
+
+        val now = Instant.parse("2017-03-15T13:00:00")
+
+        getNoteReminders(
+                context, dataRepository, now, LastRun(), NoteReminders.INTERVAL_FROM_NOW).let { notes ->
+            Assert.assertEquals(2, notes.size.toLong())
+            Assert.assertEquals("Note 1", notes[0].payload.title)
+        }
+
+        val note1 = dataRepository.getNotes("notebook")[0].note
+        dataRepository.setNotesScheduledTime(setOf(note1.id), OrgDateTime.parse("<2017-03-22 Wed 16:00>"))
+
+        getNoteReminders(
+                context, dataRepository, now, LastRun(), NoteReminders.INTERVAL_FROM_NOW, 1).let { notes ->
+            Assert.assertEquals(1, notes.size.toLong())
+            Assert.assertEquals("Note 2", notes[0].payload.title)
+            Assert.assertEquals("2017-03-21T16:00:00.000", notes[0].runTime.toLocalDateTime().toString())
+        }
+    }
+}
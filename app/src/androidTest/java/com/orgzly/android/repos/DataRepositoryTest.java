@@ -8,8 +8,10 @@ import static org.junit.Assert.fail;
 
 import com.orgzly.android.BookName;
 import com.orgzly.android.OrgzlyTest;
+import com.orgzly.android.db.OrgzlyDatabase;
 import com.orgzly.android.db.entity.BookView;
 import com.orgzly.android.db.entity.Note;
+import com.orgzly.android.db.entity.NoteProperty;
 import com.orgzly.android.db.entity.NoteView;
 import com.orgzly.android.db.entity.Repo;
 import com.orgzly.android.query.Query;
@@ -22,8 +24,10 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 // FIXME: Clean this up - split it up.
 public class DataRepositoryTest extends OrgzlyTest {
@@ -172,6 +176,37 @@ public class DataRepositoryTest extends OrgzlyTest {
         }
     }
 
+    @Test
+    public void testGetNotesPropertiesInBatches() {
+        /* More notes than can be bound in a single query. */
+        int count = OrgzlyDatabase.SQLITE_MAX_VARIABLE_NUMBER + 2;
+
+        StringBuilder content = new StringBuilder();
+        for (int i = 1; i <= count; i++) {
+            content.append("* Note ").append(i).append("\n")
+                    .append(":PROPERTIES:\n:number: ").append(i).append("\n:END:\n");
+        }
+        testUtils.setupBook("notebook-1", content.toString());
+
+        Set<Long> noteIds = new HashSet<>();
+        for (NoteView noteView : dataRepository.getNotes("notebook-1")) {
+            noteIds.add(noteView.getNote().getId());
+        }
+        assertEquals(count, noteIds.size());
+
+        Map<Long, List<NoteProperty>> properties = dataRepository.getNotesProperties(noteIds);
+
+        assertEquals(noteIds, properties.keySet());
+
+        for (NoteView noteView : dataRepository.getNotes("notebook-1")) {
+            List<NoteProperty> noteProperties = properties.get(noteView.getNote().getId());
+            assertEquals(1, noteProperties.size());
+            assertEquals(
+                    noteView.getNote().getTitle(),
+                    "Note " + noteProperties.get(0).getValue());
+        }
+    }
+
     @Test
     public void testActiveTimestampInNotePropertyIsAnEvent() {
         String tomorrow = DateTime.now().withTimeAtStartOfDay().plusDays(1).toString("YYYY-MM-dd");
@@ -228,6 +228,34 @@ public class SyncTest extends OrgzlyTest {
         assertNull(book.getBook().getSelectedEncoding());
     }
 
+    @Test
+    public void testRookModifiedWithUnchangedContent() {
+        Repo repo = testUtils.setupRepo(RepoType.MOCK, "mock://repo-a");
+        testUtils.setupRook(repo, "mock://repo-a/book-1.org", "* Note", "1abcdef", 1400067156);
+
+        testUtils.sync();
+
+        long noteId = dataRepository.getLastNoteView("Note").getNote().getId();
+
+        /* Same content, new revision. */
+        testUtils.setupRook(repo, "mock://repo-a/book-1.org", "* Note", "2abcdef", 1400067157);
+
+        Map<String, BookNamesake> namesakes = testUtils.sync();
+
+        assertEquals(BookSyncStatus.ROOK_MODIFIED_WITH_UNCHANGED_CONTENT, namesakes.get("book-1").getStatus());
+
+        BookView book = dataRepository.getBookView("book-1");
+        assertEquals("2abcdef", book.getSyncedTo().getRevision());
+        assertFalse(book.getBook().isModified());
+
+        /* Notes were not loaded again. */
+        assertEquals(noteId, dataRepository.getLastNoteView("Note").getNote().getId());
+
+        /* Nothing to do on next sync. */
+        namesakes = testUtils.sync();
+        assertEquals(BookSyncStatus.NO_CHANGE, namesakes.get("book-1").getStatus());
+    }
+
     @Test
     public void testOnlyBookWithLink() {
         Repo repoA = testUtils.setupRepo(RepoType.MOCK, "mock://repo-a");
@@ -0,0 +1,172 @@
+package com.orgzly.android.sync
+
+import androidx.core.net.toUri
+import com.orgzly.android.OrgzlyTest
+import com.orgzly.android.db.entity.Repo
+import com.orgzly.android.git.GitPreferencesFromRepoPrefs
+import com.orgzly.android.prefs.AppPreferences
+import com.orgzly.android.prefs.RepoPreferences
+import com.orgzly.android.repos.GitRepo
+import com.orgzly.android.repos.RepoType
+import com.orgzly.android.repos.TwoWaySyncRepo
+import org.eclipse.jgit.api.Git
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import kotlin.io.path.createTempDirectory
+
+class IncrementalSyncTest : OrgzlyTest() {
+    private lateinit var bareRepoDir: File
+    private lateinit var gitWorkingTree: File
+    private lateinit var repo: Repo
+
+    @Before
+    override fun setUp() {
+        super.setUp()
+        bareRepoDir = createTempDirectory().toFile()
+        Git.init().setBare(true).setDirectory(bareRepoDir).call()
+        AppPreferences.gitIsEnabled(context, true)
+        repo = Repo(0, RepoType.GIT, "file://$bareRepoDir")
+        val repoPreferences = RepoPreferences(context, repo.id, repo.url.toUri())
+        val gitPreferences = GitPreferencesFromRepoPrefs(repoPreferences)
+        gitWorkingTree = File(gitPreferences.repositoryFilepath())
+        gitWorkingTree.mkdirs()
+        GitRepo.ensureRepositoryExists(gitPreferences, true, null)
+        testUtils.setupRepo(RepoType.GIT, repo.url)
+    }
+
+    @After
+    override fun tearDown() {
+        super.tearDown()
+        gitWorkingTree.deleteRecursively()
+        bareRepoDir.deleteRecursively()
+    }
+
+    @Test
+    fun testModifiedBookAfterFullSync() {
+        testUtils.setupBook("book-1", "* Note")
+        fullSync()
+
+        markNoteDone("book-1")
+
+        val namesakes = IncrementalSync.groupModifiedNotebooksByName(
+                dataRepository, IncrementalSync.probe(dataRepository))
+
+        assertNotNull(namesakes)
+        assertEquals(setOf("book-1"), namesakes!!.keys)
+        assertEquals(BookSyncStatus.BOOK_WITH_LINK_LOCAL_MODIFIED, namesakes.getValue("book-1").status)
+    }
+
+    @Test
+    fun testNeverSyncedBookRequiresFullSync() {
+        testUtils.setupBook("book-1", "* Note")
+        fullSync()
+
+        testUtils.setupBook("book-2", "* Note")
+        markNoteDone("book-2")
+
+        assertNull(IncrementalSync.groupModifiedNotebooksByName(
+                dataRepository, IncrementalSync.probe(dataRepository)))
+    }
+
+    @Test
+    fun testRemoteChangeRequiresFullSync() {
+        testUtils.setupBook("book-1", "* Note")
+        fullSync()
+
+        pushFromAnotherClone("book-2.org", "* Note")
+        markNoteDone("book-1")
+
+        assertNull(IncrementalSync.groupModifiedNotebooksByName(
+                dataRepository, IncrementalSync.probe(dataRepository)))
+    }
+
+    @Test
+    fun testOwnCommitDoesNotRequireFullSync() {
+        testUtils.setupBook("book-1", "* Note\n* Another")
+        fullSync()
+
+        markNoteDone("book-1", "Note")
+
+        val probed = IncrementalSync.probe(dataRepository)
+        val namesakes = IncrementalSync.groupModifiedNotebooksByName(dataRepository, probed)
+        assertNotNull(namesakes)
+
+        syncInBatch(namesakes!!)
+        IncrementalSync.onSynced(dataRepository, probed, false, System.currentTimeMillis())
+
+        assertEquals(false, dataRepository.getBook("book-1")!!.isModified)
+
+        markNoteDone("book-1", "Another")
+
+        assertNotNull(IncrementalSync.groupModifiedNotebooksByName(
+                dataRepository, IncrementalSync.probe(dataRepository)))
+    }
+
+    @Test
+    fun testRemoteChangeDuringSyncRequiresFullSync() {
+        testUtils.setupBook("book-1", "* Note\n* Another")
+        fullSync()
+
+        markNoteDone("book-1", "Note")
+
+        val probed = IncrementalSync.probe(dataRepository)
+        val namesakes = IncrementalSync.groupModifiedNotebooksByName(dataRepository, probed)
+        assertNotNull(namesakes)
+
+        pushFromAnotherClone("book-2.org", "* Note")
+
+        syncInBatch(namesakes!!)
+        IncrementalSync.onSynced(dataRepository, probed, false, System.currentTimeMillis())
+
+        markNoteDone("book-1", "Another")
+
+        assertNull(IncrementalSync.groupModifiedNotebooksByName(
+                dataRepository, IncrementalSync.probe(dataRepository)))
+    }
+
+    private fun fullSync() {
+        /* Remote repository is empty before the first sync, so it can't be probed. */
+        testUtils.sync()
+
+        val probed = IncrementalSync.probe(dataRepository)
+        testUtils.sync()
+        IncrementalSync.onSynced(dataRepository, probed, true, System.currentTimeMillis())
+    }
+
+    /* As SyncWorker does it. */
+    private fun syncInBatch(namesakes: Map<String, BookNamesake>) {
+        val twoWaySyncRepo = dataRepository.getSyncRepos().filterIsInstance<TwoWaySyncRepo>().first()
+
+        twoWaySyncRepo.beginBatch()
+        for (namesake in namesakes.values) {
+            SyncUtils.syncNamesake(dataRepository, namesake)
+        }
+        dataRepository.endBatch(twoWaySyncRepo)
+
+        twoWaySyncRepo.tryPushIfHeadDiffersFromRemote()
+    }
+
+    private fun markNoteDone(bookName: String, title: String = "Note") {
+        val note = dataRepository.getNotes(bookName).first { it.note.title == title }.note
+        dataRepository.setNotesState(setOf(note.id), "DONE")
+    }
+
+    private fun pushFromAnotherClone(fileName: String, content: String) {
+        val cloneDir = createTempDirectory().toFile()
+        try {
+            Git.cloneRepository().setURI(repo.url).setDirectory(cloneDir).call().use { git ->
+                File(cloneDir, fileName).writeText(content)
+                git.add().addFilepattern(fileName).call()
+                git.commit().setMessage("Added $fileName").call()
+                git.push().call()
+            }
+        } finally {
+            cloneDir.deleteRecursively()
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.orgzly.android.usecase
+
+import com.orgzly.android.OrgzlyTest
+import com.orgzly.android.widgets.ListWidgetData
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class LocalDataChangeTest : OrgzlyTest() {
+    @Test
+    fun testPlusMergesBookIds() {
+        val change = LocalDataChange.notes(setOf(1)) + LocalDataChange.notesWithoutTimes(setOf(2))
+
+        assertEquals(setOf(1L, 2L), change.bookIds)
+        assertTrue(change.notesChanged)
+        assertTrue(change.timesChanged)
+        assertFalse(change.booksChanged)
+    }
+
+    @Test
+    fun testPlusWithUnknownBooks() {
+        assertNull((LocalDataChange.notes(setOf(1)) + LocalDataChange.notes()).bookIds)
+        assertNull((LocalDataChange.notes() + LocalDataChange.notes(setOf(1))).bookIds)
+    }
+
+    @Test
+    fun testPlusKeepsUnchanged() {
+        val change = LocalDataChange.notesWithoutTimes(setOf(1)) +
+                LocalDataChange(setOf(2), notesChanged = false, timesChanged = false, booksChanged = false)
+
+        assertTrue(change.notesChanged)
+        assertFalse(change.timesChanged)
+        assertFalse(change.booksChanged)
+    }
+
+    @Test
+    fun testWidgetWithoutRowsIsAffected() {
+        val book = testUtils.setupBook("book-1", "* Note")
+
+        val listWidgetData = ListWidgetData(context, dataRepository)
+
+        assertTrue(listWidgetData.isAffectedBy(setOf(book.book.id), listOf("b.book-1")))
+    }
+
+    @Test
+    fun testWidgetIsAffectedOnlyByItsBooks() {
+        val book1 = testUtils.setupBook("book-1", "* Note")
+        val book2 = testUtils.setupBook("book-2", "* Note")
+
+        val listWidgetData = ListWidgetData(context, dataRepository)
+        listWidgetData.getRows("b.book-1")
+
+        assertTrue(listWidgetData.isAffectedBy(setOf(book1.book.id), listOf("b.book-1")))
+        assertFalse(listWidgetData.isAffectedBy(setOf(book2.book.id), listOf("b.book-1")))
+
+        /* Other widget's rows were never computed. */
+        assertTrue(listWidgetData.isAffectedBy(setOf(book2.book.id), listOf("b.book-1", "b.book-2")))
+    }
+
+    @Test
+    fun testNoWidgetsAreNotAffected() {
+        val book = testUtils.setupBook("book-1", "* Note")
+
+        val listWidgetData = ListWidgetData(context, dataRepository)
+
+        assertFalse(listWidgetData.isAffectedBy(setOf(book.book.id), emptyList()))
+    }
+
+    @Test
+    fun testDispatcherFiltersWidgetChanges() {
+        val book = testUtils.setupBook("book-1", "* Note")
+
+        val dispatcher = LocalDataChangeDispatcher(context, ListWidgetData(context, dataRepository))
+
+        /* No widgets are installed while testing. */
+        assertFalse(dispatcher.affectsListWidgets(LocalDataChange.notes(setOf(book.book.id))))
+
+        /* Books are not known. */
+        assertTrue(dispatcher.affectsListWidgets(LocalDataChange.notes()))
+
+        assertFalse(dispatcher.affectsListWidgets(
+                LocalDataChange(null, notesChanged = false, timesChanged = true, booksChanged = true)))
+    }
+}
@@ -0,0 +1,87 @@
+package com.orgzly.android.util
+
+import com.orgzly.android.OrgzlyTest
+import com.orgzly.android.db.dao.ReminderTimeDao
+import com.orgzly.org.datetime.OrgDateTime
+import org.joda.time.DateTime
+import org.joda.time.format.DateTimeFormat
+import org.junit.Assert
+import org.junit.Test
+import java.util.Locale
+
+class AgendaOccurrencesTest : OrgzlyTest() {
+    private val today = DateTime.now().withTimeAtStartOfDay()
+
+    private fun timestamp(daysFromToday: Int, repeater: String = ""): String {
+        val date = DateTimeFormat.forPattern("yyyy-MM-dd EEE")
+                .withLocale(Locale.ENGLISH)
+                .print(today.plusDays(daysFromToday))
+
+        return if (repeater.isEmpty()) "<$date>" else "<$date $repeater>"
+    }
+
+    @Test
+    fun testRepeaterExpandedForEachDay() {
+        testUtils.setupBook(
+                "notebook",
+                """
+                    * Note 1
+                    SCHEDULED: ${timestamp(0, "+1d")}
+                """.trimIndent())
+
+        val occurrences = AgendaUtils.getOccurrences(context, dataRepository, 7)
+
+        Assert.assertEquals(7, occurrences.size)
+        Assert.assertEquals(
+                (0 until 7).map { today.plusDays(it).millis },
+                occurrences.map { it.day })
+    }
+
+    @Test
+    fun testEventsAndRanges() {
+        testUtils.setupBook(
+                "notebook",
+                """
+                    * Note 1
+                    ${timestamp(1)}--${timestamp(3)}
+                    * Note 2
+                    ${timestamp(2)} ${timestamp(10)}
+                """.trimIndent())
+
+        val occurrences = AgendaUtils.getOccurrences(context, dataRepository, 5)
+
+        Assert.assertEquals(4, occurrences.size)
+        Assert.assertTrue(occurrences.all { it.timeType == ReminderTimeDao.EVENT_TIME })
+        Assert.assertEquals(
+                listOf(1, 2, 2, 3).map { today.plusDays(it).millis },
+                occurrences.map { it.day })
+    }
+
+    @Test
+    fun testOccurrencesUpdatedWhenScheduledTimeChanges() {
+        testUtils.setupBook(
+                "notebook",
+                """
+                    * Note 1
+                    SCHEDULED: ${timestamp(1)}
+                    * Note 2
+                    SCHEDULED: ${timestamp(2)}
+                """.trimIndent())
+
+        Assert.assertEquals(2, AgendaUtils.getOccurrences(context, dataRepository, 7).size)
+
+        val note1 = dataRepository.getNotes("notebook")[0].note
+        dataRepository.setNotesScheduledTime(setOf(note1.id), OrgDateTime.parse(timestamp(10)))
+
+        AgendaUtils.getOccurrences(context, dataRepository, 7).let { occurrences ->
+            Assert.assertEquals(1, occurrences.size)
+            Assert.assertEquals(today.plusDays(2).millis, occurrences[0].day)
+        }
+
+        /* Longer than the stored horizon. */
+        AgendaUtils.getOccurrences(context, dataRepository, 60).let { occurrences ->
+            Assert.assertEquals(2, occurrences.size)
+            Assert.assertEquals(today.plusDays(10).millis, occurrences[1].day)
+        }
+    }
+}
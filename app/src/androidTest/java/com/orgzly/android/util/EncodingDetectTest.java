@@ -2,8 +2,13 @@ package com.orgzly.android.util;
 
 import org.junit.Test;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 
@@ -123,4 +128,57 @@ public class EncodingDetectTest {
         assertTrue(detect.isDetected());
         assertEquals("WINDOWS-1252", detect.getEncoding());
     }
+
+    @Test
+    public void testDetectFromStreamPrefix() throws IOException {
+        BufferedInputStream stream = new BufferedInputStream(getFromResource("Chinese-Lipsum.org"));
+
+        Encoding encoding = Encoding.Companion.detect("Chinese-Lipsum.org", stream, null);
+
+        assertEquals("UTF-8", encoding.getUsed());
+        assertEquals("UTF-8", encoding.getDetected());
+
+        /* Stream is read from the beginning again. */
+        assertEquals(
+                MiscUtils.readStream(getFromResource("Chinese-Lipsum.org")),
+                MiscUtils.readStream(stream));
+    }
+
+    @Test
+    public void testDetectLatin1AfterLongAsciiPrefix() throws IOException {
+        StringBuilder content = new StringBuilder();
+        while (content.length() < 100 * 1024) {
+            content.append("* Note with plain ASCII text only\n");
+        }
+        for (int i = 0; i < 20; i++) {
+            content.append("* Café crème brûlée, garçon naïf à l'hôtel, déjà vu\n");
+        }
+
+        File file = File.createTempFile("latin-1", ".org");
+
+        try {
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(content.toString().getBytes("ISO-8859-1"));
+            }
+
+            try (BufferedInputStream stream = new BufferedInputStream(new FileInputStream(file))) {
+                Encoding encoding = Encoding.Companion.detect("latin-1.org", stream, null, file);
+
+                assertEquals("WINDOWS-1252", encoding.getDetected());
+                assertEquals("WINDOWS-1252", encoding.getUsed());
+
+                /* Stream is read from the beginning again. */
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int n;
+                while ((n = stream.read(buffer)) > 0) {
+                    bytes.write(buffer, 0, n);
+                }
+                assertEquals(content.toString(), bytes.toString(encoding.getUsed()));
+            }
+
+        } finally {
+            file.delete();
+        }
+    }
 }
@@ -1,11 +1,14 @@
 package com.orgzly.android
 
-import android.util.Log
+import android.database.Cursor
 import com.orgzly.R
 import com.orgzly.android.data.DataRepository
 import com.orgzly.android.data.mappers.OrgMapper
+import com.orgzly.android.db.dao.NoteDao.ExportColumns as Columns
 import com.orgzly.android.db.entity.Book
 import com.orgzly.android.prefs.AppPreferences
+import com.orgzly.org.OrgHead
+import com.orgzly.org.OrgProperties
 import com.orgzly.org.parser.OrgParserSettings
 import com.orgzly.org.parser.OrgParserWriter
 import java.io.File
@@ -28,26 +31,70 @@ class NotesOrgExporter(val dataRepository: DataRepository) {
         }
     }
 
+    /**
+     * Writes notes as they are read from a single cursor, in lft order.
+     * Memory used does not depend on the size of the book.
+     */
     @Throws(IOException::class)
     fun exportBook(book: Book, writer: Writer) {
         val orgParserSettings = getOrgParserSettingsFromPreferences()
         val orgWriter = OrgParserWriter(orgParserSettings)
 
+        val isIndented = book.isIndented == true
+
         // Write preface
         writer.write(orgWriter.whiteSpacedFilePreface(book.preface))
 
-        // Write each note
-        dataRepository.getNotes(book.name).forEach { noteView ->
-            val note = noteView.note
+        var noteId = 0L
+        var level = 0
+        var head: OrgHead? = null
+        var properties = OrgProperties()
+
+        fun writeHead() {
+            head?.let {
+                it.properties = properties
+                writer.write(orgWriter.whiteSpacedHead(it, level, isIndented))
+            }
+        }
 
-            val head = OrgMapper.toOrgHead(noteView).apply {
-                properties = OrgMapper.toOrgProperties(dataRepository.getNoteProperties(note.id))
+        // Write each note, collecting properties from consecutive rows
+        dataRepository.getNotesForExportCursor(book.id).use { cursor ->
+            while (cursor.moveToNext()) {
+                val id = cursor.getLong(Columns.ID)
+
+                if (id != noteId) {
+                    writeHead()
+
+                    noteId = id
+                    level = cursor.getInt(Columns.LEVEL)
+                    head = toOrgHead(cursor)
+                    properties = OrgProperties()
+                }
+
+                if (!cursor.isNull(Columns.PROPERTY_NAME)) {
+                    properties.put(
+                            cursor.getString(Columns.PROPERTY_NAME),
+                            cursor.getString(Columns.PROPERTY_VALUE))
+                }
             }
 
-            writer.write(orgWriter.whiteSpacedHead(head, note.position.level, book.isIndented == true))
+            writeHead()
         }
     }
 
+    private fun toOrgHead(cursor: Cursor): OrgHead {
+        return OrgMapper.toOrgHead(
+                title = cursor.getString(Columns.TITLE),
+                tags = cursor.getString(Columns.TAGS),
+                state = cursor.getString(Columns.STATE),
+                priority = cursor.getString(Columns.PRIORITY),
+                scheduled = cursor.getString(Columns.SCHEDULED),
+                deadline = cursor.getString(Columns.DEADLINE),
+                closed = cursor.getString(Columns.CLOSED),
+                clock = cursor.getString(Columns.CLOCK),
+                content = cursor.getString(Columns.CONTENT))
+    }
+
     companion object {
         private fun getOrgParserSettingsFromPreferences(): OrgParserSettings {
             val parserSettings = OrgParserSettings.getBasic()
@@ -0,0 +1,275 @@
+package com.orgzly.android.data
+
+import androidx.room.InvalidationTracker
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.orgzly.BuildConfig
+import com.orgzly.android.db.OrgzlyDatabase
+import com.orgzly.android.util.LogUtils
+import java.util.concurrent.Callable
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Executors
+
+/**
+ * Tracks which books and notes are changed by writes to the database.
+ *
+ * Room only reports which tables were written to, so every observer of notes would
+ * query again after any change in any book. Changed ids are logged by temporary triggers
+ * (the same way Room logs changed tables) and collected once Room reports the tables
+ * as invalidated. Listeners then get [Changes] and can skip querying again
+ * if none of their books (or notes) were changed.
+ */
+class ChangeTracker(private val db: OrgzlyDatabase) {
+
+    /**
+     * Changes made by one or more transactions.
+     *
+     * @property bookIds books with notes which were added, removed or updated
+     * @property noteIds notes which were updated (not added or removed)
+     * @property structural notes were added or removed
+     * @property booksRenamed books were added, removed or renamed
+     * @property everything changes can't be attributed to books (e.g. all timestamps updated)
+     */
+    data class Changes(
+            val bookIds: Set<Long>,
+            val noteIds: Set<Long>,
+            val structural: Boolean,
+            val booksRenamed: Boolean,
+            val everything: Boolean = false) {
+
+        fun affectsBook(bookId: Long): Boolean {
+            return everything || bookId in bookIds
+        }
+
+        /**
+         * @param bookIds books the observer depends on, or null for all
+         */
+        fun affectsBooks(bookIds: Set<Long>?): Boolean {
+            return when {
+                everything || booksRenamed -> true
+                bookIds == null -> this.bookIds.isNotEmpty()
+                else -> this.bookIds.any { it in bookIds }
+            }
+        }
+
+        companion object {
+            @JvmField
+            val EVERYTHING = Changes(emptySet(), emptySet(), true, true, true)
+        }
+    }
+
+    fun interface Listener {
+        /** Called on a background thread. */
+        fun onChanged(changes: Changes)
+    }
+
+    private val listeners = CopyOnWriteArrayList<Listener>()
+
+    /**
+     * Incremented with every change, so observers which were not listening
+     * can tell if they missed any.
+     */
+    @Volatile
+    var version: Long = 0
+        private set
+
+    private var started = false
+
+    /*
+     * Room calls observers while holding its lock on them, so changes are collected
+     * (which waits for any running write transaction) and dispatched on another thread.
+     * A single one, so listeners get changes in order.
+     */
+    private val executor = Executors.newSingleThreadExecutor()
+
+    private val observer = object : InvalidationTracker.Observer(OBSERVED_TABLES) {
+        override fun onInvalidated(tables: Set<String>) {
+            executor.execute {
+                dispatch(tables)
+            }
+        }
+    }
+
+    private fun dispatch(tables: Set<String>) {
+        val changes = collect() ?: return
+
+        version++
+
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Changed in $tables: $changes")
+
+        listeners.forEach { it.onChanged(changes) }
+    }
+
+    fun addListener(listener: Listener) {
+        start()
+        listeners.add(listener)
+    }
+
+    fun removeListener(listener: Listener) {
+        listeners.remove(listener)
+    }
+
+    /*
+     * Temporary tables and triggers are created when the database is opened
+     * (see [createTempSchema]), as they are gone if the connection is reopened.
+     */
+    @Synchronized
+    private fun start() {
+        if (!started) {
+            db.invalidationTracker.addObserver(observer)
+
+            started = true
+        }
+    }
+
+    /**
+     * Reads and clears logged ids. Done in a transaction, so they are read
+     * from the connection which writes (temporary tables are per connection).
+     */
+    private fun collect(): Changes? {
+        return db.runInTransaction(Callable<Changes?> {
+            val sqlDb = db.openHelper.writableDatabase
+
+            val bookIds = mutableSetOf<Long>()
+            var structural = false
+            var booksRenamed = false
+            var everything = false
+
+            sqlDb.query("SELECT book_id, structural FROM $CHANGED_BOOKS").use { cursor ->
+                while (cursor.moveToNext()) {
+                    when (val bookId = cursor.getLong(0)) {
+                        EVERYTHING_ID -> everything = true
+                        BOOKS_RENAMED_ID -> booksRenamed = true
+                        else -> bookIds.add(bookId)
+                    }
+                    structural = structural || cursor.getInt(1) != 0
+                }
+            }
+
+            val noteIds = mutableSetOf<Long>()
+
+            sqlDb.query("SELECT note_id FROM $CHANGED_NOTES").use { cursor ->
+                while (cursor.moveToNext()) {
+                    noteIds.add(cursor.getLong(0))
+                }
+            }
+
+            sqlDb.execSQL("DELETE FROM $CHANGED_BOOKS")
+            sqlDb.execSQL("DELETE FROM $CHANGED_NOTES")
+
+            if (bookIds.isEmpty() && noteIds.isEmpty() && !booksRenamed && !everything) {
+                null
+            } else {
+                Changes(bookIds, noteIds, structural, booksRenamed, everything)
+            }
+        })
+    }
+
+    companion object {
+        private val TAG = ChangeTracker::class.java.name
+
+        /**
+         * Creates temporary tables and triggers logging changes. Called for every
+         * opened connection, as temporary schema is per connection.
+         */
+        @JvmStatic
+        fun createTempSchema(db: SupportSQLiteDatabase) {
+            TEMP_SCHEMA.forEach { db.execSQL(it) }
+        }
+
+        private val OBSERVED_TABLES = arrayOf("notes", "note_inherited_tags", "books", "org_timestamps")
+
+        /* Unqualified, as tables written to by triggers can't be qualified. */
+        private const val CHANGED_BOOKS = "orgzly_changed_books"
+        private const val CHANGED_NOTES = "orgzly_changed_notes"
+
+        /** Logged when changes can't be attributed to books. */
+        private const val EVERYTHING_ID = 0L
+
+        /** Logged when books are added, removed or renamed. */
+        private const val BOOKS_RENAMED_ID = -1L
+
+        private val TEMP_SCHEMA = listOf(
+                "CREATE TEMP TABLE IF NOT EXISTS $CHANGED_BOOKS (book_id INTEGER PRIMARY KEY, structural INTEGER NOT NULL)",
+                "CREATE TEMP TABLE IF NOT EXISTS $CHANGED_NOTES (note_id INTEGER PRIMARY KEY)",
+
+                """
+                CREATE TEMP TRIGGER IF NOT EXISTS orgzly_changes_notes_insert
+                AFTER INSERT ON notes
+                BEGIN
+                    INSERT OR REPLACE INTO $CHANGED_BOOKS VALUES (NEW.book_id, 1);
+                END
+                """,
+
+                """
+                CREATE TEMP TRIGGER IF NOT EXISTS orgzly_changes_notes_delete
+                AFTER DELETE ON notes
+                BEGIN
+                    INSERT OR REPLACE INTO $CHANGED_BOOKS VALUES (OLD.book_id, 1);
+                END
+                """,
+
+                """
+                CREATE TEMP TRIGGER IF NOT EXISTS orgzly_changes_notes_update
+                AFTER UPDATE ON notes
+                BEGIN
+                    INSERT OR IGNORE INTO $CHANGED_NOTES VALUES (NEW.id);
+                    INSERT OR IGNORE INTO $CHANGED_BOOKS VALUES (OLD.book_id, 0);
+                    INSERT OR IGNORE INTO $CHANGED_BOOKS VALUES (NEW.book_id, 0);
+                END
+                """,
+
+                /* Inherited tags change when ancestors' tags do, without updating the note. */
+                """
+                CREATE TEMP TRIGGER IF NOT EXISTS orgzly_changes_note_inherited_tags_insert
+                AFTER INSERT ON note_inherited_tags
+                BEGIN
+                    INSERT OR IGNORE INTO $CHANGED_NOTES VALUES (NEW.note_id);
+                    INSERT OR IGNORE INTO $CHANGED_BOOKS SELECT book_id, 0 FROM notes WHERE id = NEW.note_id;
+                END
+                """,
+
+                """
+                CREATE TEMP TRIGGER IF NOT EXISTS orgzly_changes_note_inherited_tags_delete
+                AFTER DELETE ON note_inherited_tags
+                BEGIN
+                    INSERT OR IGNORE INTO $CHANGED_NOTES VALUES (OLD.note_id);
+                    INSERT OR IGNORE INTO $CHANGED_BOOKS SELECT book_id, 0 FROM notes WHERE id = OLD.note_id;
+                END
+                """,
+
+                """
+                CREATE TEMP TRIGGER IF NOT EXISTS orgzly_changes_books_insert
+                AFTER INSERT ON books
+                BEGIN
+                    INSERT OR REPLACE INTO $CHANGED_BOOKS VALUES ($BOOKS_RENAMED_ID, 1);
+                END
+                """,
+
+                """
+                CREATE TEMP TRIGGER IF NOT EXISTS orgzly_changes_books_delete
+                AFTER DELETE ON books
+                BEGIN
+                    INSERT OR REPLACE INTO $CHANGED_BOOKS VALUES ($BOOKS_RENAMED_ID, 1);
+                END
+                """,
+
+                """
+                CREATE TEMP TRIGGER IF NOT EXISTS orgzly_changes_books_rename
+                AFTER UPDATE OF name ON books
+                WHEN OLD.name IS NOT NEW.name
+                BEGIN
+                    INSERT OR REPLACE INTO $CHANGED_BOOKS VALUES ($BOOKS_RENAMED_ID, 1);
+                END
+                """,
+
+                /* Timestamps are only updated in place when recalculated, for all notes. */
+                """
+                CREATE TEMP TRIGGER IF NOT EXISTS orgzly_changes_org_timestamps_update
+                AFTER UPDATE ON org_timestamps
+                BEGIN
+                    INSERT OR REPLACE INTO $CHANGED_BOOKS VALUES ($EVERYTHING_ID, 1);
+                END
+                """
+        )
+    }
+}
@@ -1,19 +1,18 @@
 package com.orgzly.android.data
 
-import android.annotation.SuppressLint
 import android.content.Context
 import android.content.Intent
 import android.content.res.Resources
+import android.database.Cursor
 import android.media.MediaScannerConnection
 import android.net.Uri
 import android.os.Build
 import android.os.Handler
 import android.text.TextUtils
 import androidx.lifecycle.LiveData
-import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.map
 import androidx.localbroadcastmanager.content.LocalBroadcastManager
-import androidx.sqlite.db.SupportSQLiteQuery
+import androidx.paging.PagingSource
 import androidx.sqlite.db.SupportSQLiteQueryBuilder
 import com.google.gson.Gson
 import com.google.gson.JsonObject
@@ -24,6 +23,7 @@ import com.orgzly.android.*
 import com.orgzly.android.data.mappers.OrgMapper
 import com.orgzly.android.db.NotesClipboard
 import com.orgzly.android.db.OrgzlyDatabase
+import com.orgzly.android.db.dao.AgendaOccurrenceDao
 import com.orgzly.android.db.dao.NoteDao
 import com.orgzly.android.db.dao.NoteDao.NoteIdBookId
 import com.orgzly.android.db.dao.NoteViewDao
@@ -32,8 +32,10 @@ import com.orgzly.android.db.entity.*
 import com.orgzly.android.db.mappers.OrgTimestampMapper
 import com.orgzly.android.prefs.AppPreferences
 import com.orgzly.android.query.Query
+import com.orgzly.android.query.QueryUtils
+import com.orgzly.android.query.sql.CompiledQueryCache
+import com.orgzly.android.query.sql.SqlArgument
 import com.orgzly.android.query.sql.SqliteQueryBuilder
-import com.orgzly.android.query.user.InternalQueryParser
 import com.orgzly.android.repos.*
 import com.orgzly.android.repos.Rook
 import com.orgzly.android.repos.VersionedRook
@@ -48,6 +50,7 @@ import com.orgzly.android.util.*
 import com.orgzly.org.OrgActiveTimestamps
 import com.orgzly.org.OrgFile
 import com.orgzly.org.OrgFileSettings
+import com.orgzly.org.OrgHead
 import com.orgzly.org.OrgProperties
 import com.orgzly.org.OrgProperty
 import com.orgzly.org.datetime.OrgDateTime
@@ -58,8 +61,13 @@ import com.orgzly.org.parser.OrgParser
 import com.orgzly.org.parser.OrgParserWriter
 import com.orgzly.org.utils.StateChangeLogic
 import java.io.*
+import java.security.DigestInputStream
 import java.util.*
 import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicReference
 import javax.inject.Inject
 import javax.inject.Singleton
 
@@ -72,6 +80,20 @@ class DataRepository @Inject constructor(
         private val resources: Resources,
         private val localStorage: LocalStorage) {
 
+    private val compiledQueries = CompiledQueryCache()
+
+    private val notePositions = NotePositionAllocator(db)
+
+    private val changeTracker = ChangeTracker(db)
+
+    /**
+     * Books stored to repos in a batch (see [TwoWaySyncRepo.beginBatch]), by repo and rook URL.
+     * They are synced to their rooks and no longer modified only once the batch is committed.
+     */
+    private val booksStoredInBatch = ConcurrentHashMap<String, MutableMap<String, BookStoredInBatch>>()
+
+    private data class BookStoredInBatch(val bookId: Long, val contentHash: String, val mtime: Long?)
+
     fun forceLoadBook(bookId: Long) {
         val book = getBookView(bookId)
                 ?: throw IOException(resources.getString(R.string.book_does_not_exist_anymore))
@@ -143,37 +165,78 @@ class DataRepository @Inject constructor(
      * Exports `Book`, uploads it to repo and link it to newly created
      * [com.orgzly.android.repos.VersionedRook].
      *
-     * @return [Book]
+     * With [skipIfUnchanged], book is not uploaded if exported content is the same
+     * as the content of the remote book it was last synced with.
+     *
+     * @return false if book was not uploaded
      * @throws IOException
      */
     @Throws(IOException::class)
+    @JvmOverloads
     fun saveBookToRepo(
             repoEntity: Repo,
             repositoryPath: String,
             bookView: BookView,
-            @Suppress("UNUSED_PARAMETER") format: BookFormat) {
+            @Suppress("UNUSED_PARAMETER") format: BookFormat,
+            skipIfUnchanged: Boolean = false): Boolean {
 
         val uploadedBook: VersionedRook
+        val contentHash: String
+        val storedInBatch: Boolean
 
-        val repo = getRepoInstance(repoEntity.id, repoEntity.type, repoEntity.url)
+        val repo = acquireRepoInstance(repoEntity.id, repoEntity.type, repoEntity.url)
 
         val tmpFile = getTempBookFile()
         try {
             /* Write to temporary file. */
             NotesOrgExporter(this).exportBook(bookView.book, tmpFile)
 
+            contentHash = MiscUtils.contentDigest(tmpFile)
+
+            /* Exported book is the same as the synced remote one. */
+            if (skipIfUnchanged && isSyncedWithContent(bookView, repoEntity, repositoryPath, contentHash)) {
+                if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Not uploading unchanged $repositoryPath")
+
+                updateBookIsModified(bookView.book.id, false)
+
+                return false
+            }
+
             /* Upload to repo. */
             uploadedBook = repo.storeBook(tmpFile, repositoryPath)
 
+            storedInBatch = (repo as? TwoWaySyncRepo)?.isInBatch() == true
+
         } finally {
             /* Delete temporary file. */
             tmpFile.delete()
+
+            releaseRepoInstance(repo)
         }
 
-        updateBookLinkAndSync(bookView.book.id, uploadedBook)
+        if (storedInBatch) {
+            /* Book stays modified, in case committing the batch fails (see endBatch). */
+            db.bookLink().upsert(bookView.book.id, repoEntity.id)
+
+            booksStoredInBatch.getOrPut(uploadedBook.repoUri.toString()) { ConcurrentHashMap() }[uploadedBook.uri.toString()] =
+                    BookStoredInBatch(bookView.book.id, contentHash, bookView.book.mtime)
+
+            return true
+        }
+
+        updateBookLinkAndSync(bookView.book.id, uploadedBook, contentHash)
 
         updateBookIsModified(bookView.book.id, false)
 
+        return true
+    }
+
+    private fun isSyncedWithContent(bookView: BookView, repoEntity: Repo, repositoryPath: String, contentHash: String): Boolean {
+        val syncedTo = bookView.syncedTo ?: return false
+
+        return syncedTo.repoId == repoEntity.id
+                && BookName.getRepoRelativePath(syncedTo.repoUri, syncedTo.uri) == repositoryPath
+                && db.bookSync().get(bookView.book.id)?.contentHash == contentHash
     }
 
     @Throws(IOException::class)
@@ -333,9 +396,9 @@ class DataRepository @Inject constructor(
     fun deleteBook(book: BookView, deleteLinked: Boolean) {
         if (deleteLinked) {
             book.syncedTo?.let { vrook ->
-                val repo = getRepoInstance(vrook.repoId, vrook.repoType, vrook.repoUri.toString())
-
-                repo.delete(vrook.uri)
+                useRepoInstance(vrook.repoId, vrook.repoType, vrook.repoUri.toString()) { repo ->
+                    repo.delete(vrook.uri)
+                }
             }
         }
 
@@ -387,13 +450,13 @@ class DataRepository @Inject constructor(
 
         /* Prefer link. */
         bookView.syncedTo?.let { vrook ->
-            val repo = getRepoInstance(vrook.repoId, vrook.repoType, vrook.repoUri.toString())
+            val movedVrook = useRepoInstance(vrook.repoId, vrook.repoType, vrook.repoUri.toString()) { repo ->
+                /* Do not rename if the new filename will be ignored */
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+                    RepoUtils.ensurePathIsNotIgnored(repo, BookName.repoRelativePath(name, BookFormat.ORG))
 
-            /* Do not rename if the new filename will be ignored */
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
-                RepoUtils.ensurePathIsNotIgnored(repo, BookName.repoRelativePath(name, BookFormat.ORG))
-
-            val movedVrook = repo.renameBook(vrook.uri, name)
+                repo.renameBook(vrook.uri, name)
+            }
 
             updateBookLinkAndSync(book.id, movedVrook)
         }
@@ -433,7 +496,8 @@ class DataRepository @Inject constructor(
             LogUtils.d(TAG, "Updating book $bookId status to $status ($updated updated)")
     }
 
-    fun updateBookLinkAndSync(bookId: Long, uploadedBook: VersionedRook) {
+    @JvmOverloads
+    fun updateBookLinkAndSync(bookId: Long, uploadedBook: VersionedRook, contentHash: String? = null) {
         val rookUrl = uploadedBook.uri.toString()
         val repoId = uploadedBook.repoId
         val rookRevision = uploadedBook.revision
@@ -447,7 +511,35 @@ class DataRepository @Inject constructor(
                         0, rookId, rookRevision, rookMtime))
 
         db.bookLink().upsert(bookId, repoId)
-        db.bookSync().upsert(bookId, versionedRookId)
+        db.bookSync().upsert(bookId, versionedRookId, contentHash)
+    }
+
+    /**
+     * Commits books stored to the repo since [TwoWaySyncRepo.beginBatch]
+     * and syncs them to the committed rooks.
+     *
+     * If committing fails, books stay modified and are stored again by the next sync.
+     */
+    @Throws(IOException::class)
+    fun endBatch(repo: TwoWaySyncRepo) {
+        val stored = booksStoredInBatch.remove(repo.getUri().toString()).orEmpty()
+
+        updateBooksSyncedTo(stored, repo.endBatch())
+    }
+
+    private fun updateBooksSyncedTo(stored: Map<String, BookStoredInBatch>, rooks: List<VersionedRook>) {
+        db.runInTransaction {
+            for (rook in rooks) {
+                val book = stored[rook.uri.toString()] ?: continue
+
+                updateBookLinkAndSync(book.bookId, rook, book.contentHash)
+
+                /* Modified again while syncing, keep it for the next sync. */
+                if (db.book().get(book.bookId)?.mtime == book.mtime) {
+                    updateBookIsModified(book.bookId, false)
+                }
+            }
+        }
     }
 
     fun removeBookSyncedTo(bookId: Long) {
@@ -517,10 +609,11 @@ class DataRepository @Inject constructor(
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             // Ensure that the resulting file name is not ignored in this repo
-            val syncRepo = getRepoInstance(repo.id, repo.type, repo.url)
             val bookName = getBook(bookId)!!.name
             val repoRelativePath = BookName.repoRelativePath(bookName, BookFormat.ORG)
-            RepoUtils.ensurePathIsNotIgnored(syncRepo, repoRelativePath)
+            useRepoInstance(repo.id, repo.type, repo.url) { syncRepo ->
+                RepoUtils.ensurePathIsNotIgnored(syncRepo, repoRelativePath)
+            }
         }
 
         db.bookLink().upsert(bookId, repoId)
@@ -680,7 +773,7 @@ class DataRepository @Inject constructor(
                 Clipboard entries: ${clipboard.entries}
                 """.trimIndent())
 
-        makeSpaceForNewNotes(clipboard.count, targetNote, place)
+        val slot = makeSpaceForNewNotes(clipboard.count, targetNote, place)
 
         var lastNoteId = 0L
         val parentIds = ArrayDeque<Long>().apply {
@@ -691,8 +784,8 @@ class DataRepository @Inject constructor(
         for (entry in clipboard.entries) {
             val level = levelOffset + entry.note.position.level
 
-            val lft = targetPosition.lft + entry.note.position.lft - 1
-            val rgt = targetPosition.lft + entry.note.position.rgt - 1
+            val lft = slot.position(entry.note.position.lft)
+            val rgt = slot.position(entry.note.position.rgt)
 
             val foldedUnderId = idsMap[entry.note.position.foldedUnderId]
                     ?: if (targetPosition.foldedUnder != 0L) targetPosition.foldedUnder else 0
@@ -737,8 +830,9 @@ class DataRepository @Inject constructor(
 
         db.noteAncestor().insertAncestorsForNotes(pastedNoteIds)
 
-        // Update descendants count for the target note and its ancestors
-        db.note().updateDescendantsCountForNoteAndAncestors(listOf(targetNote.id))
+        // Update descendants count for all notes containing pasted ones
+        db.note().addToDescendantsCountForAncestors(
+                targetNote.position.bookId, slot.first, slot.position(clipboard.count * 2L), pastedNoteIds.size)
 
         unfoldTargetIfMovingUnder(place, targetNote.id)
 
@@ -848,65 +942,107 @@ class DataRepository @Inject constructor(
         return notesPerLft.values.toList()
     }
 
+    /**
+     * Moves subtrees of selected notes next to the target note.
+     *
+     * Each subtree is moved with a few statements updating all of its notes at once.
+     * Subtrees are first moved to negative values in the target book, where they are out of
+     * the way while room is made for them (see [NotePositionAllocator]), then shifted into place.
+     */
     private fun moveSubtrees(selectedIds: Set<Long>, place: Place, targetNoteId: Long): Int {
         val targetNote = db.note().get(targetNoteId) ?: return 0
 
         val targetPosition = TargetPosition.getInstance(db, targetNote, place)
 
-        val alignedNotes = getSubtreesAligned(selectedIds)
+        val targetBookId = targetNote.position.bookId
 
-        // Update descendant count for ancestors before move, not counting moved notes themselves
-        db.note().updateDescendantsCountForAncestors(selectedIds, selectedIds)
+        val roots = getSubtreeRoots(selectedIds)
 
-        db.noteAncestor().deleteForSubtrees(selectedIds)
+        if (roots.isEmpty()) {
+            return 0
+        }
 
-        makeSpaceForNewNotes(alignedNotes.size, targetNote, place)
+        val divisors = roots.map { root ->
+            notePositions.divisorForSubtree(root.position.bookId, root.position.lft, root.position.rgt)
+        }
 
+        val length = roots.indices.sumOf { i ->
+            (roots[i].position.rgt - roots[i].position.lft) / divisors[i] + 1
+        }
 
-        val ids = mutableSetOf<Long>()
-        val sourceBookIds = mutableSetOf<Long>()
+        var offset = -length
+        var count = 0
 
-        // Update notes
-        alignedNotes.map { note ->
-            db.note().updateNote(
-                    note.id,
-                    targetNote.position.bookId,
-                    targetPosition.level + note.position.level - 1,
-                    targetPosition.lft + note.position.lft - 1,
-                    targetPosition.lft + note.position.rgt - 1,
-                    // Set parent ID for top-level notes
-                    if (note.position.level == 1) {
-                        targetPosition.parentId
-                    } else {
-                        (note.position.parentId)
-                    })
+        roots.forEachIndexed { i, root ->
+            val bookId = root.position.bookId
+            val lft = root.position.lft
+            val rgt = root.position.rgt
+
+            val notes = db.note().getCountBetween(bookId, lft, rgt)
+
+            db.note().addToDescendantsCountForAncestors(bookId, lft, rgt, -notes)
 
-            // Collect new note IDs and source book IDs
-            ids.add(note.id)
-            sourceBookIds.add(note.position.bookId)
+            db.noteAncestor().detachSubtree(bookId, lft, rgt, targetBookId)
+
+            db.note().moveSubtree(
+                    bookId, lft, rgt,
+                    targetBookId,
+                    divisors[i],
+                    offset,
+                    targetPosition.level - root.position.level)
+
+            offset += (rgt - lft) / divisors[i] + 1
+            count += notes
         }
 
-        // Update note ancestors table
-        db.noteAncestor().insertAncestorsForNotes(ids)
+        db.note().updateParentForNotes(roots.map { it.id }, targetPosition.parentId)
 
-        db.note().updateDescendantsCountForAncestors(selectedIds)
+        val first = when (place) {
+            Place.ABOVE -> notePositions.reserveBefore(targetBookId, targetNote.position.lft, length)
+            Place.UNDER -> notePositions.reserveBefore(targetBookId, targetNote.position.rgt, length)
+            Place.UNDER_AS_FIRST -> notePositions.reserveAfter(targetBookId, targetNote.position.lft, length)
+            Place.BELOW -> notePositions.reserveAfter(targetBookId, targetNote.position.rgt, length)
+            else -> throw IllegalArgumentException("Unsupported place: $place")
+        }
 
-        db.note().unfoldNotesFoldedUnderOthers(ids)
+        db.note().shiftNegativePositions(targetBookId, first + length)
+
+        val last = first + length - 1
+
+        db.note().addToDescendantsCountForAncestors(targetBookId, first, last, count)
+
+        db.noteAncestor().insertOutsideAncestorsBetween(targetBookId, first, last)
+
+        db.note().unfoldNotesBetweenFoldedUnderOthers(targetBookId, first, last)
         if (targetPosition.foldedUnder != 0L) {
-            db.note().foldUnfolded(ids, targetPosition.foldedUnder)
+            db.note().foldUnfoldedBetween(targetBookId, first, last, targetPosition.foldedUnder)
         }
 
-        // Update descendants count for the note and its ancestors
-        db.note().updateDescendantsCountForNoteAndAncestors(listOf(targetNote.id))
-
         unfoldTargetIfMovingUnder(place, targetNoteId)
 
         System.currentTimeMillis().let {
-            updateBookIsModified(sourceBookIds, true, it)
-            updateBookIsModified(targetNote.position.bookId, true, it)
+            updateBookIsModified(roots.mapTo(mutableSetOf()) { root -> root.position.bookId }, true, it)
+            updateBookIsModified(targetBookId, true, it)
+        }
+
+        return count
+    }
+
+    /**
+     * Selected notes which are not descendants of other selected notes, in book order.
+     */
+    private fun getSubtreeRoots(ids: Set<Long>): List<Note> {
+        val roots = mutableListOf<Note>()
+
+        db.note().get(ids).sortedWith(compareBy({ it.position.bookId }, { it.position.lft })).forEach { note ->
+            val last = roots.lastOrNull()
+
+            if (last == null || last.position.bookId != note.position.bookId || last.position.rgt < note.position.lft) {
+                roots.add(note)
+            }
         }
 
-        return alignedNotes.size
+        return roots
     }
 
     /** Unfold target note and its ancestors if subtree is moved under it. */
@@ -917,14 +1053,12 @@ class DataRepository @Inject constructor(
     }
 
     data class TargetPosition(
-            val lft: Long = 0,
             val level: Int = 0,
             val parentId: Long = 0,
             val foldedUnder: Long = 0) {
 
         companion object {
             fun getInstance(db: OrgzlyDatabase, targetNote: Note, place: Place): TargetPosition {
-                val lft: Long
                 val level: Int
                 val parentId: Long
 
@@ -936,7 +1070,6 @@ class DataRepository @Inject constructor(
 
                 when (place) {
                     Place.ABOVE -> {
-                        lft = targetNote.position.lft
                         level = targetNote.position.level
                         parentId = targetNote.position.parentId
                     }
@@ -949,15 +1082,12 @@ class DataRepository @Inject constructor(
                             LogUtils.d(TAG, "lastDescendant: $lastDescendant")
 
 
-                        if (lastDescendant != null) {
-                            // Insert after last descendant with highest level
-                            lft = lastDescendant.position.rgt + 1
-                            level = lastDescendant.position.level
+                        level = if (lastDescendant != null) {
+                            // Same level as last descendant with highest level
+                            lastDescendant.position.level
 
                         } else {
-                            // Insert just under the target note
-                            lft = targetNote.position.lft + 1
-                            level = targetNote.position.level + 1
+                            targetNote.position.level + 1
                         }
 
                         if (targetNote.position.isFolded) {
@@ -968,7 +1098,6 @@ class DataRepository @Inject constructor(
                     }
 
                     Place.UNDER_AS_FIRST -> {
-                        lft = targetNote.position.lft + 1
                         level = targetNote.position.level + 1
 
                         if (targetNote.position.isFolded) {
@@ -979,7 +1108,6 @@ class DataRepository @Inject constructor(
                     }
 
                     Place.BELOW -> {
-                        lft = targetNote.position.rgt + 1
                         level = targetNote.position.level
                         parentId = targetNote.position.parentId
                     }
@@ -987,7 +1115,7 @@ class DataRepository @Inject constructor(
                     else -> throw IllegalArgumentException("Unsupported place: $place")
                 }
 
-                return TargetPosition(lft, level, parentId, foldedUnder)
+                return TargetPosition(level, parentId, foldedUnder)
             }
         }
     }
@@ -1186,35 +1314,150 @@ class DataRepository @Inject constructor(
         }
     }
 
-    fun selectNotesFromQueryLiveData(queryString: String): LiveData<List<NoteView>> {
-        val parser = InternalQueryParser()
+    /**
+     * Notes matching the query, loaded in pages (see [NotesPagingSource]).
+     * Pages are loaded again only after changes to the books the query
+     * could match notes from (see [getQueryBookIds]).
+     */
+    fun selectNotesFromQueryPagingSource(queryString: String): PagingSource<Int, NoteView> {
+        val query = compiledQueries.parse(queryString)
+
+        val bookIds = AtomicReference<Set<Long>?>(null)
 
-        val query = parser.parse(queryString)
+        val affects = { changes: ChangeTracker.Changes ->
+            changes.affectsBooks(bookIds.get())
+        }
+
+        val count = {
+            bookIds.set(getQueryBookIds(query))
 
-        val sqlQuery = buildSqlQuery(query)
+            db.noteView().runCountQuery(compileSqlQuery(query).bindCount())
+        }
 
-        return db.noteView().runQueryLiveData(sqlQuery)
+        return NotesPagingSource(db, changeTracker, affects, count) { limit, offset ->
+            db.noteView().runQuery(compileSqlQuery(query).bindPage(limit, offset))
+        }
+    }
+
+    /**
+     * Ids of all notes matching the query, used for selection and the empty state.
+     * Notes themselves are loaded with [selectNotesFromQueryPagingSource].
+     */
+    fun selectNoteIdsFromQueryLiveData(queryString: String): LiveData<List<Long>> {
+        val query = compiledQueries.parse(queryString)
+
+        val bookIds = AtomicReference<Set<Long>?>(null)
+
+        val affects = { changes: ChangeTracker.Changes ->
+            changes.affectsBooks(bookIds.get())
+        }
+
+        return TrackedLiveData(changeTracker, affects) {
+            bookIds.set(getQueryBookIds(query))
+
+            db.noteView().runIdsQuery(compileSqlQuery(query).bindIds())
+        }
+    }
+
+    data class AgendaNotes(
+            val notes: List<NoteView>,
+            val occurrences: List<AgendaOccurrenceDao.Occurrence>,
+            val days: Int)
+
+    /**
+     * Notes matching the agenda query, loaded together with their occurrences,
+     * so occurrences are never computed on the main thread.
+     */
+    fun selectAgendaFromQueryLiveData(queryString: String): LiveData<AgendaNotes> {
+        val query = compiledQueries.parse(queryString)
+
+        val bookIds = AtomicReference<Set<Long>?>(null)
+
+        val affects = { changes: ChangeTracker.Changes ->
+            changes.affectsBooks(bookIds.get())
+        }
+
+        return TrackedLiveData(changeTracker, affects) {
+            bookIds.set(getQueryBookIds(query))
+
+            val days = query.options.agendaDays
+
+            /* Notes are selected by their stored occurrences, so those are updated first. */
+            val occurrences = AgendaUtils.getOccurrences(context, this, days)
+
+            val notes = db.noteView().runQuery(compileSqlQuery(query).bind())
+
+            AgendaNotes(notes, occurrences, days)
+        }
+    }
+
+    /**
+     * Books whose notes can match the query, or null if notes from any book can.
+     */
+    fun getQueryBookIds(query: Query): Set<Long>? {
+        return QueryUtils.bookNamesMatchedByCondition(query.condition)?.let { names ->
+            db.book().getIds(names).toSet()
+        }
+    }
+
+    /**
+     * Listeners are notified about changed books and notes (see [ChangeTracker]).
+     */
+    fun addChangeListener(listener: ChangeTracker.Listener) {
+        changeTracker.addListener(listener)
+    }
+
+    fun removeChangeListener(listener: ChangeTracker.Listener) {
+        changeTracker.removeListener(listener)
     }
 
     fun selectNotesFromQuery(query: Query): List<NoteView> {
-        val sqlQuery = buildSqlQuery(query)
+        return db.noteView().runQuery(compileSqlQuery(query).bind())
+    }
 
-        return db.noteView().runQuery(sqlQuery)
+    /**
+     * Page of notes matching the query.
+     *
+     * @param limit maximum number of notes, negative for no limit
+     */
+    fun selectNotesFromQuery(query: Query, limit: Int, offset: Int): List<NoteView> {
+        return db.noteView().runQuery(compileSqlQuery(query).bindPage(limit, offset))
+    }
+
+    private fun compileSqlQuery(query: Query): CompiledQueryCache.CompiledQuery {
+        val preferences = SqliteQueryBuilder.Preferences.from(context)
+
+        return compiledQueries.get(query, preferences) {
+            compileSqlQuery(query, preferences)
+        }
     }
 
-    private fun buildSqlQuery(query: Query): SupportSQLiteQuery {
-        val queryBuilder = SqliteQueryBuilder(context)
+    private fun compileSqlQuery(query: Query, preferences: SqliteQueryBuilder.Preferences): CompiledQueryCache.CompiledQuery {
+        val queryBuilder = SqliteQueryBuilder(context, preferences)
 
-        val (selection, selectionArgs, having, orderBy) = queryBuilder.build(query)
+        val (selection, arguments, having, orderBy) = queryBuilder.build(query)
 
         val s = mutableListOf<String>()
+        val args = arguments.toMutableList()
 
         if (query.condition != null) {
             s.add(selection)
         }
 
         if (query.options.agendaDays > 0) {
-            s.add("((scheduled_range_id IS NOT NULL AND scheduled_is_active = 1) OR (deadline_range_id IS NOT NULL AND deadline_is_active = 1) OR event_timestamp IS NOT NULL)")
+            /*
+             * Notes with occurrences in the agenda's days, overdue notes and
+             * notes whose occurrences are yet to be recomputed after a change.
+             */
+            s.add("(id IN (SELECT note_id FROM agenda_occurrences WHERE ? <= day AND day < ?)" +
+                    " OR id IN (SELECT note_id FROM agenda_occurrences_outdated)" +
+                    " OR (scheduled_is_active = 1 AND scheduled_time_timestamp < ?)" +
+                    " OR (deadline_is_active = 1 AND deadline_time_timestamp < ?))")
+
+            val today = SqlArgument.TimeFromNow(Calendar.DAY_OF_MONTH, 0)
+            val lastDay = SqlArgument.TimeFromNow(Calendar.DAY_OF_MONTH, query.options.agendaDays)
+
+            args.addAll(listOf(today, lastDay, today, today))
         }
 
         if (!s.isEmpty() || !query.sortOrders.isEmpty()) {
@@ -1232,33 +1475,46 @@ class DataRepository @Inject constructor(
 
         val supportQuery = SupportSQLiteQueryBuilder
                 .builder("(${NoteViewDao.QUERY_WITH_NOTE_EVENTS})")
-                .selection(selection2, selectionArgs.toTypedArray())
+                .selection(selection2, null)
                 .groupBy(groupBy)
                 .having(having)
                 .orderBy(orderBy)
                 .create()
 
         if (BuildConfig.LOG_DEBUG)
-            LogUtils.d(TAG, "Selecting notes using query $query "
-                    + "with selection args $selectionArgs\n${supportQuery.sql}")
+            LogUtils.d(TAG, "Compiled query $query "
+                    + "with selection args $args\n${supportQuery.sql}")
 
-        return supportQuery
+        return CompiledQueryCache.CompiledQuery(supportQuery.sql, args)
     }
 
     fun getNotes(bookName: String): List<NoteView> {
         return db.noteView().getBookNotes(bookName)
     }
 
-    fun getVisibleNotesLiveData(bookId: Long, noteId: Long? = null): LiveData<List<NoteView>> {
+    /**
+     * Cursor over all book's notes and their properties, used for streaming export.
+     * See [NoteDao.getNotesForExport].
+     */
+    fun getNotesForExportCursor(bookId: Long): Cursor {
+        return db.note().getNotesForExport(bookId)
+    }
+
+    fun getVisibleNotesPagingSource(bookId: Long): PagingSource<Int, NoteView> {
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, bookId)
 
-        return if (noteId != null) {
-            // Only return note's subtree
-            db.note().get(noteId)?.let { note ->
-                db.noteView().getVisibleLiveData(bookId, note.position.lft, note.position.rgt)
-            } ?: MutableLiveData<List<NoteView>>()
-        } else {
-            db.noteView().getVisibleLiveData(bookId)
+        return NotesPagingSource(
+                db,
+                changeTracker,
+                { it.affectsBook(bookId) },
+                { db.noteView().getVisibleCount(bookId) }) { limit, offset ->
+            db.noteView().getVisible(bookId, limit, offset)
+        }
+    }
+
+    fun getVisibleNoteIdsLiveData(bookId: Long): LiveData<List<Long>> {
+        return TrackedLiveData(changeTracker, { it.affectsBook(bookId) }) {
+            db.noteView().getVisibleIds(bookId)
         }
     }
 
@@ -1346,6 +1602,15 @@ class DataRepository @Inject constructor(
         return db.noteProperty().get(noteId)
     }
 
+    /**
+     * Properties of multiple notes, loaded in as few queries as possible.
+     */
+    fun getNotesProperties(noteIds: Collection<Long>): Map<Long, List<NoteProperty>> {
+        return noteIds.chunked(OrgzlyDatabase.SQLITE_MAX_VARIABLE_NUMBER).flatMap { chunk ->
+            db.noteProperty().get(chunk)
+        }.groupBy { it.noteId }
+    }
+
     private fun setNoteProperty(noteId: Long, name: String, value: String) {
         db.noteProperty().upsert(noteId, name, value)
     }
@@ -1422,80 +1687,67 @@ class DataRepository @Inject constructor(
             }
         }
 
-        val newNotePosition = when (target.place) {
-            Place.ABOVE -> {
-                if (targetNote == null) {
-                    throw IOException("Target note not found")
-                }
+        // Make space for new note
+        val slot = when (target.place) {
+            Place.UNDER_AS_FIRST -> {
+                TODO("Insert UNDER_AS_FIRST not implemented")
+            }
 
-                NotePosition(
-                        bookId = target.bookId,
-                        lft = targetNote.position.lft,
-                        rgt = targetNote.position.lft + 1,
-                        level = targetNote.position.level,
-                        parentId = targetNote.position.parentId)
+            Place.UNSPECIFIED -> {
+                /* If target note is not used, add note at the end with level 1. */
+                val rootRgt = db.note().getMaxRgtForBook(target.bookId) ?: 0
+
+                notePositions.allocateBefore(target.bookId, rootRgt, 2)
             }
 
-            Place.BELOW -> {
+            else -> {
                 if (targetNote == null) {
                     throw IOException("Target note not found")
                 }
 
+                makeSpaceForNewNotes(1, targetNote, target.place)
+            }
+        }
+
+        val newNotePosition = when (target.place) {
+            Place.ABOVE, Place.BELOW -> {
                 NotePosition(
                         bookId = target.bookId,
-                        lft = targetNote.position.rgt + 1,
-                        rgt = targetNote.position.rgt + 2,
-                        level = targetNote.position.level,
-                        parentId = targetNote.position.parentId
-                )
+                        lft = slot.position(1),
+                        rgt = slot.position(2),
+                        level = targetNote!!.position.level,
+                        parentId = targetNote.position.parentId)
             }
 
             Place.UNDER -> {
-                if (targetNote == null) {
-                    throw IOException("Target note not found")
-                }
-
                 NotePosition(
                         bookId = target.bookId,
-                        lft = targetNote.position.rgt,
-                        rgt = targetNote.position.rgt + 1,
-                        level = targetNote.position.level + 1,
+                        lft = slot.position(1),
+                        rgt = slot.position(2),
+                        level = targetNote!!.position.level + 1,
                         parentId = targetNote.id,
                         foldedUnderId = if (targetNote.position.isFolded) targetNote.id else 0
                 )
             }
 
-            Place.UNDER_AS_FIRST -> {
-                TODO("Insert UNDER_AS_FIRST not implemented")
-            }
-
-            Place.UNSPECIFIED -> {
-                /* If target note is not used, add note at the end with level 1. */
-                val rootRgt = db.note().getMaxRgtForBook(target.bookId) ?: 0
-                val rootId = db.note().getRootNodeId(target.bookId) ?: 0
-
+            else -> {
                 NotePosition(
                         bookId = target.bookId,
-                        lft = rootRgt,
-                        rgt = rootRgt + 1,
+                        lft = slot.position(1),
+                        rgt = slot.position(2),
                         level = 1,
-                        parentId = rootId
+                        parentId = db.note().getRootNodeId(target.bookId) ?: 0
                 )
             }
         }
 
-        // Make space for new note
         if (target.place != Place.UNSPECIFIED) {
-            makeSpaceForNewNotes(1, targetNote!!, target.place)
-
             val count = db.note().incrementDescendantsCountForAncestors(
                     target.bookId, newNotePosition.lft, newNotePosition.rgt)
 
             if (BuildConfig.LOG_DEBUG)
                 LogUtils.d(TAG, "Updated descendants_count for $count notes (${target.bookId}, ${newNotePosition.lft}, ${newNotePosition.rgt})")
-
         }
-        db.note().incrementRgtForRootNote(target.bookId)
 
         val noteEntity = Note(
                 0,
@@ -1531,33 +1783,26 @@ class DataRepository @Inject constructor(
     }
 
     /**
-     * Increment notes' lft and rgt to make space for new notes.
+     * Find lft and rgt values for new notes next to the target note.
+     * Only notes around the target are renumbered, and only if there is no room between them.
      */
-    private fun makeSpaceForNewNotes(numberOfNotes: Int, targetNote: Note, place: Place) {
+    private fun makeSpaceForNewNotes(numberOfNotes: Int, targetNote: Note, place: Place): NotePositionAllocator.Slot {
         val spaceRequired = numberOfNotes * 2
 
         val bookId = targetNote.position.bookId
 
-        when (place) {
-            Place.ABOVE -> {
-                db.note().incrementLftForLftGe(bookId, targetNote.position.lft, spaceRequired)
-                db.note().incrementRgtForRgtGtOrRoot(bookId, targetNote.position.lft, spaceRequired)
-            }
+        return when (place) {
+            Place.ABOVE ->
+                notePositions.allocateBefore(bookId, targetNote.position.lft, spaceRequired)
 
-            Place.UNDER -> {
-                db.note().incrementLftForLftGt(bookId, targetNote.position.rgt, spaceRequired)
-                db.note().incrementRgtForRgtGeOrRoot(bookId, targetNote.position.rgt, spaceRequired)
-            }
+            Place.UNDER ->
+                notePositions.allocateBefore(bookId, targetNote.position.rgt, spaceRequired)
 
-            Place.UNDER_AS_FIRST -> {
-                db.note().incrementLftForLftGt(bookId, targetNote.position.lft, spaceRequired)
-                db.note().incrementRgtForRgtGtOrRoot(bookId, targetNote.position.lft, spaceRequired)
-            }
+            Place.UNDER_AS_FIRST ->
+                notePositions.allocateAfter(bookId, targetNote.position.lft, spaceRequired)
 
-            Place.BELOW -> {
-                db.note().incrementLftForLftGt(bookId, targetNote.position.rgt, spaceRequired)
-                db.note().incrementRgtForRgtGtOrRoot(bookId, targetNote.position.rgt, spaceRequired)
-            }
+            Place.BELOW ->
+                notePositions.allocateAfter(bookId, targetNote.position.rgt, spaceRequired)
 
             else -> throw IllegalArgumentException("Unsupported paste relative position $place")
         }
@@ -1722,29 +1967,99 @@ class DataRepository @Inject constructor(
         return loadBookFromRepo(rook.repoId, rook.repoType, rook.repoUri.toString(), repoRelativePath)
     }
 
+    /**
+     * Loads book from repo, unless downloaded content is the same as the content of
+     * the remote book it was last synced with. Only its synced-to version is updated then.
+     *
+     * @return false if book was not loaded
+     */
+    @Throws(IOException::class)
+    fun loadBookFromRepoIfChanged(bookView: BookView, rook: Rook): Boolean {
+        val repoRelativePath = BookName.getRepoRelativePath(rook.repoUri, rook.uri)
+
+        return loadBookFromRepo(
+                rook.repoId, rook.repoType, rook.repoUri.toString(), repoRelativePath, bookView) != null
+    }
+
     @Throws(IOException::class)
     fun loadBookFromRepo(repoId: Long, repoType: RepoType, repoUrl: String, repoRelativePath: String): BookView? {
-        val book: BookView?
+        return loadBookFromRepo(repoId, repoType, repoUrl, repoRelativePath, null)
+    }
+
+    private fun loadBookFromRepo(
+            repoId: Long,
+            repoType: RepoType,
+            repoUrl: String,
+            repoRelativePath: String,
+            unmodifiedBook: BookView?): BookView? {
 
-        val repo = getRepoInstance(repoId, repoType, repoUrl)
+        val repo = acquireRepoInstance(repoId, repoType, repoUrl)
 
         val tmpFile = getTempBookFile()
         try {
+            /* Read local files in place. */
+            if (repo is LocalFileRepo) {
+                val (file, vrook) = repo.retrieveBookFile(repoRelativePath)
+
+                return loadBookFromRepoFile(repoRelativePath, file, vrook, unmodifiedBook)
+            }
+
             /* Download from repo. */
             val vrook = repo.retrieveBook(repoRelativePath, tmpFile)
 
-            val bookName = BookName.fromRepoRelativePath(repoRelativePath)
-
-            /* Store from file to Shelf. */
-            book = loadBookFromFile(bookName.name, bookName.format, tmpFile, vrook)
+            return loadBookFromRepoFile(repoRelativePath, tmpFile, vrook, unmodifiedBook)
 
         } finally {
             tmpFile.delete()
+
+            releaseRepoInstance(repo)
+        }
+    }
+
+    private fun loadBookFromRepoFile(
+            repoRelativePath: String,
+            file: File,
+            vrook: VersionedRook,
+            unmodifiedBook: BookView?): BookView? {
+
+        /* Remote book changed, but not its content. Skip parsing and replacing all notes. */
+        if (unmodifiedBook != null && !unmodifiedBook.book.isModified) {
+            val bookId = unmodifiedBook.book.id
+
+            val contentHash = MiscUtils.contentDigest(file)
+
+            if (db.bookSync().get(bookId)?.contentHash == contentHash) {
+                if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Not loading unchanged $repoRelativePath")
+
+                updateBookLinkAndSync(bookId, vrook, contentHash)
+
+                return null
+            }
+        }
+
+        val bookName = BookName.fromRepoRelativePath(repoRelativePath)
+
+        val digest = MiscUtils.newContentDigest()
+
+        /* Store from file to Shelf, computing content's hash while parsing it. */
+        val bookId = FileInputStream(file).use { inputStream ->
+            loadBookFromStream(
+                    bookName.name,
+                    DigestInputStream(inputStream, digest),
+                    file,
+                    vrook,
+                    selectedEncoding(null))
         }
 
-        return book
+        db.bookSync().updateContentHash(bookId, MiscUtils.contentDigestToString(digest))
+
+        return getBookView(bookId)
     }
 
+    /**
+     * Loads book from the stream, which is first read to a temporary file. Stream can be
+     * slow (content provider, network) and is not read while in a database transaction.
+     */
     @Throws(IOException::class)
     fun loadBookFromStream(name: String, format: BookFormat, inputStream: InputStream): BookView? {
         /* Save content to temporary file. */
@@ -1769,31 +2084,43 @@ class DataRepository @Inject constructor(
             selectedEncoding: String? = null
     ): BookView? {
 
-        val encoding = if (selectedEncoding == null && AppPreferences.forceUtf8(context)) {
+        val bookId = FileInputStream(file).use { inputStream ->
+            loadBookFromStream(name, inputStream, file, vrook, selectedEncoding(selectedEncoding))
+        }
+
+        return getBookView(bookId)
+    }
+
+    private fun selectedEncoding(selectedEncoding: String?): String? {
+        return if (selectedEncoding == null && AppPreferences.forceUtf8(context)) {
             "UTF-8"
         } else {
             selectedEncoding
         }
-
-        val bookId = loadBookFromFile(file.path, name, vrook, encoding)
-
-        return getBookView(bookId)
     }
 
-    private fun loadBookFromFile(
-            filePath: String,
+    /**
+     * Detects encoding from the beginning of the stream and parses it, usually in a single read.
+     * Stream must be the [file]'s, as it's read in a database transaction, and the whole
+     * file is read again if encoding can't be detected from the beginning.
+     */
+    private fun loadBookFromStream(
             bookName: String,
+            inputStream: InputStream,
+            file: File,
             vrook: VersionedRook?,
             selectedEncoding: String?): Long {
 
         try {
-            val encoding = Encoding.detect(filePath, selectedEncoding)
+            val stream = BufferedInputStream(inputStream)
+
+            val encoding = Encoding.detect(bookName, stream, selectedEncoding, file)
 
             return db.runInTransaction(Callable {
                 loadBookFromReader(
                         bookName,
                         vrook,
-                        InputStreamReader(FileInputStream(File(filePath)), encoding.used),
+                        InputStreamReader(stream, encoding.used),
                         encoding
                 )
             })
@@ -1824,21 +2151,12 @@ class DataRepository @Inject constructor(
         // Delete all notes from this book
         db.note().deleteByBookId(bookId)
 
-        /*
-         * Maps node's lft to database id.
-         * Used to update parent id and insert ancestors.
-         * Not using SparseArray as speed is preferred over memory here.
-         */
-        @SuppressLint("UseSparseArrays") val lft2id = HashMap<Long, Long>()
-
-        /* Set of ids for which parent is already set. */
-        val notesWithParentSet = HashSet<Long>()
-
-
         val useCreatedAtProperty = AppPreferences.createdAt(context)
         val createdAtProperty = AppPreferences.createdAtProperty(context)
         val startFolded = AppPreferences.notebooksStartFolded(context)
 
+        val loader = NotesBulkLoader(db, bookId, startFolded) { range -> getOrgRangeId(range) }
+
         BufferedReader(inReader).use { reader ->
             /*
              * Create and run parser.
@@ -1852,10 +2170,10 @@ class DataRepository @Inject constructor(
                         @Throws(IOException::class)
                         override fun onNode(node: OrgNodeInSet) {
 
-                            val scheduledRangeId = getOrgRangeId(node.head.scheduled)
-                            val deadlineRangeId = getOrgRangeId(node.head.deadline)
-                            val closedRangeId = getOrgRangeId(node.head.closed)
-                            val clockRangeId = getOrgRangeId(node.head.clock)
+                            val scheduledRangeId = loader.orgRangeId(node.head.scheduled)
+                            val deadlineRangeId = loader.orgRangeId(node.head.deadline)
+                            val closedRangeId = loader.orgRangeId(node.head.closed)
+                            val clockRangeId = loader.orgRangeId(node.head.clock)
 
                             var content: String? = null
                             var contentLineCount = 0
@@ -1865,13 +2183,12 @@ class DataRepository @Inject constructor(
                                 contentLineCount = MiscUtils.lineCount(node.head.content)
                             }
 
+                            /* Parent and folded-under IDs are set by the loader. */
                             val position = NotePosition(
                                     bookId = bookId,
                                     lft = node.lft,
                                     rgt = node.rgt,
                                     level = node.level,
-                                    parentId = 0,
-                                    foldedUnderId = 0,
                                     isFolded = startFolded && node.level > 0,
                                     descendantsCount = node.descendantsCount)
 
@@ -1891,38 +2208,7 @@ class DataRepository @Inject constructor(
                                     position = position
                             )
 
-                            val noteId = db.note().insert(note)
-
-                            insertNoteProperties(noteId, node.head.properties)
-                            insertNoteEvents(noteId, note.title, note.content, node.head.properties)
-
-                            /*
-                             * Update notes' parent IDs and insert ancestors.
-                             * Going through all descendants - nodes between lft and rgt.
-                             *
-                             *  lft:  1    2    3    4    5   6
-                             *            L2   l1   r2   R2
-                             */
-                            lft2id[node.lft] = noteId
-                            for (index in node.lft + 1 until node.rgt) {
-                                val descendantId = lft2id[index]
-                                if (descendantId != null) {
-                                    if (!notesWithParentSet.contains(descendantId)) {
-                                        db.note().updateParentForNote(descendantId, noteId)
-
-                                        if (startFolded && position.level > 0) {
-                                            db.note().setFoldedUnder(descendantId, noteId)
-                                        }
-
-                                        notesWithParentSet.add(descendantId)
-                                    }
-
-                                    db.noteAncestor().insert(NoteAncestor(
-                                            noteId = descendantId,
-                                            bookId = bookId,
-                                            ancestorNoteId = noteId))
-                                }
-                            }
+                            loader.add(note, node.head.properties)
                         }
 
                         @Throws(IOException::class)
@@ -1952,6 +2238,8 @@ class DataRepository @Inject constructor(
                     .parse()
         }
 
+        loader.write()
+
         if (BuildConfig.LOG_DEBUG)
             LogUtils.d(TAG, bookName + ": Parsing done in " +
                     (System.currentTimeMillis() - startedAt) + " ms")
@@ -2253,6 +2541,9 @@ class DataRepository @Inject constructor(
 
         AppPreferences.repoPropsMap(context, id, repoWithProps.props)
 
+        // Id might have been used by a deleted repo
+        repoFactory.invalidate(id)
+
         return id
     }
 
@@ -2264,6 +2555,9 @@ class DataRepository @Inject constructor(
 
         AppPreferences.repoPropsMap(context, newId, repoWithProps.props)
 
+        repoFactory.invalidate(repoWithProps.repo.id)
+        repoFactory.invalidate(newId)
+
         return newId
     }
 
@@ -2271,6 +2565,8 @@ class DataRepository @Inject constructor(
         db.repo().delete(id)
 
         AppPreferences.repoPropsMapDelete(context, id)
+
+        repoFactory.invalidate(id)
     }
 
     /*
@@ -2281,6 +2577,117 @@ class DataRepository @Inject constructor(
         return db.reminderTime().getAll()
     }
 
+    fun times(noteIds: Collection<Long>): List<ReminderTimeDao.NoteTime> {
+        return noteIds.chunked(OrgzlyDatabase.SQLITE_MAX_VARIABLE_NUMBER / 3).flatMap { chunk ->
+            db.reminderTime().getForNotes(chunk)
+        }
+    }
+
+    /**
+     * Recomputes reminder times of notes whose times changed since the last update.
+     *
+     * @param recomputeAll recompute times for all notes
+     * @param fireTimes calculates reminder times for note's time
+     */
+    fun updateReminderTimes(recomputeAll: Boolean, fireTimes: (ReminderTimeDao.NoteTime) -> List<Long>) {
+        val startedAt = System.currentTimeMillis()
+        var count = 0
+
+        db.runInTransaction {
+            val dao = db.reminderTime()
+
+            if (recomputeAll) {
+                dao.deleteAll()
+                dao.markAllOutdated()
+            }
+
+            while (true) {
+                val noteIds = dao.getOutdatedNoteIds(OrgzlyDatabase.SQLITE_MAX_VARIABLE_NUMBER / 3)
+
+                if (noteIds.isEmpty()) {
+                    break
+                }
+
+                dao.deleteForNotes(noteIds)
+
+                val reminderTimes = dao.getForNotes(noteIds).flatMap { noteTime ->
+                    fireTimes(noteTime).map { fireAt ->
+                        ReminderTime(0, noteTime.noteId, noteTime.timeType, noteTime.orgTimestampId, fireAt)
+                    }
+                }
+
+                dao.insert(reminderTimes)
+
+                dao.deleteOutdated(noteIds)
+
+                count += noteIds.size
+            }
+        }
+
+        if (BuildConfig.LOG_DEBUG)
+            LogUtils.d(TAG, "Updated reminder times of $count notes in ${System.currentTimeMillis() - startedAt} ms")
+    }
+
+    /**
+     * Note times with reminder times in the interval, earliest first.
+     * Requires reminder times to be up to date (see [updateReminderTimes]).
+     */
+    fun timesInInterval(
+            fromScheduled: Long,
+            fromDeadline: Long,
+            fromEvent: Long,
+            before: Long,
+            doneStates: Collection<String>,
+            limit: Int): List<ReminderTimeDao.NoteTime> {
+
+        return db.reminderTime().getInInterval(
+                fromScheduled, fromDeadline, fromEvent, before, doneStates, limit)
+    }
+
+    /**
+     * Recomputes agenda occurrences of notes marked as outdated (or of all notes).
+     */
+    fun updateAgendaOccurrences(recomputeAll: Boolean, occurrences: (AgendaOccurrenceDao.NoteRange) -> List<AgendaOccurrence>) {
+        val startedAt = System.currentTimeMillis()
+        var count = 0
+
+        db.runInTransaction {
+            val dao = db.agendaOccurrence()
+
+            if (recomputeAll) {
+                dao.deleteAll()
+                dao.markAllOutdated()
+            }
+
+            while (true) {
+                val noteIds = dao.getOutdatedNoteIds(OrgzlyDatabase.SQLITE_MAX_VARIABLE_NUMBER / 3)
+
+                if (noteIds.isEmpty()) {
+                    break
+                }
+
+                dao.deleteForNotes(noteIds)
+
+                dao.insert(dao.getRangesForNotes(noteIds).flatMap(occurrences))
+
+                dao.deleteOutdated(noteIds)
+
+                count += noteIds.size
+            }
+        }
+
+        if (BuildConfig.LOG_DEBUG)
+            LogUtils.d(TAG, "Updated agenda occurrences of $count notes in ${System.currentTimeMillis() - startedAt} ms")
+    }
+
+    /**
+     * Agenda occurrences on days in the interval, earliest first.
+     * Requires occurrences to be up to date (see [updateAgendaOccurrences]).
+     */
+    fun agendaOccurrencesInInterval(from: Long, before: Long): List<AgendaOccurrenceDao.Occurrence> {
+        return db.agendaOccurrence().getInInterval(from, before)
+    }
+
     /**
      * Return all known tags
      */
@@ -2301,50 +2708,138 @@ class DataRepository @Inject constructor(
     /**
      * Using current states configuration, update states and titles for all notes.
      * Keywords that were part of the title can become states and vice versa.
+     *
+     * Headings are read in batches ordered by note id. Each batch is parsed on all
+     * available cores and updated in its own transaction, after which [onBatch] is called
+     * with the id of its last note, so parsing can be resumed from there.
+     * Parsing stops if [onBatch] returns false.
+     *
+     * @param afterNoteId only parse notes with greater ids
+     * @return number of updated notes
      */
     @Throws(IOException::class)
-    fun reParseNotesStateAndTitles(): Int {
-        val parserBuilder = OrgParser.Builder()
-                .setTodoKeywords(AppPreferences.todoKeywordsSet(context))
-                .setDoneKeywords(AppPreferences.doneKeywordsSet(context))
+    @JvmOverloads
+    fun reParseNotesStateAndTitles(
+            afterNoteId: Long = 0,
+            onBatch: (lastNoteId: Long, parsed: Int, total: Int) -> Boolean = { _, _, _ -> true }
+    ): Int {
 
-        var updated = 0
+        val todoKeywords = AppPreferences.todoKeywordsSet(context)
+        val doneKeywords = AppPreferences.doneKeywordsSet(context)
 
-        val parserWriter = OrgParserWriter()
+        val total = db.note().getHeadingsCount(afterNoteId)
 
-        db.runInTransaction {
-            db.noteView().getAll().forEach { noteView ->
-                val note = noteView.note
+        val threads = Runtime.getRuntime().availableProcessors().coerceIn(1, REPARSE_MAX_THREADS)
 
-                val head = OrgMapper.toOrgHead(noteView)
+        val executor = Executors.newFixedThreadPool(threads)
 
-                val headString = parserWriter.whiteSpacedHead(head, note.position.level, false)
+        var lastNoteId = afterNoteId
+        var parsed = 0
+        var updated = 0
 
-                /* Re-parse heading using current setting of keywords. */
-                val file = parserBuilder
-                        .setInput(headString)
-                        .build()
-                        .parse()
+        try {
+            while (true) {
+                val headings = db.note().getHeadings(lastNoteId, REPARSE_BATCH_SIZE)
 
-                if (file.headsInList.size != 1) {
-                    throw IOException("Got ${file.headsInList.size} notes after parsing \"$headString\" generated from $note")
+                if (headings.isEmpty()) {
+                    break
                 }
 
-                val newHead = file.headsInList[0].head
+                /* Parse chunks in parallel, one parser per chunk. */
+                val chunkSize = (headings.size + threads - 1) / threads
 
-                /* Update if state, title or priority are different. */
-                if (!TextUtils.equals(newHead.state, head.state) ||
-                        !TextUtils.equals(newHead.title, head.title) ||
-                        !TextUtils.equals(newHead.priority, head.priority)) {
+                val changed = headings.chunked(chunkSize)
+                        .map { chunk ->
+                            executor.submit(Callable {
+                                reParseHeadings(chunk, todoKeywords, doneKeywords)
+                            })
+                        }
+                        .flatMap { it.get() }
 
-                    updated += db.note().update(note.id, newHead.title, newHead.state, newHead.priority)
+                if (changed.isNotEmpty()) {
+                    db.runInTransaction {
+                        changed.forEach { heading ->
+                            updated += db.note().update(heading.id, heading.title, heading.state, heading.priority)
+                        }
+                    }
+                }
+
+                lastNoteId = headings.last().id
+                parsed += headings.size
+
+                if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Parsed $parsed/$total headings, updated $updated")
+
+                if (!onBatch(lastNoteId, parsed, total)) {
+                    break
                 }
             }
+
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+
+        } finally {
+            executor.shutdown()
         }
 
         return updated
     }
 
+    /**
+     * Parses headings (only) with a single parser.
+     *
+     * @return headings whose state, title or priority are different after parsing
+     */
+    private fun reParseHeadings(
+            headings: List<NoteDao.NoteHeading>,
+            todoKeywords: Set<String>,
+            doneKeywords: Set<String>): List<NoteDao.NoteHeading> {
+
+        val parserWriter = OrgParserWriter()
+
+        val input = StringBuilder()
+
+        headings.forEach { heading ->
+            val head = OrgHead().apply {
+                title = heading.title
+                setTags(Note.dbDeSerializeTags(heading.tags).toTypedArray())
+                state = heading.state
+                priority = heading.priority
+            }
+
+            input.append(parserWriter.whiteSpacedHead(head, 1, false))
+
+            if (input.last() != '\n') {
+                input.append('\n')
+            }
+        }
+
+        val file = OrgParser.Builder()
+                .setTodoKeywords(todoKeywords)
+                .setDoneKeywords(doneKeywords)
+                .setInput(input.toString())
+                .build()
+                .parse()
+
+        if (file.headsInList.size != headings.size) {
+            throw IOException("Got ${file.headsInList.size} notes after parsing ${headings.size} headings")
+        }
+
+        return headings.zip(file.headsInList).mapNotNull { (heading, parsedHead) ->
+            val newHead = parsedHead.head
+
+            /* Update if state, title or priority are different. */
+            if (!TextUtils.equals(newHead.state, heading.state) ||
+                    !TextUtils.equals(newHead.title, heading.title) ||
+                    !TextUtils.equals(newHead.priority, heading.priority)) {
+
+                heading.copy(title = newHead.title, state = newHead.state, priority = newHead.priority)
+
+            } else {
+                null
+            }
+        }
+    }
+
     /**
      * Syncs created-at time and property, using lower value if both exist.
      */
@@ -2497,6 +2992,8 @@ class DataRepository @Inject constructor(
         // Clear repo preferences
         AppPreferences.repoPropsMapDelete(context)
 
+        repoFactory.invalidateAll()
+
         val intent = Intent(AppIntent.ACTION_DB_CLEARED)
         LocalBroadcastManager.getInstance(context).sendBroadcast(intent)
     }
@@ -2526,13 +3023,50 @@ class DataRepository @Inject constructor(
         return list
     }
 
+    /**
+     * Instance of the repository, for validating it or using it briefly.
+     * Instance might be closed if the repository is updated, see [acquireRepoInstance].
+     */
     fun getRepoInstance(id: Long, type: RepoType, url: String): SyncRepo {
+        return repoFactory.getInstance(getRepoWithProps(id, type, url))
+    }
+
+    /**
+     * Instance of the repository which is not closed until it's released
+     * with [releaseRepoInstance], even if the repository is updated meanwhile.
+     */
+    fun acquireRepoInstance(id: Long, type: RepoType, url: String): SyncRepo {
+        return repoFactory.acquire(getRepoWithProps(id, type, url))
+    }
+
+    fun releaseRepoInstance(syncRepo: SyncRepo) {
+        repoFactory.release(syncRepo)
+    }
+
+    fun <T> useRepoInstance(id: Long, type: RepoType, url: String, block: (SyncRepo) -> T): T {
+        return repoFactory.use(getRepoWithProps(id, type, url), block)
+    }
+
+    /**
+     * Instances of all repositories, to be released with [releaseRepoInstance].
+     */
+    fun acquireSyncRepos(): List<SyncRepo> {
+        val list = ArrayList<SyncRepo>()
+        for ((id, type, url) in getRepos()) {
+            try {
+                list.add(acquireRepoInstance(id, type, url))
+            } catch (e: Exception) {
+                e.printStackTrace()
+            }
+        }
+        return list
+    }
+
+    private fun getRepoWithProps(id: Long, type: RepoType, url: String): RepoWithProps {
         // Load additional repo parameters, if available
         val props = getRepoPropsMap(id)
 
-        val repoWithProps = RepoWithProps(Repo(id, type, url), props)
-
-        return repoFactory.getInstance(repoWithProps)
+        return RepoWithProps(Repo(id, type, url), props)
     }
 
     fun getRepoPropsMap(id: Long): Map<String, String> {
@@ -2551,6 +3085,11 @@ class DataRepository @Inject constructor(
     companion object {
         private val TAG = DataRepository::class.java.name
 
+        /** Notes whose headings are parsed and updated at once. */
+        private const val REPARSE_BATCH_SIZE = 2000
+
+        private const val REPARSE_MAX_THREADS = 4
+
         const val GETTING_STARTED_NOTEBOOK_RESOURCE_ID = R.raw.orgzly_getting_started
     }
 }
@@ -0,0 +1,174 @@
+package com.orgzly.android.data
+
+import com.orgzly.BuildConfig
+import com.orgzly.android.db.OrgzlyDatabase
+import com.orgzly.android.util.LogUtils
+
+/**
+ * Finds lft and rgt values for notes being added to a book.
+ *
+ * Books are numbered with gaps between values (see [GAP]), so new notes can usually take
+ * free values between their neighbours without touching any other note. When there is not
+ * enough room, values around the insertion point are spread out again, in a window which
+ * is widened until it has enough room. A window reaching the end of the book renumbers
+ * everything after its start with full gaps, which is also how books with contiguous
+ * values (e.g. loaded before gaps were used) are compacted, on first insert.
+ *
+ * Nested set queries only compare values, so renumbering which keeps their order
+ * keeps the tree intact.
+ *
+ * Only positive values are considered. Negative ones are used for notes being moved.
+ *
+ * Must be used inside a transaction.
+ */
+class NotePositionAllocator(private val db: OrgzlyDatabase) {
+
+    /**
+     * Values for new notes, [step] apart, starting with [first].
+     */
+    data class Slot(val first: Long, val step: Long) {
+        /** Value for the 1-based position, such as lft or rgt of an aligned note. */
+        fun position(n: Long): Long {
+            return first + (n - 1) * step
+        }
+    }
+
+    /**
+     * Makes room for [size] values just before the existing [value].
+     */
+    fun allocateBefore(bookId: Long, value: Long, size: Int): Slot {
+        val lower = db.note().getPositionsBefore(bookId, value, 1).firstOrNull() ?: 0
+
+        return allocate(bookId, lower, value, size, 0)
+    }
+
+    /**
+     * Makes room for [size] values just after the existing [value].
+     */
+    fun allocateAfter(bookId: Long, value: Long, size: Int): Slot {
+        val upper = db.note().getPositionsAfter(bookId, value, 1).firstOrNull()
+
+        return allocate(bookId, value, upper, size, 0)
+    }
+
+    /**
+     * Makes room for [length] consecutive values just before the existing [value].
+     *
+     * @return the first value
+     */
+    fun reserveBefore(bookId: Long, value: Long, length: Long): Long {
+        val lower = db.note().getPositionsBefore(bookId, value, 1).firstOrNull() ?: 0
+
+        return allocate(bookId, lower, value, 1, length - 1).first
+    }
+
+    /**
+     * Makes room for [length] consecutive values just after the existing [value].
+     *
+     * @return the first value
+     */
+    fun reserveAfter(bookId: Long, value: Long, length: Long): Long {
+        val upper = db.note().getPositionsAfter(bookId, value, 1).firstOrNull()
+
+        return allocate(bookId, value, upper, 1, length - 1).first
+    }
+
+    /**
+     * Largest number the subtree's values can be divided with and stay distinct,
+     * without bringing values which were [GAP] apart closer than [MIN_STEP].
+     * Used to keep moved subtrees from taking more room than they need.
+     */
+    fun divisorForSubtree(bookId: Long, lft: Long, rgt: Long): Long {
+        var divisor = GAP / MIN_STEP
+
+        while (divisor > 1 && !db.note().arePositionsDivisible(bookId, lft, rgt, divisor)) {
+            divisor /= 4
+        }
+
+        return divisor
+    }
+
+    /**
+     * Finds room for [size] values, the last one followed by [extra] more consecutive values.
+     *
+     * @param lower value after which new values go, or 0 if there is none
+     * @param upper value before which new values go, or null if there is none
+     */
+    private fun allocate(bookId: Long, lower: Long, upper: Long?, size: Int, extra: Long): Slot {
+        if (upper == null) {
+            return Slot(lower + GAP, GAP)
+        }
+
+        val step = (upper - lower - extra) / (size + 1)
+
+        if (step > 0) {
+            return Slot(lower + step, step)
+        }
+
+        return respace(bookId, lower, upper, size, extra)
+    }
+
+    /**
+     * Spreads values around the insertion point, leaving room for [size] (and [extra])
+     * new values between [lower] and [upper].
+     */
+    private fun respace(bookId: Long, lower: Long, upper: Long, size: Int, extra: Long): Slot {
+        var window = WINDOW
+
+        while (true) {
+            /* Values up to lower and from upper, with one more on each side as bounds. */
+            val before = db.note().getPositionsBefore(bookId, lower + 1, window + 1)
+            val after = db.note().getPositionsAfter(bookId, upper - 1, window + 1)
+
+            val left = before.take(window).asReversed()
+            val right = after.take(window)
+
+            val from = if (before.size > window) before[window] else 0
+            val to = if (after.size > window) after[window] else null
+
+            val count = left.size + size + right.size
+
+            val step = if (to == null) GAP else (to - from - extra) / (count + 1)
+
+            if (step < MIN_STEP && to != null) {
+                window *= 4
+                continue
+            }
+
+            val values = HashMap<Long, Long>(left.size + right.size)
+
+            left.forEachIndexed { i, value ->
+                values[value] = from + step * (i + 1)
+            }
+
+            right.forEachIndexed { i, value ->
+                values[value] = from + step * (left.size + size + i + 1) + extra
+            }
+
+            val nodes = db.note().getNodesWithPositionsBetween(
+                    bookId, left.firstOrNull() ?: right.first(), right.last())
+
+            for (node in nodes) {
+                db.note().updatePosition(node.id, values[node.lft] ?: node.lft, values[node.rgt] ?: node.rgt)
+            }
+
+            if (BuildConfig.LOG_DEBUG)
+                LogUtils.d(TAG, "Respaced ${nodes.size} notes in book $bookId with step $step")
+
+            return Slot(from + step * (left.size + 1), step)
+        }
+    }
+
+    companion object {
+        private val TAG = NotePositionAllocator::class.java.name
+
+        /** Distance between consecutive values when a book is loaded or respaced. */
+        const val GAP = 1024L
+
+        /** Smallest distance between values accepted when respacing a window. */
+        private const val MIN_STEP = 16L
+
+        /** Initial number of values on each side of the insertion point to respace. */
+        private const val WINDOW = 16
+    }
+}
@@ -0,0 +1,233 @@
+package com.orgzly.android.data
+
+import androidx.sqlite.db.SupportSQLiteStatement
+import com.orgzly.BuildConfig
+import com.orgzly.android.db.OrgzlyDatabase
+import com.orgzly.android.db.entity.Note
+import com.orgzly.android.util.LogUtils
+import com.orgzly.org.OrgActiveTimestamps
+import com.orgzly.org.OrgProperties
+import com.orgzly.org.datetime.OrgRange
+
+/**
+ * Inserts all notes of a book being loaded.
+ *
+ * [OrgNestedSetParserListener][com.orgzly.org.parser.OrgNestedSetParserListener] reports
+ * nodes after all of their descendants, so parent IDs are not known when a node is received.
+ * Instead of inserting each note and then updating its descendants, notes are collected first
+ * and written in lft order, when parent, folded-under and ancestor IDs can be computed
+ * from a stack of currently open notes.
+ *
+ * Parser's contiguous lft and rgt values are stored [NotePositionAllocator.GAP] apart.
+ *
+ * All statements are compiled once and reused for every row.
+ * Must be used inside a transaction.
+ */
+class NotesBulkLoader(
+        db: OrgzlyDatabase,
+        private val bookId: Long,
+        private val startFolded: Boolean,
+        private val orgRangeIdLookup: (OrgRange) -> Long?) {
+
+    private val sqlDb = db.openHelper.writableDatabase
+
+    private val nodes = ArrayList<Pending>()
+
+    /* Org range IDs by range string, as the same times tend to repeat within a book. */
+    private val orgRangeIds = HashMap<String, Long?>()
+
+    private class Pending(val note: Note, val properties: OrgProperties)
+
+    private class Open(val id: Long, val rgt: Long, val level: Int)
+
+    fun orgRangeId(range: OrgRange?): Long? {
+        if (range == null) {
+            return null
+        }
+
+        return orgRangeIds.getOrPut(range.toString()) {
+            orgRangeIdLookup(range)
+        }
+    }
+
+    fun add(note: Note, properties: OrgProperties) {
+        nodes.add(Pending(note, properties))
+    }
+
+    /**
+     * Writes all added notes, their properties, events and ancestors.
+     *
+     * @return number of inserted notes
+     */
+    fun write(): Int {
+        val startedAt = System.currentTimeMillis()
+
+        if (nodes.isEmpty()) {
+            return 0
+        }
+
+        /* Order nodes by lft. Root note's rgt is the largest value in the book. */
+        val maxRgt = nodes.maxOf { it.note.position.rgt }
+        val byLft = arrayOfNulls<Pending>((maxRgt + 1).toInt())
+        for (node in nodes) {
+            byLft[node.note.position.lft.toInt()] = node
+        }
+        nodes.clear()
+
+        val insertNote = sqlDb.compileStatement(INSERT_NOTE)
+        val insertProperty = sqlDb.compileStatement(INSERT_PROPERTY)
+        val insertEvent = sqlDb.compileStatement(INSERT_EVENT)
+        val insertAncestor = sqlDb.compileStatement(INSERT_ANCESTOR)
+
+        val stack = ArrayList<Open>()
+
+        var count = 0
+        var ancestorsCount = 0
+
+        try {
+            for (node in byLft) {
+                if (node == null) {
+                    continue
+                }
+
+                val position = node.note.position
+
+                /* Close notes which ended before this one. */
+                while (stack.isNotEmpty() && stack.last().rgt < position.lft) {
+                    stack.removeAt(stack.size - 1)
+                }
+
+                val parent = stack.lastOrNull()
+
+                val parentId = parent?.id ?: 0
+                val foldedUnderId = if (startFolded && parent != null && parent.level > 0) parent.id else 0
+
+                val noteId = insertNote(insertNote, node.note, parentId, foldedUnderId)
+
+                insertProperties(insertProperty, noteId, node.properties)
+
+                insertEvents(insertEvent, noteId, node.note, node.properties)
+
+                for (ancestor in stack) {
+                    insertAncestor.bindLong(1, bookId)
+                    insertAncestor.bindLong(2, noteId)
+                    insertAncestor.bindLong(3, ancestor.id)
+                    insertAncestor.executeInsert()
+                    ancestorsCount++
+                }
+
+                stack.add(Open(noteId, position.rgt, position.level))
+
+                count++
+            }
+
+        } finally {
+            insertNote.close()
+            insertProperty.close()
+            insertEvent.close()
+            insertAncestor.close()
+        }
+
+        if (BuildConfig.LOG_DEBUG)
+            LogUtils.d(TAG, "Inserted $count notes and $ancestorsCount ancestors in " +
+                    (System.currentTimeMillis() - startedAt) + " ms")
+
+        return count
+    }
+
+    private fun insertNote(stmt: SupportSQLiteStatement, note: Note, parentId: Long, foldedUnderId: Long): Long {
+        stmt.clearBindings()
+
+        stmt.bindLong(1, note.isCut)
+        stmt.bindNullableLong(2, note.createdAt)
+        stmt.bindString(3, note.title)
+        stmt.bindNullableString(4, note.tags)
+        stmt.bindNullableString(5, note.state)
+        stmt.bindNullableString(6, note.priority)
+        stmt.bindNullableString(7, note.content)
+        stmt.bindLong(8, note.contentLineCount.toLong())
+        stmt.bindNullableLong(9, note.scheduledRangeId)
+        stmt.bindNullableLong(10, note.deadlineRangeId)
+        stmt.bindNullableLong(11, note.closedRangeId)
+        stmt.bindNullableLong(12, note.clockRangeId)
+        stmt.bindLong(13, bookId)
+        /* Leave room for notes added later. */
+        stmt.bindLong(14, note.position.lft * NotePositionAllocator.GAP)
+        stmt.bindLong(15, note.position.rgt * NotePositionAllocator.GAP)
+        stmt.bindLong(16, note.position.level.toLong())
+        stmt.bindLong(17, parentId)
+        stmt.bindLong(18, foldedUnderId)
+        stmt.bindLong(19, if (note.position.isFolded) 1 else 0)
+        stmt.bindLong(20, note.position.descendantsCount.toLong())
+
+        return stmt.executeInsert()
+    }
+
+    private fun insertProperties(stmt: SupportSQLiteStatement, noteId: Long, properties: OrgProperties) {
+        var position = 1L
+
+        for (property in properties.all) {
+            stmt.bindLong(1, noteId)
+            stmt.bindLong(2, position++)
+            stmt.bindString(3, property.name)
+            stmt.bindString(4, property.value)
+            stmt.executeInsert()
+        }
+    }
+
+    /**
+     * Events may come from the note's title, content or properties.
+     */
+    private fun insertEvents(stmt: SupportSQLiteStatement, noteId: Long, note: Note, properties: OrgProperties) {
+        fun parseAndInsert(str: String) {
+            OrgActiveTimestamps.parse(str).forEach { range ->
+                orgRangeId(range)?.let { orgRangeId ->
+                    stmt.bindLong(1, noteId)
+                    stmt.bindLong(2, orgRangeId)
+                    stmt.executeInsert()
+                }
+            }
+        }
+
+        if (note.title.isNotEmpty()) {
+            parseAndInsert(note.title)
+        }
+
+        if (!note.content.isNullOrEmpty()) {
+            parseAndInsert(note.content)
+        }
+
+        for (property in properties.all) {
+            parseAndInsert(property.value)
+        }
+    }
+
+    private fun SupportSQLiteStatement.bindNullableLong(index: Int, value: Long?) {
+        if (value != null) bindLong(index, value) else bindNull(index)
+    }
+
+    private fun SupportSQLiteStatement.bindNullableString(index: Int, value: String?) {
+        if (value != null) bindString(index, value) else bindNull(index)
+    }
+
+    companion object {
+        private val TAG = NotesBulkLoader::class.java.name
+
+        private const val INSERT_NOTE = """
+            INSERT INTO notes (
+                is_cut, created_at, title, tags, state, priority, content, content_line_count,
+                scheduled_range_id, deadline_range_id, closed_range_id, clock_range_id,
+                book_id, lft, rgt, level, parent_id, folded_under_id, is_folded, descendants_count)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+        """
+
+        private const val INSERT_PROPERTY =
+                "INSERT INTO note_properties (note_id, position, name, value) VALUES (?, ?, ?, ?)"
+
+        private const val INSERT_EVENT =
+                "INSERT OR REPLACE INTO note_events (note_id, org_range_id) VALUES (?, ?)"
+
+        private const val INSERT_ANCESTOR =
+                "INSERT INTO note_ancestors (book_id, note_id, ancestor_note_id) VALUES (?, ?, ?)"
+    }
+}
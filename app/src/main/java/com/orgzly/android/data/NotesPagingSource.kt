@@ -0,0 +1,97 @@
+package com.orgzly.android.data
+
+import androidx.paging.PagingConfig
+import androidx.paging.PagingSource
+import androidx.paging.PagingState
+import com.orgzly.android.db.OrgzlyDatabase
+import com.orgzly.android.db.entity.NoteView
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.util.concurrent.Callable
+
+/**
+ * Pages of notes (book's visible notes, search results), keyed by offset.
+ *
+ * Invalidated only by changes which [affects] (see [ChangeTracker]),
+ * not by writes to other books like Room's own paging sources.
+ */
+class NotesPagingSource(
+        private val db: OrgzlyDatabase,
+        private val tracker: ChangeTracker,
+        private val affects: (ChangeTracker.Changes) -> Boolean,
+        private val count: () -> Int,
+        private val page: (limit: Int, offset: Int) -> List<NoteView>
+) : PagingSource<Int, NoteView>() {
+
+    private val listener = ChangeTracker.Listener { changes ->
+        if (affects(changes)) {
+            invalidate()
+        }
+    }
+
+    init {
+        tracker.addListener(listener)
+
+        registerInvalidatedCallback {
+            tracker.removeListener(listener)
+        }
+    }
+
+    override val jumpingSupported: Boolean
+        get() = true
+
+    override fun getRefreshKey(state: PagingState<Int, NoteView>): Int? {
+        return state.anchorPosition?.let { maxOf(0, it - state.config.initialLoadSize / 2) }
+    }
+
+    override suspend fun load(params: LoadParams<Int>): LoadResult<Int, NoteView> {
+        return withContext(Dispatchers.IO) {
+            val key = params.key ?: 0
+
+            db.runInTransaction(Callable {
+                val count = count()
+
+                val (offset, limit) = when (params) {
+                    is LoadParams.Prepend ->
+                        maxOf(0, key - params.loadSize) to minOf(params.loadSize, key)
+
+                    is LoadParams.Append ->
+                        key to params.loadSize
+
+                    is LoadParams.Refresh ->
+                        // Key might be past the end if notes were removed
+                        maxOf(0, minOf(key, count - params.loadSize)) to params.loadSize
+                }
+
+                val notes = page(limit, offset)
+
+                val nextOffset = offset + notes.size
+
+                LoadResult.Page(
+                        data = notes,
+                        prevKey = if (offset > 0) offset else null,
+                        nextKey = if (nextOffset < count) nextOffset else null,
+                        itemsBefore = offset,
+                        itemsAfter = maxOf(0, count - nextOffset))
+            })
+        }
+    }
+
+    companion object {
+        private const val PAGE_SIZE = 50
+
+        /**
+         * Pages are loaded around the displayed position and prefetched while scrolling.
+         */
+        @JvmStatic
+        fun config(): PagingConfig {
+            return PagingConfig(
+                    pageSize = PAGE_SIZE,
+                    prefetchDistance = PAGE_SIZE,
+                    enablePlaceholders = true,
+                    initialLoadSize = PAGE_SIZE * 2,
+                    // Reload around the position when scrolled (or jumped) far away, instead of loading everything in between
+                    jumpThreshold = PAGE_SIZE * 4)
+        }
+    }
+}
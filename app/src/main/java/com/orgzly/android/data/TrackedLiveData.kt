@@ -0,0 +1,79 @@
+package com.orgzly.android.data
+
+import androidx.lifecycle.LiveData
+import com.orgzly.android.App
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Result of a query, loaded again only after changes which affect it.
+ *
+ * Unlike LiveData returned by Room, which runs the query again after any write to
+ * observed tables, [affects] decides which [ChangeTracker.Changes] matter.
+ */
+class TrackedLiveData<T>(
+        private val tracker: ChangeTracker,
+        private val affects: (ChangeTracker.Changes) -> Boolean,
+        private val load: () -> T
+) : LiveData<T>() {
+
+    private val invalid = AtomicBoolean(true)
+
+    private val computing = AtomicBoolean(false)
+
+    @Volatile
+    private var loaded: T? = null
+
+    @Volatile
+    private var loadedVersion: Long = -1
+
+    private val listener = ChangeTracker.Listener { changes ->
+        if (affects(changes)) {
+            invalid.set(true)
+
+            App.EXECUTORS.diskIO().execute(refresh)
+        }
+    }
+
+    private val refresh = Runnable {
+        do {
+            var computed = false
+
+            if (computing.compareAndSet(false, true)) {
+                try {
+                    while (invalid.compareAndSet(true, false)) {
+                        val version = tracker.version
+
+                        loaded = load()
+                        loadedVersion = version
+                        computed = true
+                    }
+
+                    if (computed) {
+                        postValue(loaded)
+                    }
+
+                } finally {
+                    computing.set(false)
+                }
+            }
+
+        } while (computed && invalid.get())
+    }
+
+    override fun onActive() {
+        tracker.addListener(listener)
+
+        /* Changes were missed while inactive. */
+        if (loadedVersion != tracker.version) {
+            invalid.set(true)
+        }
+
+        if (invalid.get()) {
+            App.EXECUTORS.diskIO().execute(refresh)
+        }
+    }
+
+    override fun onInactive() {
+        tracker.removeListener(listener)
+    }
+}
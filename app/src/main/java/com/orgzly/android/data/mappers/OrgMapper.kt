@@ -26,21 +26,47 @@ object OrgMapper {
     fun toOrgHead(noteView: NoteView): OrgHead {
         val note = noteView.note
 
+        return toOrgHead(
+                title = note.title,
+                tags = note.tags,
+                state = note.state,
+                priority = note.priority,
+                scheduled = noteView.scheduledRangeString,
+                deadline = noteView.deadlineRangeString,
+                closed = noteView.closedRangeString,
+                clock = noteView.clockRangeString,
+                content = note.content)
+    }
+
+    /**
+     * [OrgHead] without properties, from note's columns as stored in the database.
+     */
+    fun toOrgHead(
+            title: String,
+            tags: String?,
+            state: String?,
+            priority: String?,
+            scheduled: String?,
+            deadline: String?,
+            closed: String?,
+            clock: String?,
+            content: String?): OrgHead {
+
         return OrgHead().apply {
-            title = note.title
+            this.title = title
 
-            setTags(Note.dbDeSerializeTags(note.tags).toTypedArray())
+            setTags(Note.dbDeSerializeTags(tags).toTypedArray())
 
-            state = note.state
+            this.state = state
 
-            priority = note.priority
+            this.priority = priority
 
-            scheduled = noteView.scheduledRangeString?.let { OrgRange.parse(it) }
-            deadline = noteView.deadlineRangeString?.let { OrgRange.parse(it) }
-            closed = noteView.closedRangeString?.let { OrgRange.parse(it) }
-            clock = noteView.clockRangeString?. let { OrgRange.parse(it) }
+            this.scheduled = scheduled?.let { OrgRange.parse(it) }
+            this.deadline = deadline?.let { OrgRange.parse(it) }
+            this.closed = closed?.let { OrgRange.parse(it) }
+            this.clock = clock?.let { OrgRange.parse(it) }
 
-            content = note.content
+            this.content = content
         }
     }
 
@@ -11,6 +11,8 @@ import androidx.room.migration.Migration
 import androidx.sqlite.db.SupportSQLiteDatabase
 import androidx.sqlite.db.SupportSQLiteQueryBuilder
 import com.orgzly.BuildConfig
+import com.orgzly.android.data.ChangeTracker
+import com.orgzly.android.db.dao.AgendaOccurrenceDao
 import com.orgzly.android.db.dao.AppLogDao
 import com.orgzly.android.db.dao.BookDao
 import com.orgzly.android.db.dao.BookLinkDao
@@ -31,18 +33,25 @@ import com.orgzly.android.db.dao.RookDao
 import com.orgzly.android.db.dao.RookUrlDao
 import com.orgzly.android.db.dao.SavedSearchDao
 import com.orgzly.android.db.dao.VersionedRookDao
+import com.orgzly.android.db.entity.AgendaOccurrence
+import com.orgzly.android.db.entity.AgendaOccurrenceOutdated
 import com.orgzly.android.db.entity.AppLog
 import com.orgzly.android.db.entity.Book
 import com.orgzly.android.db.entity.BookLink
 import com.orgzly.android.db.entity.BookProperty
+import com.orgzly.android.db.entity.BookStats
 import com.orgzly.android.db.entity.BookSync
 import com.orgzly.android.db.entity.DbRepoBook
 import com.orgzly.android.db.entity.Note
 import com.orgzly.android.db.entity.NoteAncestor
 import com.orgzly.android.db.entity.NoteEvent
+import com.orgzly.android.db.entity.NoteFts
+import com.orgzly.android.db.entity.NoteInheritedTags
 import com.orgzly.android.db.entity.NoteProperty
 import com.orgzly.android.db.entity.OrgRange
 import com.orgzly.android.db.entity.OrgTimestamp
+import com.orgzly.android.db.entity.ReminderTime
+import com.orgzly.android.db.entity.ReminderTimeOutdated
 import com.orgzly.android.db.entity.Repo
 import com.orgzly.android.db.entity.Rook
 import com.orgzly.android.db.entity.RookUrl
@@ -56,17 +65,24 @@ import java.util.Calendar
 
 @Database(
         entities = [
+            AgendaOccurrence::class,
+            AgendaOccurrenceOutdated::class,
             Book::class,
             BookLink::class,
             BookProperty::class,
+            BookStats::class,
             BookSync::class,
             DbRepoBook::class,
             Note::class,
             NoteAncestor::class,
+            NoteFts::class,
+            NoteInheritedTags::class,
             NoteProperty::class,
             NoteEvent::class,
             OrgRange::class,
             OrgTimestamp::class,
+            ReminderTime::class,
+            ReminderTimeOutdated::class,
             Repo::class,
             Rook::class,
             RookUrl::class,
@@ -75,11 +91,12 @@ import java.util.Calendar
             AppLog::class
         ],
 
-        version = 157
+        version = 164
 )
 @TypeConverters(com.orgzly.android.db.TypeConverters::class)
 abstract class OrgzlyDatabase : RoomDatabase() {
 
+    abstract fun agendaOccurrence(): AgendaOccurrenceDao
     abstract fun book(): BookDao
     abstract fun bookLink(): BookLinkDao
     abstract fun bookProperty(): BookPropertyDao
@@ -115,6 +132,11 @@ abstract class OrgzlyDatabase : RoomDatabase() {
         fun forMemory(context: Context): OrgzlyDatabase {
             return Room.inMemoryDatabaseBuilder(context.applicationContext, OrgzlyDatabase::class.java)
                     .allowMainThreadQueries()
+                    .addCallback(object : Callback() {
+                        override fun onOpen(db: SupportSQLiteDatabase) {
+                            ChangeTracker.createTempSchema(db)
+                        }
+                    })
                     .build()
         }
 
@@ -151,17 +173,36 @@ abstract class OrgzlyDatabase : RoomDatabase() {
                             MIGRATION_153_154,
                             MIGRATION_154_155,
                             MIGRATION_155_156,
-                            MIGRATION_156_157
+                            MIGRATION_156_157,
+                            MIGRATION_157_158,
+                            MIGRATION_158_159,
+                            MIGRATION_159_160,
+                            MIGRATION_160_161,
+                            MIGRATION_161_162,
+                            MIGRATION_162_163,
+                            MIGRATION_163_164
                     )
                     .addCallback(object : Callback() {
                         override fun onCreate(db: SupportSQLiteDatabase) {
                             if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Database created")
 
                             insertDefaultSearches(db)
+
+                            createNotesFtsTriggers(db)
+
+                            createReminderTimesTriggers(db)
+
+                            createNoteInheritedTagsTriggers(db)
+
+                            createAgendaOccurrencesTriggers(db)
+
+                            createBookStatsTriggers(db)
                         }
 
                         override fun onOpen(db: SupportSQLiteDatabase) {
                             if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Database opened")
+
+                            ChangeTracker.createTempSchema(db)
                         }
                     })
                     .build()
@@ -174,6 +215,240 @@ abstract class OrgzlyDatabase : RoomDatabase() {
             db.execSQL("INSERT INTO searches (`name`, `query`, `position`) VALUES (\"To Do\", \"i.todo\", 4)")
         }
 
+        /**
+         * Keep notes_fts in sync with notes and their properties.
+         */
+        fun createNotesFtsTriggers(db: SupportSQLiteDatabase) {
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS notes_fts_after_insert AFTER INSERT ON notes BEGIN
+                    INSERT INTO notes_fts (rowid, title, content, tags, properties)
+                    VALUES (new.id, new.title, new.content, new.tags, NULL);
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS notes_fts_after_update AFTER UPDATE OF title, content, tags ON notes BEGIN
+                    UPDATE notes_fts SET title = new.title, content = new.content, tags = new.tags
+                    WHERE rowid = new.id;
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS notes_fts_after_delete AFTER DELETE ON notes BEGIN
+                    DELETE FROM notes_fts WHERE rowid = old.id;
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS notes_fts_after_property_insert AFTER INSERT ON note_properties BEGIN
+                    UPDATE notes_fts SET properties = ($SELECT_NOTE_FTS_PROPERTIES new.note_id)
+                    WHERE rowid = new.note_id;
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS notes_fts_after_property_update AFTER UPDATE ON note_properties BEGIN
+                    UPDATE notes_fts SET properties = ($SELECT_NOTE_FTS_PROPERTIES new.note_id)
+                    WHERE rowid = new.note_id;
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS notes_fts_after_property_delete AFTER DELETE ON note_properties BEGIN
+                    UPDATE notes_fts SET properties = ($SELECT_NOTE_FTS_PROPERTIES old.note_id)
+                    WHERE rowid = old.note_id;
+                END
+            """)
+        }
+
+        /**
+         * Mark notes whose reminder times need to be recomputed.
+         */
+        fun createReminderTimesTriggers(db: SupportSQLiteDatabase) {
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS reminder_times_after_note_insert AFTER INSERT ON notes
+                WHEN new.scheduled_range_id IS NOT NULL OR new.deadline_range_id IS NOT NULL BEGIN
+                    INSERT OR IGNORE INTO reminder_times_outdated (note_id) VALUES (new.id);
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS reminder_times_after_note_update AFTER UPDATE OF scheduled_range_id, deadline_range_id ON notes BEGIN
+                    INSERT OR IGNORE INTO reminder_times_outdated (note_id) VALUES (new.id);
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS reminder_times_after_note_delete AFTER DELETE ON notes BEGIN
+                    DELETE FROM reminder_times WHERE note_id = old.id;
+                    DELETE FROM reminder_times_outdated WHERE note_id = old.id;
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS reminder_times_after_event_insert AFTER INSERT ON note_events BEGIN
+                    INSERT OR IGNORE INTO reminder_times_outdated (note_id) VALUES (new.note_id);
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS reminder_times_after_event_delete AFTER DELETE ON note_events BEGIN
+                    INSERT OR IGNORE INTO reminder_times_outdated (note_id) VALUES (old.note_id);
+                END
+            """)
+        }
+
+        /**
+         * Mark notes whose agenda occurrences need to be recomputed.
+         */
+        fun createAgendaOccurrencesTriggers(db: SupportSQLiteDatabase) {
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS agenda_occurrences_after_note_insert AFTER INSERT ON notes
+                WHEN new.scheduled_range_id IS NOT NULL OR new.deadline_range_id IS NOT NULL BEGIN
+                    INSERT OR IGNORE INTO agenda_occurrences_outdated (note_id) VALUES (new.id);
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS agenda_occurrences_after_note_update AFTER UPDATE OF scheduled_range_id, deadline_range_id ON notes BEGIN
+                    INSERT OR IGNORE INTO agenda_occurrences_outdated (note_id) VALUES (new.id);
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS agenda_occurrences_after_note_delete AFTER DELETE ON notes BEGIN
+                    DELETE FROM agenda_occurrences WHERE note_id = old.id;
+                    DELETE FROM agenda_occurrences_outdated WHERE note_id = old.id;
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS agenda_occurrences_after_event_insert AFTER INSERT ON note_events BEGIN
+                    INSERT OR IGNORE INTO agenda_occurrences_outdated (note_id) VALUES (new.note_id);
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS agenda_occurrences_after_event_delete AFTER DELETE ON note_events BEGIN
+                    INSERT OR IGNORE INTO agenda_occurrences_outdated (note_id) VALUES (old.note_id);
+                END
+            """)
+        }
+
+        /**
+         * Keep book_stats in sync with notes' books, states and whether they are cut.
+         */
+        fun createBookStatsTriggers(db: SupportSQLiteDatabase) {
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS book_stats_after_note_insert AFTER INSERT ON notes
+                WHEN ${isCounted("new")} BEGIN
+                    ${incrementBookStats("new")}
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS book_stats_after_note_update AFTER UPDATE OF book_id, state, level, is_cut ON notes
+                WHEN (${isCounted("old")}) != (${isCounted("new")})
+                OR old.book_id != new.book_id
+                OR old.state IS NOT new.state BEGIN
+                    ${decrementBookStats("old")}
+                    ${incrementBookStats("new")}
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS book_stats_after_note_delete AFTER DELETE ON notes
+                WHEN ${isCounted("old")} BEGIN
+                    ${decrementBookStats("old")}
+                END
+            """)
+        }
+
+        /* Root note and cut notes are not counted. */
+        private fun isCounted(note: String): String {
+            return "$note.level > 0 AND $note.is_cut = 0"
+        }
+
+        private fun incrementBookStats(note: String): String {
+            return """
+                INSERT OR IGNORE INTO book_stats (book_id, state, note_count)
+                SELECT $note.book_id, COALESCE($note.state, ''), 0 WHERE ${isCounted(note)};
+
+                UPDATE book_stats SET note_count = note_count + 1
+                WHERE book_id = $note.book_id AND state = COALESCE($note.state, '') AND ${isCounted(note)};
+            """
+        }
+
+        private fun decrementBookStats(note: String): String {
+            return """
+                UPDATE book_stats SET note_count = note_count - 1
+                WHERE book_id = $note.book_id AND state = COALESCE($note.state, '') AND ${isCounted(note)};
+
+                DELETE FROM book_stats
+                WHERE book_id = $note.book_id AND state = COALESCE($note.state, '') AND note_count <= 0;
+            """
+        }
+
+        /**
+         * Keep note_inherited_tags in sync with notes' tags and their ancestors.
+         */
+        fun createNoteInheritedTagsTriggers(db: SupportSQLiteDatabase) {
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS note_inherited_tags_after_ancestor_insert AFTER INSERT ON note_ancestors
+                WHEN $HAS_TAGS new.ancestor_note_id) BEGIN
+                    ${updateNoteInheritedTags("new.note_id")}
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS note_inherited_tags_after_ancestor_delete AFTER DELETE ON note_ancestors
+                WHEN $HAS_TAGS old.ancestor_note_id) BEGIN
+                    ${updateNoteInheritedTags("old.note_id")}
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS note_inherited_tags_after_tags_update AFTER UPDATE OF tags ON notes
+                WHEN COALESCE(old.tags, '') != COALESCE(new.tags, '') BEGIN
+                    DELETE FROM note_inherited_tags
+                    WHERE note_id IN (SELECT note_id FROM note_ancestors WHERE ancestor_note_id = new.id);
+
+                    INSERT INTO note_inherited_tags (note_id, tags)
+                    SELECT note_id, tags FROM (
+                        SELECT na.note_id AS note_id, ($SELECT_INHERITED_TAGS na.note_id) AS tags
+                        FROM note_ancestors na
+                        WHERE na.ancestor_note_id = new.id)
+                    WHERE tags IS NOT NULL;
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS note_inherited_tags_after_note_delete AFTER DELETE ON notes BEGIN
+                    DELETE FROM note_inherited_tags WHERE note_id = old.id;
+                END
+            """)
+        }
+
+        /* Recomputes inherited tags of a single note. Nothing is stored for deleted notes. */
+        private fun updateNoteInheritedTags(noteId: String): String {
+            return """
+                DELETE FROM note_inherited_tags WHERE note_id = $noteId;
+
+                INSERT INTO note_inherited_tags (note_id, tags)
+                SELECT $noteId, tags FROM (SELECT ($SELECT_INHERITED_TAGS $noteId) AS tags)
+                WHERE tags IS NOT NULL AND EXISTS (SELECT 1 FROM notes WHERE id = $noteId);
+            """
+        }
+
+        private const val HAS_TAGS =
+                "EXISTS (SELECT 1 FROM notes WHERE tags IS NOT NULL AND tags != '' AND id ="
+
+        private const val SELECT_INHERITED_TAGS =
+                "SELECT group_concat(a.tags, ' ') FROM note_ancestors na2 JOIN notes a ON a.id = na2.ancestor_note_id WHERE na2.note_id ="
+
+        private const val SELECT_NOTE_FTS_PROPERTIES =
+                "SELECT group_concat(name || ' ' || value, ' ') FROM note_properties WHERE note_id ="
+
         private val MIGRATION_149_150 = object : Migration(149, 150) {
             override fun migrate(db: SupportSQLiteDatabase) {
                 /*
@@ -611,5 +886,101 @@ abstract class OrgzlyDatabase : RoomDatabase() {
                 db.execSQL("CREATE INDEX IF NOT EXISTS `index_book_properties_value` ON `book_properties` (`value`)")
             }
         }
+
+        private val MIGRATION_157_158 = object : Migration(157, 158) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `notes_fts` USING FTS4(`title` TEXT, `content` TEXT, `tags` TEXT, `properties` TEXT)")
+
+                db.execSQL("""
+                    INSERT INTO notes_fts (rowid, title, content, tags, properties)
+                    SELECT id, title, content, tags, ($SELECT_NOTE_FTS_PROPERTIES notes.id)
+                    FROM notes
+                """)
+
+                createNotesFtsTriggers(db)
+            }
+        }
+
+        private val MIGRATION_158_159 = object : Migration(158, 159) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("CREATE TABLE IF NOT EXISTS `reminder_times` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `note_id` INTEGER NOT NULL, `time_type` INTEGER NOT NULL, `org_timestamp_id` INTEGER NOT NULL, `fire_at` INTEGER NOT NULL, FOREIGN KEY(`note_id`) REFERENCES `notes`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE , FOREIGN KEY(`org_timestamp_id`) REFERENCES `org_timestamps`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_reminder_times_note_id` ON `reminder_times` (`note_id`)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_reminder_times_org_timestamp_id` ON `reminder_times` (`org_timestamp_id`)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_reminder_times_fire_at` ON `reminder_times` (`fire_at`)")
+
+                db.execSQL("CREATE TABLE IF NOT EXISTS `reminder_times_outdated` (`note_id` INTEGER NOT NULL, PRIMARY KEY(`note_id`))")
+
+                /* Compute times for all notes on next use. */
+                db.execSQL("INSERT INTO reminder_times_outdated (note_id) SELECT id FROM notes")
+
+                createReminderTimesTriggers(db)
+            }
+        }
+
+        private val MIGRATION_159_160 = object : Migration(159, 160) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("CREATE TABLE IF NOT EXISTS `note_inherited_tags` (`note_id` INTEGER NOT NULL, `tags` TEXT NOT NULL, PRIMARY KEY(`note_id`))")
+
+                db.execSQL("""
+                    INSERT INTO note_inherited_tags (note_id, tags)
+                    SELECT note_id, tags FROM (
+                        SELECT na.note_id AS note_id, group_concat(a.tags, ' ') AS tags
+                        FROM note_ancestors na
+                        JOIN notes a ON a.id = na.ancestor_note_id
+                        GROUP BY na.note_id)
+                    WHERE tags IS NOT NULL
+                """)
+
+                createNoteInheritedTagsTriggers(db)
+            }
+        }
+
+        private val MIGRATION_160_161 = object : Migration(160, 161) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("CREATE TABLE IF NOT EXISTS `agenda_occurrences` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `note_id` INTEGER NOT NULL, `time_type` INTEGER NOT NULL, `org_range_id` INTEGER NOT NULL, `day` INTEGER NOT NULL, `time` INTEGER NOT NULL, FOREIGN KEY(`note_id`) REFERENCES `notes`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE , FOREIGN KEY(`org_range_id`) REFERENCES `org_ranges`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_agenda_occurrences_note_id` ON `agenda_occurrences` (`note_id`)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_agenda_occurrences_org_range_id` ON `agenda_occurrences` (`org_range_id`)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_agenda_occurrences_day` ON `agenda_occurrences` (`day`)")
+
+                db.execSQL("CREATE TABLE IF NOT EXISTS `agenda_occurrences_outdated` (`note_id` INTEGER NOT NULL, PRIMARY KEY(`note_id`))")
+
+                /* Compute occurrences for all notes on next use. */
+                db.execSQL("INSERT INTO agenda_occurrences_outdated (note_id) SELECT id FROM notes")
+
+                createAgendaOccurrencesTriggers(db)
+            }
+        }
+
+        private val MIGRATION_161_162 = object : Migration(161, 162) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                /* Positions are looked up within a book. */
+                db.execSQL("DROP INDEX IF EXISTS `index_notes_lft`")
+                db.execSQL("DROP INDEX IF EXISTS `index_notes_rgt`")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_notes_book_id_lft` ON `notes` (`book_id`, `lft`)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_notes_book_id_rgt` ON `notes` (`book_id`, `rgt`)")
+            }
+        }
+
+        private val MIGRATION_162_163 = object : Migration(162, 163) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("CREATE TABLE IF NOT EXISTS `book_stats` (`book_id` INTEGER NOT NULL, `state` TEXT NOT NULL, `note_count` INTEGER NOT NULL, PRIMARY KEY(`book_id`, `state`), FOREIGN KEY(`book_id`) REFERENCES `books`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )")
+
+                db.execSQL("""
+                    INSERT INTO book_stats (book_id, state, note_count)
+                    SELECT book_id, COALESCE(state, ''), count(*)
+                    FROM notes
+                    WHERE level > 0 AND is_cut = 0
+                    GROUP BY book_id, COALESCE(state, '')
+                """)
+
+                createBookStatsTriggers(db)
+            }
+        }
+
+        private val MIGRATION_163_164 = object : Migration(163, 164) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("ALTER TABLE book_syncs ADD COLUMN content_hash TEXT")
+            }
+        }
     }
 }
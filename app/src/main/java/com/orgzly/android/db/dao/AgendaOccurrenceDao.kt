@@ -0,0 +1,90 @@
+package com.orgzly.android.db.dao
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.Query
+import com.orgzly.android.db.dao.ReminderTimeDao.Companion.DEADLINE_TIME
+import com.orgzly.android.db.dao.ReminderTimeDao.Companion.EVENT_TIME
+import com.orgzly.android.db.dao.ReminderTimeDao.Companion.SCHEDULED_TIME
+import com.orgzly.android.db.entity.AgendaOccurrence
+
+@Dao
+interface AgendaOccurrenceDao {
+    data class NoteRange(
+            var noteId: Long,
+            var timeType: Int,
+            var orgRangeId: Long,
+            var orgRangeString: String)
+
+    data class Occurrence(
+            var noteId: Long,
+            var timeType: Int,
+            var orgRangeString: String,
+            var day: Long,
+            var time: Long)
+
+    /**
+     * Note's ranges which start with an active timestamp.
+     */
+    @Query("""
+        SELECT n.id as noteId, $SCHEDULED_TIME as timeType, r.id as orgRangeId, r.string as orgRangeString
+        FROM notes n
+        JOIN org_ranges r ON (r.id = n.scheduled_range_id)
+        JOIN org_timestamps t ON (t.id = r.start_timestamp_id)
+        WHERE t.is_active = 1 AND n.id IN (:noteIds)
+
+        UNION
+
+        SELECT n.id as noteId, $DEADLINE_TIME as timeType, r.id as orgRangeId, r.string as orgRangeString
+        FROM notes n
+        JOIN org_ranges r ON (r.id = n.deadline_range_id)
+        JOIN org_timestamps t ON (t.id = r.start_timestamp_id)
+        WHERE t.is_active = 1 AND n.id IN (:noteIds)
+
+        UNION
+
+        SELECT e.note_id as noteId, $EVENT_TIME as timeType, r.id as orgRangeId, r.string as orgRangeString
+        FROM note_events e
+        JOIN org_ranges r ON (r.id = e.org_range_id)
+        WHERE e.note_id IN (:noteIds)
+    """)
+    fun getRangesForNotes(noteIds: Collection<Long>): List<NoteRange>
+
+    /**
+     * Occurrences on days from (inclusive) to before (exclusive), ordered by time.
+     */
+    @Query("""
+        SELECT DISTINCT
+        o.note_id as noteId,
+        o.time_type as timeType,
+        r.string as orgRangeString,
+        o.day as day,
+        o.time as time
+        FROM agenda_occurrences o
+        JOIN org_ranges r ON (r.id = o.org_range_id)
+        WHERE o.day >= :from AND o.day < :before
+        ORDER BY o.time
+    """)
+    fun getInInterval(from: Long, before: Long): List<Occurrence>
+
+    @Query("SELECT note_id FROM agenda_occurrences_outdated LIMIT :limit")
+    fun getOutdatedNoteIds(limit: Int): List<Long>
+
+    @Query("DELETE FROM agenda_occurrences_outdated WHERE note_id IN (:noteIds)")
+    fun deleteOutdated(noteIds: Collection<Long>)
+
+    @Query("DELETE FROM agenda_occurrences WHERE note_id IN (:noteIds)")
+    fun deleteForNotes(noteIds: Collection<Long>)
+
+    @Insert
+    fun insert(occurrences: List<AgendaOccurrence>)
+
+    @Query("DELETE FROM agenda_occurrences")
+    fun deleteAll()
+
+    /**
+     * Marks every note for recomputing its occurrences.
+     */
+    @Query("INSERT OR IGNORE INTO agenda_occurrences_outdated (note_id) SELECT id FROM notes")
+    fun markAllOutdated()
+}
@@ -17,6 +17,9 @@ abstract class BookDao : BaseDao<Book> {
     @Query("SELECT * FROM books WHERE name = :name")
     abstract fun get(name: String): Book?
 
+    @Query("SELECT id FROM books WHERE name IN (:names)")
+    abstract fun getIds(names: Collection<String>): List<Long>
+
     @Query("SELECT * FROM books WHERE id = :id")
     abstract fun getLiveData(id: Long): LiveData<Book> // null not allowed, use List
 
@@ -11,14 +11,17 @@ interface BookSyncDao : BaseDao<BookSync> {
     @Query("DELETE FROM book_syncs WHERE book_id = :bookId")
     fun delete(bookId: Long)
 
+    @Query("UPDATE book_syncs SET content_hash = :contentHash WHERE book_id = :bookId")
+    fun updateContentHash(bookId: Long, contentHash: String?)
+
     @Transaction
-    fun upsert(bookId: Long, versionedRookId: Long) {
+    fun upsert(bookId: Long, versionedRookId: Long, contentHash: String? = null) {
         val sync = get(bookId)
 
         if (sync == null) {
-            insert(BookSync(bookId, versionedRookId))
+            insert(BookSync(bookId, versionedRookId, contentHash))
         } else {
-            update(sync.copy(versionedRookId = versionedRookId))
+            update(sync.copy(versionedRookId = versionedRookId, contentHash = contentHash))
         }
     }
 }
@@ -18,6 +18,33 @@ abstract class NoteAncestorDao(val db: OrgzlyDatabase) : BaseDao<NoteAncestor> {
     """)
     abstract fun deleteForSubtrees(ids: Set<Long>)
 
+    /**
+     * Deletes ancestors which are not part of the subtree between [lft] and [rgt],
+     * and moves the rest to [targetBookId].
+     */
+    @Transaction
+    open fun detachSubtree(bookId: Long, lft: Long, rgt: Long, targetBookId: Long) {
+        deleteOutsideSubtree(bookId, lft, rgt)
+
+        if (targetBookId != bookId) {
+            updateBookForSubtree(bookId, lft, rgt, targetBookId)
+        }
+    }
+
+    @Query("""
+        DELETE FROM note_ancestors
+        WHERE note_id IN (SELECT id FROM notes WHERE book_id = :bookId AND :lft <= lft AND rgt <= :rgt)
+        AND ancestor_note_id NOT IN (SELECT id FROM notes WHERE book_id = :bookId AND :lft <= lft AND rgt <= :rgt)
+    """)
+    abstract fun deleteOutsideSubtree(bookId: Long, lft: Long, rgt: Long)
+
+    @Query("""
+        UPDATE note_ancestors
+        SET book_id = :targetBookId
+        WHERE note_id IN (SELECT id FROM notes WHERE book_id = :bookId AND :lft <= lft AND rgt <= :rgt)
+    """)
+    abstract fun updateBookForSubtree(bookId: Long, lft: Long, rgt: Long, targetBookId: Long)
+
     /*
      * "INSERT query type is not supported yet"
      * https://issuetracker.google.com/issues/109900809
@@ -43,6 +70,18 @@ abstract class NoteAncestorDao(val db: OrgzlyDatabase) : BaseDao<NoteAncestor> {
     """)
     abstract fun insertAncestorsForNotesChunk(ids: List<Long>)
 
+    /**
+     * Inserts ancestors of notes between [lft] and [rgt] which are outside of that range.
+     */
+    @Query("""
+        INSERT INTO note_ancestors (book_id, note_id, ancestor_note_id)
+        SELECT n.book_id, n.id, a.id
+        FROM notes n
+        JOIN notes a ON (n.book_id = a.book_id AND a.lft < :lft AND :rgt < a.rgt)
+        WHERE n.book_id = :bookId AND :lft <= n.lft AND n.rgt <= :rgt
+    """)
+    abstract fun insertOutsideAncestorsBetween(bookId: Long, lft: Long, rgt: Long)
+
     @Query("""
         INSERT INTO note_ancestors (book_id, note_id, ancestor_note_id)
         SELECT n.book_id, n.id, a.id
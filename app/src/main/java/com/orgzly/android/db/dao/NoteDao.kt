@@ -1,5 +1,6 @@
 package com.orgzly.android.db.dao
 
+import android.database.Cursor
 import androidx.lifecycle.LiveData
 import androidx.room.Dao
 import androidx.room.Query
@@ -152,8 +153,12 @@ abstract class NoteDao : BaseDao<Note> {
     """)
     abstract fun incrementDescendantsCountForAncestors(bookId: Long, lft: Long, rgt: Long): Int
 
-    @Query("UPDATE notes SET rgt = rgt + 2 WHERE book_id = :bookId AND level = 0")
-    abstract fun incrementRgtForRootNote(bookId: Long)
+    @Query("""
+        UPDATE notes
+        SET descendants_count = descendants_count + :diff
+        WHERE book_id = :bookId AND $WHERE_EXISTING_NOTES AND lft < :lft AND :rgt < rgt
+    """)
+    abstract fun addToDescendantsCountForAncestors(bookId: Long, lft: Long, rgt: Long, diff: Int): Int
 
     @Query("SELECT id FROM notes WHERE book_id = :bookId AND level = 0")
     abstract fun getRootNodeId(bookId: Long): Long?
@@ -161,17 +166,6 @@ abstract class NoteDao : BaseDao<Note> {
     @Query("SELECT * FROM notes WHERE book_id = :bookId AND level = 0")
     abstract fun getRootNode(bookId: Long): Note?
 
-    @Query("""
-        UPDATE notes
-        SET descendants_count = (
-            SELECT count(*)
-            FROM notes d
-            WHERE (notes.book_id = d.book_id AND $WHERE_EXISTING_NOTES AND notes.lft < d.lft AND d.rgt < notes.rgt)
-        )
-        WHERE id IN ($SELECT_NOTE_AND_ANCESTORS_IDS_FOR_IDS)
-    """)
-    abstract fun updateDescendantsCountForNoteAndAncestors(ids: List<Long>)
-
     @Query("""
         UPDATE notes
         SET descendants_count = (
@@ -196,6 +190,15 @@ abstract class NoteDao : BaseDao<Note> {
     @Query("UPDATE notes SET title = :title, state = :state, priority = :priority WHERE id = :id")
     abstract fun update(id: Long, title: String, state: String?, priority: String?): Int
 
+    /**
+     * Headings of notes after [afterId], ordered by id, for re-parsing them in batches.
+     */
+    @Query("SELECT id, title, tags, state, priority FROM notes WHERE id > :afterId AND level > 0 ORDER BY id LIMIT :limit")
+    abstract fun getHeadings(afterId: Long, limit: Int): List<NoteHeading>
+
+    @Query("SELECT count(*) FROM notes WHERE id > :afterId AND level > 0")
+    abstract fun getHeadingsCount(afterId: Long): Int
+
     @Query("UPDATE notes SET scheduled_range_id = :timeId WHERE id IN (:ids)")
     abstract fun updateScheduledTime(ids: Set<Long>, timeId: Long?)
 
@@ -274,35 +277,42 @@ abstract class NoteDao : BaseDao<Note> {
     """)
     abstract fun unfoldDescendantsUnderId(bookId: Long, noteId: Long, lft: Long, rgt: Long)
 
-    @Query("UPDATE notes SET lft = lft + :inc WHERE (book_id = :bookId AND $WHERE_EXISTING_NOTES) AND lft >= :value")
-    abstract fun incrementLftForLftGe(bookId: Long, value: Long, inc: Int)
-
-    @Query("UPDATE notes SET lft = lft + :inc WHERE (book_id = :bookId AND $WHERE_EXISTING_NOTES) AND lft > :value")
-    abstract fun incrementLftForLftGt(bookId: Long, value: Long, inc: Int)
-
-    @Query("UPDATE notes SET rgt = rgt + :inc WHERE book_id = :bookId AND is_cut = 0 AND rgt > :value")
-    abstract fun incrementRgtForRgtGtOrRoot(bookId: Long, value: Long, inc: Int)
-
-    @Query("UPDATE notes SET rgt = rgt + :inc WHERE book_id = :bookId AND is_cut = 0 AND rgt >= :value")
-    abstract fun incrementRgtForRgtGeOrRoot(bookId: Long, value: Long, inc: Int)
+    /**
+     * Up to [limit] positive lft and rgt values in the book lower than [value], highest first.
+     */
+    @Query("""
+        SELECT value FROM (
+            SELECT lft AS value FROM notes WHERE book_id = :bookId AND 0 < lft AND lft < :value ORDER BY lft DESC LIMIT :limit)
+        UNION ALL
+        SELECT value FROM (
+            SELECT rgt AS value FROM notes WHERE book_id = :bookId AND 0 < rgt AND rgt < :value ORDER BY rgt DESC LIMIT :limit)
+        ORDER BY value DESC
+        LIMIT :limit
+    """)
+    abstract fun getPositionsBefore(bookId: Long, value: Long, limit: Int): List<Long>
 
-    @Transaction
-    open fun unfoldNotesFoldedUnderOthers(ids: Set<Long>) {
-        ids.chunked(OrgzlyDatabase.SQLITE_MAX_VARIABLE_NUMBER/2).forEach { chunk ->
-            unfoldNotesFoldedUnderOthersChunk(chunk)
-        }
-    }
+    /**
+     * Up to [limit] positive lft and rgt values in the book greater than [value], lowest first.
+     */
+    @Query("""
+        SELECT value FROM (
+            SELECT lft AS value FROM notes WHERE book_id = :bookId AND lft > :value ORDER BY lft LIMIT :limit)
+        UNION ALL
+        SELECT value FROM (
+            SELECT rgt AS value FROM notes WHERE book_id = :bookId AND rgt > :value ORDER BY rgt LIMIT :limit)
+        ORDER BY value
+        LIMIT :limit
+    """)
+    abstract fun getPositionsAfter(bookId: Long, value: Long, limit: Int): List<Long>
 
     @Query("""
-        UPDATE notes
-        SET folded_under_id = 0
-        WHERE id IN (:ids)
-        AND folded_under_id NOT IN (:ids)
+        SELECT id, lft, rgt FROM notes
+        WHERE book_id = :bookId AND (lft BETWEEN :from AND :to OR rgt BETWEEN :from AND :to)
     """)
-    abstract fun unfoldNotesFoldedUnderOthersChunk(ids: List<Long>)
+    abstract fun getNodesWithPositionsBetween(bookId: Long, from: Long, to: Long): List<NoteLftRgt>
 
-    @Query("UPDATE notes SET folded_under_id = :foldedUnder WHERE id IN (:ids) AND folded_under_id = 0")
-    abstract fun foldUnfolded(ids: Set<Long>, foldedUnder: Long)
+    @Query("UPDATE notes SET lft = :lft, rgt = :rgt WHERE id = :id")
+    abstract fun updatePosition(id: Long, lft: Long, rgt: Long)
 
     @Query("UPDATE notes SET folded_under_id = :parentId WHERE id = :noteId")
     abstract fun setFoldedUnder(noteId: Long, parentId: Long)
@@ -310,12 +320,53 @@ abstract class NoteDao : BaseDao<Note> {
     @Query("UPDATE notes SET parent_id = :parentId WHERE id = :noteId")
     abstract fun updateParentForNote(noteId: Long, parentId: Long)
 
+    @Query("UPDATE notes SET parent_id = :parentId WHERE id IN (:ids)")
+    abstract fun updateParentForNotes(ids: Collection<Long>, parentId: Long)
+
+    /**
+     * Moves all notes of the subtree between [lft] and [rgt] to [targetBookId], changing their
+     * values by dividing their distance from [lft] with [divisor] and adding [offset].
+     */
     @Query("""
         UPDATE notes
-        SET book_id = :bookId, level = :level, lft = :lft, rgt = :rgt, parent_id = :parentId
-        WHERE id = :noteId
+        SET book_id = :targetBookId,
+        lft = (lft - :lft) / :divisor + :offset,
+        rgt = (rgt - :lft) / :divisor + :offset,
+        level = level + :levelOffset
+        WHERE book_id = :bookId AND :lft <= lft AND rgt <= :rgt
     """)
-    abstract fun updateNote(noteId: Long, bookId: Long, level: Int, lft: Long, rgt: Long, parentId: Long)
+    abstract fun moveSubtree(bookId: Long, lft: Long, rgt: Long, targetBookId: Long, divisor: Long, offset: Long, levelOffset: Int): Int
+
+    /**
+     * Moves notes with negative values (see [moveSubtree]) to their final place.
+     */
+    @Query("UPDATE notes SET lft = lft + :offset, rgt = rgt + :offset WHERE book_id = :bookId AND lft < 0")
+    abstract fun shiftNegativePositions(bookId: Long, offset: Long): Int
+
+    /**
+     * Whether all lft and rgt values of the subtree stay distinct when divided with [divisor].
+     */
+    @Query("""
+        SELECT count(DISTINCT (value - :lft) / :divisor) = count(*) FROM (
+            SELECT lft AS value FROM notes WHERE book_id = :bookId AND :lft <= lft AND lft <= :rgt
+            UNION ALL
+            SELECT rgt AS value FROM notes WHERE book_id = :bookId AND :lft <= rgt AND rgt <= :rgt)
+    """)
+    abstract fun arePositionsDivisible(bookId: Long, lft: Long, rgt: Long, divisor: Long): Boolean
+
+    @Query("SELECT count(*) FROM notes WHERE book_id = :bookId AND $WHERE_EXISTING_NOTES AND :lft <= lft AND rgt <= :rgt")
+    abstract fun getCountBetween(bookId: Long, lft: Long, rgt: Long): Int
+
+    @Query("""
+        UPDATE notes
+        SET folded_under_id = 0
+        WHERE book_id = :bookId AND :lft <= lft AND rgt <= :rgt AND folded_under_id != 0
+        AND folded_under_id NOT IN (SELECT id FROM notes WHERE book_id = :bookId AND :lft <= lft AND rgt <= :rgt)
+    """)
+    abstract fun unfoldNotesBetweenFoldedUnderOthers(bookId: Long, lft: Long, rgt: Long)
+
+    @Query("UPDATE notes SET folded_under_id = :foldedUnder WHERE book_id = :bookId AND :lft <= lft AND rgt <= :rgt AND folded_under_id = 0")
+    abstract fun foldUnfoldedBetween(bookId: Long, lft: Long, rgt: Long, foldedUnder: Long)
 
     @Query("""
         SELECT notes.id as noteId, notes.book_id as bookId
@@ -360,6 +411,40 @@ abstract class NoteDao : BaseDao<Note> {
     @Query("UPDATE notes SET created_at= :time WHERE id = :noteId")
     abstract fun updateCreatedAtTime(noteId: Long, time: Long)
 
+    /**
+     * Book's notes in lft order, with one row per property (or a single row if there are none).
+     * Columns are indexed by [ExportColumns].
+     */
+    @Query("""
+        SELECT
+        notes.id,
+        notes.level,
+        notes.title,
+        notes.tags,
+        notes.state,
+        notes.priority,
+        notes.content,
+        sr.string,
+        dr.string,
+        cr.string,
+        clr.string,
+        note_properties.name,
+        note_properties.value
+
+        FROM notes
+
+        LEFT JOIN org_ranges sr ON (sr.id = notes.scheduled_range_id)
+        LEFT JOIN org_ranges dr ON (dr.id = notes.deadline_range_id)
+        LEFT JOIN org_ranges cr ON (cr.id = notes.closed_range_id)
+        LEFT JOIN org_ranges clr ON (clr.id = notes.clock_range_id)
+        LEFT JOIN note_properties ON (note_properties.note_id = notes.id)
+
+        WHERE notes.book_id = :bookId AND $WHERE_EXISTING_NOTES
+
+        ORDER BY notes.lft, note_properties.position
+    """)
+    abstract fun getNotesForExport(bookId: Long): Cursor
+
     companion object {
         /* Every book has a root note with level 0. */
         const val WHERE_EXISTING_NOTES = "(is_cut = 0 AND level > 0)"
@@ -430,8 +515,33 @@ abstract class NoteDao : BaseDao<Note> {
         }
     }
 
+    object ExportColumns {
+        const val ID = 0
+        const val LEVEL = 1
+        const val TITLE = 2
+        const val TAGS = 3
+        const val STATE = 4
+        const val PRIORITY = 5
+        const val CONTENT = 6
+        const val SCHEDULED = 7
+        const val DEADLINE = 8
+        const val CLOSED = 9
+        const val CLOCK = 10
+        const val PROPERTY_NAME = 11
+        const val PROPERTY_VALUE = 12
+    }
+
     data class NoteIdBookId(val noteId: Long, val bookId: Long)
 
+    data class NoteLftRgt(val id: Long, val lft: Long, val rgt: Long)
+
+    data class NoteHeading(
+            val id: Long,
+            val title: String,
+            val tags: String?,
+            val state: String?,
+            val priority: String?)
+
     data class NoteForStateUpdate(
             val noteId: Long,
             val state: String?,
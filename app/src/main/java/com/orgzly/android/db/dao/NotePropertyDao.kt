@@ -11,6 +11,9 @@ abstract class NotePropertyDao : BaseDao<NoteProperty> {
     @Query("SELECT * FROM note_properties WHERE note_id = :noteId ORDER BY position")
     abstract fun get(noteId: Long): List<NoteProperty>
 
+    @Query("SELECT * FROM note_properties WHERE note_id IN (:noteIds) ORDER BY note_id, position")
+    abstract fun get(noteIds: Collection<Long>): List<NoteProperty>
+
     @Query("SELECT * FROM note_properties WHERE note_id = :noteId AND name = :name ORDER BY position")
     abstract fun get(noteId: Long, name: String): List<NoteProperty>
 
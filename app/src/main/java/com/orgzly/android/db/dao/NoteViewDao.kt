@@ -1,18 +1,18 @@
 package com.orgzly.android.db.dao
 
-import androidx.lifecycle.LiveData
 import androidx.room.Dao
 import androidx.room.Query
 import androidx.room.RawQuery
 import androidx.sqlite.db.SupportSQLiteQuery
 import com.orgzly.android.db.entity.Book
 import com.orgzly.android.db.entity.Note
+import com.orgzly.android.db.entity.NoteInheritedTags
 import com.orgzly.android.db.entity.NoteView
 import org.intellij.lang.annotations.Language
 
 @Dao
 abstract class NoteViewDao {
-    @Query("$QUERY WHERE notes.level > 0 GROUP BY notes.id")
+    @Query("$QUERY WHERE notes.level > 0")
     abstract fun getAll(): List<NoteView>
 
     @Query("""
@@ -21,37 +21,51 @@ abstract class NoteViewDao {
         AND notes.level > 0
         AND notes.is_cut = 0
         AND notes.folded_under_id = 0
-        GROUP BY notes.id
         ORDER BY notes.lft
+        LIMIT :limit OFFSET :offset
     """)
-    abstract fun getVisibleLiveData(bookId: Long): LiveData<List<NoteView>>
+    abstract fun getVisible(bookId: Long, limit: Int, offset: Int): List<NoteView>
 
     @Query("""
-        $QUERY
-        WHERE notes.book_id = :bookId
-        AND notes.level > 0
-        AND notes.is_cut = 0
-        AND notes.folded_under_id = 0
-        AND :lft <= notes.lft
-        AND notes.rgt <= :rgt
-        GROUP BY notes.id
-        ORDER BY notes.lft
+        SELECT count(*)
+        FROM notes
+        WHERE book_id = :bookId
+        AND level > 0
+        AND is_cut = 0
+        AND folded_under_id = 0
     """)
-    abstract fun getVisibleLiveData(bookId: Long, lft: Long, rgt: Long): LiveData<List<NoteView>>
+    abstract fun getVisibleCount(bookId: Long): Int
 
-    @RawQuery(observedEntities = [ Note::class, Book::class ])
-    abstract fun runQueryLiveData(query: SupportSQLiteQuery): LiveData<List<NoteView>>
+    /**
+     * Same notes as [getVisible], without loading their details.
+     */
+    @Query("""
+        SELECT id
+        FROM notes
+        WHERE book_id = :bookId
+        AND level > 0
+        AND is_cut = 0
+        AND folded_under_id = 0
+        ORDER BY lft
+    """)
+    abstract fun getVisibleIds(bookId: Long): List<Long>
 
-    @RawQuery(observedEntities = [ Note::class, Book::class ])
+    @RawQuery(observedEntities = [ Note::class, NoteInheritedTags::class, Book::class ])
     abstract fun runQuery(query: SupportSQLiteQuery): List<NoteView>
 
-    @Query("$QUERY WHERE notes.id = :id GROUP BY notes.id")
+    @RawQuery(observedEntities = [ Note::class, NoteInheritedTags::class, Book::class ])
+    abstract fun runIdsQuery(query: SupportSQLiteQuery): List<Long>
+
+    @RawQuery(observedEntities = [ Note::class, NoteInheritedTags::class, Book::class ])
+    abstract fun runCountQuery(query: SupportSQLiteQuery): Int
+
+    @Query("$QUERY WHERE notes.id = :id")
     abstract fun get(id: Long): NoteView?
 
-    @Query("$QUERY WHERE notes.title = :title GROUP BY notes.id ORDER BY lft DESC LIMIT 1")
+    @Query("$QUERY WHERE notes.title = :title ORDER BY lft DESC LIMIT 1")
     abstract fun getLast(title: String): NoteView?
 
-    @Query("$QUERY WHERE book_name = :bookName AND notes.level > 0 AND notes.is_cut = 0 GROUP BY notes.id ORDER BY notes.lft")
+    @Query("$QUERY WHERE book_name = :bookName AND notes.level > 0 AND notes.is_cut = 0 ORDER BY notes.lft")
     abstract fun getBookNotes(bookName: String): List<NoteView>
 
 
@@ -62,7 +76,7 @@ abstract class NoteViewDao {
 
             notes.*,
 
-            group_concat(t_notes_with_inherited_tags.tags, ' ') AS inherited_tags,
+            t_note_inherited_tags.tags AS inherited_tags,
 
             t_scheduled_range.string AS scheduled_range_string,
             t_scheduled_timestamps_start.string AS scheduled_time_string,
@@ -112,8 +126,7 @@ abstract class NoteViewDao {
             LEFT JOIN org_timestamps t_clock_timestamps_start ON t_clock_timestamps_start.id = t_clock_range.start_timestamp_id
             LEFT JOIN org_timestamps t_clock_timestamps_end ON t_clock_timestamps_end.id = t_clock_range.end_timestamp_id
             LEFT JOIN books t_books ON t_books.id = notes.book_id
-            LEFT JOIN note_ancestors t_note_ancestors ON t_note_ancestors.note_id = notes.id
-            LEFT JOIN notes t_notes_with_inherited_tags ON t_notes_with_inherited_tags.id = t_note_ancestors.ancestor_note_id
+            LEFT JOIN note_inherited_tags t_note_inherited_tags ON t_note_inherited_tags.note_id = notes.id
         """
 
         @Language("RoomSql")
@@ -122,7 +135,7 @@ abstract class NoteViewDao {
 
             notes.*,
 
-            group_concat(t_notes_with_inherited_tags.tags, ' ') AS inherited_tags,
+            t_note_inherited_tags.tags AS inherited_tags,
 
             t_scheduled_range.string AS scheduled_range_string,
             t_scheduled_timestamps_start.is_active AS scheduled_is_active,
@@ -174,8 +187,7 @@ abstract class NoteViewDao {
             LEFT JOIN org_timestamps t_clock_timestamps_start ON t_clock_timestamps_start.id = t_clock_range.start_timestamp_id
             LEFT JOIN org_timestamps t_clock_timestamps_end ON t_clock_timestamps_end.id = t_clock_range.end_timestamp_id
             LEFT JOIN books t_books ON t_books.id = notes.book_id
-            LEFT JOIN note_ancestors t_note_ancestors ON t_note_ancestors.note_id = notes.id
-            LEFT JOIN notes t_notes_with_inherited_tags ON t_notes_with_inherited_tags.id = t_note_ancestors.ancestor_note_id
+            LEFT JOIN note_inherited_tags t_note_inherited_tags ON t_note_inherited_tags.note_id = notes.id
 
             LEFT JOIN note_events t_note_events ON t_note_events.note_id = notes.id
             LEFT JOIN org_ranges t_note_events_range ON t_note_events_range.id = t_note_events.org_range_id
@@ -1,7 +1,9 @@
 package com.orgzly.android.db.dao
 
 import androidx.room.Dao
+import androidx.room.Insert
 import androidx.room.Query
+import com.orgzly.android.db.entity.ReminderTime
 
 @Dao
 interface ReminderTimeDao {
@@ -13,43 +15,40 @@ interface ReminderTimeDao {
             var title: String,
             var tags: String?,
             var timeType: Int,
+            var orgTimestampId: Long,
             var orgTimestampString: String)
 
     @Query("""
-        SELECT
-        n.id as noteId,
-        n.book_id as bookId,
-        coalesce(b.title, b.name) as bookName,
-        n.state as state,
-        n.title as title,
-        n.tags as tags,
-        $SCHEDULED_TIME as timeType,
-        t.string as orgTimestampString
-        FROM org_ranges r
-        JOIN org_timestamps t ON (r.start_timestamp_id = t.id )
-        JOIN notes n ON (r.id = n.scheduled_range_id)
-        JOIN books b ON (b.id = n.book_id)
-        WHERE t.is_active = 1
+        $SELECT_SCHEDULED_TIMES
 
         UNION
 
-        SELECT
-        n.id as noteId,
-        n.book_id as bookId,
-        coalesce(b.title, b.name) as bookName,
-        n.state as state,
-        n.title as title,
-        n.tags as tags,
-        $DEADLINE_TIME as timeType,
-        t.string as orgTimestampString
-        FROM org_ranges r
-        JOIN org_timestamps t ON (r.start_timestamp_id = t.id )
-        JOIN notes n ON (r.id = n.deadline_range_id)
-        JOIN books b ON (b.id = n.book_id)
-        WHERE t.is_active = 1
+        $SELECT_DEADLINE_TIMES
+
+        UNION
+
+        $SELECT_EVENT_TIMES
+    """)
+    fun getAll(): List<NoteTime>
+
+    @Query("""
+        $SELECT_SCHEDULED_TIMES AND n.id IN (:noteIds)
 
         UNION
 
+        $SELECT_DEADLINE_TIMES AND n.id IN (:noteIds)
+
+        UNION
+
+        $SELECT_EVENT_TIMES AND n.id IN (:noteIds)
+    """)
+    fun getForNotes(noteIds: Collection<Long>): List<NoteTime>
+
+    /**
+     * Note times with reminder times between from (per time type) and before, earliest first.
+     * Pass [Long.MAX_VALUE] as time type's from to skip it.
+     */
+    @Query("""
         SELECT
         n.id as noteId,
         n.book_id as bookId,
@@ -57,20 +56,108 @@ interface ReminderTimeDao {
         n.state as state,
         n.title as title,
         n.tags as tags,
-        $EVENT_TIME as timeType,
+        rt.time_type as timeType,
+        t.id as orgTimestampId,
         t.string as orgTimestampString
-        FROM note_events e
-        JOIN org_ranges r ON (r.id = e.org_range_id)
-        JOIN org_timestamps t ON (t.id = r.start_timestamp_id)
-        JOIN notes n ON (n.id = e.note_id)
+        FROM reminder_times rt
+        JOIN notes n ON (n.id = rt.note_id)
         JOIN books b ON (b.id = n.book_id)
-
+        JOIN org_timestamps t ON (t.id = rt.org_timestamp_id)
+        WHERE rt.fire_at >= min(:fromScheduled, :fromDeadline, :fromEvent) AND rt.fire_at <= :before
+        AND (rt.time_type = $SCHEDULED_TIME AND rt.fire_at >= :fromScheduled
+          OR rt.time_type = $DEADLINE_TIME AND rt.fire_at >= :fromDeadline
+          OR rt.time_type = $EVENT_TIME AND rt.fire_at >= :fromEvent)
+        AND (n.state IS NULL OR n.state NOT IN (:doneStates))
+        ORDER BY rt.fire_at
+        LIMIT :limit
     """)
-    fun getAll(): List<NoteTime>
+    fun getInInterval(
+            fromScheduled: Long,
+            fromDeadline: Long,
+            fromEvent: Long,
+            before: Long,
+            doneStates: Collection<String>,
+            limit: Int): List<NoteTime>
+
+    @Query("SELECT note_id FROM reminder_times_outdated LIMIT :limit")
+    fun getOutdatedNoteIds(limit: Int): List<Long>
+
+    @Query("DELETE FROM reminder_times_outdated WHERE note_id IN (:noteIds)")
+    fun deleteOutdated(noteIds: Collection<Long>)
+
+    @Query("DELETE FROM reminder_times WHERE note_id IN (:noteIds)")
+    fun deleteForNotes(noteIds: Collection<Long>)
+
+    @Insert
+    fun insert(reminderTimes: List<ReminderTime>)
+
+    @Query("DELETE FROM reminder_times")
+    fun deleteAll()
+
+    /**
+     * Marks every note for recomputing its reminder times.
+     */
+    @Query("INSERT OR IGNORE INTO reminder_times_outdated (note_id) SELECT id FROM notes")
+    fun markAllOutdated()
 
     companion object {
         const val SCHEDULED_TIME = 1
         const val DEADLINE_TIME = 2
         const val EVENT_TIME = 3
+
+        const val SELECT_SCHEDULED_TIMES = """
+            SELECT
+            n.id as noteId,
+            n.book_id as bookId,
+            coalesce(b.title, b.name) as bookName,
+            n.state as state,
+            n.title as title,
+            n.tags as tags,
+            $SCHEDULED_TIME as timeType,
+            t.id as orgTimestampId,
+            t.string as orgTimestampString
+            FROM org_ranges r
+            JOIN org_timestamps t ON (r.start_timestamp_id = t.id )
+            JOIN notes n ON (r.id = n.scheduled_range_id)
+            JOIN books b ON (b.id = n.book_id)
+            WHERE t.is_active = 1
+        """
+
+        const val SELECT_DEADLINE_TIMES = """
+            SELECT
+            n.id as noteId,
+            n.book_id as bookId,
+            coalesce(b.title, b.name) as bookName,
+            n.state as state,
+            n.title as title,
+            n.tags as tags,
+            $DEADLINE_TIME as timeType,
+            t.id as orgTimestampId,
+            t.string as orgTimestampString
+            FROM org_ranges r
+            JOIN org_timestamps t ON (r.start_timestamp_id = t.id )
+            JOIN notes n ON (r.id = n.deadline_range_id)
+            JOIN books b ON (b.id = n.book_id)
+            WHERE t.is_active = 1
+        """
+
+        const val SELECT_EVENT_TIMES = """
+            SELECT
+            n.id as noteId,
+            n.book_id as bookId,
+            coalesce(b.title, b.name) as bookName,
+            n.state as state,
+            n.title as title,
+            n.tags as tags,
+            $EVENT_TIME as timeType,
+            t.id as orgTimestampId,
+            t.string as orgTimestampString
+            FROM note_events e
+            JOIN org_ranges r ON (r.id = e.org_range_id)
+            JOIN org_timestamps t ON (t.id = r.start_timestamp_id)
+            JOIN notes n ON (n.id = e.note_id)
+            JOIN books b ON (b.id = n.book_id)
+            WHERE 1
+        """
     }
 }
@@ -0,0 +1,52 @@
+package com.orgzly.android.db.entity
+
+import androidx.room.*
+
+/**
+ * Precomputed occurrence of a note's active scheduled, deadline or event time,
+ * with repeaters and ranges expanded for the agenda horizon.
+ *
+ * Rows are recomputed for notes listed in [AgendaOccurrenceOutdated].
+ */
+@Entity(
+        tableName = "agenda_occurrences",
+
+        foreignKeys = [
+            ForeignKey(
+                    entity = Note::class,
+                    parentColumns = arrayOf("id"),
+                    childColumns = arrayOf("note_id"),
+                    onDelete = ForeignKey.CASCADE),
+
+            ForeignKey(
+                    entity = OrgRange::class,
+                    parentColumns = arrayOf("id"),
+                    childColumns = arrayOf("org_range_id"),
+                    onDelete = ForeignKey.CASCADE)
+        ],
+
+        indices = [
+            Index("note_id"),
+            Index("org_range_id"),
+            Index("day")
+        ]
+)
+data class AgendaOccurrence(
+        @PrimaryKey(autoGenerate = true)
+        val id: Long,
+
+        @ColumnInfo(name = "note_id")
+        val noteId: Long,
+
+        @ColumnInfo(name = "time_type")
+        val timeType: Int,
+
+        @ColumnInfo(name = "org_range_id")
+        val orgRangeId: Long,
+
+        /** Start of the (local) day of the occurrence, in milliseconds since epoch */
+        val day: Long,
+
+        /** Time of the occurrence, in milliseconds since epoch */
+        val time: Long
+)
@@ -0,0 +1,15 @@
+package com.orgzly.android.db.entity
+
+import androidx.room.*
+
+/**
+ * Notes whose [AgendaOccurrence]s need to be recomputed.
+ *
+ * Filled by triggers whenever note's times change.
+ */
+@Entity(tableName = "agenda_occurrences_outdated")
+data class AgendaOccurrenceOutdated(
+        @PrimaryKey
+        @ColumnInfo(name = "note_id")
+        val noteId: Long
+)
@@ -0,0 +1,33 @@
+package com.orgzly.android.db.entity
+
+import androidx.room.*
+
+/**
+ * Number of book's notes in each state (empty for notes without one).
+ *
+ * Kept up to date by triggers, so books can be listed with their note counts
+ * without counting notes. Cut notes and the root note are not counted.
+ * Counts are kept per state, as which states are to-do or done depends on settings.
+ */
+@Entity(
+        tableName = "book_stats",
+
+        primaryKeys = [ "book_id", "state" ],
+
+        foreignKeys = [
+            ForeignKey(
+                    entity = Book::class,
+                    parentColumns = arrayOf("id"),
+                    childColumns = arrayOf("book_id"),
+                    onDelete = ForeignKey.CASCADE)
+        ]
+)
+data class BookStats(
+        @ColumnInfo(name = "book_id")
+        val bookId: Long,
+
+        val state: String,
+
+        @ColumnInfo(name = "note_count")
+        val noteCount: Int
+)
@@ -28,5 +28,9 @@ data class BookSync(
         val bookId: Long,
 
         @ColumnInfo(name = "versioned_rook_id")
-        val versionedRookId: Long
+        val versionedRookId: Long,
+
+        /** Digest of the synced remote book's content, if known. */
+        @ColumnInfo(name = "content_hash")
+        val contentHash: String? = null
 )
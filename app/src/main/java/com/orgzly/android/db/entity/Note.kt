@@ -41,8 +41,8 @@ import com.google.gson.Gson
             Index("content"),
             Index("book_id"),
             Index("is_cut"),
-            Index("lft"),
-            Index("rgt"),
+            Index("book_id", "lft"),
+            Index("book_id", "rgt"),
             Index("is_folded"),
             Index("folded_under_id"),
             Index("parent_id"),
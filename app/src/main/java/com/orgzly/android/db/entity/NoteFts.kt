@@ -0,0 +1,51 @@
+package com.orgzly.android.db.entity
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.Fts4
+import androidx.room.PrimaryKey
+
+/**
+ * Full-text index of notes. Row ID is the note ID.
+ *
+ * Kept in sync with `notes` and `note_properties` by triggers
+ * (see [com.orgzly.android.db.OrgzlyDatabase.createNotesFtsTriggers]).
+ */
+@Fts4
+@Entity(tableName = "notes_fts")
+data class NoteFts(
+        @PrimaryKey
+        @ColumnInfo(name = "rowid")
+        val rowId: Long,
+
+        val title: String?,
+
+        val content: String?,
+
+        val tags: String?,
+
+        /** Names and values of all note's properties */
+        val properties: String?
+) {
+    companion object {
+        /* Characters which are not part of a term for FTS "simple" tokenizer. */
+        private val SEPARATORS = "[\\x00-\\x2F\\x3A-\\x40\\x5B-\\x60\\x7B-\\x7F]+".toRegex()
+
+        /**
+         * Phrase query matching notes which contain all terms from the text in order,
+         * with the last term used as a prefix.
+         *
+         * Returns null if the text contains no terms.
+         */
+        @JvmStatic
+        fun matchQuery(text: String): String? {
+            val terms = text.split(SEPARATORS).filter { it.isNotEmpty() }
+
+            if (terms.isEmpty()) {
+                return null
+            }
+
+            return terms.joinToString(" ", prefix = "\"", postfix = "*\"")
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.orgzly.android.db.entity
+
+import androidx.room.*
+
+/**
+ * Tags of all note's ancestors, space-separated, for notes which have any.
+ *
+ * Kept up to date by triggers on `notes` and `note_ancestors`
+ * (see [com.orgzly.android.db.OrgzlyDatabase.createNoteInheritedTagsTriggers]),
+ * so that views don't have to aggregate ancestors' tags.
+ */
+@Entity(tableName = "note_inherited_tags")
+data class NoteInheritedTags(
+        @PrimaryKey
+        @ColumnInfo(name = "note_id")
+        val noteId: Long,
+
+        val tags: String
+)
@@ -0,0 +1,49 @@
+package com.orgzly.android.db.entity
+
+import androidx.room.*
+
+/**
+ * Precomputed reminder time of a note's scheduled, deadline or event time.
+ *
+ * Rows are recomputed for notes listed in [ReminderTimeOutdated].
+ */
+@Entity(
+        tableName = "reminder_times",
+
+        foreignKeys = [
+            ForeignKey(
+                    entity = Note::class,
+                    parentColumns = arrayOf("id"),
+                    childColumns = arrayOf("note_id"),
+                    onDelete = ForeignKey.CASCADE),
+
+            ForeignKey(
+                    entity = OrgTimestamp::class,
+                    parentColumns = arrayOf("id"),
+                    childColumns = arrayOf("org_timestamp_id"),
+                    onDelete = ForeignKey.CASCADE)
+        ],
+
+        indices = [
+            Index("note_id"),
+            Index("org_timestamp_id"),
+            Index("fire_at")
+        ]
+)
+data class ReminderTime(
+        @PrimaryKey(autoGenerate = true)
+        val id: Long,
+
+        @ColumnInfo(name = "note_id")
+        val noteId: Long,
+
+        @ColumnInfo(name = "time_type")
+        val timeType: Int,
+
+        @ColumnInfo(name = "org_timestamp_id")
+        val orgTimestampId: Long,
+
+        /** When the reminder should go off, in milliseconds since epoch */
+        @ColumnInfo(name = "fire_at")
+        val fireAt: Long
+)
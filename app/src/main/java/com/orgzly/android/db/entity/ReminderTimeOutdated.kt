@@ -0,0 +1,15 @@
+package com.orgzly.android.db.entity
+
+import androidx.room.*
+
+/**
+ * Notes whose [ReminderTime]s need to be recomputed.
+ *
+ * Filled by triggers whenever note's times change.
+ */
+@Entity(tableName = "reminder_times_outdated")
+data class ReminderTimeOutdated(
+        @PrimaryKey
+        @ColumnInfo(name = "note_id")
+        val noteId: Long
+)
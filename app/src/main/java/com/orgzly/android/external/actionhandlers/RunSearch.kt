@@ -1,21 +1,57 @@
 package com.orgzly.android.external.actionhandlers
 
+import android.content.Context
 import android.content.Intent
 import com.orgzly.android.external.types.ExternalHandlerFailure
 import com.orgzly.android.external.types.Note
 import com.orgzly.android.query.user.InternalQueryParser
+import com.orgzly.android.util.AgendaUtils
 
 class RunSearch : ExternalAccessActionHandler() {
     override val actions = listOf(
         action(::runSearch, "SEARCH")
     )
 
-    private fun runSearch(intent: Intent): List<Note> {
+    /**
+     * Optional extras: LIMIT and OFFSET for paging through results,
+     * SKIP_FIELDS listing fields not to return (see [Note.OptionalField]).
+     */
+    private fun runSearch(intent: Intent, context: Context): List<Note> {
         val searchTerm = intent.getStringExtra("QUERY")
         if (searchTerm.isNullOrBlank()) throw ExternalHandlerFailure("invalid search term")
         val query = InternalQueryParser().parse(searchTerm)
-        val notes = dataRepository.selectNotesFromQuery(query)
-        val notesWithProps = notes.map { it to dataRepository.getNoteProperties(it.note.id) }
-        return notesWithProps.map(Note::from)
+
+        val limit = intent.getIntExtra("LIMIT", -1)
+        if (limit < -1) throw ExternalHandlerFailure("invalid limit")
+        val offset = intent.getIntExtra("OFFSET", 0)
+        if (offset < 0) throw ExternalHandlerFailure("invalid offset")
+
+        val skipped = intent.getSkippedFields()
+
+        /* Agenda notes are selected by their stored occurrences. */
+        if (query.isAgenda()) {
+            AgendaUtils.updateOccurrences(context, dataRepository, query.options.agendaDays)
+        }
+
+        val notes = dataRepository.selectNotesFromQuery(query, limit, offset)
+
+        /* Properties of all notes at once. */
+        val props = if (Note.OptionalField.PROPERTIES in skipped) {
+            emptyMap()
+        } else {
+            dataRepository.getNotesProperties(notes.map { it.note.id }.toSet())
+        }
+
+        return notes.map { Note.from(it, props[it.note.id], skipped) }
     }
+
+    private fun Intent.getSkippedFields(): Set<Note.OptionalField> =
+        (getStringExtra("SKIP_FIELDS") ?: "")
+            .split("[,\\s]+".toRegex())
+            .filter { it.isNotEmpty() }
+            .map {
+                Note.OptionalField.fromKey(it)
+                    ?: throw ExternalHandlerFailure("invalid field to skip: $it")
+            }
+            .toSet()
 }
@@ -8,7 +8,7 @@ data class Note(
         val title: String,
         val content: String?,
         val tags: List<String>,
-        val inheritedTags: List<String>,
+        val inheritedTags: List<String>?,
         val bookName: String,
         val scheduled: Timestamp?,
         val deadline: Timestamp?,
@@ -16,19 +16,31 @@ data class Note(
         val priority: String?,
         val state: String?,
         val createdAt: Long?,
-        val properties: Map<String, String>
+        val properties: Map<String, String>?
 ) {
+    /** Fields which can be skipped, as they are expensive to load or large. */
+    enum class OptionalField(val key: String) {
+        CONTENT("content"),
+        INHERITED_TAGS("inheritedTags"),
+        PROPERTIES("properties");
+
+        companion object {
+            fun fromKey(key: String) = values().find { it.key == key }
+        }
+    }
+
     companion object {
-        fun from(view: NoteView, props: List<NoteProperty>): Note {
+        fun from(view: NoteView, props: List<NoteProperty>?, skipped: Set<OptionalField> = emptySet()): Note {
             val note = view.note
             return Note(
                 note.id,
                 note.title,
-                note.content,
+                if (OptionalField.CONTENT in skipped) null else note.content,
                 note.tags?.split(" +".toRegex())
                         ?.filter { it.isNotEmpty() }
                         ?: emptyList(),
-                view.getInheritedTagsList()
+                if (OptionalField.INHERITED_TAGS in skipped) null
+                else view.getInheritedTagsList()
                         .filter { it.isNotEmpty() },
                 view.bookName,
                 Timestamp.from(
@@ -52,7 +64,8 @@ data class Note(
                 note.priority,
                 note.state,
                 note.createdAt,
-                props.associate { it.name to it.value }
+                if (OptionalField.PROPERTIES in skipped) null
+                else props.orEmpty().associate { it.name to it.value }
             )
         }
 
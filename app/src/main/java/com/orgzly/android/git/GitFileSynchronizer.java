@@ -5,6 +5,7 @@ import static com.orgzly.android.ui.AppSnackbarUtils.showSnackbar;
 import android.app.Activity;
 import android.content.Context;
 import android.net.Uri;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.orgzly.BuildConfig;
@@ -19,8 +20,14 @@ import org.eclipse.jgit.api.MergeResult;
 import org.eclipse.jgit.api.ResetCommand;
 import org.eclipse.jgit.api.Status;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.JGitInternalException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEntry;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -34,7 +41,9 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.List;
 import java.util.TimeZone;
 
@@ -47,6 +56,14 @@ public class GitFileSynchronizer {
     private final Context context;
     private final Activity currentActivity = App.getCurrentActivity();
 
+    /*
+     * Files staged since beginBatch(), to be committed together.
+     * Null when updated files are committed one by one.
+     */
+    private List<String> batchPaths = null;
+
+    /* Last commit made by this instance, to tell its own changes from anyone else's. */
+    private RevCommit lastCommit = null;
 
     public GitFileSynchronizer(Git g, GitPreferences prefs) {
         git = g;
@@ -238,6 +255,30 @@ public class GitFileSynchronizer {
         }
     }
 
+    /**
+     * Commit which the current branch points to in the remote repository, without fetching it.
+     *
+     * @return commit or null if there is no such branch in the remote repository
+     */
+    public ObjectId getRemoteHead() throws IOException {
+        try {
+            String branchRef = Constants.R_HEADS + git.getRepository().getBranch();
+            Collection<Ref> refs = (Collection<Ref>) transportSetter()
+                    .setTransport(git.lsRemote()
+                            .setRemote(preferences.remoteName())
+                            .setHeads(true))
+                    .call();
+            for (Ref ref : refs) {
+                if (ref.getName().equals(branchRef)) {
+                    return ref.getObjectId();
+                }
+            }
+            return null;
+        } catch (GitAPIException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
     public void tryPush() {
         final var pushCommand = transportSetter().setTransport(
                 git.push().setRemote(preferences.remoteName()));
@@ -375,13 +416,97 @@ public class GitFileSynchronizer {
         return backOnMainBranch;
     }
 
+    /**
+     * Start staging files updated by {@link #updateAndCommitExistingFile} and
+     * {@link #addAndCommitNewFile}, instead of committing each one.
+     * Staged files are committed at once by {@link #endBatch}, or before any other
+     * operation which requires a clean repository (merging, creating conflict branches, ...).
+     *
+     * Changes left over from a batch which was never committed (app stopped while syncing)
+     * are discarded. Their books were not marked as stored, so they are stored again.
+     */
+    public void beginBatch() throws IOException {
+        if (!gitRepoIsClean()) {
+            Log.w(TAG, "Discarding uncommitted changes left over from a previous batch");
+            try {
+                git.reset().setMode(ResetCommand.ResetType.HARD).call();
+            } catch (GitAPIException | JGitInternalException e) {
+                throw new IOException("Failed to discard uncommitted changes: " + e.getMessage());
+            }
+        }
+        batchPaths = new ArrayList<>();
+    }
+
+    /**
+     * Commit all files staged since {@link #beginBatch} and go back to committing files one by one.
+     * If the commit fails, staged files are discarded, so the repository is left clean
+     * (or it is cleaned by the next {@link #beginBatch}) and the books are stored again
+     * by the next sync.
+     */
+    public void endBatch() throws IOException {
+        try {
+            commitBatch();
+        } catch (IOException e) {
+            discardBatch();
+            throw e;
+        } finally {
+            batchPaths = null;
+        }
+    }
+
+    /*
+     * Repository was clean when the first file was staged, so only staged files are reset.
+     */
+    private void discardBatch() {
+        if (batchPaths == null || batchPaths.isEmpty()) {
+            return;
+        }
+        try {
+            git.reset().setMode(ResetCommand.ResetType.HARD).call();
+        } catch (GitAPIException | JGitInternalException e) {
+            Log.w(TAG, String.format("Failed to discard %d staged files: %s", batchPaths.size(), e.getMessage()));
+        }
+    }
+
+    public boolean isInBatch() {
+        return batchPaths != null;
+    }
+
+    private void commitBatch() throws IOException {
+        if (batchPaths == null || batchPaths.isEmpty()) {
+            return;
+        }
+        String message;
+        if (batchPaths.size() == 1) {
+            message = String.format("Orgzly update: %s", batchPaths.get(0));
+        } else {
+            message = String.format("Orgzly update: %d files\n\n%s",
+                    batchPaths.size(), TextUtils.join("\n", batchPaths));
+        }
+        if (BuildConfig.LOG_DEBUG) {
+            LogUtils.d(TAG, String.format("Committing %d staged files", batchPaths.size()));
+        }
+        try {
+            commit(message);
+        } catch (GitAPIException | JGitInternalException e) {
+            throw new IOException("Failed to commit changes.");
+        }
+        batchPaths.clear();
+    }
+
     public void updateAndCommitExistingFile(File sourceFile, String repositoryPath) throws IOException {
-        ensureRepoIsClean();
+        if (!isInBatch()) {
+            ensureRepoIsClean();
+        }
         File destinationFile = workTreeFile(repositoryPath);
         if (!destinationFile.exists()) {
             throw new FileNotFoundException("File " + destinationFile + " does not exist");
         }
-        updateAndCommitFile(sourceFile, repositoryPath);
+        if (isInBatch()) {
+            stageFile(sourceFile, repositoryPath);
+        } else {
+            updateAndCommitFile(sourceFile, repositoryPath);
+        }
     }
 
     /**
@@ -391,13 +516,19 @@ public class GitFileSynchronizer {
      * @throws IOException If the file already exists
      */
     public void addAndCommitNewFile(File sourceFile, String repositoryPath) throws IOException {
-        ensureRepoIsClean();
+        if (!isInBatch()) {
+            ensureRepoIsClean();
+        }
         File destinationFile = workTreeFile(repositoryPath);
         if (destinationFile.exists()) {
             throw new IOException("Can't add new file " + repositoryPath + " that already exists.");
         }
         ensureDirectoryHierarchy(repositoryPath);
-        updateAndCommitFile(sourceFile, repositoryPath);
+        if (isInBatch()) {
+            stageFile(sourceFile, repositoryPath);
+        } else {
+            updateAndCommitFile(sourceFile, repositoryPath);
+        }
     }
 
     private void ensureDirectoryHierarchy(String repositoryPath) throws IOException {
@@ -423,8 +554,78 @@ public class GitFileSynchronizer {
         }
     }
 
+    /**
+     * Write the file to the work tree and its blob straight to the index,
+     * without "git add" and "git status" scanning the whole work tree.
+     */
+    private void stageFile(File sourceFile, String repoRelativePath) throws IOException {
+        /* Only our own staged files are allowed, check once per batch commit. */
+        if (batchPaths.isEmpty()) {
+            ensureRepoIsClean();
+        }
+
+        File destinationFile = workTreeFile(repoRelativePath);
+        MiscUtils.copyFile(sourceFile, destinationFile);
+
+        Repository repository = git.getRepository();
+
+        DirCache index = repository.lockDirCache();
+        try (ObjectInserter inserter = repository.newObjectInserter()) {
+            final ObjectId blobId;
+            try (InputStream in = new FileInputStream(destinationFile)) {
+                blobId = inserter.insert(Constants.OBJ_BLOB, destinationFile.length(), in);
+            }
+
+            /* Unchanged file, nothing to commit. */
+            RevCommit head = currentHead();
+            if (head != null && !batchPaths.contains(repoRelativePath)) {
+                TreeWalk walk = TreeWalk.forPath(repository, repoRelativePath, head.getTree());
+                if (walk != null && blobId.equals(walk.getObjectId(0))) {
+                    return;
+                }
+            }
+
+            inserter.flush();
+
+            final long length = destinationFile.length();
+            final long lastModified = destinationFile.lastModified();
+
+            DirCacheEditor editor = index.editor();
+            editor.add(new DirCacheEditor.PathEdit(repoRelativePath) {
+                @Override
+                public void apply(DirCacheEntry entry) {
+                    entry.setFileMode(FileMode.REGULAR_FILE);
+                    entry.setObjectId(blobId);
+                    entry.setLength(length);
+                    entry.setLastModified(lastModified);
+                }
+            });
+            if (!editor.commit()) {
+                throw new IOException("Failed to update index for " + repoRelativePath);
+            }
+        } finally {
+            index.unlock();
+        }
+
+        if (!batchPaths.contains(repoRelativePath)) {
+            batchPaths.add(repoRelativePath);
+        }
+    }
+
     private void commit(String message) throws GitAPIException {
-        git.commit().setMessage(message).call();
+        lastCommit = git.commit().setMessage(message).call();
+    }
+
+    public RevCommit getLastCommit() {
+        return lastCommit;
+    }
+
+    /**
+     * Commit which the current branch points to in the remote repository,
+     * as of the last fetch or push.
+     */
+    public RevCommit getRemoteTrackingHead() throws IOException {
+        return getCommit(preferences.remoteName() + "/" + git.getRepository().getBranch());
     }
 
     public RevCommit currentHead() throws IOException {
@@ -460,7 +661,12 @@ public class GitFileSynchronizer {
         }
     }
 
+    /*
+     * Files staged in batch are committed first, as they are not unexpected changes,
+     * and any operation which requires a clean repository must see them committed.
+     */
     private void ensureRepoIsClean() throws IOException {
+        commitBatch();
         if (!gitRepoIsClean())
             throw new IOException("Refusing to update because there are uncommitted changes.");
     }
@@ -0,0 +1,234 @@
+package com.orgzly.android.git;
+
+import com.orgzly.BuildConfig;
+import com.orgzly.android.util.LogUtils;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the last commit which modified each of the given files,
+ * like {@code git log --max-count=1 -- path} would, but for all files in a single walk.
+ *
+ * Results are cached by the instance, together with the HEAD and its tree they were
+ * resolved for. When HEAD moves forward, only the new commits are walked.
+ * An instance should only be used with a single repository.
+ */
+public class LastCommitResolver {
+    private static final String TAG = LastCommitResolver.class.getName();
+
+    /* HEAD and its tree which cached commits are valid for. */
+    private ObjectId cachedHead;
+    private ObjectId cachedTree;
+
+    private final Map<String, Entry> cache = new HashMap<>();
+
+    private static class Entry {
+        final ObjectId blob;
+        final RevCommit commit;
+
+        Entry(ObjectId blob, RevCommit commit) {
+            this.blob = blob;
+            this.commit = commit;
+        }
+    }
+
+    /**
+     * @return last commit modifying each of the paths, for paths which exist in head's tree
+     */
+    public synchronized Map<String, RevCommit> lastCommits(
+            Repository repository, RevCommit head, Collection<String> paths) throws IOException {
+        long startedAt = System.currentTimeMillis();
+
+        advanceTo(repository, head);
+
+        Map<String, RevCommit> result = new HashMap<>();
+        Set<String> missing = new HashSet<>();
+
+        for (String path : paths) {
+            Entry entry = cache.get(path);
+            if (entry != null) {
+                result.put(path, entry.commit);
+            } else {
+                missing.add(path);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            Map<String, ObjectId> blobs = blobs(repository, head, missing);
+            Map<String, RevCommit> found = walk(repository, head, null, blobs);
+
+            for (Map.Entry<String, RevCommit> e : found.entrySet()) {
+                cache.put(e.getKey(), new Entry(blobs.get(e.getKey()), e.getValue()));
+                result.put(e.getKey(), e.getValue());
+            }
+        }
+
+        if (BuildConfig.LOG_DEBUG) {
+            LogUtils.d(TAG, "Resolved " + result.size() + " files (" + missing.size() + " not cached) in "
+                    + (System.currentTimeMillis() - startedAt) + " ms");
+        }
+
+        return result;
+    }
+
+    /**
+     * Updates cached commits for the new head.
+     *
+     * If the previously cached head is its ancestor, only commits between the two are walked.
+     * Otherwise (e.g. after a reset), everything cached is dropped.
+     */
+    private void advanceTo(Repository repository, RevCommit head) throws IOException {
+        if (head.equals(cachedHead)) {
+            return;
+        }
+
+        if (cachedHead == null || !isAncestor(repository, cachedHead, head)) {
+            cache.clear();
+
+        } else if (!head.getTree().equals(cachedTree) && !cache.isEmpty()) {
+            Map<String, ObjectId> blobs = blobs(repository, head, cache.keySet());
+            Map<String, RevCommit> found = walk(repository, head, cachedHead, blobs);
+
+            for (String path : new HashSet<>(cache.keySet())) {
+                ObjectId blob = blobs.get(path);
+                RevCommit commit = found.get(path);
+
+                if (commit != null) {
+                    cache.put(path, new Entry(blob, commit));
+
+                } else if (blob == null || !blob.equals(cache.get(path).blob)) {
+                    /* Deleted, or changed in a way new commits alone don't explain. */
+                    cache.remove(path);
+                }
+            }
+        }
+
+        cachedHead = head.copy();
+        cachedTree = head.getTree().copy();
+    }
+
+    private static boolean isAncestor(Repository repository, ObjectId ancestor, RevCommit head) throws IOException {
+        try (RevWalk revWalk = new RevWalk(repository)) {
+            return revWalk.isMergedInto(revWalk.parseCommit(ancestor), revWalk.parseCommit(head));
+        } catch (MissingObjectException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Blob IDs of paths in head's tree. Paths which do not exist are not included.
+     */
+    private static Map<String, ObjectId> blobs(Repository repository, RevCommit head, Collection<String> paths) throws IOException {
+        Map<String, ObjectId> result = new HashMap<>();
+
+        try (TreeWalk treeWalk = new TreeWalk(repository)) {
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(PathFilterGroup.createFromStrings(paths));
+            treeWalk.addTree(head.getTree());
+
+            while (treeWalk.next()) {
+                result.put(treeWalk.getPathString(), treeWalk.getObjectId(0));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Walks history from head (down to, but excluding, since) once,
+     * comparing each commit's tree with its parents' only for paths not yet resolved.
+     * Subtrees with identical IDs are skipped by the tree walk.
+     *
+     * A commit is considered to have modified a path if it introduced the blob which is
+     * in head and it's different from the blob in every parent (merges which just
+     * took the path from one of the parents are skipped).
+     */
+    private static Map<String, RevCommit> walk(Repository repository, RevCommit head, ObjectId since, Map<String, ObjectId> blobs) throws IOException {
+        Map<String, RevCommit> found = new HashMap<>();
+        Set<String> pending = new HashSet<>(blobs.keySet());
+
+        int commits = 0;
+
+        try (RevWalk revWalk = new RevWalk(repository); TreeWalk treeWalk = new TreeWalk(repository)) {
+            revWalk.markStart(revWalk.parseCommit(head));
+            if (since != null) {
+                revWalk.markUninteresting(revWalk.parseCommit(since));
+            }
+
+            treeWalk.setRecursive(true);
+
+            TreeFilter filter = null;
+
+            for (RevCommit commit : revWalk) {
+                if (pending.isEmpty()) {
+                    break;
+                }
+
+                commits++;
+
+                if (filter == null) {
+                    filter = AndTreeFilter.create(PathFilterGroup.createFromStrings(pending), TreeFilter.ANY_DIFF);
+                }
+
+                treeWalk.reset();
+                treeWalk.setFilter(filter);
+                treeWalk.addTree(commit.getTree());
+
+                RevCommit[] parents = commit.getParents();
+                if (parents.length == 0) {
+                    treeWalk.addTree(new EmptyTreeIterator());
+                } else {
+                    for (RevCommit parent : parents) {
+                        treeWalk.addTree(revWalk.parseCommit(parent).getTree());
+                    }
+                }
+
+                while (treeWalk.next()) {
+                    String path = treeWalk.getPathString();
+
+                    if (!pending.contains(path) || !treeWalk.getObjectId(0).equals(blobs.get(path))) {
+                        continue;
+                    }
+
+                    if (isModified(treeWalk)) {
+                        found.put(path, commit);
+                        pending.remove(path);
+                        filter = null;
+                    }
+                }
+            }
+        }
+
+        if (BuildConfig.LOG_DEBUG) {
+            LogUtils.d(TAG, "Walked " + commits + " commits for " + blobs.size() + " files, "
+                    + pending.size() + " unresolved");
+        }
+
+        return found;
+    }
+
+    private static boolean isModified(TreeWalk treeWalk) {
+        for (int i = 1; i < treeWalk.getTreeCount(); i++) {
+            if (treeWalk.idEqual(0, i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1059,6 +1059,32 @@ public class AppPreferences {
         return getStateSharedPreferences(context).getLong(key, 0L);
     }
 
+    /*
+     * Re-parsing notes after keywords change, resumed after the last parsed note.
+     * Position is stored together with the ID of the work which parsed it,
+     * so that a newly scheduled work starts from the first note.
+     */
+
+    public static void reParseNotesLastNoteId(Context context, String workId, long value) {
+        String workIdKey = context.getResources().getString(R.string.pref_key_reparse_notes_work_id);
+        String key = context.getResources().getString(R.string.pref_key_reparse_notes_last_note_id);
+        getStateSharedPreferences(context).edit()
+                .putString(workIdKey, workId)
+                .putLong(key, value)
+                .apply();
+    }
+
+    public static long reParseNotesLastNoteId(Context context, String workId) {
+        String workIdKey = context.getResources().getString(R.string.pref_key_reparse_notes_work_id);
+        String key = context.getResources().getString(R.string.pref_key_reparse_notes_last_note_id);
+        SharedPreferences prefs = getStateSharedPreferences(context);
+        if (workId.equals(prefs.getString(workIdKey, null))) {
+            return prefs.getLong(key, 0L);
+        } else {
+            return 0L;
+        }
+    }
+
     /*
      * ReminderWorker
      */
@@ -1093,6 +1119,30 @@ public class AppPreferences {
         return getStateSharedPreferences(context).getLong(key, 0L);
     }
 
+    /*
+     * Settings which stored reminder times were computed with.
+     */
+
+    public static void reminderTimesComputedFor(Context context, String value) {
+        String key = context.getResources().getString(R.string.pref_key_reminder_times_computed_for);
+        getStateSharedPreferences(context).edit().putString(key, value).apply();
+    }
+
+    public static String reminderTimesComputedFor(Context context) {
+        String key = context.getResources().getString(R.string.pref_key_reminder_times_computed_for);
+        return getStateSharedPreferences(context).getString(key, null);
+    }
+
+    public static void agendaOccurrencesComputedFor(Context context, String value) {
+        String key = context.getResources().getString(R.string.pref_key_agenda_occurrences_computed_for);
+        getStateSharedPreferences(context).edit().putString(key, value).apply();
+    }
+
+    public static String agendaOccurrencesComputedFor(Context context) {
+        String key = context.getResources().getString(R.string.pref_key_agenda_occurrences_computed_for);
+        return getStateSharedPreferences(context).getString(key, null);
+    }
+
 
     /*
      * Auto Sync
@@ -35,4 +35,47 @@ object QueryUtils {
 
         return null
     }
+
+    /**
+     * Names of books whose notes can match the condition, or null if notes of any book can.
+     */
+    @JvmStatic
+    fun bookNamesMatchedByCondition(condition: Condition?): Set<String>? {
+        return when (condition) {
+            is Condition.InBook ->
+                if (condition.not) null else setOf(condition.name)
+
+            /* Any operand limiting books is enough. */
+            is Condition.And ->
+                condition.operands.mapNotNull { bookNamesMatchedByCondition(it) }.firstOrNull()
+
+            /* All operands must be limiting books. */
+            is Condition.Or -> {
+                val names = condition.operands.map { bookNamesMatchedByCondition(it) }
+
+                if (names.isEmpty() || names.any { it == null }) null else names.flatMap { it!! }.toSet()
+            }
+
+            else -> null
+        }
+    }
+
+    /**
+     * Whether notes matching the condition change with time, e.g. for s.today.
+     */
+    @JvmStatic
+    fun dependsOnTime(condition: Condition?): Boolean {
+        return when (condition) {
+            is Condition.Event,
+            is Condition.Scheduled,
+            is Condition.Deadline,
+            is Condition.Closed,
+            is Condition.Created -> true
+
+            is Condition.And -> condition.operands.any { dependsOnTime(it) }
+            is Condition.Or -> condition.operands.any { dependsOnTime(it) }
+
+            else -> false
+        }
+    }
 }
@@ -0,0 +1,73 @@
+package com.orgzly.android.query.sql
+
+import android.util.LruCache
+import androidx.sqlite.db.SimpleSQLiteQuery
+import androidx.sqlite.db.SupportSQLiteQuery
+import com.orgzly.android.query.Query
+import com.orgzly.android.query.user.InternalQueryParser
+
+/**
+ * Parsed user queries and their compiled SQL.
+ *
+ * Compiled queries are keyed by the query and [SqliteQueryBuilder.Preferences] they were
+ * compiled with, so they are compiled again only after keywords or default priority change.
+ * Relative times are bound as arguments (see [SqlArgument]), so compiled queries
+ * remain valid across days.
+ */
+class CompiledQueryCache(maxSize: Int = MAX_SIZE) {
+    /** SQL and its arguments, ready to be bound and run. */
+    data class CompiledQuery(val sql: String, val arguments: List<SqlArgument>) {
+        fun bind(): SupportSQLiteQuery {
+            return SimpleSQLiteQuery(sql, arguments.map { it.value() }.toTypedArray())
+        }
+
+        /** Same query, with [limit] results after the first [offset]. */
+        fun bindPage(limit: Int, offset: Int): SupportSQLiteQuery {
+            return SimpleSQLiteQuery(
+                    "$sql LIMIT ? OFFSET ?",
+                    (arguments.map { it.value() } + listOf(limit, offset)).toTypedArray())
+        }
+
+        /** Ids of notes matched by the query, in the same order. */
+        fun bindIds(): SupportSQLiteQuery {
+            return SimpleSQLiteQuery(
+                    "SELECT id FROM ($sql)",
+                    arguments.map { it.value() }.toTypedArray())
+        }
+
+        /** Number of notes matched by the query. */
+        fun bindCount(): SupportSQLiteQuery {
+            return SimpleSQLiteQuery(
+                    "SELECT count(*) FROM ($sql)",
+                    arguments.map { it.value() }.toTypedArray())
+        }
+    }
+
+    private data class Key(val query: Query, val preferences: SqliteQueryBuilder.Preferences)
+
+    private val parsed = LruCache<String, Query>(maxSize)
+
+    private val compiled = LruCache<Key, CompiledQuery>(maxSize)
+
+    fun parse(queryString: String): Query {
+        return parsed.get(queryString) ?: InternalQueryParser().parse(queryString).also {
+            parsed.put(queryString, it)
+        }
+    }
+
+    fun get(
+            query: Query,
+            preferences: SqliteQueryBuilder.Preferences,
+            compile: () -> CompiledQuery): CompiledQuery {
+
+        val key = Key(query, preferences)
+
+        return compiled.get(key) ?: compile().also {
+            compiled.put(key, it)
+        }
+    }
+
+    companion object {
+        private const val MAX_SIZE = 32
+    }
+}
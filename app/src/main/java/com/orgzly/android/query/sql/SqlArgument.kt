@@ -0,0 +1,22 @@
+package com.orgzly.android.query.sql
+
+import com.orgzly.android.query.TimeUtils
+
+/**
+ * Selection argument of a compiled query.
+ *
+ * Relative times are computed only when the query is run,
+ * so the same compiled query can be reused later (on another day).
+ */
+sealed class SqlArgument {
+    abstract fun value(): Any
+
+    data class Value(val value: String) : SqlArgument() {
+        override fun value(): Any = value
+    }
+
+    /** See [TimeUtils.timeFromNow]. */
+    data class TimeFromNow(val field: Int, val amount: Int, val addOneMore: Boolean = false) : SqlArgument() {
+        override fun value(): Any = TimeUtils.timeFromNow(field, amount, addOneMore)
+    }
+}
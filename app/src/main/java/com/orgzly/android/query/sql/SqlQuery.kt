@@ -2,6 +2,11 @@ package com.orgzly.android.query.sql
 
 data class SqlQuery(
         val selection: String,
-        val selectionArgs: List<String>,
+        val arguments: List<SqlArgument>,
         val having: String,
-        val orderBy: String)
\ No newline at end of file
+        val orderBy: String) {
+
+    /** Values of selection arguments, with relative times computed now. */
+    val selectionArgs: List<String>
+        get() = arguments.map { it.value().toString() }
+}
@@ -2,14 +2,34 @@ package com.orgzly.android.query.sql
 
 import android.content.Context
 import android.database.DatabaseUtils
+import com.orgzly.android.db.entity.NoteFts
 import com.orgzly.android.prefs.AppPreferences
 import com.orgzly.android.query.*
 import java.util.*
 
 
-class SqliteQueryBuilder(val context: Context) {
+class SqliteQueryBuilder(val context: Context, private val preferences: Preferences = Preferences.from(context)) {
+    /**
+     * Settings which compiled queries depend on.
+     */
+    data class Preferences(
+            val todoKeywords: Set<String>,
+            val doneKeywords: Set<String>,
+            val defaultPriority: String) {
+
+        companion object {
+            @JvmStatic
+            fun from(context: Context): Preferences {
+                return Preferences(
+                        AppPreferences.todoKeywordsSet(context),
+                        AppPreferences.doneKeywordsSet(context),
+                        AppPreferences.defaultPriority(context))
+            }
+        }
+    }
+
     private var where: String = ""
-    private val arguments: MutableList<String> = ArrayList()
+    private val arguments: MutableList<SqlArgument> = ArrayList()
 
     private var having: String = ""
 
@@ -24,6 +44,8 @@ class SqliteQueryBuilder(val context: Context) {
         hasDeadlineCondition = false
         hasCreatedCondition = false
 
+        arguments.clear()
+
         where = toString(query.condition)
 
         order = buildOrderBy(query.sortOrders)
@@ -38,7 +60,7 @@ class SqliteQueryBuilder(val context: Context) {
             o.add("book_name")
 
             /* Priority or default priority. */
-            o.add("COALESCE(priority, '" + AppPreferences.defaultPriority(context) + "')")
+            o.add("COALESCE(priority, '" + preferences.defaultPriority + "')")
             o.add("priority IS NULL")
 
             if (hasScheduledCondition) {
@@ -140,13 +162,12 @@ class SqliteQueryBuilder(val context: Context) {
                     }
 
                     is SortOrder.Priority -> {
-                        o.add("COALESCE(priority, '" + AppPreferences.defaultPriority(context) + "')" + if (order.desc) " DESC" else "")
+                        o.add("COALESCE(priority, '" + preferences.defaultPriority + "')" + if (order.desc) " DESC" else "")
                         o.add("priority" + if (order.desc) " IS NOT NULL" else " IS NULL")
                     }
 
                     is SortOrder.State -> {
-                        val states = AppPreferences.todoKeywordsSet(context)
-                                .union(AppPreferences.doneKeywordsSet(context))
+                        val states = preferences.todoKeywords.union(preferences.doneKeywords)
 
                         if (states.isNotEmpty()) {
                             val statesInOrder = if (order.desc) states.reversed() else states
@@ -181,25 +202,25 @@ class SqliteQueryBuilder(val context: Context) {
 
         return when (expr) {
             is Condition.InBook -> {
-                arguments.add(expr.name)
+                arguments.add(SqlArgument.Value(expr.name))
                 not(expr.not, "book_name = ?")
             }
 
             is Condition.HasState -> {
-                arguments.add(expr.state.uppercase())
+                arguments.add(SqlArgument.Value(expr.state.uppercase()))
                 not(expr.not, "COALESCE(state, '') = ?")
             }
 
             is Condition.HasStateType -> {
                 when (expr.type) {
                     StateType.TODO -> {
-                        val states = AppPreferences.todoKeywordsSet(context)
-                        arguments.addAll(states)
+                        val states = preferences.todoKeywords
+                        states.mapTo(arguments) { SqlArgument.Value(it) }
                         not(expr.not, "COALESCE(state, '') IN (" + Collections.nCopies(states.size, "?").joinToString() + ")")
                     }
                     StateType.DONE -> {
-                        val states = AppPreferences.doneKeywordsSet(context)
-                        arguments.addAll(states)
+                        val states = preferences.doneKeywords
+                        states.mapTo(arguments) { SqlArgument.Value(it) }
                         not(expr.not, "COALESCE(state, '') IN (" + Collections.nCopies(states.size, "?").joinToString() + ")")
 
                     }
@@ -208,23 +229,23 @@ class SqliteQueryBuilder(val context: Context) {
             }
 
             is Condition.HasPriority -> {
-                arguments.add(AppPreferences.defaultPriority(context))
-                arguments.add(expr.priority)
+                arguments.add(SqlArgument.Value(preferences.defaultPriority))
+                arguments.add(SqlArgument.Value(expr.priority))
                 not(expr.not, "LOWER(COALESCE(NULLIF(priority, ''), ?)) = ?")
             }
 
             is Condition.HasSetPriority -> {
-                arguments.add(expr.priority)
+                arguments.add(SqlArgument.Value(expr.priority))
                 not(expr.not, "LOWER(COALESCE(priority, '')) = ?")
             }
 
             is Condition.HasTag -> {
-                repeat(2) { arguments.add("%${expr.tag}%") }
+                repeat(2) { arguments.add(SqlArgument.Value("%${expr.tag}%")) }
                 not(expr.not, "(COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?)")
             }
 
             is Condition.HasOwnTag -> {
-                arguments.add("%${expr.tag}%")
+                arguments.add(SqlArgument.Value("%${expr.tag}%"))
                 not(expr.not, "(COALESCE(tags, '') LIKE ?)")
             }
 
@@ -259,8 +280,16 @@ class SqliteQueryBuilder(val context: Context) {
             }
 
             is Condition.HasText -> {
-                repeat(3) { arguments.add("%${expr.text}%") }
-                "(title LIKE ? OR content LIKE ? OR tags LIKE ?)"
+                val match = NoteFts.matchQuery(expr.text)
+
+                if (match != null) {
+                    arguments.add(SqlArgument.Value(match))
+                    "(id IN (SELECT rowid FROM notes_fts WHERE notes_fts MATCH ?))"
+
+                } else { // No terms to match, only punctuation
+                    repeat(3) { arguments.add(SqlArgument.Value("%${expr.text}%")) }
+                    "(title LIKE ? OR content LIKE ? OR tags LIKE ?)"
+                }
             }
 
             is Condition.Or -> joinConditions(expr.operands, "OR")
@@ -278,17 +307,37 @@ class SqliteQueryBuilder(val context: Context) {
 
         val (field, value) = getFieldAndValueFromInterval(interval)
 
-        val timeFromNow = TimeUtils.timeFromNow(field, value)
-        val timeFromNowPlusOne = TimeUtils.timeFromNow(field, value, true)
-
+        /* Bound as arguments, computed when the query is run. */
+        val timeFromNow = SqlArgument.TimeFromNow(field, value)
+        val timeFromNowPlusOne = SqlArgument.TimeFromNow(field, value, true)
 
         val cond = when (relation) {
-            Relation.EQ -> "$timeFromNow <= $column AND $column < $timeFromNowPlusOne"
-            Relation.NE -> "$column < $timeFromNow AND $timeFromNowPlusOne <= $column"
-            Relation.LT -> "$column < $timeFromNow"
-            Relation.LE -> "$column < $timeFromNowPlusOne"
-            Relation.GT -> "$timeFromNowPlusOne <= $column"
-            Relation.GE -> "$timeFromNow <= $column"
+            Relation.EQ -> {
+                arguments.add(timeFromNow)
+                arguments.add(timeFromNowPlusOne)
+                "? <= $column AND $column < ?"
+            }
+            Relation.NE -> {
+                arguments.add(timeFromNow)
+                arguments.add(timeFromNowPlusOne)
+                "$column < ? AND ? <= $column"
+            }
+            Relation.LT -> {
+                arguments.add(timeFromNow)
+                "$column < ?"
+            }
+            Relation.LE -> {
+                arguments.add(timeFromNowPlusOne)
+                "$column < ?"
+            }
+            Relation.GT -> {
+                arguments.add(timeFromNowPlusOne)
+                "? <= $column"
+            }
+            Relation.GE -> {
+                arguments.add(timeFromNow)
+                "? <= $column"
+            }
         }
 
         val activeOnly = if (isActiveColumn != null) {
@@ -9,6 +9,7 @@ import com.orgzly.org.datetime.OrgDateTime
 import com.orgzly.org.datetime.OrgDateTimeUtils
 import com.orgzly.org.datetime.OrgInterval
 import org.joda.time.DateTime
+import org.joda.time.DateTimeZone
 import org.joda.time.ReadableInstant
 import java.util.*
 
@@ -19,41 +20,85 @@ object NoteReminders {
     const val INTERVAL_FROM_LAST_TO_NOW = 1
     const val INTERVAL_FROM_NOW = 2
 
+    /* Reminder times stored per note time. Without repeaters, there are only a few. */
+    private const val MAX_REMINDER_TIMES = 10
+
+    /**
+     * Reminders for note times in the interval, earliest first.
+     *
+     * Candidates are found using stored reminder times (see [updateReminderTimes]),
+     * then each one's exact time is calculated.
+     *
+     * @param limit maximum number of reminders to return, or -1 for all
+     */
     @JvmStatic
+    @JvmOverloads
     fun getNoteReminders(
         context: Context,
         dataRepository: DataRepository,
         now: ReadableInstant,
         lastRun: LastRun,
-        intervalType: Int): List<NoteReminder> {
+        intervalType: Int,
+        limit: Int = -1): List<NoteReminder> {
+
+        updateReminderTimes(context, dataRepository)
+
+        val (candidates, reminders) = findNoteReminders(context, dataRepository, now, lastRun, intervalType, limit)
+
+        /* Some candidates might have been skipped after all, try without the limit. */
+        if (limit > 0 && reminders.size < limit && candidates.size == limit) {
+            return findNoteReminders(context, dataRepository, now, lastRun, intervalType, -1).second.take(limit)
+        }
+
+        return reminders
+    }
+
+    /**
+     * @return number of candidate note times and reminders found
+     */
+    private fun findNoteReminders(
+        context: Context,
+        dataRepository: DataRepository,
+        now: ReadableInstant,
+        lastRun: LastRun,
+        intervalType: Int,
+        limit: Int): Pair<List<NoteTime>, List<NoteReminder>> {
+
+        fun from(timeType: Int): Long {
+            return if (isEnabled(context, timeType)) {
+                intervalToConsider(intervalType, now, lastRun, timeType).first.millis
+            } else {
+                Long.MAX_VALUE
+            }
+        }
+
+        val before = when (intervalType) {
+            INTERVAL_FROM_LAST_TO_NOW -> now.millis
+            else -> Long.MAX_VALUE
+        }
+
+        val noteTimes = dataRepository.timesInInterval(
+            from(ReminderTimeDao.SCHEDULED_TIME),
+            from(ReminderTimeDao.DEADLINE_TIME),
+            from(ReminderTimeDao.EVENT_TIME),
+            before,
+            AppPreferences.doneKeywordsSet(context),
+            limit)
 
         val result: MutableList<NoteReminder> = ArrayList()
 
-        for (noteTime in dataRepository.times()) {
+        /* The same note time can have more than one reminder time in the interval. */
+        for (noteTime in noteTimes.distinct()) {
             if (isRelevantNoteTime(context, noteTime)) {
                 val orgDateTime = OrgDateTime.parse(noteTime.orgTimestampString)
 
                 val interval = intervalToConsider(intervalType, now, lastRun, noteTime.timeType)
 
-                // Deadline warning period
-
-                val warningPeriod = if (isWarningPeriodSupported(noteTime)) {
-                    if (orgDateTime.hasDelay()) {
-                        orgDateTime.delay as OrgInterval
-                    } else {
-                        // TODO: Use default from user preference
-                        // OrgInterval(1, OrgInterval.Unit.DAY)
-                        null
-                    }
-                } else {
-                    null
-                }
-
                 val time = getFirstTime(
                     orgDateTime,
                     interval,
                     AppPreferences.reminderDailyTime(context),
-                    warningPeriod
+                    warningPeriod(noteTime, orgDateTime)
                 )
 
 //                    if (BuildConfig.LOG_DEBUG) {
@@ -81,21 +126,69 @@ object NoteReminders {
         // Sort by time, older first
         result.sortWith { o1, o2 -> o1.runTime.compareTo(o2.runTime) }
 
-        return result
+        return Pair(noteTimes, result)
+    }
+
+    /**
+     * Computes reminder times of notes which changed since the last call.
+     * Recomputes all of them if daily reminder time or time zone changed.
+     */
+    @JvmStatic
+    fun updateReminderTimes(context: Context, dataRepository: DataRepository) {
+        val dailyTime = AppPreferences.reminderDailyTime(context)
+
+        val computedFor = "$dailyTime ${DateTimeZone.getDefault().id}"
+
+        val recomputeAll = computedFor != AppPreferences.reminderTimesComputedFor(context)
+
+        dataRepository.updateReminderTimes(recomputeAll) { noteTime ->
+            val orgDateTime = OrgDateTime.parse(noteTime.orgTimestampString)
+
+            OrgDateTimeUtils.getTimesInInterval(
+                orgDateTime,
+                DateTime(0),
+                null,
+                dailyTime,
+                false, // Do not use repeater for reminders
+                warningPeriod(noteTime, orgDateTime),
+                MAX_REMINDER_TIMES
+            ).map { it.millis }
+        }
+
+        if (recomputeAll) {
+            AppPreferences.reminderTimesComputedFor(context, computedFor)
+        }
     }
 
     fun isRelevantNoteTime(context: Context, noteTime: NoteTime): Boolean {
         val doneStateKeywords = AppPreferences.doneKeywordsSet(context)
         val isDone = doneStateKeywords.contains(noteTime.state)
 
-        val isEnabled = AppPreferences.remindersForScheduledEnabled(context)
-                && noteTime.timeType == ReminderTimeDao.SCHEDULED_TIME
+        return isEnabled(context, noteTime.timeType) && !isDone
+    }
+
+    private fun isEnabled(context: Context, timeType: Int): Boolean {
+        return AppPreferences.remindersForScheduledEnabled(context)
+                && timeType == ReminderTimeDao.SCHEDULED_TIME
                 || AppPreferences.remindersForDeadlineEnabled(context)
-                && noteTime.timeType == ReminderTimeDao.DEADLINE_TIME
+                && timeType == ReminderTimeDao.DEADLINE_TIME
                 || AppPreferences.remindersForEventsEnabled(context)
-                && noteTime.timeType == ReminderTimeDao.EVENT_TIME
+                && timeType == ReminderTimeDao.EVENT_TIME
+    }
 
-        return isEnabled && !isDone
+    // Deadline warning period
+    private fun warningPeriod(noteTime: NoteTime, orgDateTime: OrgDateTime): OrgInterval? {
+        return if (isWarningPeriodSupported(noteTime)) {
+            if (orgDateTime.hasDelay()) {
+                orgDateTime.delay as OrgInterval
+            } else {
+                // TODO: Use default from user preference
+                // OrgInterval(1, OrgInterval.Unit.DAY)
+                null
+            }
+        } else {
+            null
+        }
     }
 
     private fun isWarningPeriodSupported(noteTime: NoteTime): Boolean {
@@ -148,7 +148,7 @@ class RemindersBroadcastReceiver : BroadcastReceiver() {
      */
     private fun scheduleNextReminder(context: Context, now: DateTime, lastRun: LastRun) {
         val notes = NoteReminders.getNoteReminders(
-            context, dataRepository, now, lastRun, NoteReminders.INTERVAL_FROM_NOW)
+            context, dataRepository, now, lastRun, NoteReminders.INTERVAL_FROM_NOW, 1)
 
         if (notes.isNotEmpty()) {
             // Schedule only the first upcoming time
@@ -169,7 +169,7 @@ class RemindersBroadcastReceiver : BroadcastReceiver() {
                 val inS = inMs.userFriendlyPeriod()
                 appLogs.log(
                     LogMajorEvents.REMINDERS,
-                    "Next: Found ${notes.size} notes from $now and scheduling first in $inS ($inMs ms): \"$title\" (id:$id)"
+                    "Next: Scheduling first note from $now in $inS ($inMs ms): \"$title\" (id:$id)"
                 )
             }
 
@@ -189,7 +189,7 @@ class RemindersBroadcastReceiver : BroadcastReceiver() {
 
         val reminders = mutableListOf<NoteReminder>()
 
-        for (noteTime in dataRepository.times()) {
+        for (noteTime in dataRepository.times(listOf(noteId))) {
             if (noteTime.noteId == noteId
                 && noteTime.timeType == noteTimeType
                 && NoteReminders.isRelevantNoteTime(context, noteTime)) {
@@ -21,7 +21,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
-public class DirectoryRepo implements SyncRepo {
+public class DirectoryRepo implements SyncRepo, LocalFileRepo {
     private static final String TAG = DirectoryRepo.class.getName();
 
     public static final String SCHEME = "file";
@@ -125,6 +125,17 @@ public class DirectoryRepo implements SyncRepo {
 
     @Override
     public VersionedRook retrieveBook(String repoRelativePath, File destinationFile) throws IOException {
+        LocalBookFile bookFile = retrieveBookFile(repoRelativePath);
+
+        /* "Download" the file. */
+        MiscUtils.copyFile(bookFile.getFile(), destinationFile);
+
+        return bookFile.getVersionedRook();
+    }
+
+    @NonNull
+    @Override
+    public LocalBookFile retrieveBookFile(@NonNull String repoRelativePath) {
         Uri uri = repoUri.buildUpon().appendPath(repoRelativePath).build();
 
         String path = uri.getPath();
@@ -135,13 +146,10 @@ public class DirectoryRepo implements SyncRepo {
 
         File sourceFile = new File(path);
 
-        /* "Download" the file. */
-        MiscUtils.copyFile(sourceFile, destinationFile);
-
         String rev = String.valueOf(sourceFile.lastModified());
         long mtime = sourceFile.lastModified();
 
-        return new VersionedRook(repoId, RepoType.DIRECTORY, repoUri, uri, rev, mtime);
+        return new LocalBookFile(sourceFile, new VersionedRook(repoId, RepoType.DIRECTORY, repoUri, uri, rev, mtime));
     }
 
     @Override
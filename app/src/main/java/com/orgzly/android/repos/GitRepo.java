@@ -6,6 +6,8 @@ import android.content.Context;
 import android.net.Uri;
 import android.util.Log;
 
+import androidx.annotation.NonNull;
+
 import com.orgzly.BuildConfig;
 import com.orgzly.R;
 import com.orgzly.android.App;
@@ -16,6 +18,7 @@ import com.orgzly.android.git.GitFileSynchronizer;
 import com.orgzly.android.git.GitPreferences;
 import com.orgzly.android.git.GitPreferencesFromRepoPrefs;
 import com.orgzly.android.git.GitTransportSetter;
+import com.orgzly.android.git.LastCommitResolver;
 import com.orgzly.android.prefs.AppPreferences;
 import com.orgzly.android.prefs.RepoPreferences;
 import com.orgzly.android.util.LogUtils;
@@ -41,9 +44,12 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
-public class GitRepo implements SyncRepo, TwoWaySyncRepo {
+public class GitRepo implements SyncRepo, TwoWaySyncRepo, RemoteChangeProbe, LocalFileRepo {
     private final static String TAG = GitRepo.class.getName();
     private final long repoId;
 
@@ -75,15 +81,48 @@ public class GitRepo implements SyncRepo, TwoWaySyncRepo {
         Git git = ensureRepositoryExists(prefs, clone, null);
 
         StoredConfig config = git.getRepository().getConfig();
-        config.setString("remote", prefs.remoteName(), "url", prefs.remoteUri().toString());
-        config.setString("user", null, "name", prefs.getAuthor());
-        config.setString("user", null, "email", prefs.getEmail());
-        config.setString("gc", null, "auto", "256");
-        config.save();
+        boolean changed = setConfigString(config, "remote", prefs.remoteName(), "url", prefs.remoteUri().toString());
+        changed |= setConfigString(config, "user", null, "name", prefs.getAuthor());
+        changed |= setConfigString(config, "user", null, "email", prefs.getEmail());
+        changed |= setConfigString(config, "gc", null, "auto", "256");
+
+        /* Avoid rewriting .git/config (and invalidating its cached snapshot) on every instance. */
+        if (changed) {
+            config.save();
+        }
 
         return new GitRepo(id, git, prefs);
     }
 
+    private static boolean setConfigString(StoredConfig config, String section, String subsection, String name, String value) {
+        if (value.equals(config.getString(section, subsection, name))) {
+            return false;
+        }
+        config.setString(section, subsection, name, value);
+        return true;
+    }
+
+    /**
+     * All settings an instance is built from. Instances can be reused for as long as these
+     * stay the same. Some are stored outside of repo's props, with global defaults.
+     */
+    public static List<String> getSettings(RepoWithProps props, Context context) {
+        Repo repo = props.getRepo();
+        Uri repoUri = Uri.parse(repo.getUrl());
+        RepoPreferences repoPreferences = new RepoPreferences(context, repo.getId(), repoUri);
+        GitPreferencesFromRepoPrefs prefs = new GitPreferencesFromRepoPrefs(repoPreferences);
+
+        return Arrays.asList(
+                prefs.remoteUri().toString(),
+                prefs.repositoryFilepath(),
+                prefs.remoteName(),
+                prefs.branchName(),
+                prefs.getAuthor(),
+                prefs.getEmail(),
+                repoPreferences.getStringValue(R.string.pref_key_git_https_username, ""),
+                repoPreferences.getStringValue(R.string.pref_key_git_https_password, ""));
+    }
+
     static boolean isRepo(FileRepositoryBuilder frb, File f) {
         frb.addCeilingDirectory(f).findGitDir(f);
         return frb.getGitDir() != null && frb.getGitDir().exists();
@@ -168,10 +207,20 @@ public class GitRepo implements SyncRepo, TwoWaySyncRepo {
         }
     }
 
+    /* Instances are shared by syncs and the rest of the app (see RepoFactory),
+     * while Git and its synchronizer are not safe for concurrent use.
+     * All methods using them are synchronized.
+     */
     private Git git;
     private GitFileSynchronizer synchronizer;
     private GitPreferences preferences;
 
+    /* Books stored since beginBatch(), whose revisions are known only once committed. */
+    private final List<String> batchStoredPaths = new ArrayList<>();
+
+    /* Last commits of books, cached for as long as this instance is reused. */
+    private final LastCommitResolver lastCommitResolver = new LastCommitResolver();
+
     public GitRepo(long id, Git g, GitPreferences prefs) {
         repoId = id;
         git = g;
@@ -179,6 +228,13 @@ public class GitRepo implements SyncRepo, TwoWaySyncRepo {
         synchronizer = new GitFileSynchronizer(git, prefs);
     }
 
+    /**
+     * Releases the underlying repository. Called when the instance is no longer reused.
+     */
+    public synchronized void close() {
+        git.close();
+    }
+
     public boolean isConnectionRequired() {
         return true;
     }
@@ -188,7 +244,7 @@ public class GitRepo implements SyncRepo, TwoWaySyncRepo {
         return true;
     }
 
-    public VersionedRook storeBook(File file, String repoRelativePath) throws IOException {
+    public synchronized VersionedRook storeBook(File file, String repoRelativePath) throws IOException {
         File destination = synchronizer.workTreeFile(repoRelativePath);
 
         if (destination.exists()) {
@@ -196,10 +252,48 @@ public class GitRepo implements SyncRepo, TwoWaySyncRepo {
         } else {
             synchronizer.addAndCommitNewFile(file, repoRelativePath);
         }
+        if (synchronizer.isInBatch()) {
+            /* Not committed yet. Current head is replaced by the actual commit in endBatch(),
+             * book is not synced to it before then (see DataRepository.saveBookToRepo). */
+            batchStoredPaths.add(repoRelativePath);
+            return versionedRook(
+                    Uri.parse(Uri.decode(Uri.EMPTY.buildUpon().appendPath(repoRelativePath).build().toString())),
+                    synchronizer.currentHead());
+        }
         synchronizer.tryPush();
         return currentVersionedRook(Uri.EMPTY.buildUpon().appendPath(repoRelativePath).build());
     }
 
+    @Override
+    public synchronized void beginBatch() throws IOException {
+        // Without any commits, there is no revision to report for books stored before the commit
+        if (synchronizer.currentHead() != null) {
+            synchronizer.beginBatch();
+        }
+    }
+
+    @Override
+    public synchronized boolean isInBatch() {
+        return synchronizer.isInBatch();
+    }
+
+    @Override
+    public synchronized List<VersionedRook> endBatch() throws IOException {
+        if (!synchronizer.isInBatch()) {
+            return Collections.emptyList();
+        }
+        try {
+            synchronizer.endBatch();
+            List<VersionedRook> result = new ArrayList<>();
+            for (String path : batchStoredPaths) {
+                result.add(currentVersionedRook(Uri.EMPTY.buildUpon().appendPath(path).build()));
+            }
+            return result;
+        } finally {
+            batchStoredPaths.clear();
+        }
+    }
+
     private RevWalk walk() {
         return new RevWalk(git.getRepository());
     }
@@ -209,7 +303,7 @@ public class GitRepo implements SyncRepo, TwoWaySyncRepo {
     }
 
     @Override
-    public VersionedRook retrieveBook(String repoRelativePath, File destination) throws IOException {
+    public synchronized VersionedRook retrieveBook(String repoRelativePath, File destination) throws IOException {
 
         Uri sourceUri = Uri.parse("/" + repoRelativePath);
 
@@ -221,26 +315,50 @@ public class GitRepo implements SyncRepo, TwoWaySyncRepo {
         return currentVersionedRook(sourceUri);
     }
 
+    @NonNull
+    @Override
+    public synchronized LocalBookFile retrieveBookFile(@NonNull String repoRelativePath) throws IOException {
+        Uri sourceUri = Uri.parse("/" + repoRelativePath);
+
+        // Ensure our repo copy is up-to-date. This is necessary when force-loading a book.
+        synchronizer.mergeWithRemote();
+
+        return new LocalBookFile(
+                synchronizer.workTreeFile(sourceUri.getPath()), currentVersionedRook(sourceUri));
+    }
+
     @Override
-    public InputStream openRepoFileInputStream(String repoRelativePath) throws IOException {
+    public synchronized InputStream openRepoFileInputStream(String repoRelativePath) throws IOException {
         Uri sourceUri = Uri.parse(repoRelativePath);
         return synchronizer.openRepoFileInputStream(sourceUri.getPath());
     }
 
-    private VersionedRook currentVersionedRook(Uri uri) {
-        RevCommit commit = null;
+    private VersionedRook currentVersionedRook(Uri uri) throws IOException {
         uri = Uri.parse(Uri.decode(uri.toString()));
-        try {
-            commit = synchronizer.getLastCommitOfFile(uri);
-        } catch (GitAPIException e) {
-            e.printStackTrace();
+        String repoRelativePath = uri.toString().replaceFirst("^/", "");
+        RevCommit commit = null;
+        RevCommit head = synchronizer.currentHead();
+        if (head != null) {
+            commit = lastCommitResolver.lastCommits(
+                    git.getRepository(), head, Collections.singleton(repoRelativePath)).get(repoRelativePath);
+        }
+        if (commit == null) {
+            try {
+                commit = synchronizer.getLastCommitOfFile(uri);
+            } catch (GitAPIException e) {
+                e.printStackTrace();
+            }
         }
         assert commit != null;
+        return versionedRook(uri, commit);
+    }
+
+    private VersionedRook versionedRook(Uri uri, RevCommit commit) {
         long mtime = (long)commit.getCommitTime()*1000;
         return new VersionedRook(repoId, RepoType.GIT, getUri(), uri, commit.name(), mtime);
     }
 
-    public boolean isUnchanged() throws IOException {
+    public synchronized boolean isUnchanged() throws IOException {
         // Check if the current head is unchanged.
         // If so, we can read all the VersionedRooks from the database.
         synchronizer.setBranchAndGetLatest();
@@ -252,7 +370,7 @@ public class GitRepo implements SyncRepo, TwoWaySyncRepo {
         return false;
     }
 
-    public List<VersionedRook> getBooks() throws IOException {
+    public synchronized List<VersionedRook> getBooks() throws IOException {
         List<VersionedRook> result = new ArrayList<>();
         if (synchronizer.currentHead() == null) {
             return result;
@@ -290,8 +408,21 @@ public class GitRepo implements SyncRepo, TwoWaySyncRepo {
                 return this;
             }
         });
+        List<String> paths = new ArrayList<>();
         while (walk.next()) {
-            result.add(currentVersionedRook(Uri.withAppendedPath(Uri.EMPTY, walk.getPathString())));
+            paths.add(walk.getPathString());
+        }
+        /* Find last commits of all files at once, instead of running "git log" for each. */
+        Map<String, RevCommit> commits = lastCommitResolver.lastCommits(
+                git.getRepository(), synchronizer.currentHead(), paths);
+        for (String path : paths) {
+            Uri uri = Uri.withAppendedPath(Uri.EMPTY, path);
+            RevCommit commit = commits.get(path);
+            if (commit != null) {
+                result.add(versionedRook(Uri.parse(Uri.decode(uri.toString())), commit));
+            } else {
+                result.add(currentVersionedRook(uri));
+            }
         }
         return result;
     }
@@ -300,11 +431,11 @@ public class GitRepo implements SyncRepo, TwoWaySyncRepo {
         return preferences.remoteUri();
     }
 
-    public void delete(Uri uri) throws IOException {
+    public synchronized void delete(Uri uri) throws IOException {
         if (synchronizer.deleteFileFromRepo(uri)) synchronizer.tryPush();
     }
 
-    public VersionedRook renameBook(Uri oldFullUri, String newName) throws IOException {
+    public synchronized VersionedRook renameBook(Uri oldFullUri, String newName) throws IOException {
         Context context = App.getAppContext();
         if (newName.contains("/") && !AppPreferences.subfolderSupport(context)) {
             throw new IOException(context.getString(R.string.subfolder_support_disabled));
@@ -320,7 +451,7 @@ public class GitRepo implements SyncRepo, TwoWaySyncRepo {
     }
 
     @Override
-    public TwoWaySyncResult syncBook(
+    public synchronized TwoWaySyncResult syncBook(
             Uri uri, VersionedRook current, File fromDB) throws IOException {
         String repoRelativePath = uri.getPath().replaceFirst("^/", "");
         boolean merged = true;
@@ -350,11 +481,52 @@ public class GitRepo implements SyncRepo, TwoWaySyncRepo {
                 writeBackFile);
     }
 
-    public void tryPushIfHeadDiffersFromRemote() {
+    public synchronized void tryPushIfHeadDiffersFromRemote() {
         synchronizer.tryPushIfHeadDiffersFromRemote();
     }
 
-    public String getCurrentBranch() throws IOException {
+    /**
+     * Current branch with its head. Remote head is asked for without fetching.
+     * Repository is only taken as unchanged when its local and remote heads are the same,
+     * so there is no token if there are commits not yet pushed or pulled.
+     */
+    @Override
+    public synchronized String getRemoteChangeToken() throws IOException {
+        ObjectId remoteHead = synchronizer.getRemoteHead();
+        RevCommit localHead = synchronizer.currentHead();
+        if (remoteHead == null || localHead == null || !remoteHead.equals(localHead)) {
+            return null;
+        }
+        return changeToken(localHead);
+    }
+
+    /**
+     * Remote head is taken from the remote-tracking branch, as updated by pushing.
+     * If it has changed since probed, the only change allowed is a single commit
+     * made by this instance on top of the probed head.
+     */
+    @Override
+    public synchronized String getRemoteChangeTokenAfterSync(String probed) throws IOException {
+        RevCommit localHead = synchronizer.currentHead();
+        if (localHead == null || !localHead.equals(synchronizer.getRemoteTrackingHead())) {
+            return null;
+        }
+        String token = changeToken(localHead);
+        if (token.equals(probed)) {
+            return token;
+        }
+        RevCommit own = synchronizer.getLastCommit();
+        if (localHead.equals(own) && own.getParentCount() == 1 && changeToken(own.getParent(0)).equals(probed)) {
+            return token;
+        }
+        return null;
+    }
+
+    private String changeToken(ObjectId head) throws IOException {
+        return getCurrentBranch() + " " + head.name();
+    }
+
+    public synchronized String getCurrentBranch() throws IOException {
         return git.getRepository().getBranch();
     }
 }
@@ -0,0 +1,5 @@
+package com.orgzly.android.repos
+
+import java.io.File
+
+data class LocalBookFile(val file: File, val versionedRook: VersionedRook)
@@ -0,0 +1,16 @@
+package com.orgzly.android.repos
+
+import java.io.IOException
+
+/**
+ * Repository whose books are local files, read in place
+ * instead of being retrieved to a temporary file first.
+ */
+interface LocalFileRepo {
+    /**
+     * Same as [SyncRepo.retrieveBook], without copying the book.
+     * Returned file must only be read.
+     */
+    @Throws(IOException::class)
+    fun retrieveBookFile(repoRelativePath: String): LocalBookFile
+}
@@ -0,0 +1,32 @@
+package com.orgzly.android.repos;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+
+/**
+ * Repository which can cheaply tell whether anything changed remotely,
+ * without listing all of its books.
+ */
+public interface RemoteChangeProbe {
+    /**
+     * Token describing the current state of the remote repository.
+     * Same token means nothing changed in the repository.
+     *
+     * @return token or null if it cannot be determined
+     */
+    @Nullable
+    String getRemoteChangeToken() throws IOException;
+
+    /**
+     * Token describing the state of the remote repository after syncing with it,
+     * without asking the remote repository again.
+     * Known only if the repository is unchanged since {@code probed}, or if its only
+     * changes are the ones made by this instance.
+     *
+     * @param probed token returned by {@link #getRemoteChangeToken} before syncing
+     * @return token or null if there could be changes made by anyone else
+     */
+    @Nullable
+    String getRemoteChangeTokenAfterSync(String probed) throws IOException;
+}
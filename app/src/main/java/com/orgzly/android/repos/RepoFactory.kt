@@ -4,6 +4,8 @@ import android.content.Context
 import com.orgzly.BuildConfig
 import com.orgzly.android.data.DbRepoBookRepository
 import com.orgzly.android.prefs.AppPreferences
+import com.orgzly.android.util.LogUtils
+import java.util.IdentityHashMap
 import javax.inject.Inject
 import javax.inject.Singleton
 
@@ -12,7 +14,132 @@ class RepoFactory @Inject constructor(
         private val context: Context,
         private val dbRepoBookRepository: DbRepoBookRepository
 ) {
+    /**
+     * Instances which hold on to expensive handles (HTTP clients, opened Git repositories),
+     * reused for as long as the settings they were built from stay the same.
+     */
+    private val instances = HashMap<Long, PooledRepo>()
+
+    /* All pooled instances which are not closed yet, including retired ones still in use. */
+    private val pooledInstances = IdentityHashMap<SyncRepo, PooledRepo>()
+
+    private class PooledRepo(val settings: Any, val syncRepo: SyncRepo) {
+        /* Number of acquisitions not released yet. */
+        var users = 0
+
+        /* No longer handed out, closed once there are no users. */
+        var isRetired = false
+    }
+
+    /**
+     * Instance for a single, short use. For using it for longer, see [acquire].
+     */
     fun getInstance(repoWithProps: RepoWithProps): SyncRepo {
+        synchronized(instances) {
+            return getPooled(repoWithProps)?.syncRepo ?: createInstance(repoWithProps)
+        }
+    }
+
+    /**
+     * Instance which is not closed until it's released with [release],
+     * even if the repository is updated or deleted meanwhile.
+     */
+    fun acquire(repoWithProps: RepoWithProps): SyncRepo {
+        synchronized(instances) {
+            val pooled = getPooled(repoWithProps) ?: return createInstance(repoWithProps)
+
+            pooled.users++
+
+            return pooled.syncRepo
+        }
+    }
+
+    fun release(syncRepo: SyncRepo) {
+        synchronized(instances) {
+            val pooled = pooledInstances[syncRepo] ?: return
+
+            pooled.users--
+
+            if (pooled.isRetired && pooled.users <= 0) {
+                close(pooled)
+            }
+        }
+    }
+
+    fun <T> use(repoWithProps: RepoWithProps, block: (SyncRepo) -> T): T {
+        val syncRepo = acquire(repoWithProps)
+
+        try {
+            return block(syncRepo)
+        } finally {
+            release(syncRepo)
+        }
+    }
+
+    private fun getPooled(repoWithProps: RepoWithProps): PooledRepo? {
+        val type = repoWithProps.repo.type.id
+
+        val settings: Any = when {
+            type == RepoType.WEBDAV.id ->
+                repoWithProps
+
+            type == RepoType.GIT.id && AppPreferences.gitIsEnabled(context) ->
+                Pair(repoWithProps, GitRepo.getSettings(repoWithProps, context))
+
+            else ->
+                return null
+        }
+
+        val id = repoWithProps.repo.id
+
+        val pooled = instances[id]
+
+        if (pooled != null && pooled.settings == settings) {
+            return pooled
+        }
+
+        val created = PooledRepo(settings, createInstance(repoWithProps))
+
+        instances.put(id, created)?.let { retire(it) }
+
+        pooledInstances[created.syncRepo] = created
+
+        return created
+    }
+
+    /**
+     * Stops reusing the instance of the repository. Called when it is updated or deleted.
+     */
+    fun invalidate(repoId: Long) {
+        synchronized(instances) {
+            instances.remove(repoId)?.let { retire(it) }
+        }
+    }
+
+    fun invalidateAll() {
+        synchronized(instances) {
+            instances.values.forEach { retire(it) }
+            instances.clear()
+        }
+    }
+
+    private fun retire(pooled: PooledRepo) {
+        pooled.isRetired = true
+
+        if (pooled.users <= 0) {
+            close(pooled)
+        }
+    }
+
+    private fun close(pooled: PooledRepo) {
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Closing ${pooled.syncRepo}")
+
+        pooledInstances.remove(pooled.syncRepo)
+
+        (pooled.syncRepo as? GitRepo)?.close()
+    }
+
+    private fun createInstance(repoWithProps: RepoWithProps): SyncRepo {
         val type = repoWithProps.repo.type.id
 
         return when {
@@ -40,4 +167,8 @@ class RepoFactory @Inject constructor(
                 throw IllegalArgumentException("Unknown type or disabled repo $repoWithProps")
         }
     }
+
+    companion object {
+        private val TAG: String = RepoFactory::class.java.name
+    }
 }
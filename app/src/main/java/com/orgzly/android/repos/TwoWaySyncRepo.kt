@@ -11,4 +11,23 @@ interface TwoWaySyncRepo {
     fun tryPushIfHeadDiffersFromRemote()
 
     fun getUri(): Uri
-}
\ No newline at end of file
+
+    /**
+     * Store books in a single change, made by [endBatch].
+     * Until then, books stored are reported with a revision which might not include them.
+     */
+    @Throws(IOException::class)
+    fun beginBatch()
+
+    /**
+     * Whether books stored now are only stored once [endBatch] succeeds.
+     */
+    fun isInBatch(): Boolean
+
+    /**
+     * Store all books stored since [beginBatch].
+     * @return actual versions of books stored since [beginBatch]
+     */
+    @Throws(IOException::class)
+    fun endBatch(): List<VersionedRook>
+}
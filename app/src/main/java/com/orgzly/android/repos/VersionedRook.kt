@@ -14,6 +14,15 @@ class VersionedRook(
     constructor(rook: Rook, revision: String, mtime: Long) :
             this(rook.repoId, rook.repoType, rook.getRepoUri(), rook.getUri(), revision, mtime)
 
+    /**
+     * Whether [revision] (of a previously synced version) is the same as this one.
+     *
+     * WebDAV books were synced with modification time as their revision, before ETags were used.
+     */
+    fun isSameRevision(revision: String): Boolean {
+        return this.revision == revision || (repoType == RepoType.WEBDAV && mtime.toString() == revision)
+    }
+
     override fun toString(): String {
         return uri.buildUpon()
                 .appendQueryParameter("revision", revision)
@@ -13,15 +13,27 @@ import com.orgzly.R
 import com.orgzly.android.App
 import com.orgzly.android.BookName
 import com.orgzly.android.prefs.AppPreferences
+import com.orgzly.android.util.MiscUtils
 import com.thegrizzlylabs.sardineandroid.DavResource
 import com.thegrizzlylabs.sardineandroid.impl.OkHttpSardine
+import com.thegrizzlylabs.sardineandroid.impl.SardineException
+import okhttp3.HttpUrl
+import okhttp3.HttpUrl.Companion.toHttpUrl
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
 import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.RequestBody.Companion.asRequestBody
+import okhttp3.Response
 import okio.Buffer
+import java.io.ByteArrayInputStream
 import java.io.File
 import java.io.FileNotFoundException
 import java.io.FileOutputStream
 import java.io.IOException
 import java.io.InputStream
+import java.net.HttpURLConnection.HTTP_NOT_FOUND
+import java.net.HttpURLConnection.HTTP_NOT_MODIFIED
+import java.net.HttpURLConnection.HTTP_PRECONDITION_FAILED
 import java.net.URI
 import java.security.KeyStore
 import java.security.cert.CertificateFactory
@@ -38,15 +50,41 @@ class WebdavRepo(
         private val uri: Uri,
         private val username: String,
         private val password: String,
-        private val certificates: String? = null
-) : SyncRepo {
+        private val certificates: String? = null,
+        private val baseClient: OkHttpClient = sharedClient
+) : SyncRepo, RemoteChangeProbe {
+
+    private val client by lazy {
+        okHttpClient()
+    }
 
     private val sardine by lazy {
-        OkHttpSardine(okHttpClient())
+        OkHttpSardine(client)
     }
 
+    /**
+     * Files seen on the server, by their URL as requested. Lets downloads and uploads build
+     * their [VersionedRook] from response headers, instead of asking for properties again,
+     * and uploads to be made conditional on the file not having changed since.
+     */
+    private val knownFiles = ConcurrentHashMap<HttpUrl, KnownFile>()
+
+    private class KnownFile(val uri: Uri, val etag: String?)
+
+    /*
+     * Files listed by the last getRemoteChangeToken(), by path, with their ETags updated
+     * by this instance's own writes since. Null if they can't be known.
+     */
+    private var expectedFiles: MutableMap<String, String>? = null
+
+    private var expectedFilesToken: String? = null
+
+    /** Content of files opened with [openRepoFileInputStream], for conditional requests. */
+    private val cachedContent = ConcurrentHashMap<HttpUrl, Pair<String, ByteArray>>()
+
     private fun okHttpClient(): OkHttpClient {
-        val builder = OkHttpClient.Builder()
+        // Derived from the base client, to reuse its connection pool and dispatcher
+        val builder = baseClient.newBuilder()
 
         // Use certificate if specified
         if (!certificates.isNullOrEmpty()) {
@@ -76,12 +114,6 @@ class WebdavRepo(
         builder.authenticator(CachingAuthenticatorDecorator(authenticator, authCache))
         builder.addInterceptor(AuthenticationCacheInterceptor(authCache))
 
-        // Double the values as some users are seeing timeouts.
-        // Make configurable if needed (https://github.com/orgzly/orgzly-android/issues/870).
-        builder.connectTimeout(20, TimeUnit.SECONDS)
-        builder.readTimeout(20, TimeUnit.SECONDS)
-        builder.writeTimeout(20, TimeUnit.SECONDS)
-
         return builder.build()
     }
 
@@ -129,6 +161,20 @@ class WebdavRepo(
         const val PASSWORD_PREF_KEY = "password"
         const val CERTIFICATES_PREF_KEY = "certificates"
 
+        /**
+         * Base for clients of all instances. Connections are pooled per address,
+         * so different repositories (and credentials) can share it.
+         */
+        private val sharedClient: OkHttpClient by lazy {
+            OkHttpClient.Builder()
+                // Double the values as some users are seeing timeouts.
+                // Make configurable if needed (https://github.com/orgzly/orgzly-android/issues/870).
+                .connectTimeout(20, TimeUnit.SECONDS)
+                .readTimeout(20, TimeUnit.SECONDS)
+                .writeTimeout(20, TimeUnit.SECONDS)
+                .build()
+        }
+
         fun getInstance(repoWithProps: RepoWithProps): WebdavRepo {
             val id = repoWithProps.repo.id
 
@@ -163,20 +209,25 @@ class WebdavRepo(
     override fun getBooks(): MutableList<VersionedRook> {
         val url = uri.toUrl()
 
-        if (!sardine.exists(url)) {
-            sardine.createDirectory(url)
-        }
-
-        val ignores = RepoIgnoreNode(this)
-
         val listDepth = if (AppPreferences.subfolderSupport(App.getAppContext())) {
             -1
         } else {
             1
         }
 
-        return sardine
-                .list(url, listDepth)
+        val resources = try {
+            sardine.list(url, listDepth)
+        } catch (e: SardineException) {
+            if (e.statusCode != HTTP_NOT_FOUND) {
+                throw e
+            }
+            sardine.createDirectory(url)
+            return mutableListOf()
+        }
+
+        val ignores = RepoIgnoreNode(this)
+
+        return resources
                 .mapNotNull {
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
                         if (!BookName.isSupportedFormatFileName(it.name) || ignores.isPathIgnored(it.getRelativePath(), it.isDirectory)) {
@@ -195,24 +246,128 @@ class WebdavRepo(
                 .toMutableList()
     }
 
+    /**
+     * Digest of ETags of the repository's files, listed without descending into subfolders.
+     *
+     * Collection's own ETag is not used, as not all servers (such as Apache's mod_dav)
+     * change it when a file in it changes. For the same reason, there is no token
+     * if books can be in subfolders, or if any file is listed without an ETag.
+     */
+    override fun getRemoteChangeToken(): String? {
+        val resources = sardine.list(uri.toUrl(), 1)
+
+        /* The collection itself is listed too. */
+        if (AppPreferences.subfolderSupport(App.getAppContext()) && resources.count { it.isDirectory } > 1) {
+            return null
+        }
+
+        val files = HashMap<String, String>()
+
+        for (file in resources.filter { !it.isDirectory }) {
+            files[file.href.path] = normalizeEtag(file.etag ?: return null)
+        }
+
+        val token = changeToken(files)
+
+        synchronized(this) {
+            expectedFiles = files
+            expectedFilesToken = token
+        }
+
+        return token
+    }
+
+    /**
+     * Digest of the last listed files, with ETags returned by uploads made since.
+     */
+    @Synchronized
+    override fun getRemoteChangeTokenAfterSync(probed: String): String? {
+        val files = expectedFiles
+
+        return if (files != null && expectedFilesToken == probed) changeToken(files) else null
+    }
+
+    private fun changeToken(files: Map<String, String>): String {
+        val md = MiscUtils.newContentDigest()
+
+        for ((path, etag) in files.toSortedMap()) {
+            md.update("$path $etag\n".toByteArray())
+        }
+
+        return MiscUtils.contentDigestToString(md)
+    }
+
+    /**
+     * Updates expected files after a write by this instance.
+     *
+     * @param etag new ETag of the file, null if the server didn't return it
+     */
+    @Synchronized
+    private fun expectFile(url: String, etag: String?, deleted: Boolean = false) {
+        val files = expectedFiles ?: return
+
+        val path = url.toHttpUrl().toUri().path
+
+        /* Only files directly in the collection are listed. */
+        if (path.substringBeforeLast('/') != uri.toUrl().toHttpUrl().toUri().path.trimEnd('/')) {
+            expectedFiles = null
+
+        } else if (deleted) {
+            files.remove(path)
+
+        } else if (etag != null) {
+            files[path] = etag
+
+        } else {
+            expectedFiles = null
+        }
+    }
+
     override fun retrieveBook(repoRelativePath: String?, destination: File?): VersionedRook {
         val fileUrl = Uri.withAppendedPath(uri, repoRelativePath).toUrl()
 
-        sardine.get(fileUrl).use { inputStream ->
-            FileOutputStream(destination).use { outputStream ->
-                inputStream.copyTo(outputStream)
+        val request = Request.Builder().url(fileUrl).build()
+
+        return execute(request).use { response ->
+            response.body!!.byteStream().use { inputStream ->
+                FileOutputStream(destination).use { outputStream ->
+                    inputStream.copyTo(outputStream)
+                }
             }
-        }
 
-        return sardine.list(fileUrl).first().toVersionedRook()
+            toVersionedRook(response) ?: propfind(fileUrl)
+        }
     }
 
+    /**
+     * Files opened here (such as the ignore file, read on every sync) are cached and
+     * only downloaded again if their ETag changes.
+     */
     override fun openRepoFileInputStream(repoRelativePath: String): InputStream {
-        val fileUrl = Uri.withAppendedPath(uri, repoRelativePath).toUrl()
-        if (!sardine.exists(fileUrl))
-            throw FileNotFoundException()
-        return sardine.get(fileUrl)
-     }
+        val fileUrl = Uri.withAppendedPath(uri, repoRelativePath).toUrl().toHttpUrl()
+
+        val cached = cachedContent.remove(fileUrl)
+
+        val request = Request.Builder().url(fileUrl).apply {
+            if (cached != null) {
+                header("If-None-Match", cached.first)
+            }
+        }.build()
+
+        execute(request).use { response ->
+            val content = if (cached != null && response.code == HTTP_NOT_MODIFIED) {
+                cached.second
+            } else {
+                response.body!!.bytes()
+            }
+
+            response.header("ETag")?.let { etag ->
+                cachedContent[fileUrl] = Pair(etag, content)
+            }
+
+            return ByteArrayInputStream(content)
+        }
+    }
 
     private fun ensureDirectoryHierarchy(relativePath: String) {
         val levels: ArrayList<String> = ArrayList(relativePath.split("/"))
@@ -239,9 +394,20 @@ class WebdavRepo(
         }
         val fileUrl = uri.buildUpon().appendEncodedPath(encodedRepoPath).build().toUrl()
 
-        sardine.put(fileUrl, file, null)
+        /* Only replace the version of the file last seen, if any. */
+        val etag = knownFiles[fileUrl.toHttpUrl()]?.etag?.takeUnless { it.startsWith("W/") }
+
+        val request = Request.Builder().url(fileUrl).put(file.asRequestBody()).apply {
+            if (etag != null) {
+                header("If-Match", etag)
+            }
+        }.build()
 
-        return sardine.list(fileUrl).first().toVersionedRook()
+        return execute(request).use { response ->
+            toVersionedRook(response) ?: propfind(fileUrl)
+        }.also {
+            expectFile(fileUrl, knownFiles[fileUrl.toHttpUrl()]?.etag)
+        }
     }
 
     override fun renameBook(oldFullUri: Uri, newName: String): VersionedRook {
@@ -263,24 +429,101 @@ class WebdavRepo(
         }
 
         sardine.move(oldFullUri.toUrl(), newFullUrl)
-        return sardine.list(newFullUrl).first().toVersionedRook()
+        expectFile(oldFullUri.toUrl(), null, deleted = true)
+
+        return sardine.list(newFullUrl).first().toVersionedRook().also {
+            expectFile(newFullUrl, knownFiles[newFullUrl.toHttpUrl()]?.etag)
+        }
     }
 
     override fun delete(uri: Uri) {
-        sardine.delete(uri.toUrl())
+        val url = uri.toUrl()
+
+        sardine.delete(url)
+
+        knownFiles.remove(url.toHttpUrl())
+
+        expectFile(url, null, deleted = true)
+    }
+
+    private fun execute(request: Request): Response {
+        val response = client.newCall(request).execute()
+
+        if (!response.isSuccessful && response.code != HTTP_NOT_MODIFIED) {
+            response.close()
+
+            val url = request.url.toString()
+
+            throw when (response.code) {
+                HTTP_NOT_FOUND ->
+                    FileNotFoundException(url)
+
+                HTTP_PRECONDITION_FAILED ->
+                    IOException("File at $url has been modified on the server")
+
+                else ->
+                    IOException("Request ${request.method} $url failed: ${response.code} ${response.message}")
+            }
+        }
+
+        return response
     }
 
+    /**
+     * Requests properties of the file. Used for files which were not listed before.
+     */
+    private fun propfind(url: String): VersionedRook {
+        return sardine.list(url).first().toVersionedRook()
+    }
+
+    /**
+     * Uses ETag and Last-Modified headers of the response, for a previously listed file.
+     */
+    private fun toVersionedRook(response: Response): VersionedRook? {
+        val url = response.request.url
+
+        val knownFile = knownFiles[url] ?: return null
+
+        val etag = response.header("ETag")?.let { normalizeEtag(it) }
+
+        val mtime = response.headers.getDate("Last-Modified")?.time
+                ?: etag?.let { response.headers.getDate("Date")?.time }
+                ?: return null
+
+        knownFiles[url] = KnownFile(knownFile.uri, etag)
+
+        return VersionedRook(repoId, RepoType.WEBDAV, uri, knownFile.uri, etag ?: mtime.toString(), mtime)
+    }
+
+    /**
+     * Uses ETag as revision if server provides it, modification time otherwise.
+     */
     private fun DavResource.toVersionedRook(): VersionedRook {
+        val fullUri = Uri.parse(this.getFullUrlString())
+
+        val etag = this.etag?.let { normalizeEtag(it) }
+
+        fullUri.toUrl().toHttpUrlOrNull()?.let { url ->
+            knownFiles[url] = KnownFile(fullUri, etag)
+        }
+
         return VersionedRook(
                 repoId,
                 RepoType.WEBDAV,
                 uri,
-                Uri.parse(this.getFullUrlString()),
-                this.modified.time.toString(),
+                fullUri,
+                etag ?: this.modified.time.toString(),
                 this.modified.time
         )
     }
 
+    /**
+     * Quotes the ETag like in headers, as some servers return it unquoted in properties.
+     */
+    private fun normalizeEtag(etag: String): String {
+        return if (etag.startsWith("\"") || etag.startsWith("W/")) etag else "\"$etag\""
+    }
+
     /**
      * A WebDAV href can be either an absolute (full) URI, or an "absolute path"
      * (cf. http://www.webdav.org/specs/rfc4918.html#url-handling). The full URI can be built from
@@ -1,6 +1,8 @@
 package com.orgzly.android.sync
 
 import android.app.Application
+import android.os.Handler
+import android.os.Looper
 import com.orgzly.BuildConfig
 import com.orgzly.android.data.DataRepository
 import com.orgzly.android.prefs.AppPreferences
@@ -8,9 +10,24 @@ import com.orgzly.android.util.LogUtils
 import javax.inject.Inject
 import javax.inject.Singleton
 
+/**
+ * Starts sync after changes and app's lifecycle events, as configured.
+ *
+ * Syncs after edits are delayed until there are no more edits for [DEBOUNCE_DELAY],
+ * and only sync modified books if possible (see [IncrementalSync]).
+ * Syncs on resume and suspend are always full.
+ */
 @Singleton
 class AutoSync @Inject constructor(val context: Application, val dataRepository: DataRepository) {
 
+    private val handler = Handler(Looper.getMainLooper())
+
+    private val startIncrementalSync = Runnable {
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG)
+
+        SyncRunner.startIncremental()
+    }
+
     fun trigger(type: Type) {
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, type)
 
@@ -18,12 +35,12 @@ class AutoSync @Inject constructor(val context: Application, val dataRepository:
             when (type) {
                 Type.NOTE_CREATED ->
                     if (AppPreferences.syncOnNoteCreate(context)) {
-                        startSync()
+                        scheduleIncrementalSync()
                     }
 
                 Type.DATA_MODIFIED ->
                     if (AppPreferences.syncOnNoteUpdate(context)) {
-                        startSync()
+                        scheduleIncrementalSync()
                     }
 
                 Type.APP_RESUMED ->
@@ -39,9 +56,17 @@ class AutoSync @Inject constructor(val context: Application, val dataRepository:
         }
     }
 
+    private fun scheduleIncrementalSync() {
+        handler.removeCallbacks(startIncrementalSync)
+        handler.postDelayed(startIncrementalSync, DEBOUNCE_DELAY)
+    }
+
     private fun startSync() {
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG)
 
+        /* Full sync includes any pending changes. */
+        handler.removeCallbacks(startIncrementalSync)
+
         SyncRunner.startAuto()
     }
 
@@ -54,5 +79,7 @@ class AutoSync @Inject constructor(val context: Application, val dataRepository:
 
     companion object {
         private val TAG = AutoSync::class.java.name
+
+        private const val DEBOUNCE_DELAY = 3000L
     }
 }
@@ -89,6 +89,13 @@ public class BookNamesake {
         return status;
     }
 
+    /**
+     * Used when syncing finds out there was nothing to load or save after all.
+     */
+    public void setStatus(BookSyncStatus status) {
+        this.status = status;
+    }
+
     public VersionedRook getLatestLinkedRook() {
         return latestLinkedRook;
     }
@@ -199,7 +206,7 @@ public class BookNamesake {
             }
 
             /* Same revision, there was no remote change. */
-            if (book.getSyncedTo().getRevision().equals(latestLinkedRook.getRevision())) {
+            if (latestLinkedRook.isSameRevision(book.getSyncedTo().getRevision())) {
                 /* Revision did not change. */
 
                 if (book.isOutOfSync()) { // Local change
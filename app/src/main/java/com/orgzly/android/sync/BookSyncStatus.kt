@@ -32,6 +32,10 @@ enum class BookSyncStatus {
     BOOK_WITH_LINK_LOCAL_MODIFIED,
     ONLY_BOOK_WITH_LINK,
 
+    /* Book would be loaded or saved, but its content is the same as when last synced. */
+    ROOK_MODIFIED_WITH_UNCHANGED_CONTENT,
+    BOOK_MODIFIED_WITH_UNCHANGED_CONTENT,
+
     /* Previously synced remote book no longer exists. */
     ROOK_NO_LONGER_EXISTS;
 
@@ -82,6 +86,12 @@ enum class BookSyncStatus {
             ONLY_BOOK_WITHOUT_LINK_AND_ONE_REPO, BOOK_WITH_LINK_LOCAL_MODIFIED, ONLY_BOOK_WITH_LINK ->
                 return context.getString(R.string.sync_status_saved, "$arg")
 
+            ROOK_MODIFIED_WITH_UNCHANGED_CONTENT ->
+                return context.getString(R.string.sync_status_rook_content_unchanged, "$arg")
+
+            BOOK_MODIFIED_WITH_UNCHANGED_CONTENT ->
+                return context.getString(R.string.sync_status_book_content_unchanged, "$arg")
+
             ROOK_NO_LONGER_EXISTS ->
                 return context.getString(R.string.sync_status_rook_no_longer_exists)
 
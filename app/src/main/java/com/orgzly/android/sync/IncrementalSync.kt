@@ -0,0 +1,133 @@
+package com.orgzly.android.sync
+
+import android.util.Log
+import com.orgzly.BuildConfig
+import com.orgzly.android.data.DataRepository
+import com.orgzly.android.repos.RemoteChangeProbe
+import com.orgzly.android.util.LogUtils
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Syncing of modified books only, without listing remote repositories,
+ * when they are known not to have changed since the last sync.
+ *
+ * Repositories' states are probed before listing them (see [RemoteChangeProbe]),
+ * and remembered once synced, including the changes made by the sync itself.
+ * Changes made by anyone else during the sync are not remembered as seen.
+ * Full sync is required if any repository can't be probed or has changed since,
+ * if there are modified books which were never synced,
+ * or once it's been [FULL_SYNC_INTERVAL] since the last full sync.
+ */
+object IncrementalSync {
+    private val TAG: String = IncrementalSync::class.java.name
+
+    /** Remote changes missed by probes are picked up after at most this long. */
+    private const val FULL_SYNC_INTERVAL = 60 * 60 * 1000L
+
+    /* Repository URL to its state after the last sync. */
+    private val tokens = ConcurrentHashMap<String, String>()
+
+    @Volatile
+    private var lastFullSyncAt = 0L
+
+    /**
+     * Current states of remote repositories, to be taken before listing them.
+     *
+     * @return repository URL to its state, for repositories which could be probed
+     */
+    fun probe(dataRepository: DataRepository): Map<String, String> {
+        val probed = HashMap<String, String>()
+
+        for (repo in dataRepository.getSyncRepos()) {
+            val token = try {
+                (repo as? RemoteChangeProbe)?.remoteChangeToken
+            } catch (e: IOException) {
+                Log.w(TAG, "Failed to probe $repo: ${e.message}")
+                null
+            }
+
+            if (token != null) {
+                probed[repo.uri.toString()] = token
+            }
+        }
+
+        return probed
+    }
+
+    /**
+     * Groups modified local books with the remote books they were last synced with.
+     *
+     * @param probed repositories' current states, from [probe]
+     * @return null if full sync is required
+     */
+    @Throws(IOException::class)
+    fun groupModifiedNotebooksByName(dataRepository: DataRepository, probed: Map<String, String>): Map<String, BookNamesake>? {
+        if (System.currentTimeMillis() - lastFullSyncAt > FULL_SYNC_INTERVAL) {
+            if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Full sync is due")
+            return null
+        }
+
+        val repos = dataRepository.getSyncRepos()
+
+        for (repo in repos) {
+            val token = tokens[repo.uri.toString()]
+
+            if (token == null || token != probed[repo.uri.toString()]) {
+                if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Repository $repo might have changed")
+                return null
+            }
+        }
+
+        val modifiedBooks = dataRepository.getBooks().filter { it.book.isModified && !it.book.isDummy }
+
+        /* Never synced before, there could be a remote book with the same name. */
+        if (modifiedBooks.any { !it.hasLink() || !it.hasSync() }) {
+            if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "New books need full sync")
+            return null
+        }
+
+        /* Remote books are the same as when they were last synced. */
+        val namesakes = BookNamesake.getAll(modifiedBooks, modifiedBooks.mapNotNull { it.syncedTo })
+
+        for (namesake in namesakes.values) {
+            namesake.updateStatus(repos.size)
+        }
+
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Syncing ${namesakes.size} modified books")
+
+        return namesakes
+    }
+
+    /**
+     * Remembers states of remote repositories after syncing with them.
+     * Repositories changed by anyone else since they were probed are not remembered.
+     *
+     * @param probed repositories' states, from [probe] called before listing them
+     */
+    fun onSynced(dataRepository: DataRepository, probed: Map<String, String>, isFullSync: Boolean, startedAt: Long) {
+        val synced = HashMap<String, String>()
+
+        for (repo in dataRepository.getSyncRepos()) {
+            val url = repo.uri.toString()
+
+            val token = try {
+                probed[url]?.let { (repo as? RemoteChangeProbe)?.getRemoteChangeTokenAfterSync(it) }
+            } catch (e: IOException) {
+                Log.w(TAG, "Failed to get state of $repo after sync: ${e.message}")
+                null
+            }
+
+            if (token != null) {
+                synced[url] = token
+            }
+        }
+
+        tokens.clear()
+        tokens.putAll(synced)
+
+        if (isFullSync) {
+            lastFullSyncAt = startedAt
+        }
+    }
+}
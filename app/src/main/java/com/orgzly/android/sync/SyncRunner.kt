@@ -21,6 +21,7 @@ import java.util.concurrent.TimeUnit
 
 object SyncRunner {
     const val IS_AUTO_SYNC = "auto-sync"
+    const val IS_INCREMENTAL = "incremental"
 
     private val TAG: String = SyncRunner::class.java.name
 
@@ -31,9 +32,17 @@ object SyncRunner {
         startSync(true)
     }
 
+    /**
+     * Auto-sync of modified books only, if repositories did not change since the last sync.
+     */
+    @JvmStatic
+    fun startIncremental() {
+        startSync(autoSync = true, incremental = true)
+    }
+
     @JvmStatic
     @JvmOverloads
-    fun startSync(autoSync: Boolean = false) {
+    fun startSync(autoSync: Boolean = false, incremental: Boolean = false) {
         val workManager = WorkManager.getInstance(App.getAppContext())
 
 
@@ -59,7 +68,7 @@ object SyncRunner {
             // Sync-in-progress notification cannot be canceled if app is killed by the system,
             // when handling notification manually from the worker.
             .setExpedited(OutOfQuotaPolicy.RUN_AS_NON_EXPEDITED_WORK_REQUEST)
-            .setInputData(workDataOf(IS_AUTO_SYNC to autoSync))
+            .setInputData(workDataOf(IS_AUTO_SYNC to autoSync, IS_INCREMENTAL to incremental))
             .build()
 
         workManager
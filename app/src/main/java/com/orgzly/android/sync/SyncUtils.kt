@@ -13,6 +13,10 @@ import com.orgzly.android.repos.SyncRepo
 import com.orgzly.android.repos.TwoWaySyncRepo
 import com.orgzly.android.repos.VersionedRook
 import com.orgzly.android.util.LogUtils
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.runBlocking
 import java.io.IOException
 
 object SyncUtils {
@@ -20,30 +24,42 @@ object SyncUtils {
 
     /**
      * Goes through each repository and collects all books from each one.
+     *
+     * Repositories are listed concurrently, as most of the time is spent waiting on
+     * the network or storage. Books are returned in the order of repositories.
      */
     @Throws(IOException::class)
     @JvmStatic
     fun getBooksFromAllRepos(dataRepository: DataRepository, repos: List<SyncRepo>? = null): List<VersionedRook> {
-        val result = ArrayList<VersionedRook>()
-
         val repoList = repos ?: dataRepository.getSyncRepos()
 
-        for (repo in repoList) {
-            if (repo is GitRepo && repo.isUnchanged) {
-                for (book in dataRepository.getBooks()) {
-                    if (book.hasLink() && book.linkRepo!!.url == repo.uri.toString() && book.hasSync()) {
-                        result.add(book.syncedTo!!)
-                    }
-                }
-                if (result.isNotEmpty()) {
-                    continue
+        if (repoList.size <= 1) {
+            return repoList.flatMap { getBooksFromRepo(dataRepository, it) }
+        }
+
+        return runBlocking(Dispatchers.IO) {
+            repoList.map { repo ->
+                async { getBooksFromRepo(dataRepository, repo) }
+            }.awaitAll().flatten()
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun getBooksFromRepo(dataRepository: DataRepository, repo: SyncRepo): List<VersionedRook> {
+        if (repo is GitRepo && repo.isUnchanged) {
+            val result = ArrayList<VersionedRook>()
+            for (book in dataRepository.getBooks()) {
+                if (book.hasLink() && book.linkRepo!!.url == repo.uri.toString() && book.hasSync()) {
+                    result.add(book.syncedTo!!)
                 }
             }
-            val libBooks = repo.books
-            /* Each book in repository. */
-            result.addAll(libBooks)
+            if (result.isNotEmpty()) {
+                return result
+            }
         }
-        return result
+
+        /* Each book in repository. */
+        return repo.books
     }
 
     /**
@@ -78,7 +94,8 @@ object SyncUtils {
     }
 
     /**
-     * Passed [com.orgzly.android.sync.BookNamesake] is NOT updated after load or save.
+     * Passed [com.orgzly.android.sync.BookNamesake] is NOT updated after load or save,
+     * except for its status, if there turns out to be no change in content to load or save.
      *
      * FIXME: Hardcoded BookName.Format.ORG below
      */
@@ -143,13 +160,22 @@ object SyncUtils {
                     namesake.status.msg(namesake.rooks[0].uri))
             }
 
-            BookSyncStatus.DUMMY_WITH_LINK, BookSyncStatus.BOOK_WITH_LINK_AND_ROOK_MODIFIED -> {
+            BookSyncStatus.DUMMY_WITH_LINK -> {
                 dataRepository.loadBookFromRepo(namesake.latestLinkedRook)
                 bookAction = BookAction.forNow(
                     BookAction.Type.INFO,
                     namesake.status.msg(namesake.latestLinkedRook.uri))
             }
 
+            BookSyncStatus.BOOK_WITH_LINK_AND_ROOK_MODIFIED -> {
+                if (!dataRepository.loadBookFromRepoIfChanged(namesake.book, namesake.latestLinkedRook)) {
+                    namesake.status = BookSyncStatus.ROOK_MODIFIED_WITH_UNCHANGED_CONTENT
+                }
+                bookAction = BookAction.forNow(
+                    BookAction.Type.INFO,
+                    namesake.status.msg(namesake.latestLinkedRook.uri))
+            }
+
             /* Save local book to repository. */
 
             BookSyncStatus.ONLY_BOOK_WITHOUT_LINK_AND_ONE_REPO -> {
@@ -166,7 +192,9 @@ object SyncUtils {
                 repoEntity = namesake.book.linkRepo
                 repoUrl = repoEntity!!.url
                 repositoryPath = BookName.getRepoRelativePath(repoUrl.toUri(), namesake.book.syncedTo!!.uri)
-                dataRepository.saveBookToRepo(repoEntity, repositoryPath, namesake.book, BookFormat.ORG)
+                if (!dataRepository.saveBookToRepo(repoEntity, repositoryPath, namesake.book, BookFormat.ORG, skipIfUnchanged = true)) {
+                    namesake.status = BookSyncStatus.BOOK_MODIFIED_WITH_UNCHANGED_CONTENT
+                }
                 bookAction = BookAction.forNow(BookAction.Type.INFO, namesake.status.msg(repoUrl))
             }
 
@@ -1,6 +1,7 @@
 package com.orgzly.android.sync
 
 import android.content.Context
+import android.util.Log
 import androidx.work.CoroutineWorker
 import androidx.work.ForegroundInfo
 import androidx.work.WorkerParameters
@@ -25,8 +26,13 @@ import com.orgzly.android.util.LogMajorEvents
 import com.orgzly.android.util.LogUtils
 import com.orgzly.android.widgets.ListWidgetProvider
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 import kotlinx.coroutines.withContext
 import java.util.concurrent.CancellationException
+import java.util.concurrent.atomic.AtomicInteger
 import javax.inject.Inject
 
 class SyncWorker(val context: Context, val params: WorkerParameters) :
@@ -41,6 +47,9 @@ class SyncWorker(val context: Context, val params: WorkerParameters) :
     override suspend fun doWork(): Result {
         App.appComponent.inject(this)
 
+        /* Instances used during the sync are not closed before it ends. */
+        val repos = dataRepository.acquireSyncRepos()
+
         val state = try {
             tryDoWork()
 
@@ -50,6 +59,9 @@ class SyncWorker(val context: Context, val params: WorkerParameters) :
 
         } catch (e: Exception) {
             SyncState.getInstance(SyncState.Type.FAILED_EXCEPTION, e.localizedMessage)
+
+        } finally {
+            repos.forEach { dataRepository.releaseRepoInstance(it) }
         }
 
         val result = if (state.isFailure()) {
@@ -180,7 +192,27 @@ class SyncWorker(val context: Context, val params: WorkerParameters) :
          * Group them by name.
          * Inserts dummy books if they don't exist in database.
          */
-        val namesakes = withContext(Dispatchers.IO) {
+        val incremental = params.inputData.getBoolean(SyncRunner.IS_INCREMENTAL, false)
+
+        val startedAt = System.currentTimeMillis()
+
+        /* Before listing, so that changes made in the meantime are not taken as seen. */
+        val probed = withContext(Dispatchers.IO) {
+            IncrementalSync.probe(dataRepository)
+        }
+
+        /* Only modified books, if none of the repositories changed since the last sync. */
+        val modifiedNamesakes = if (incremental) {
+            withContext(Dispatchers.IO) {
+                IncrementalSync.groupModifiedNotebooksByName(dataRepository, probed)
+            }
+        } else {
+            null
+        }
+
+        val isFullSync = modifiedNamesakes == null
+
+        val namesakes = modifiedNamesakes ?: withContext(Dispatchers.IO) {
             SyncUtils.groupAllNotebooksByName(dataRepository)
         }
 
@@ -189,7 +221,11 @@ class SyncWorker(val context: Context, val params: WorkerParameters) :
         }
 
         if (namesakes.isEmpty()) {
-            return SyncState.getInstance(SyncState.Type.FAILED_NO_BOOKS_FOUND)
+            return if (isFullSync) {
+                SyncState.getInstance(SyncState.Type.FAILED_NO_BOOKS_FOUND)
+            } else {
+                null
+            }
         }
 
         sendProgress(SyncState.getInstance(SyncState.Type.BOOKS_COLLECTED, total = namesakes.size))
@@ -231,46 +267,157 @@ class SyncWorker(val context: Context, val params: WorkerParameters) :
         }
 
         /*
-         * Start syncing name by name.
+         * Sync books concurrently, lane by lane.
          */
-        for ((curr, namesake) in orderedNamesakes.values.withIndex()) {
-            /* If task has been canceled, just mark the remaining books as such. */
-            if (isStopped) {
-                dataRepository.setBookLastActionAndSyncStatus(
-                    namesake.book.book.id,
-                    BookAction.forNow(BookAction.Type.INFO, context.getString(R.string.canceled)))
+        val total = namesakes.size
+        val completed = AtomicInteger(0)
+        val permits = Semaphore(MAX_CONCURRENT_BOOKS)
 
-            } else {
-                sendProgress(SyncState.getInstance(
-                    SyncState.Type.BOOK_STARTED, namesake.name, curr, namesakes.size))
-
-                try {
-                    val action = SyncUtils.syncNamesake(dataRepository, namesake)
-                    dataRepository.setBookLastActionAndSyncStatus(
-                        namesake.book.book.id,
-                        action,
-                        namesake.status.toString())
-                } catch (e: Exception) {
-                    e.printStackTrace()
-                    dataRepository.setBookLastActionAndSyncStatus(
-                        namesake.book.book.id,
-                        BookAction.forNow(BookAction.Type.ERROR, e.message.orEmpty()))
+        /*
+         * Books stored to Git repos are committed together once all are synced,
+         * and pushed once, instead of a commit and a push for each book.
+         */
+        val twoWaySyncRepos = dataRepository.getSyncRepos().filterIsInstance<TwoWaySyncRepo>()
+
+        withContext(Dispatchers.IO) {
+            for (repo in twoWaySyncRepos) {
+                repo.beginBatch()
+            }
+
+            try {
+                coroutineScope {
+                    for (lane in syncLanes(orderedNamesakes.values)) {
+                        launch {
+                            for (namesake in lane) {
+                                permits.withPermit {
+                                    syncNamesake(namesake, completed, total)
+                                }
+                            }
+                        }
+                    }
                 }
 
-                sendProgress(SyncState.getInstance(
-                    SyncState.Type.BOOK_ENDED, namesake.name, curr + 1, namesakes.size))
+            } catch (e: Throwable) {
+                /* Don't hide the original failure. */
+                endBatches(twoWaySyncRepos)?.let { e.addSuppressed(it) }
+                throw e
             }
+
+            endBatches(twoWaySyncRepos)?.let { throw it }
         }
 
         if (isStopped) {
             return SyncState.getInstance(SyncState.Type.CANCELED)
         }
 
-        val repos = dataRepository.getSyncRepos()
+        for (repo in twoWaySyncRepos) {
+            repo.tryPushIfHeadDiffersFromRemote()
+        }
+
+        withContext(Dispatchers.IO) {
+            IncrementalSync.onSynced(dataRepository, probed, isFullSync, startedAt)
+        }
+
+        return null
+    }
+
+    /**
+     * Ends the batch of every repo, even if ending some of them fails.
+     * Returns the first failure, with any others suppressed in it.
+     */
+    private fun endBatches(repos: List<TwoWaySyncRepo>): Exception? {
+        var failure: Exception? = null
 
         for (repo in repos) {
-            if (repo is TwoWaySyncRepo) {
-                repo.tryPushIfHeadDiffersFromRemote()
+            try {
+                dataRepository.endBatch(repo)
+            } catch (e: Exception) {
+                Log.w(TAG, "Failed to end batch for ${repo.getUri()}", e)
+
+                val first = failure
+                if (first == null) {
+                    failure = e
+                } else {
+                    first.addSuppressed(e)
+                }
+            }
+        }
+
+        return failure
+    }
+
+    private suspend fun syncNamesake(namesake: BookNamesake, completed: AtomicInteger, total: Int) {
+        /* If task has been canceled, just mark the remaining books as such. */
+        if (isStopped) {
+            dataRepository.setBookLastActionAndSyncStatus(
+                namesake.book.book.id,
+                BookAction.forNow(BookAction.Type.INFO, context.getString(R.string.canceled)))
+            return
+        }
+
+        sendProgress(SyncState.getInstance(
+            SyncState.Type.BOOK_STARTED, namesake.name, completed.get(), total))
+
+        try {
+            val action = SyncUtils.syncNamesake(dataRepository, namesake)
+            dataRepository.setBookLastActionAndSyncStatus(
+                namesake.book.book.id,
+                action,
+                namesake.status.toString())
+        } catch (e: Exception) {
+            e.printStackTrace()
+            dataRepository.setBookLastActionAndSyncStatus(
+                namesake.book.book.id,
+                BookAction.forNow(BookAction.Type.ERROR, e.message.orEmpty()))
+        }
+
+        sendProgress(SyncState.getInstance(
+            SyncState.Type.BOOK_ENDED, namesake.name, completed.incrementAndGet(), total))
+    }
+
+    /**
+     * Splits namesakes into lanes which can be synced concurrently.
+     *
+     * Git repositories are not safe for concurrent use (see
+     * [com.orgzly.android.git.GitFileSynchronizer]), so all namesakes of the same
+     * Git repository share a single lane, keeping their order. Every other namesake
+     * gets a lane of its own.
+     */
+    private fun syncLanes(namesakes: Collection<BookNamesake>): List<List<BookNamesake>> {
+        val repos = dataRepository.getRepos()
+
+        /* Books without a link or rook are saved to the only repository, if there is one. */
+        val onlyGitRepoUrl = repos.singleOrNull()?.takeIf { it.type == RepoType.GIT }?.url
+
+        val gitLanes = LinkedHashMap<String, MutableList<BookNamesake>>()
+        val lanes = ArrayList<List<BookNamesake>>()
+
+        for (namesake in namesakes) {
+            val gitRepoUrl = gitRepoUrl(namesake) ?: onlyGitRepoUrl
+
+            if (gitRepoUrl != null) {
+                gitLanes.getOrPut(gitRepoUrl) { ArrayList<BookNamesake>().also { lanes.add(it) } }.add(namesake)
+            } else {
+                lanes.add(listOf(namesake))
+            }
+        }
+
+        if (BuildConfig.LOG_DEBUG)
+            LogUtils.d(TAG, "Syncing ${namesakes.size} books in ${lanes.size} lanes (${gitLanes.size} Git)")
+
+        return lanes
+    }
+
+    private fun gitRepoUrl(namesake: BookNamesake): String? {
+        namesake.book.linkRepo?.let { repo ->
+            if (repo.type == RepoType.GIT) {
+                return repo.url
+            }
+        }
+
+        namesake.rooks.firstOrNull()?.let { rook ->
+            if (rook.repoType == RepoType.GIT) {
+                return rook.repoUri.toString()
             }
         }
 
@@ -298,5 +445,8 @@ class SyncWorker(val context: Context, val params: WorkerParameters) :
 
     companion object {
         private val TAG: String = SyncWorker::class.java.name
+
+        /** Maximum number of books synced at the same time. */
+        private const val MAX_CONCURRENT_BOOKS = 4
     }
 }
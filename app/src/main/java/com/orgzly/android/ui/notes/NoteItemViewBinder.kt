@@ -19,6 +19,7 @@ import com.orgzly.android.usecase.NoteToggleFolding
 import com.orgzly.android.usecase.NoteToggleFoldingSubtree
 import com.orgzly.android.usecase.NoteUpdateContent
 import com.orgzly.android.usecase.UseCaseRunner
+import com.orgzly.android.util.OrgFormatter
 import com.orgzly.android.util.UserTimeFormatter
 import com.orgzly.databinding.ItemAgendaDividerBinding
 import com.orgzly.databinding.ItemHeadBinding
@@ -30,6 +31,14 @@ class NoteItemViewBinder(private val context: Context, private val inBook: Boole
 
     private val userTimeFormatter: UserTimeFormatter
 
+    /* Configuration content was last parsed with, used for prefetching. */
+    @Volatile
+    private var contentFormatterConfig: OrgFormatter.Config? = null
+
+    /* List and its pages which have already been scheduled for prefetching. */
+    private var prefetchedList: List<NoteView?>? = null
+    private val prefetchedPages = HashSet<Int>()
+
     init {
 
         val titleAttributes = TitleGenerator.TitleAttributes(
@@ -102,7 +111,13 @@ class NoteItemViewBinder(private val context: Context, private val inBook: Boole
                 holder.binding.itemHeadContent.setTypeface(Typeface.MONOSPACE)
             }
 
-            holder.binding.itemHeadContent.setSourceText(note.content)
+            val config = holder.binding.itemHeadContent.formatterConfig().also {
+                contentFormatterConfig = it
+            }
+
+            holder.binding.itemHeadContent.setSourceText(
+                    note.content,
+                    NoteSpannedCache.get(note.id, NoteSpannedCache.Field.CONTENT, note.content!!, config))
 
             /* If content changes (for example by toggling the checkbox), update the note. */
             holder.binding.itemHeadContent.setOnUserTextChangeListener { str ->
@@ -120,6 +135,50 @@ class NoteItemViewBinder(private val context: Context, private val inBook: Boole
         }
     }
 
+    /**
+     * Parses titles and content of notes on pages next to the position, off the main thread,
+     * so they are already cached when bound. Notes which are not loaded (null) are skipped.
+     */
+    fun prefetch(noteViews: List<NoteView?>, position: Int) {
+        if (noteViews !== prefetchedList) {
+            prefetchedList = noteViews
+            prefetchedPages.clear()
+        }
+
+        val page = position / PREFETCH_PAGE_SIZE
+
+        for (p in listOf(page + 1, page - 1)) {
+            val from = p * PREFETCH_PAGE_SIZE
+
+            if (p < 0 || from >= noteViews.size || !prefetchedPages.add(p)) {
+                continue
+            }
+
+            val pageNoteViews = noteViews.subList(from, minOf(from + PREFETCH_PAGE_SIZE, noteViews.size)).filterNotNull()
+
+            App.EXECUTORS.diskIO().execute {
+                pageNoteViews.forEach(::parse)
+            }
+        }
+    }
+
+    private fun parse(noteView: NoteView) {
+        val note = noteView.note
+
+        if (inBook && note.position.foldedUnderId != 0L) {
+            return
+        }
+
+        NoteSpannedCache.get(
+                note.id, NoteSpannedCache.Field.TITLE, note.title, titleGenerator.titleFormatterConfig())
+
+        val config = contentFormatterConfig
+
+        if (config != null && note.hasContent() && titleGenerator.shouldDisplayContent(note)) {
+            NoteSpannedCache.get(note.id, NoteSpannedCache.Field.CONTENT, note.content!!, config)
+        }
+    }
+
     private fun setupPlanningTimes(holder: NoteItemViewHolder, noteView: NoteView, agendaTimeType: TimeType?) {
 
         fun setupPlanningTime(textView: TextView, iconView: ImageView, value: String?) {
@@ -391,6 +450,8 @@ class NoteItemViewBinder(private val context: Context, private val inBook: Boole
     companion object {
         const val ARCHIVE_TAG = "ARCHIVE"
 
+        private const val PREFETCH_PAGE_SIZE = 50
+
         /**
          * Setup margins or padding for different list density settings.
          */
@@ -0,0 +1,62 @@
+package com.orgzly.android.ui.notes
+
+import android.text.Spanned
+import android.text.SpannedString
+import android.util.LruCache
+import com.orgzly.android.util.OrgFormatter
+
+/**
+ * Bounded LRU cache of notes' titles and content parsed by [OrgFormatter].
+ *
+ * Entries are keyed by note ID, hash of the source text and formatter configuration
+ * (which follows display settings). The source itself is compared on lookup too,
+ * so a hash collision never returns the wrong text.
+ *
+ * Cached values are immutable and can be shared by views, as they copy the text
+ * before modifying its spans.
+ */
+object NoteSpannedCache {
+    /* Maximum number of characters (of sources and parsed text) kept. */
+    private const val MAX_SIZE = 1024 * 1024
+
+    enum class Field {
+        TITLE,
+        CONTENT
+    }
+
+    private data class Key(
+            val noteId: Long,
+            val field: Field,
+            val hash: Int,
+            val config: OrgFormatter.Config)
+
+    private class Entry(val source: String, val spanned: Spanned)
+
+    private val cache = object : LruCache<Key, Entry>(MAX_SIZE) {
+        override fun sizeOf(key: Key, value: Entry): Int {
+            return value.source.length + value.spanned.length + 1
+        }
+    }
+
+    @JvmStatic
+    fun get(noteId: Long, field: Field, source: String, config: OrgFormatter.Config): Spanned {
+        val key = Key(noteId, field, source.hashCode(), config)
+
+        cache.get(key)?.let { entry ->
+            if (entry.source == source) {
+                return entry.spanned
+            }
+        }
+
+        val spanned = SpannedString(OrgFormatter.parse(source, config))
+
+        cache.put(key, Entry(source, spanned))
+
+        return spanned
+    }
+
+    @JvmStatic
+    fun clear() {
+        cache.evictAll()
+    }
+}
@@ -25,7 +25,7 @@ class BookAdapter(
     private val clickListener: OnClickListener,
     private val inBook: Boolean
 ) :
-    ListAdapterWithHeaders<NoteView, RecyclerView.ViewHolder>(DIFF_CALLBACK, 1),
+    PagingDataAdapterWithHeaders<NoteView, RecyclerView.ViewHolder>(DIFF_CALLBACK, 1),
     SelectableItemAdapter {
 
     private var currentPreface: String? = null
@@ -37,15 +37,18 @@ class BookAdapter(
 
     private val noteViewHolderListener = object: NoteItemViewHolder.ClickListener {
         override fun onClick(view: View, position: Int) {
-            clickListener.onNoteClick(view, position, getItem(position))
+            peek(position)?.let { clickListener.onNoteClick(view, position, it) }
         }
         override fun onLongClick(view: View, position: Int) {
-            clickListener.onNoteLongClick(view, position, getItem(position))
+            peek(position)?.let { clickListener.onNoteLongClick(view, position, it) }
         }
     }
 
     inner class FoldedViewHolder(view: View) : RecyclerView.ViewHolder(view)
 
+    /** Note which is not loaded yet. Takes up some room, to keep scrolling smooth. */
+    inner class PlaceholderViewHolder(view: View) : RecyclerView.ViewHolder(view)
+
     inner class PrefaceViewHolder(val binding: ItemPrefaceBinding) :
         RecyclerView.ViewHolder(binding.root) {
 
@@ -57,9 +60,12 @@ class BookAdapter(
     }
 
     override fun getItemViewType(position: Int): Int {
+        val noteView = if (position > 0) peek(position) else null
+
         return when {
             position == 0 -> R.layout.item_preface
-            isVisible(getItem(position).note) -> VISIBLE_ITEM_TYPE
+            noteView == null -> PLACEHOLDER_ITEM_TYPE
+            isVisible(noteView.note) -> VISIBLE_ITEM_TYPE
             else -> HIDDEN_ITEM_TYPE
         }
     }
@@ -81,6 +87,17 @@ class BookAdapter(
                 FoldedViewHolder(View(context))
             }
 
+            PLACEHOLDER_ITEM_TYPE -> {
+                val binding = ItemHeadBinding.inflate(
+                    LayoutInflater.from(context), parent, false)
+
+                NoteItemViewBinder.setupSpacingForDensitySetting(context, binding)
+
+                binding.root.visibility = View.INVISIBLE
+
+                PlaceholderViewHolder(binding.root)
+            }
+
             else -> {
                 val binding = ItemHeadBinding.inflate(
                     LayoutInflater.from(context), parent, false)
@@ -105,13 +122,20 @@ class BookAdapter(
                 return
             }
 
+            h.itemViewType == PLACEHOLDER_ITEM_TYPE -> {
+                /* Loads the page, the item is rebound once it's loaded. */
+                getItem(position)
+            }
+
             else -> {
                 val holder = h as NoteItemViewHolder
-                val noteView = getItem(position)
+                val noteView = getItem(position) ?: return
                 val note = noteView.note
 
                 noteItemViewBinder.bind(holder, noteView)
 
+                noteItemViewBinder.prefetch(loadedItems, position - 1)
+
                 getSelection().setBackgroundIfSelected(holder.itemView, note.id)
             }
         }
@@ -119,7 +143,8 @@ class BookAdapter(
 
     override fun getItemId(position: Int): Long {
         return if (position > 0) {
-            getItem(position).note.id
+            /* Placeholders get unique negative ids. */
+            peek(position)?.note?.id ?: (-1L - position)
         } else {
             -1
         }
@@ -162,6 +187,7 @@ class BookAdapter(
 
         const val HIDDEN_ITEM_TYPE = 0 // Not used
         const val VISIBLE_ITEM_TYPE = 1
+        const val PLACEHOLDER_ITEM_TYPE = 2
 
         private val DIFF_CALLBACK: DiffUtil.ItemCallback<NoteView> =
             object : DiffUtil.ItemCallback<NoteView>() {
@@ -4,7 +4,6 @@ import android.annotation.SuppressLint
 import android.content.Context
 import android.content.Intent
 import android.os.Bundle
-import android.os.Handler
 import android.util.Log
 import android.view.*
 import androidx.activity.OnBackPressedCallback
@@ -86,6 +85,12 @@ class BookFragment :
 
     var currentBook: Book? = null
 
+    /** Ids of all visible notes, in order. Loaded notes are in the adapter. */
+    private var currentNoteIds: List<Long> = emptyList()
+
+    /* Note to scroll to once its position is in the adapter. */
+    private var pendingScrollNoteId = 0L
+
     private var mBookId: Long = 0
 
     private val appBarBackPressHandler = object : OnBackPressedCallback(false) {
@@ -141,6 +146,10 @@ class BookFragment :
 
         viewAdapter = BookAdapter(mBookId, binding.root.context, this, inBook = true).apply {
             setHasStableIds(true)
+
+            addOnPagesUpdatedListener {
+                scrollToPendingNote()
+            }
         }
 
         // Restores selection, requires adapter
@@ -203,29 +212,32 @@ class BookFragment :
 
         viewModel.data.observe(viewLifecycleOwner, Observer { data ->
             if (BuildConfig.LOG_DEBUG)
-                LogUtils.d(TAG, "Observed data: book ${data.book} and ${data.notes?.size} notes")
+                LogUtils.d(TAG, "Observed data: book ${data.book} and ${data.noteIds?.size} notes")
 
             val book = data.book
-            val notes = data.notes
+            val noteIds = data.noteIds
 
             this.currentBook = book
 
             viewAdapter.setPreface(book)
 
-            if (notes != null) {
-                if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Submitting list")
-                viewAdapter.submitList(notes)
+            if (noteIds != null) {
+                this.currentNoteIds = noteIds
 
-                val ids = notes.mapTo(hashSetOf()) { it.note.id }
-
-                viewAdapter.getSelection().removeNonExistent(ids)
+                viewAdapter.getSelection().removeNonExistent(noteIds.toHashSet())
 
                 viewModel.appBar.toModeFromSelectionCount(viewAdapter.getSelection().count)
 
                 scrollToNoteIfSet(arguments?.getLong(ARG_NOTE_ID, 0) ?: 0)
             }
 
-            setFlipperDisplayedChild(notes)
+            setFlipperDisplayedChild(noteIds)
+        })
+
+        viewModel.notes.observe(viewLifecycleOwner, Observer { notes ->
+            if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Submitting notes")
+
+            viewAdapter.submitData(viewLifecycleOwner.lifecycle, notes)
         })
 
         viewModel.refileRequestEvent.observeSingle(viewLifecycleOwner, Observer {
@@ -298,7 +310,7 @@ class BookFragment :
         }
     }
 
-    private fun setFlipperDisplayedChild(notes: List<NoteView>?) {
+    private fun setFlipperDisplayedChild(notes: List<Long>?) {
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG)
 
         if (currentBook == null) {
@@ -385,30 +397,47 @@ class BookFragment :
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, noteId)
 
         if (noteId > 0) {
-            val startedAt = System.currentTimeMillis()
+            pendingScrollNoteId = noteId
 
-            for (i in 0 until viewAdapter.itemCount) {
-                val id = viewAdapter.getItemId(i)
+            scrollToPendingNote()
+        }
+    }
 
-                if (id == noteId) {
-                    scrollToPosition(i)
+    /**
+     * Note IDs and pages of notes are observed separately. Scroll only once both
+     * know about the note, or the adapter could still be holding the preface only.
+     */
+    private fun scrollToPendingNote() {
+        val noteId = pendingScrollNoteId
 
-                    binding.fragmentBookRecyclerView.post {
-                        spotlightScrolledToView(i)
-                    }
+        if (noteId == 0L) {
+            return
+        }
 
-                    /* Make sure we don't scroll again (for example after configuration change). */
-                    Handler().postDelayed({ arguments?.remove(ARG_NOTE_ID) }, 500)
+        /* Position is found from all ids, as the note itself might not be loaded. */
+        val index = currentNoteIds.indexOf(noteId)
 
-                    break
-                }
-            }
+        if (index == -1) {
+            return
+        }
 
-            if (BuildConfig.LOG_DEBUG) {
-                val ms = System.currentTimeMillis() - startedAt
-                LogUtils.d(TAG, "Scrolling to note " + noteId + " took " + ms + "ms")
-            }
+        val i = index + 1 // Preface
+
+        if (viewAdapter.itemCount <= i) {
+            if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Note $noteId not in adapter yet")
+            return
+        }
+
+        pendingScrollNoteId = 0
+
+        scrollToPosition(i)
+
+        binding.fragmentBookRecyclerView.post {
+            spotlightScrolledToView(i)
         }
+
+        /* Make sure we don't scroll again (for example after configuration change). */
+        arguments?.remove(ARG_NOTE_ID)
     }
 
     private fun scrollToPosition(position: Int) {
@@ -503,7 +532,7 @@ class BookFragment :
                 sharedMainActivityViewModel.openDrawer()
             }
 
-            if (currentBook == null || viewAdapter.getDataItemCount() == 0) {
+            if (currentBook == null || currentNoteIds.isEmpty()) {
                 menu.removeItem(R.id.books_options_menu_item_cycle_visibility)
             }
 
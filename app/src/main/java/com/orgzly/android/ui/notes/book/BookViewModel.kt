@@ -1,10 +1,17 @@
 package com.orgzly.android.ui.notes.book
 
+import androidx.lifecycle.LiveData
 import androidx.lifecycle.MediatorLiveData
 import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.switchMap
+import androidx.lifecycle.viewModelScope
+import androidx.paging.Pager
+import androidx.paging.PagingData
+import androidx.paging.cachedIn
+import androidx.paging.liveData
 import com.orgzly.android.App
 import com.orgzly.android.data.DataRepository
+import com.orgzly.android.data.NotesPagingSource
 import com.orgzly.android.db.entity.Book
 import com.orgzly.android.db.entity.NoteView
 import com.orgzly.android.ui.AppBar
@@ -32,19 +39,30 @@ class BookViewModel(private val dataRepository: DataRepository, val bookId: Long
         flipperDisplayedChild.value = child
     }
 
-    data class Data(val book: Book?, val notes: List<NoteView>?)
+    /**
+     * Book and ids of all its visible notes, used for selection and scrolling to notes
+     * which might not be loaded. Notes themselves are loaded with [notes].
+     */
+    data class Data(val book: Book?, val noteIds: List<Long>?)
 
     val data = params.switchMap { _ ->
         MediatorLiveData<Data>().apply {
             addSource(dataRepository.getBookLiveData(bookId)) {
-                value = Data(it, value?.notes)
+                value = Data(it, value?.noteIds)
             }
-            addSource(dataRepository.getVisibleNotesLiveData(bookId)) {
+            addSource(dataRepository.getVisibleNoteIdsLiveData(bookId)) {
                 value = Data(value?.book, it)
             }
         }
     }
 
+    /**
+     * Visible notes, loaded in pages around the displayed position.
+     */
+    val notes: LiveData<PagingData<NoteView>> = Pager(NotesPagingSource.config()) {
+        dataRepository.getVisibleNotesPagingSource(bookId)
+    }.liveData.cachedIn(viewModelScope)
+
     companion object {
         const val APP_BAR_DEFAULT_MODE = 0
         const val APP_BAR_SELECTION_MODE = 1
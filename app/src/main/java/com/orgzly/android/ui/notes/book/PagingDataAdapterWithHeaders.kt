@@ -0,0 +1,98 @@
+package com.orgzly.android.ui.notes.book
+
+import androidx.lifecycle.Lifecycle
+import androidx.paging.AsyncPagingDataDiffer
+import androidx.paging.PagingData
+import androidx.recyclerview.widget.*
+import com.orgzly.BuildConfig
+import com.orgzly.android.util.LogUtils
+
+/**
+ * Displays paged data after a number of header items.
+ *
+ * Items which are not loaded yet are placeholders (null).
+ * Binding one with [getItem] loads its page.
+ */
+abstract class PagingDataAdapterWithHeaders<T : Any, VH : RecyclerView.ViewHolder>(
+        private val diffCallback: DiffUtil.ItemCallback<T>,
+        private val headers: Int = 1
+) : RecyclerView.Adapter<VH>() {
+
+    private val differ = AsyncPagingDataDiffer(diffCallback, ListUpdateWithHeadersCallback(this))
+
+    /**
+     * Loaded items, in a list which is replaced whenever pages change. Placeholders are null.
+     */
+    var loadedItems: List<T?> = emptyList()
+        private set
+
+    fun submitData(lifecycle: Lifecycle, pagingData: PagingData<T>) {
+        differ.submitData(lifecycle, pagingData)
+    }
+
+    /**
+     * Returns the item, loading its page if needed.
+     */
+    fun getItem(position: Int): T? {
+        return differ.getItem(position - headers)
+    }
+
+    /**
+     * Returns the item if its page is loaded, without loading anything.
+     */
+    fun peek(position: Int): T? {
+        return differ.peek(position - headers)
+    }
+
+    override fun getItemCount(): Int {
+        return differ.itemCount + headers
+    }
+
+    /**
+     * Called whenever loaded pages change, after the adapter has been notified.
+     */
+    fun addOnPagesUpdatedListener(listener: () -> Unit) {
+        differ.addOnPagesUpdatedListener(listener)
+    }
+
+    inner class ListUpdateWithHeadersCallback(
+            private val adapter: RecyclerView.Adapter<*>
+    ) : ListUpdateCallback {
+
+        override fun onInserted(position: Int, count: Int) {
+            if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, position, count)
+            adapter.notifyItemRangeInserted(position + headers, count)
+        }
+
+        override fun onRemoved(position: Int, count: Int) {
+            if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, position, count)
+            adapter.notifyItemRangeRemoved(position + headers, count)
+        }
+
+        override fun onMoved(fromPosition: Int, toPosition: Int) {
+            if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, fromPosition, toPosition)
+            adapter.notifyItemMoved(fromPosition + headers, toPosition + headers)
+        }
+
+        override fun onChanged(position: Int, count: Int, payload: Any?) {
+            if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, position, count)
+            adapter.notifyItemRangeChanged(position + headers, count, payload)
+        }
+    }
+
+    init {
+        differ.addOnPagesUpdatedListener {
+            loadedItems = object : AbstractList<T?>() {
+                override val size = differ.itemCount
+
+                override fun get(index: Int): T? {
+                    return if (index < differ.itemCount) differ.peek(index) else null
+                }
+            }
+        }
+    }
+
+    companion object {
+        private val TAG = PagingDataAdapterWithHeaders::class.java.name
+    }
+}
@@ -1,10 +1,18 @@
 package com.orgzly.android.ui.notes.query
 
+import androidx.lifecycle.LiveData
 import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.map
 import androidx.lifecycle.switchMap
+import androidx.lifecycle.viewModelScope
+import androidx.paging.Pager
+import androidx.paging.PagingData
+import androidx.paging.cachedIn
+import androidx.paging.liveData
 import com.orgzly.BuildConfig
 import com.orgzly.android.data.DataRepository
+import com.orgzly.android.data.NotesPagingSource
+import com.orgzly.android.db.entity.NoteView
 import com.orgzly.android.ui.AppBar
 import com.orgzly.android.ui.CommonViewModel
 import com.orgzly.android.util.LogUtils
@@ -24,9 +32,21 @@ class QueryViewModel(private val dataRepository: DataRepository) : CommonViewMod
 
     private val notesParams = MutableLiveData<Params>()
 
-    val data = notesParams.switchMap { params ->
+    /** Notes loaded in pages, as they are scrolled to. */
+    val notes: LiveData<PagingData<NoteView>> = notesParams.switchMap { params ->
         if (params.query != null) {
-            dataRepository.selectNotesFromQueryLiveData(params.query).map {
+            Pager(NotesPagingSource.config()) {
+                dataRepository.selectNotesFromQueryPagingSource(params.query)
+            }.liveData.cachedIn(viewModelScope)
+        } else {
+            MutableLiveData()
+        }
+    }
+
+    /** Ids of all notes matching the query. */
+    val noteIds = notesParams.switchMap { params ->
+        if (params.query != null) {
+            dataRepository.selectNoteIdsFromQueryLiveData(params.query).map {
                 viewState.value = if (it.isNotEmpty()) {
                     ViewState.LOADED
                 } else {
@@ -40,6 +60,23 @@ class QueryViewModel(private val dataRepository: DataRepository) : CommonViewMod
         }
     }
 
+    /** Notes with their occurrences, for agenda queries. */
+    val agenda = notesParams.switchMap { params ->
+        if (params.query != null) {
+            dataRepository.selectAgendaFromQueryLiveData(params.query).map {
+                viewState.value = if (it.notes.isNotEmpty()) {
+                    ViewState.LOADED
+                } else {
+                    ViewState.EMPTY
+                }
+
+                it
+            }
+        } else {
+            MutableLiveData()
+        }
+    }
+
     val appBar: AppBar = AppBar(mapOf(
         APP_BAR_DEFAULT_MODE to null,
         APP_BAR_SELECTION_MODE to APP_BAR_DEFAULT_MODE))
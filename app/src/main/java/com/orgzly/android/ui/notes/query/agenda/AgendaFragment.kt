@@ -226,11 +226,13 @@ class AgendaFragment : QueryFragment(), OnViewHolderClickListener<AgendaItem> {
             }
         })
 
-        viewModel.data.observe(viewLifecycleOwner, Observer { notes ->
+        viewModel.agenda.observe(viewLifecycleOwner, Observer { agenda ->
+            val notes = agenda.notes
+
             if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Observed notes: ${notes.size}")
 
             val hideEmptyDaysInAgenda = AppPreferences.hideEmptyDaysInAgenda(context)
-            val items = AgendaItems(hideEmptyDaysInAgenda).getList(notes, currentQuery, item2databaseIds)
+            val items = AgendaItems(hideEmptyDaysInAgenda).getList(notes, agenda.occurrences, agenda.days, item2databaseIds)
 
             if (BuildConfig.LOG_DEBUG)
                 LogUtils.d(TAG, "Replacing data with ${items.size} agenda items")
@@ -1,10 +1,9 @@
 package com.orgzly.android.ui.notes.query.agenda
 
+import com.orgzly.android.db.dao.AgendaOccurrenceDao
+import com.orgzly.android.db.dao.ReminderTimeDao
 import com.orgzly.android.db.entity.NoteView
-import com.orgzly.android.query.Query
-import com.orgzly.android.query.user.InternalQueryParser
 import com.orgzly.android.ui.TimeType
-import com.orgzly.android.util.AgendaUtils
 import com.orgzly.org.datetime.OrgInterval
 import com.orgzly.org.datetime.OrgRange
 import org.joda.time.DateTime
@@ -36,32 +35,10 @@ class AgendaItems(private val hideEmptyDaysInAgenda : Boolean) {
     }
 
     fun getList(
-            notes: List<NoteView>, queryString: String?, idMap: MutableMap<Long, Long>
-    ): List<AgendaItem> {
-
-        return if (queryString != null) {
-            val parser = InternalQueryParser()
-
-            val query = parser.parse(queryString)
-
-            getList(notes, query, idMap)
-
-        } else {
-            listOf()
-        }
-    }
-
-    fun getList(
-            notes: List<NoteView>, query: Query, item2databaseIds: MutableMap<Long, Long>
-    ): List<AgendaItem> {
-
-        return getList(notes, item2databaseIds, query.options.agendaDays)
-    }
-
-    private fun getList(
             notes: List<NoteView>,
-            item2databaseIds: MutableMap<Long, Long>,
-            agendaDays: Int
+            occurrences: List<AgendaOccurrenceDao.Occurrence>,
+            agendaDays: Int,
+            item2databaseIds: MutableMap<Long, Long>
     ): List<AgendaItem> {
 
         item2databaseIds.clear()
@@ -76,53 +53,76 @@ class AgendaItems(private val hideEmptyDaysInAgenda : Boolean) {
                 .map { i -> now.plusDays(i) }
                 .associateBy({ it.millis }, { mutableListOf<AgendaItem>() })
 
-        val addedPlanningTimes = HashSet<Long>()
+        // Notes' rows by ID (for planning times) and by ID and event (for events)
+        val rowsById = mutableMapOf<Long, Int>()
+        val rowsByEvent = mutableMapOf<Pair<Long, String>, Int>()
 
-        fun addInstances(note: NoteView, timeType: TimeType, timeString: String) {
-            val range = OrgRange.parseOrNull(timeString) ?: return
+        notes.forEachIndexed { row, note ->
+            rowsById.putIfAbsent(note.note.id, row)
 
-            if (!range.startTime.isActive) {
-                return
+            note.eventString?.let {
+                rowsByEvent.putIfAbsent(Pair(note.note.id, it), row)
             }
+        }
 
-            val expandable = ExpandableOrgRange.fromRange(timeType, range)
+        // Active time which started before today
+        fun isOverdue(timeString: String?, timestamp: Long?): Boolean {
+            return timeString != null && timestamp != null
+                    && timeString.startsWith("<")
+                    && timestamp < now.millis
+        }
 
-            val times = AgendaUtils.expandOrgDateTime(expandable, now, agendaDays)
+        // Add overdue planning times
+        rowsById.values.forEach { row ->
+            val note = notes[row]
 
-            if (times.isOverdueToday) {
-                overdueNotes.add(AgendaItem.Note(agendaItemId, note, timeType))
+            if (isOverdue(note.scheduledTimeString, note.scheduledTimeTimestamp)) {
+                overdueNotes.add(AgendaItem.Note(agendaItemId, note, TimeType.SCHEDULED))
                 item2databaseIds[agendaItemId] = note.note.id
                 agendaItemId++
             }
 
-            // Add each note instance to its day bucket
-            times.expanded.forEach { time ->
-                val bucketKey = time.withTimeAtStartOfDay().millis
+            if (isOverdue(note.deadlineTimeString, note.deadlineTimeTimestamp)) {
+                overdueNotes.add(AgendaItem.Note(agendaItemId, note, TimeType.DEADLINE))
+                item2databaseIds[agendaItemId] = note.note.id
+                agendaItemId++
+            }
+        }
 
-                dailyNotes[bucketKey]?.let {
-                    it.add(AgendaItem.Note(agendaItemId, note, timeType))
-                    item2databaseIds[agendaItemId] = note.note.id
-                    agendaItemId++
-                }
+        // Find the row of each occurrence, skipping those of notes not matching the query
+        val rows = occurrences.mapNotNull { occurrence ->
+            val row = when (occurrence.timeType) {
+                ReminderTimeDao.SCHEDULED_TIME ->
+                    rowsById[occurrence.noteId]?.takeIf {
+                        notes[it].scheduledRangeString == occurrence.orgRangeString
+                    }
+
+                ReminderTimeDao.DEADLINE_TIME ->
+                    rowsById[occurrence.noteId]?.takeIf {
+                        notes[it].deadlineRangeString == occurrence.orgRangeString
+                    }
+
+                else ->
+                    rowsByEvent[Pair(occurrence.noteId, occurrence.orgRangeString)]
             }
+
+            row?.let { Pair(it, occurrence) }
         }
 
-        notes.forEach { note ->
-            // Add planning times for a note only once
-            if (!addedPlanningTimes.contains(note.note.id)) {
-                note.scheduledRangeString?.let {
-                    addInstances(note, TimeType.SCHEDULED, it)
-                }
-                note.deadlineRangeString?.let {
-                    addInstances(note, TimeType.DEADLINE, it)
-                }
+        // Add each note instance to its day bucket, keeping the order of notes
+        rows.sortedWith(compareBy({ it.first }, { it.second.timeType })).forEach { (row, occurrence) ->
+            val note = notes[row]
 
-                addedPlanningTimes.add(note.note.id)
+            val timeType = when (occurrence.timeType) {
+                ReminderTimeDao.SCHEDULED_TIME -> TimeType.SCHEDULED
+                ReminderTimeDao.DEADLINE_TIME -> TimeType.DEADLINE
+                else -> TimeType.EVENT
             }
 
-            // Add each note's event
-            note.eventString?.let {
-                addInstances(note, TimeType.EVENT, it)
+            dailyNotes[occurrence.day]?.let {
+                it.add(AgendaItem.Note(agendaItemId, note, timeType))
+                item2databaseIds[agendaItemId] = note.note.id
+                agendaItemId++
             }
         }
 
@@ -1,7 +1,6 @@
 package com.orgzly.android.ui.notes.query.search
 
 import android.content.Context
-import androidx.recyclerview.widget.ListAdapter
 import androidx.recyclerview.widget.DiffUtil
 import android.view.LayoutInflater
 import android.view.View
@@ -13,12 +12,14 @@ import com.orgzly.android.ui.SelectableItemAdapter
 import com.orgzly.android.ui.Selection
 import com.orgzly.android.ui.notes.NoteItemViewBinder
 import com.orgzly.android.ui.notes.NoteItemViewHolder
+import com.orgzly.android.ui.notes.book.PagingDataAdapterWithHeaders
 import com.orgzly.databinding.ItemHeadBinding
 
 class SearchAdapter(
         private val context: Context,
         private val clickListener: OnViewHolderClickListener<NoteView>
-) :ListAdapter<NoteView, RecyclerView.ViewHolder>(DIFF_CALLBACK), SelectableItemAdapter {
+) : PagingDataAdapterWithHeaders<NoteView, RecyclerView.ViewHolder>(DIFF_CALLBACK, 0),
+        SelectableItemAdapter {
 
     private val adapterSelection: Selection = Selection()
 
@@ -26,35 +27,58 @@ class SearchAdapter(
 
     private val viewHolderListener = object: NoteItemViewHolder.ClickListener {
         override fun onClick(view: View, position: Int) {
-            clickListener.onClick(view, position, getItem(position))
+            peek(position)?.let { clickListener.onClick(view, position, it) }
         }
         override fun onLongClick(view: View, position: Int) {
-            clickListener.onLongClick(view, position, getItem(position))
+            peek(position)?.let { clickListener.onLongClick(view, position, it) }
         }
     }
 
+    /** Note which is not loaded yet. Takes up some room, to keep scrolling smooth. */
+    inner class PlaceholderViewHolder(view: View) : RecyclerView.ViewHolder(view)
+
+    override fun getItemViewType(position: Int): Int {
+        return if (peek(position) == null) PLACEHOLDER_ITEM_TYPE else NOTE_ITEM_TYPE
+    }
+
     override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): RecyclerView.ViewHolder {
         val binding = ItemHeadBinding.inflate(LayoutInflater.from(context), parent, false)
 
         NoteItemViewBinder.setupSpacingForDensitySetting(context, binding)
 
-        return NoteItemViewHolder(binding, viewHolderListener)
+        return if (viewType == PLACEHOLDER_ITEM_TYPE) {
+            binding.root.visibility = View.INVISIBLE
+
+            PlaceholderViewHolder(binding.root)
+
+        } else {
+            NoteItemViewHolder(binding, viewHolderListener)
+        }
     }
 
     override fun onBindViewHolder(h: RecyclerView.ViewHolder, position: Int) {
+        if (h.itemViewType == PLACEHOLDER_ITEM_TYPE) {
+            /* Loads the page, the item is rebound once it's loaded. */
+            getItem(position)
+            return
+        }
+
         val holder = h as NoteItemViewHolder
 
-        val noteView = getItem(position)
+        val noteView = getItem(position) ?: return
 
         val note = noteView.note
 
         noteItemViewBinder.bind(holder, noteView)
 
+        noteItemViewBinder.prefetch(loadedItems, position)
+
         getSelection().setBackgroundIfSelected(holder.itemView, note.id)
     }
 
     override fun getItemId(position: Int): Long {
-        return getItem(position).note.id
+        /* Placeholders get unique negative ids. */
+        return peek(position)?.note?.id ?: (-1L - position)
     }
 
     override fun getSelection(): Selection {
@@ -71,6 +95,9 @@ class SearchAdapter(
     companion object {
         private val TAG = SearchAdapter::class.java.name
 
+        const val NOTE_ITEM_TYPE = 0
+        const val PLACEHOLDER_ITEM_TYPE = 1
+
         private val DIFF_CALLBACK: DiffUtil.ItemCallback<NoteView> =
                 object : DiffUtil.ItemCallback<NoteView>() {
                     override fun areItemsTheSame(oldItem: NoteView, newItem: NoteView): Boolean {
@@ -223,14 +223,17 @@ class SearchFragment : QueryFragment(), OnViewHolderClickListener<NoteView> {
             }
         })
 
-        viewModel.data.observe(viewLifecycleOwner, Observer { notes ->
-            if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Observed notes: ${notes.size}")
+        viewModel.notes.observe(viewLifecycleOwner, Observer { notes ->
+            if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Observed notes")
 
-            viewAdapter.submitList(notes)
+            viewAdapter.submitData(viewLifecycleOwner.lifecycle, notes)
+        })
 
-            val ids = notes.mapTo(hashSetOf()) { it.note.id }
+        /* All ids, as only some notes are loaded at a time. */
+        viewModel.noteIds.observe(viewLifecycleOwner, Observer { ids ->
+            if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Observed note ids: ${ids.size}")
 
-            viewAdapter.getSelection().removeNonExistent(ids)
+            viewAdapter.getSelection().removeNonExistent(ids.toHashSet())
 
             viewModel.appBar.toModeFromSelectionCount(viewAdapter.getSelection().count)
         })
@@ -13,6 +13,7 @@ import android.text.style.StyleSpan;
 import com.orgzly.android.db.entity.Note;
 import com.orgzly.android.db.entity.NoteView;
 import com.orgzly.android.prefs.AppPreferences;
+import com.orgzly.android.ui.notes.NoteSpannedCache;
 import com.orgzly.android.util.OrgFormatter;
 
 import java.util.List;
@@ -70,7 +71,8 @@ public class TitleGenerator {
         }
 
         /* Title. */
-        builder.append(OrgFormatter.parse(note.getTitle(), mContext, true, false));
+        builder.append(NoteSpannedCache.get(
+                note.getId(), NoteSpannedCache.Field.TITLE, note.getTitle(), titleFormatterConfig()));
 
         /* Append note ID. */
         // builder.append(TITLE_SEPARATOR).append("#").append(String.valueOf(note.getId()));
@@ -113,6 +115,13 @@ public class TitleGenerator {
         return builder;
     }
 
+    /**
+     * Configuration titles are parsed with, following current display settings.
+     */
+    public OrgFormatter.Config titleFormatterConfig() {
+        return new OrgFormatter.Config(mContext, true, false);
+    }
+
     /**
      * Should note's content be displayed if it exists.
      */
@@ -174,6 +174,17 @@ class RichText(context: Context, attrs: AttributeSet?) :
         }
     }
 
+    /**
+     * Like [setSourceText], but with the text already parsed by [OrgFormatter].
+     */
+    fun setSourceText(text: CharSequence?, parsed: CharSequence) {
+        richTextEdit.setText(text)
+
+        if (richTextView.visibility == View.VISIBLE) {
+            setParsedViewText(parsed)
+        }
+    }
+
     fun getSourceText(): CharSequence? {
         return richTextEdit.text
     }
@@ -204,18 +215,26 @@ class RichText(context: Context, attrs: AttributeSet?) :
         val source = richTextEdit.text
 
         if (source != null) {
-            val parsed = OrgFormatter.parse(
-                source, context, attributes.linkify, attributes.parseCheckboxes)
-
-            richTextView.setText(parsed, TextView.BufferType.SPANNABLE)
-
-            ImageLoader.loadImages(richTextView)
+            setParsedViewText(OrgFormatter.parse(source, formatterConfig()))
 
         } else {
             richTextView.text = null
         }
     }
 
+    private fun setParsedViewText(parsed: CharSequence) {
+        richTextView.setText(parsed, TextView.BufferType.SPANNABLE)
+
+        ImageLoader.loadImages(richTextView)
+    }
+
+    /**
+     * Configuration source text is parsed with, following current display settings.
+     */
+    fun formatterConfig(): OrgFormatter.Config {
+        return OrgFormatter.Config(context, attributes.linkify, attributes.parseCheckboxes)
+    }
+
     fun setTypeface(typeface: Typeface) {
         richTextView.typeface = typeface
         richTextEdit.typeface = typeface
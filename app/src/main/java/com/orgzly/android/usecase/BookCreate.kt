@@ -8,6 +8,7 @@ class BookCreate(val name: String) : UseCase() {
 
         return UseCaseResult(
                 modifiesLocalData = true,
+                localDataChange = LocalDataChange(notesChanged = false, timesChanged = false),
                 triggersSync = SYNC_DATA_MODIFIED
         )
     }
@@ -9,6 +9,7 @@ class BookRename(val bookView: BookView, val name: String) : UseCase() {
 
         return UseCaseResult(
                 modifiesLocalData = true,
+                localDataChange = LocalDataChange(setOf(bookView.book.id), timesChanged = false),
                 triggersSync = SYNC_DATA_MODIFIED
         )
     }
@@ -11,6 +11,7 @@ class BookUpdatePreface(val bookId: Long, val preface: String) : UseCase() {
 
         return UseCaseResult(
                 modifiesLocalData = true,
+                localDataChange = LocalDataChange(setOf(bookId), notesChanged = false, timesChanged = false),
                 triggersSync = SYNC_DATA_MODIFIED
         )
     }
@@ -0,0 +1,38 @@
+package com.orgzly.android.usecase
+
+/**
+ * What a use case changed, so that only consumers of those changes are notified
+ * (see [LocalDataChangeDispatcher]).
+ */
+data class LocalDataChange(
+        /** Books whose notes or settings changed, or null if not known. */
+        val bookIds: Set<Long>? = null,
+
+        /** Notes (or anything displayed with them) changed. */
+        val notesChanged: Boolean = true,
+
+        /** Times or states of notes changed, or notes were added or removed. */
+        val timesChanged: Boolean = true,
+
+        /** Books were added, removed, renamed, or their prefaces changed. */
+        val booksChanged: Boolean = true
+) {
+    operator fun plus(other: LocalDataChange): LocalDataChange {
+        return LocalDataChange(
+                bookIds = if (bookIds != null && other.bookIds != null) bookIds + other.bookIds else null,
+                notesChanged = notesChanged || other.notesChanged,
+                timesChanged = timesChanged || other.timesChanged,
+                booksChanged = booksChanged || other.booksChanged)
+    }
+
+    companion object {
+        val ANY = LocalDataChange()
+
+        fun notes(bookIds: Set<Long>? = null) =
+                LocalDataChange(bookIds, booksChanged = false)
+
+        /** Notes changed, but not their times or states (moved, clocked, ...). */
+        fun notesWithoutTimes(bookIds: Set<Long>? = null) =
+                LocalDataChange(bookIds, timesChanged = false, booksChanged = false)
+    }
+}
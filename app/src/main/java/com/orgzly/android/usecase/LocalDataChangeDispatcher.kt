@@ -0,0 +1,93 @@
+package com.orgzly.android.usecase
+
+import android.content.Context
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import androidx.annotation.VisibleForTesting
+import com.orgzly.BuildConfig
+import com.orgzly.android.App
+import com.orgzly.android.SharingShortcutsManager
+import com.orgzly.android.reminders.RemindersScheduler
+import com.orgzly.android.util.LogUtils
+import com.orgzly.android.widgets.ListWidgetData
+import com.orgzly.android.widgets.ListWidgetProvider
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Notifies reminders, list widgets and sharing shortcuts about changes made by use cases.
+ *
+ * Changes are merged until none are published for [QUIET_PERIOD] (or for at most
+ * [MAX_DELAY] during a longer burst), so a series of quick changes notifies each
+ * consumer once. Consumers are notified only if merged changes affect them.
+ */
+@Singleton
+class LocalDataChangeDispatcher @Inject constructor(
+        private val context: Context,
+        private val listWidgetData: ListWidgetData) {
+
+    private val handler = Handler(Looper.getMainLooper())
+
+    private val dispatchRunnable = Runnable { dispatch() }
+
+    /* Changes published since last dispatch and when the first one was published. */
+    private var pending: LocalDataChange? = null
+    private var pendingSince = 0L
+
+    fun publish(change: LocalDataChange) {
+        synchronized(this) {
+            val now = SystemClock.uptimeMillis()
+
+            val previous = pending
+
+            if (previous == null) {
+                pendingSince = now
+            }
+
+            pending = if (previous != null) previous + change else change
+
+            handler.removeCallbacks(dispatchRunnable)
+            handler.postAtTime(dispatchRunnable, minOf(now + QUIET_PERIOD, pendingSince + MAX_DELAY))
+        }
+    }
+
+    private fun dispatch() {
+        val change = synchronized(this) {
+            pending.also { pending = null }
+        } ?: return
+
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Dispatching $change")
+
+        if (change.timesChanged) {
+            RemindersScheduler.notifyDataSetChanged(context)
+        }
+
+        if (change.notesChanged) {
+            /* Widgets' queries are read from the database. */
+            App.EXECUTORS.diskIO().execute {
+                if (affectsListWidgets(change)) {
+                    ListWidgetProvider.notifyDataSetChanged(context)
+                }
+            }
+        }
+
+        if (change.booksChanged) {
+            SharingShortcutsManager().replaceDynamicShortcuts(context)
+        }
+    }
+
+    @VisibleForTesting
+    fun affectsListWidgets(change: LocalDataChange): Boolean {
+        return change.notesChanged && (change.bookIds == null || listWidgetData.isAffectedBy(change.bookIds))
+    }
+
+    companion object {
+        private val TAG = LocalDataChangeDispatcher::class.java.name
+
+        /** Longer than the time between quick consecutive actions, like toggling checkboxes. */
+        private const val QUIET_PERIOD = 500L
+
+        private const val MAX_DELAY = 3000L
+    }
+}
@@ -10,6 +10,7 @@ class NoteCreate(val notePayload: NotePayload, val notePlace: NotePlace) : UseCa
 
         return UseCaseResult(
                 modifiesLocalData = true,
+                localDataChange = LocalDataChange.notes(setOf(notePlace.bookId)),
                 triggersSync = SYNC_NOTE_CREATED,
                 userData = note)
     }
@@ -8,6 +8,7 @@ class NoteCreateFromNotification(val title: String) : UseCase() {
 
         return UseCaseResult(
                 modifiesLocalData = true,
+                localDataChange = LocalDataChange.notes(),
                 triggersSync = SYNC_NOTE_CREATED
         )
     }
@@ -13,6 +13,7 @@ class NoteCut(val bookId: Long, val ids: Set<Long>) : UseCase() {
 
         return UseCaseResult(
                 modifiesLocalData = true,
+                localDataChange = LocalDataChange.notes(setOf(bookId)),
                 triggersSync = SYNC_DATA_MODIFIED,
                 userData = clipboard
         )
@@ -8,6 +8,7 @@ class NoteDelete(val bookId: Long, val ids: Set<Long>) : UseCase() {
 
         return UseCaseResult(
                 modifiesLocalData = true,
+                localDataChange = LocalDataChange.notes(setOf(bookId)),
                 triggersSync = SYNC_DATA_MODIFIED,
                 userData = count
         )
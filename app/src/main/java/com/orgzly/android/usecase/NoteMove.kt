@@ -10,6 +10,7 @@ class NoteMove(val bookId: Long, val noteIds: Set<Long>, val offset: Int) : UseC
 
         return UseCaseResult(
                 modifiesLocalData = true,
+                localDataChange = LocalDataChange.notesWithoutTimes(setOf(bookId)),
                 triggersSync = SYNC_DATA_MODIFIED
         )
     }
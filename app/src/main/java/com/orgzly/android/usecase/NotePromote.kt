@@ -8,6 +8,7 @@ class NotePromote(val noteIds: Set<Long>) : UseCase() {
 
         return UseCaseResult(
                 modifiesLocalData = true,
+                localDataChange = LocalDataChange.notesWithoutTimes(),
                 triggersSync = SYNC_DATA_MODIFIED,
                 userData = count
         )
@@ -13,6 +13,7 @@ class NoteRefile(val noteIds: Set<Long>, val target: NotePlace) : UseCase() {
 
         return UseCaseResult(
                 modifiesLocalData = true,
+                localDataChange = LocalDataChange.notesWithoutTimes(),
                 triggersSync = SYNC_DATA_MODIFIED,
                 userData = firstRefilledNote
         )
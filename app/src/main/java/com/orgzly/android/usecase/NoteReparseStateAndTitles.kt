@@ -1,15 +1,23 @@
 package com.orgzly.android.usecase
 
-import android.content.Intent
 import com.orgzly.android.AppIntent
 import com.orgzly.android.data.DataRepository
 
-class NoteReparseStateAndTitles : UseCase() {
+/**
+ * @param afterNoteId only parse notes after this one, when resuming
+ * @param onBatch called after each batch of parsed notes, parsing stops if it returns false
+ */
+class NoteReparseStateAndTitles @JvmOverloads constructor(
+        private val afterNoteId: Long = 0,
+        private val onBatch: (lastNoteId: Long, parsed: Int, total: Int) -> Boolean = { _, _, _ -> true }
+) : UseCase() {
+
     override fun run(dataRepository: DataRepository): UseCaseResult {
-        dataRepository.reParseNotesStateAndTitles()
+        dataRepository.reParseNotesStateAndTitles(afterNoteId, onBatch)
 
         return UseCaseResult(
                 modifiesLocalData = true,
+                localDataChange = LocalDataChange.notes(),
                 triggersSync = SYNC_DATA_MODIFIED
         )
     }
@@ -17,4 +25,4 @@ class NoteReparseStateAndTitles : UseCase() {
     override fun toAction(): String {
         return AppIntent.ACTION_REPARSE_NOTES
     }
-}
\ No newline at end of file
+}
@@ -10,6 +10,7 @@ class NoteSyncCreatedAtTimeWithProperty : UseCase() {
 
         return UseCaseResult(
                 modifiesLocalData = true,
+                localDataChange = LocalDataChange.notes(),
                 triggersSync = SYNC_DATA_MODIFIED
         )
     }
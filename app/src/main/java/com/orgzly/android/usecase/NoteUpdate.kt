@@ -11,6 +11,7 @@ class NoteUpdate(val noteId: Long, val notePayload: NotePayload) : UseCase() {
 
         return UseCaseResult(
                 modifiesLocalData = true,
+                localDataChange = LocalDataChange.notes(setOf(note.position.bookId)),
                 triggersSync = SYNC_DATA_MODIFIED,
                 userData = note)
     }
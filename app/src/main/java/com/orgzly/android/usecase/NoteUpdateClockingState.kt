@@ -8,6 +8,7 @@ class NoteUpdateClockingState(val noteIds: Set<Long>, val type: Int) : UseCase()
 
         return UseCaseResult(
                 modifiesLocalData = true,
+                localDataChange = LocalDataChange.notesWithoutTimes(),
                 triggersSync = SYNC_DATA_MODIFIED
         )
     }
@@ -11,6 +11,7 @@ class NoteUpdateContent(val noteId: Long, val content: String?) : UseCase() {
 
         return UseCaseResult(
                 modifiesLocalData = true,
+                localDataChange = LocalDataChange.notes(),
                 triggersSync = SYNC_DATA_MODIFIED
         )
     }
@@ -9,6 +9,7 @@ class NoteUpdateDeadlineTime(val noteIds: Set<Long>, val time: OrgDateTime?) : U
 
         return UseCaseResult(
                 modifiesLocalData = true,
+                localDataChange = LocalDataChange.notes(),
                 triggersSync = SYNC_DATA_MODIFIED
         )
     }
@@ -9,6 +9,7 @@ class NoteUpdateScheduledTime(val noteIds: Set<Long>, val time: OrgDateTime?) :
 
         return UseCaseResult(
                 modifiesLocalData = true,
+                localDataChange = LocalDataChange.notes(),
                 triggersSync = SYNC_DATA_MODIFIED
         )
     }
@@ -8,6 +8,7 @@ class NoteUpdateState(val noteIds: Set<Long>, val state: String?) : UseCase() {
 
         return UseCaseResult(
                 modifiesLocalData = true,
+                localDataChange = LocalDataChange.notes(),
                 triggersSync = SYNC_DATA_MODIFIED
         )
     }
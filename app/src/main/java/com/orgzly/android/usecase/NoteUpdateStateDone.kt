@@ -8,6 +8,7 @@ class NoteUpdateStateDone(val noteId: Long) : UseCase() {
 
         return UseCaseResult(
                 modifiesLocalData = true,
+                localDataChange = LocalDataChange.notes(),
                 triggersSync = SYNC_DATA_MODIFIED
         )
     }
@@ -11,6 +11,7 @@ class NoteUpdateStateToggle(val noteIds: Set<Long>) : UseCase() {
 
         return UseCaseResult(
                 modifiesLocalData = true,
+                localDataChange = LocalDataChange.notes(),
                 triggersSync = SYNC_DATA_MODIFIED
         )
     }
@@ -8,7 +8,8 @@ class TimestampUpdate : UseCase() {
         dataRepository.updateTimestamps()
 
         return UseCaseResult(
-                modifiesLocalData = true
+                modifiesLocalData = true,
+                localDataChange = LocalDataChange.notes()
         )
     }
 
@@ -4,6 +4,8 @@ data class UseCaseResult constructor(
         val modifiesLocalData: Boolean = false,
         val modifiesListWidget: Boolean = false,
         val triggersSync: Int = UseCase.SYNC_NOT_REQUIRED,
-        val userData: Any? = null) {
+        val userData: Any? = null,
+        /** What was changed, if [modifiesLocalData]. */
+        val localDataChange: LocalDataChange = LocalDataChange.ANY) {
     constructor(userData: Any?) : this(false, false, UseCase.SYNC_NOT_REQUIRED, userData)
 }
@@ -3,9 +3,7 @@ package com.orgzly.android.usecase
 import com.orgzly.BuildConfig
 import com.orgzly.android.App
 import com.orgzly.android.data.DataRepository
-import com.orgzly.android.reminders.RemindersScheduler
 import com.orgzly.android.sync.AutoSync
-import com.orgzly.android.SharingShortcutsManager
 import com.orgzly.android.util.LogUtils
 import com.orgzly.android.widgets.ListWidgetProvider
 import javax.inject.Inject
@@ -22,6 +20,9 @@ object UseCaseRunner {
         @Inject
         lateinit var dataRepository: DataRepository
 
+        @Inject
+        lateinit var localDataChangeDispatcher: LocalDataChangeDispatcher
+
         init {
             App.appComponent.inject(this)
         }
@@ -40,10 +41,9 @@ object UseCaseRunner {
             UseCase.SYNC_NOTE_CREATED -> factory.autoSync.trigger(AutoSync.Type.NOTE_CREATED)
         }
 
+        /* Reminders, widgets and shortcuts are updated once a series of changes ends. */
         if (result.modifiesLocalData) {
-            RemindersScheduler.notifyDataSetChanged(App.getAppContext())
-            ListWidgetProvider.notifyDataSetChanged(App.getAppContext())
-            SharingShortcutsManager().replaceDynamicShortcuts(App.getAppContext())
+            factory.localDataChangeDispatcher.publish(result.localDataChange)
         }
 
         if (result.modifiesListWidget) {
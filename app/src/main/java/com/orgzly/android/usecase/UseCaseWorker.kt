@@ -30,7 +30,7 @@ class UseCaseWorker(val context: Context, val params: WorkerParameters) : Worker
 
             AppIntent.ACTION_REPARSE_NOTES -> {
                 broadcastNotesUpdate {
-                    UseCaseRunner.run(NoteReparseStateAndTitles())
+                    reParseNotes()
                 }
             }
 
@@ -48,6 +48,32 @@ class UseCaseWorker(val context: Context, val params: WorkerParameters) : Worker
         return Result.success()
     }
 
+    /**
+     * Resumes after the last parsed note, if this work was stopped before.
+     * Newly scheduled work has a new ID and starts from the first note.
+     */
+    private fun reParseNotes() {
+        val workId = id.toString()
+
+        val afterNoteId = AppPreferences.reParseNotesLastNoteId(context, workId)
+
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Re-parsing notes after $afterNoteId")
+
+        UseCaseRunner.run(NoteReparseStateAndTitles(afterNoteId) { lastNoteId, parsed, total ->
+            if (!isStopped) {
+                AppPreferences.reParseNotesLastNoteId(context, workId, lastNoteId)
+
+                setProgressAsync(workDataOf(PROGRESS_DONE to parsed, PROGRESS_TOTAL to total))
+            }
+
+            !isStopped
+        })
+
+        if (!isStopped) {
+            AppPreferences.reParseNotesLastNoteId(context, workId, 0)
+        }
+    }
+
     private fun broadcastNotesUpdate(action: () -> Unit) {
         LocalBroadcastManager.getInstance(context).apply {
             sendBroadcast(Intent(AppIntent.ACTION_UPDATING_NOTES_STARTED))
@@ -76,6 +102,9 @@ class UseCaseWorker(val context: Context, val params: WorkerParameters) : Worker
 
         private const val DATA_ACTION = "action"
 
+        const val PROGRESS_DONE = "done"
+        const val PROGRESS_TOTAL = "total"
+
         @JvmStatic
         fun schedule(context: Context, useCase: UseCase) {
             val workManager = WorkManager.getInstance(context)
@@ -86,7 +115,14 @@ class UseCaseWorker(val context: Context, val params: WorkerParameters) : Worker
 
             val uniqueWorkName = useCase::class.simpleName!! // TODO: add name to UseCase
 
-            workManager.enqueueUniqueWork(uniqueWorkName, ExistingWorkPolicy.KEEP, request)
+            val policy = if (useCase is NoteReparseStateAndTitles) {
+                /* Keywords changed again, start parsing from the first note (see reParseNotes). */
+                ExistingWorkPolicy.REPLACE
+            } else {
+                ExistingWorkPolicy.KEEP
+            }
+
+            workManager.enqueueUniqueWork(uniqueWorkName, policy, request)
         }
     }
 }
@@ -1,13 +1,95 @@
 package com.orgzly.android.util
 
+import android.content.Context
+import com.orgzly.android.data.DataRepository
+import com.orgzly.android.db.dao.AgendaOccurrenceDao
+import com.orgzly.android.db.dao.ReminderTimeDao
+import com.orgzly.android.db.entity.AgendaOccurrence
+import com.orgzly.android.prefs.AppPreferences
+import com.orgzly.android.ui.TimeType
 import com.orgzly.android.ui.notes.query.agenda.AgendaItems.ExpandableOrgRange
 import com.orgzly.org.datetime.*
 import org.joda.time.DateTime
+import org.joda.time.DateTimeZone
 import java.util.*
 
 object AgendaUtils {
+    /** Minimum number of days, starting today, stored occurrences are computed for. */
+    private const val HORIZON_DAYS = 31
+
     data class ExpandedOrgRange(val isOverdueToday: Boolean, val expanded: Set<DateTime>)
 
+    /**
+     * Occurrences of note times on each of the days, starting today.
+     * See [updateOccurrences].
+     */
+    @JvmStatic
+    fun getOccurrences(context: Context, dataRepository: DataRepository, days: Int): List<AgendaOccurrenceDao.Occurrence> {
+        val today = updateOccurrences(context, dataRepository, days)
+
+        return dataRepository.agendaOccurrencesInInterval(today.millis, today.plusDays(days).millis)
+    }
+
+    /**
+     * Recomputes stored occurrences of notes whose times have changed.
+     * All of them are recomputed if the day, time zone or required horizon changed.
+     *
+     * @return start of today, which occurrences are computed from
+     */
+    @JvmStatic
+    fun updateOccurrences(context: Context, dataRepository: DataRepository, days: Int): DateTime {
+        val today = DateTime.now().withTimeAtStartOfDay()
+
+        val zone = DateTimeZone.getDefault().id
+
+        /* Format is "<today> <days> <time zone>" */
+        val computedFor = AppPreferences.agendaOccurrencesComputedFor(context)?.split(" ")
+
+        val isCurrent = computedFor != null
+                && computedFor.size == 3
+                && computedFor[0] == today.millis.toString()
+                && (computedFor[1].toIntOrNull() ?: 0) >= days
+                && computedFor[2] == zone
+
+        val horizon = if (isCurrent) computedFor!![1].toInt() else maxOf(days, HORIZON_DAYS)
+
+        dataRepository.updateAgendaOccurrences(!isCurrent) { noteRange ->
+            expandNoteRange(noteRange, today, horizon)
+        }
+
+        if (!isCurrent) {
+            AppPreferences.agendaOccurrencesComputedFor(context, "${today.millis} $horizon $zone")
+        }
+
+        return today
+    }
+
+    private fun expandNoteRange(noteRange: AgendaOccurrenceDao.NoteRange, today: DateTime, days: Int): List<AgendaOccurrence> {
+        val range = OrgRange.parseOrNull(noteRange.orgRangeString) ?: return emptyList()
+
+        if (!range.startTime.isActive) {
+            return emptyList()
+        }
+
+        val timeType = when (noteRange.timeType) {
+            ReminderTimeDao.SCHEDULED_TIME -> TimeType.SCHEDULED
+            ReminderTimeDao.DEADLINE_TIME -> TimeType.DEADLINE
+            else -> TimeType.EVENT
+        }
+
+        val times = expandOrgDateTime(ExpandableOrgRange.fromRange(timeType, range), today, days)
+
+        return times.expanded.map { time ->
+            AgendaOccurrence(
+                    0,
+                    noteRange.noteId,
+                    noteRange.timeType,
+                    noteRange.orgRangeId,
+                    time.withTimeAtStartOfDay().millis,
+                    time.millis)
+        }
+    }
+
     fun expandOrgDateTime(expandable: ExpandableOrgRange, now: DateTime, days: Int): ExpandedOrgRange {
         val today = now.withTimeAtStartOfDay()
 
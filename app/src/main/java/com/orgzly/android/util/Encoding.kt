@@ -2,6 +2,8 @@ package com.orgzly.android.util
 
 import android.util.Log
 import com.orgzly.BuildConfig
+import java.io.BufferedInputStream
+import java.io.ByteArrayInputStream
 import java.io.File
 import java.io.FileInputStream
 
@@ -9,25 +11,41 @@ data class Encoding(val used: String, val detected: String?, val selected: Strin
     companion object {
         /**
          * Determine encoding to use -- detect or force it.
+         *
+         * Encoding is detected from the beginning of the stream, which is then reset,
+         * so the same stream can be parsed next. If the beginning is ASCII-only and
+         * there is more content, it's detected from the whole [file] the stream is reading.
          */
-        fun detect(pathname: String, selectedEncoding: String?): Encoding {
+        fun detect(name: String, stream: BufferedInputStream, selectedEncoding: String?, file: File? = null): Encoding {
             val usedEncoding: String
             var detectedEncoding: String? = null
 
             if (selectedEncoding == null) {
                 val startedAt = System.currentTimeMillis()
 
-                detectedEncoding = EncodingDetect.getInstance(FileInputStream(File(pathname))).encoding
+                val prefix = readPrefix(stream)
+
+                val isWhole = prefix.available() < DETECTION_PREFIX_SIZE
+
+                detectedEncoding = EncodingDetect.getInstance(prefix).encoding
+
+                if (detectedEncoding == null && !isWhole && file != null) {
+                    if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Detecting $name encoding from the whole file")
+
+                    detectedEncoding = FileInputStream(file).use { fileStream ->
+                        EncodingDetect.getInstance(fileStream).encoding
+                    }
+                }
 
                 if (BuildConfig.LOG_DEBUG) {
                     val ms = System.currentTimeMillis() - startedAt
-                    LogUtils.d(TAG, "Detected $pathname encoding in ${ms}ms: $detectedEncoding")
+                    LogUtils.d(TAG, "Detected $name encoding in ${ms}ms: $detectedEncoding")
                 }
 
                 /* Can't detect encoding - use default. */
                 if (detectedEncoding == null) {
                     usedEncoding = DEFAULT_ENCODING
-                    Log.w(TAG, "Encoding for $pathname not be detected, using $DEFAULT_ENCODING")
+                    Log.w(TAG, "Encoding for $name not be detected, using $DEFAULT_ENCODING")
                 } else {
                     usedEncoding = detectedEncoding
                 }
@@ -40,8 +58,33 @@ data class Encoding(val used: String, val detected: String?, val selected: Strin
             return Encoding(usedEncoding, detectedEncoding, selectedEncoding)
         }
 
+        private fun readPrefix(stream: BufferedInputStream): ByteArrayInputStream {
+            val prefix = ByteArray(DETECTION_PREFIX_SIZE)
+
+            stream.mark(DETECTION_PREFIX_SIZE)
+
+            var size = 0
+            while (size < prefix.size) {
+                val n = stream.read(prefix, size, prefix.size - size)
+                if (n < 0) {
+                    break
+                }
+                size += n
+            }
+
+            stream.reset()
+
+            return ByteArrayInputStream(prefix, 0, size)
+        }
+
         private const val DEFAULT_ENCODING = "UTF-8"
 
+        /*
+         * Detector is usually sure well before this.
+         * ASCII-only prefix is not detected, and the rest of the file is read.
+         */
+        private const val DETECTION_PREFIX_SIZE = 64 * 1024
+
         private val TAG = Encoding::class.java.name
     }
-}
\ No newline at end of file
+}
@@ -26,7 +26,9 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Reader;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Map;
 
@@ -207,6 +209,39 @@ public class MiscUtils {
         return l;
     }
 
+    /**
+     * Hex-encoded SHA-1 digest of the file's content.
+     * File is memory-mapped, not copied through a buffer.
+     */
+    public static String contentDigest(File file) throws IOException {
+        MessageDigest md = newContentDigest();
+
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            md.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+
+        return contentDigestToString(md);
+    }
+
+    /**
+     * Digest for computing {@link #contentDigest(File)} of content while reading it.
+     */
+    public static MessageDigest newContentDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public static String contentDigestToString(MessageDigest md) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
     public static void copyFile(File src, File dst) throws IOException {
         InputStream in = new FileInputStream(src);
         OutputStream out = new FileOutputStream(dst);
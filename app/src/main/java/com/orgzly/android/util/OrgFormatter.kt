@@ -76,7 +76,7 @@ object OrgFormatter {
             val spans: List<Any?> = listOf())
 
     // TODO: Pass to OrgFormatter, don't pass context
-    private data class Config(
+    data class Config(
             val style: Boolean = true,
             val withMarks: Boolean = false,
             val foldDrawers: Boolean = true,
@@ -97,7 +97,8 @@ object OrgFormatter {
         return this.parse(str, Config(context, linkify, parseCheckboxes))
     }
 
-    private fun parse(str: CharSequence, config: Config): SpannableStringBuilder {
+    @JvmStatic
+    fun parse(str: CharSequence, config: Config): SpannableStringBuilder {
         val t0 = System.currentTimeMillis()
 
         var ssb = SpannableStringBuilder(str)
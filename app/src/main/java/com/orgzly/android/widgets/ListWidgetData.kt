@@ -0,0 +1,283 @@
+package com.orgzly.android.widgets
+
+import android.content.Context
+import android.content.SharedPreferences
+import androidx.preference.PreferenceManager
+import com.orgzly.BuildConfig
+import com.orgzly.R
+import com.orgzly.android.data.ChangeTracker
+import com.orgzly.android.data.DataRepository
+import com.orgzly.android.db.entity.NoteView
+import com.orgzly.android.prefs.AppPreferences
+import com.orgzly.android.query.Query
+import com.orgzly.android.query.QueryUtils
+import com.orgzly.android.query.user.InternalQueryParser
+import com.orgzly.android.ui.TimeType
+import com.orgzly.android.ui.notes.query.agenda.AgendaItem
+import com.orgzly.android.ui.notes.query.agenda.AgendaItems
+import com.orgzly.android.ui.util.TitleGenerator
+import com.orgzly.android.util.AgendaUtils
+import com.orgzly.android.util.LogUtils
+import com.orgzly.android.util.UserTimeFormatter
+import com.orgzly.org.datetime.OrgRange
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Rows displayed by list widgets, shared by all widgets with the same query.
+ *
+ * Rows are computed again only after changes to the books the query can match notes from,
+ * after settings change, or, for queries which depend on time, once they are older than
+ * [TIME_DEPENDENT_MAX_AGE]. Rows of unchanged notes are reused.
+ */
+@Singleton
+class ListWidgetData @Inject constructor(
+        private val context: Context,
+        private val dataRepository: DataRepository) {
+
+    sealed class Row(open val id: Long) {
+        data class Divider(override val id: Long, val text: String) : Row(id)
+
+        data class Note(
+                override val id: Long,
+                val noteId: Long,
+                val bookId: Long,
+                val title: CharSequence,
+                val bookName: String?,
+                val closed: String?,
+                val scheduled: String?,
+                val deadline: String?,
+                val event: String?,
+                val isCheckmarkDisplayed: Boolean
+        ) : Row(id)
+    }
+
+    private class Entry(val query: Query) {
+        @Volatile
+        var isStale = true
+
+        @Volatile
+        var bookIds: Set<Long>? = null
+
+        var computedAt = 0L
+
+        var rows: List<Row> = emptyList()
+
+        /** Rows of notes by the note and the time type they are displayed for. */
+        var noteRows: Map<Pair<NoteView, TimeType?>, Row.Note> = emptyMap()
+    }
+
+    private val entries = mutableMapOf<String, Entry>()
+
+    /** Day/night mode entries were computed in, as title colors depend on it. */
+    private var dayNight: String? = null
+
+    private val changeListener = ChangeTracker.Listener { changes ->
+        synchronized(entries) {
+            entries.values.forEach { entry ->
+                if (changes.affectsBooks(entry.bookIds)) {
+                    entry.isStale = true
+                }
+            }
+        }
+    }
+
+    /* Kept as a field, as preferences only hold a weak reference to it. */
+    private val settingsListener = SharedPreferences.OnSharedPreferenceChangeListener { _, _ ->
+        clear()
+    }
+
+    init {
+        dataRepository.addChangeListener(changeListener)
+
+        PreferenceManager.getDefaultSharedPreferences(context)
+                .registerOnSharedPreferenceChangeListener(settingsListener)
+    }
+
+    fun getRows(queryString: String): List<Row> {
+        val entry = synchronized(entries) {
+            context.getString(R.string.day_night).let {
+                if (it != dayNight) {
+                    entries.clear()
+                    dayNight = it
+                }
+            }
+
+            entries.getOrPut(queryString) {
+                Entry(InternalQueryParser().parse(queryString))
+            }
+        }
+
+        /* Widgets with the same query wait for the first one to compute the rows. */
+        synchronized(entry) {
+            if (entry.isStale || isOutdated(entry)) {
+                compute(entry)
+            } else {
+                if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Reusing rows for ${entry.query}")
+            }
+
+            return entry.rows
+        }
+    }
+
+    /**
+     * Whether changes to the books can change rows of any installed widget.
+     * Widgets whose rows were never computed are always affected.
+     *
+     * @param queries queries of installed widgets
+     */
+    fun isAffectedBy(
+            bookIds: Set<Long>,
+            queries: Collection<String> = ListWidgetProvider.getQueries(context, dataRepository)): Boolean {
+
+        synchronized(entries) {
+            return queries.any { query ->
+                entries[query]?.bookIds.let { it == null || it.any { bookId -> bookId in bookIds } }
+            }
+        }
+    }
+
+    private fun clear() {
+        synchronized(entries) {
+            entries.clear()
+        }
+    }
+
+    private fun isOutdated(entry: Entry): Boolean {
+        val query = entry.query
+
+        return (query.isAgenda() || QueryUtils.dependsOnTime(query.condition))
+                && System.currentTimeMillis() - entry.computedAt >= TIME_DEPENDENT_MAX_AGE
+    }
+
+    private fun compute(entry: Entry) {
+        val query = entry.query
+
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Computing rows for $query")
+
+        /* Changes from now on make the entry stale again. */
+        entry.isStale = false
+        entry.bookIds = dataRepository.getQueryBookIds(query)
+        entry.computedAt = System.currentTimeMillis()
+
+        /* Agenda notes are selected by their stored occurrences, so those are updated first. */
+        val occurrences = if (query.isAgenda()) {
+            AgendaUtils.getOccurrences(context, dataRepository, query.options.agendaDays)
+        } else {
+            emptyList()
+        }
+
+        val notes = dataRepository.selectNotesFromQuery(query)
+
+        val rowBuilder = NoteRowBuilder(entry.noteRows)
+
+        entry.rows = if (query.isAgenda()) {
+            val idMap = mutableMapOf<Long, Long>()
+            val hideEmptyDaysInAgenda = AppPreferences.hideEmptyDaysInAgenda(context)
+            val agendaDays = query.options.agendaDays
+            val agendaItems = AgendaItems(hideEmptyDaysInAgenda).getList(notes, occurrences, agendaDays, idMap)
+
+            agendaItems.map {
+                when (it) {
+                    is AgendaItem.Overdue ->
+                        Row.Divider(it.id, context.getString(R.string.overdue))
+
+                    is AgendaItem.Day ->
+                        Row.Divider(it.id, rowBuilder.userTimeFormatter.formatDate(it.day))
+
+                    is AgendaItem.Note ->
+                        rowBuilder.get(it.id, it.note, it.timeType)
+                }
+            }
+
+        } else {
+            notes.map {
+                rowBuilder.get(it.note.id, it, null)
+            }
+        }
+
+        entry.noteRows = rowBuilder.rows
+    }
+
+    /**
+     * Builds rows of notes, with settings read only once.
+     */
+    private inner class NoteRowBuilder(private val previousRows: Map<Pair<NoteView, TimeType?>, Row.Note>) {
+        val rows = mutableMapOf<Pair<NoteView, TimeType?>, Row.Note>()
+
+        val userTimeFormatter by lazy {
+            UserTimeFormatter(context)
+        }
+
+        private val titleGenerator by lazy {
+            // Title (colors depend on current theme)
+            TitleGenerator(context, false, WidgetStyle.getTitleAttributes(context))
+        }
+
+        private val displayPlanningTimes = AppPreferences.displayPlanning(context)
+        private val displayBookName = AppPreferences.widgetDisplayBookName(context)
+        private val displayCheckmarks = AppPreferences.widgetDisplayCheckmarks(context)
+        private val doneStates = AppPreferences.doneKeywordsSet(context)
+
+        fun get(id: Long, noteView: NoteView, agendaTimeType: TimeType?): Row.Note {
+            val key = Pair(noteView, agendaTimeType)
+
+            val row = previousRows[key]?.copy(id = id) ?: build(id, noteView, agendaTimeType)
+
+            rows[key] = row
+
+            return row
+        }
+
+        private fun build(id: Long, noteView: NoteView, agendaTimeType: TimeType?): Row.Note {
+            var scheduled = noteView.scheduledRangeString
+            var deadline = noteView.deadlineRangeString
+            var event = noteView.eventString
+
+            // In Agenda only display time responsible for item's presence
+            when (agendaTimeType) {
+                TimeType.SCHEDULED -> {
+                    deadline = null
+                    event = null
+                }
+                TimeType.DEADLINE -> {
+                    scheduled = null
+                    event = null
+                }
+                TimeType.EVENT -> {
+                    scheduled = null
+                    deadline = null
+                }
+                else -> {
+                }
+            }
+
+            return Row.Note(
+                    id = id,
+                    noteId = noteView.note.id,
+                    bookId = noteView.note.position.bookId,
+                    title = titleGenerator.generateTitle(noteView),
+                    bookName = if (displayBookName) noteView.bookName else null,
+                    closed = formatTime(noteView.closedRangeString),
+                    scheduled = formatTime(scheduled),
+                    deadline = formatTime(deadline),
+                    event = formatTime(event),
+                    isCheckmarkDisplayed = displayCheckmarks && !doneStates.contains(noteView.note.state))
+        }
+
+        private fun formatTime(range: String?): String? {
+            return if (displayPlanningTimes && range != null) {
+                userTimeFormatter.formatAll(OrgRange.parse(range))
+            } else {
+                null
+            }
+        }
+    }
+
+    companion object {
+        private val TAG = ListWidgetData::class.java.name
+
+        /** Shorter than the interval of periodic widget updates, longer than a burst of notifications. */
+        private const val TIME_DEPENDENT_MAX_AGE = 60 * 1000L
+    }
+}
@@ -35,8 +35,10 @@ import com.orgzly.android.usecase.NoteUpdateStateToggle;
 import com.orgzly.android.usecase.UseCaseRunner;
 import com.orgzly.android.util.LogUtils;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.List;
 
 import javax.inject.Inject;
 
@@ -239,6 +241,22 @@ public class ListWidgetProvider extends AppWidgetProvider {
         return getSavedSearch(context, appWidgetId, dataRepository);
     }
 
+    /**
+     * Queries of all installed widgets.
+     */
+    public static List<String> getQueries(Context context, DataRepository dataRepository) {
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+
+        ComponentName thisAppWidgetComponentName = new ComponentName(context.getPackageName(), ListWidgetProvider.class.getName());
+        int[] appWidgetIds = appWidgetManager.getAppWidgetIds(thisAppWidgetComponentName);
+
+        List<String> queries = new ArrayList<>();
+        for (int appWidgetId : appWidgetIds) {
+            queries.add(getSavedSearch(context, appWidgetId, dataRepository).getQuery());
+        }
+        return queries;
+    }
+
     public static SavedSearch getSavedSearch(Context context, int appWidgetId, DataRepository dataRepository) {
         long filterId = context.getSharedPreferences(PREFERENCES_ID, Context.MODE_PRIVATE).getLong(getFilterPreferenceKey(appWidgetId), -1);
 
@@ -0,0 +1,72 @@
+package com.orgzly.android.git
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.eclipse.jgit.api.Git
+import org.junit.Assert
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+import kotlin.io.path.createTempDirectory
+
+/**
+ * Compares resolving last commits of all files in a single walk with running
+ * "git log" for each file, written as a failing test (to display the results).
+ */
+@Ignore("Not a test")
+@RunWith(AndroidJUnit4::class)
+class LastCommitResolverSpeedTest {
+    @Test
+    fun files300commits5k() {
+        val dir = createTempDirectory().toFile()
+
+        try {
+            Git.init().setDirectory(dir).call().use { git ->
+                val paths = (1..FILES).map { "dir${it % 10}/book-$it.org" }
+
+                for (i in 1..COMMITS) {
+                    val path = paths[(i * 7919) % paths.size]
+                    File(dir, path).apply {
+                        parentFile!!.mkdirs()
+                        writeText("* Note $i\n")
+                    }
+                    git.add().addFilepattern(path).call()
+                    git.commit().setMessage("Commit $i").call()
+                }
+
+                val head = git.log().setMaxCount(1).call().iterator().next()
+
+                val t1 = System.currentTimeMillis()
+                val perFile = paths.map { path ->
+                    git.log().setMaxCount(1).addPath(path).call().iterator().next()
+                }
+
+                val resolver = LastCommitResolver()
+
+                val t2 = System.currentTimeMillis()
+                val resolved = resolver.lastCommits(git.repository, head, paths)
+
+                val t3 = System.currentTimeMillis()
+                resolver.lastCommits(git.repository, head, paths)
+
+                val t4 = System.currentTimeMillis()
+
+                paths.forEachIndexed { i, path ->
+                    Assert.assertEquals(perFile[i].name, resolved.getValue(path).name)
+                }
+
+                Assert.fail("$FILES files, $COMMITS commits: " +
+                        "git log per file ${t2 - t1} ms, " +
+                        "single walk ${t3 - t2} ms, " +
+                        "cached ${t4 - t3} ms")
+            }
+        } finally {
+            dir.deleteRecursively()
+        }
+    }
+
+    companion object {
+        private const val FILES = 300
+        private const val COMMITS = 5_000
+    }
+}
@@ -0,0 +1,108 @@
+package com.orgzly.android.git
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.eclipse.jgit.api.Git
+import org.eclipse.jgit.api.ResetCommand
+import org.eclipse.jgit.revwalk.RevCommit
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+import kotlin.io.path.createTempDirectory
+
+@RunWith(AndroidJUnit4::class)
+class LastCommitResolverTest {
+    private lateinit var dir: File
+    private lateinit var git: Git
+    private lateinit var resolver: LastCommitResolver
+
+    @Before
+    fun setup() {
+        dir = createTempDirectory().toFile()
+        git = Git.init().setDirectory(dir).call()
+        resolver = LastCommitResolver()
+    }
+
+    @After
+    fun tearDown() {
+        git.close()
+        dir.deleteRecursively()
+    }
+
+    @Test
+    fun testSameAsLogForEachFile() {
+        commit("a.org" to "a1", "b.org" to "b1", "sub/c.org" to "c1")
+        commit("a.org" to "a2")
+        commit("sub/c.org" to "c2")
+        commit("b.org" to "b2", "a.org" to "a3")
+        commit("a.org" to "a2") // Back to previous content
+
+        assertSameAsLog(listOf("a.org", "b.org", "sub/c.org"))
+    }
+
+    @Test
+    fun testCachedResultsUpdatedAfterNewCommits() {
+        commit("a.org" to "a1", "b.org" to "b1")
+        commit("a.org" to "a2")
+
+        assertSameAsLog(listOf("a.org", "b.org"))
+
+        commit("b.org" to "b2")
+        commit("c.org" to "c1")
+
+        assertSameAsLog(listOf("a.org", "b.org", "c.org"))
+    }
+
+    @Test
+    fun testAfterResetToOlderCommit() {
+        commit("a.org" to "a1")
+        val first = commit("a.org" to "a2")
+        commit("a.org" to "a3")
+
+        assertSameAsLog(listOf("a.org"))
+
+        git.reset().setMode(ResetCommand.ResetType.HARD).setRef(first.name).call()
+
+        assertSameAsLog(listOf("a.org"))
+    }
+
+    @Test
+    fun testDeletedFileIsNotResolved() {
+        commit("a.org" to "a1", "b.org" to "b1")
+
+        assertSameAsLog(listOf("a.org", "b.org"))
+
+        git.rm().addFilepattern("b.org").call()
+        git.commit().setMessage("Delete").call()
+
+        val commits = resolver.lastCommits(git.repository, head(), listOf("a.org", "b.org"))
+
+        assertEquals(setOf("a.org"), commits.keys)
+    }
+
+    private fun assertSameAsLog(paths: List<String>) {
+        val commits = resolver.lastCommits(git.repository, head(), paths)
+
+        for (path in paths) {
+            val expected = git.log().setMaxCount(1).addPath(path).call().iterator().next()
+            assertEquals(path, expected.name, commits[path]?.name)
+        }
+    }
+
+    private fun head(): RevCommit {
+        return git.log().setMaxCount(1).call().iterator().next()
+    }
+
+    private fun commit(vararg files: Pair<String, String>): RevCommit {
+        for ((path, content) in files) {
+            File(dir, path).apply {
+                parentFile!!.mkdirs()
+                writeText(content)
+            }
+            git.add().addFilepattern(path).call()
+        }
+        return git.commit().setMessage("Update ${files.joinToString { it.first }}").call()
+    }
+}
@@ -11,6 +11,11 @@ import com.orgzly.android.prefs.AppPreferences
 import com.orgzly.android.prefs.RepoPreferences
 import org.eclipse.jgit.api.Git
 import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.fail
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
@@ -154,4 +159,174 @@ class GitRepoTest : SyncRepoTest {
     override fun testRenameBook_sameSubfolderNewLeafName() {
         SyncRepoTest.testRenameBook_sameSubfolderNewLeafName(syncRepo)
     }
-}
\ No newline at end of file
+
+    @Test
+    fun testStoreBook_inBatchMakesSingleCommit() {
+        val tmpFile = File.createTempFile("orgzly-test", null)
+        try {
+            tmpFile.writeText("* First")
+            syncRepo.storeBook(tmpFile, "first.org")
+
+            val repo = syncRepo as TwoWaySyncRepo
+            repo.beginBatch()
+            tmpFile.writeText("* First updated")
+            syncRepo.storeBook(tmpFile, "first.org")
+            tmpFile.writeText("* Second")
+            syncRepo.storeBook(tmpFile, "second.org")
+            val stored = repo.endBatch()
+
+            Git.open(gitWorkingTree).use { git ->
+                val commits = git.log().call().toList()
+                assertEquals(2, commits.size)
+                assertEquals(listOf(commits[0].name, commits[0].name), stored.map { it.revision })
+                assertEquals(false, git.status().call().hasUncommittedChanges())
+            }
+            assertEquals("* Second", File(gitWorkingTree, "second.org").readText())
+        } finally {
+            tmpFile.delete()
+        }
+    }
+
+    @Test
+    fun testEndBatch_failedCommitKeepsContentForNextBatch() {
+        val tmpFile = File.createTempFile("orgzly-test", null)
+        try {
+            tmpFile.writeText("* First")
+            syncRepo.storeBook(tmpFile, "first.org")
+
+            val repo = syncRepo as TwoWaySyncRepo
+            repo.beginBatch()
+            tmpFile.writeText("* First updated")
+            syncRepo.storeBook(tmpFile, "first.org")
+
+            /* Branch can't be updated, so committing fails. */
+            val branchLock = Git.open(gitWorkingTree).use { git ->
+                File(git.repository.directory, git.repository.fullBranch + ".lock")
+            }
+            branchLock.createNewFile()
+            try {
+                repo.endBatch()
+                fail("Committing batch should fail")
+            } catch (e: IOException) {
+                // Expected
+            } finally {
+                branchLock.delete()
+            }
+            assertEquals(false, repo.isInBatch())
+
+            /* Book is still modified, so the next sync stores it again. */
+            repo.beginBatch()
+            syncRepo.storeBook(tmpFile, "first.org")
+            val stored = repo.endBatch()
+
+            Git.open(gitWorkingTree).use { git ->
+                val commits = git.log().call().toList()
+                assertEquals(2, commits.size)
+                assertEquals(listOf(commits[0].name), stored.map { it.revision })
+                assertEquals(false, git.status().call().hasUncommittedChanges())
+            }
+            assertEquals("* First updated", File(gitWorkingTree, "first.org").readText())
+        } finally {
+            tmpFile.delete()
+        }
+    }
+
+    @Test
+    fun testBeginBatch_discardsLeftoverStagedChanges() {
+        val tmpFile = File.createTempFile("orgzly-test", null)
+        try {
+            tmpFile.writeText("* First")
+            syncRepo.storeBook(tmpFile, "first.org")
+
+            /* Staged by a batch which was never committed. */
+            File(gitWorkingTree, "first.org").writeText("* Left over")
+            Git.open(gitWorkingTree).use { git ->
+                git.add().addFilepattern("first.org").call()
+            }
+
+            val repo = syncRepo as TwoWaySyncRepo
+            repo.beginBatch()
+            tmpFile.writeText("* First updated")
+            syncRepo.storeBook(tmpFile, "first.org")
+            repo.endBatch()
+
+            Git.open(gitWorkingTree).use { git ->
+                assertEquals(2, git.log().call().toList().size)
+                assertEquals(false, git.status().call().hasUncommittedChanges())
+            }
+            assertEquals("* First updated", File(gitWorkingTree, "first.org").readText())
+        } finally {
+            tmpFile.delete()
+        }
+    }
+
+    @Test
+    fun testRemoteChangeTokenAfterSync_unchanged() {
+        val tmpFile = File.createTempFile("orgzly-test", null)
+        try {
+            tmpFile.writeText("* First")
+            syncRepo.storeBook(tmpFile, "first.org")
+
+            val probe = syncRepo as RemoteChangeProbe
+            val probed = probe.remoteChangeToken
+            assertNotNull(probed)
+
+            assertEquals(probed, probe.getRemoteChangeTokenAfterSync(probed!!))
+        } finally {
+            tmpFile.delete()
+        }
+    }
+
+    @Test
+    fun testRemoteChangeTokenAfterSync_ownCommit() {
+        val tmpFile = File.createTempFile("orgzly-test", null)
+        try {
+            tmpFile.writeText("* First")
+            syncRepo.storeBook(tmpFile, "first.org")
+
+            val probe = syncRepo as RemoteChangeProbe
+            val probed = probe.remoteChangeToken!!
+
+            val repo = syncRepo as TwoWaySyncRepo
+            repo.beginBatch()
+            tmpFile.writeText("* First updated")
+            syncRepo.storeBook(tmpFile, "first.org")
+            repo.endBatch()
+            repo.tryPushIfHeadDiffersFromRemote()
+
+            val afterSync = probe.getRemoteChangeTokenAfterSync(probed)
+            assertNotEquals(probed, afterSync)
+            assertEquals(probe.remoteChangeToken, afterSync)
+        } finally {
+            tmpFile.delete()
+        }
+    }
+
+    @Test
+    fun testRemoteChangeTokenAfterSync_commitFromAnotherClone() {
+        val tmpFile = File.createTempFile("orgzly-test", null)
+        val cloneDir = createTempDirectory().toFile()
+        try {
+            tmpFile.writeText("* First")
+            syncRepo.storeBook(tmpFile, "first.org")
+
+            val probe = syncRepo as RemoteChangeProbe
+            val probed = probe.remoteChangeToken!!
+
+            Git.cloneRepository().setURI("file://$bareRepoDir").setDirectory(cloneDir).call().use { git ->
+                File(cloneDir, "second.org").writeText("* Second")
+                git.add().addFilepattern("second.org").call()
+                git.commit().setMessage("Added second.org").call()
+                git.push().call()
+            }
+
+            /* Fetched and merged while listing books. */
+            (syncRepo as GitRepo).isUnchanged()
+
+            assertNull(probe.getRemoteChangeTokenAfterSync(probed))
+        } finally {
+            tmpFile.delete()
+            cloneDir.deleteRecursively()
+        }
+    }
+}
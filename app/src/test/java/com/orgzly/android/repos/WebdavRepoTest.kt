@@ -1,17 +1,24 @@
 package com.orgzly.android.repos
 
+import android.net.Uri
 import androidx.test.ext.junit.runners.AndroidJUnit4
 import com.orgzly.android.db.entity.Repo
 import com.orgzly.android.repos.WebdavRepo.Companion.PASSWORD_PREF_KEY
 import com.orgzly.android.repos.WebdavRepo.Companion.USERNAME_PREF_KEY
+import com.orgzly.android.util.MiscUtils
 import io.github.atetzner.webdav.server.MiltonWebDAVFileServer
+import okhttp3.OkHttpClient
 import org.junit.After
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
 import java.io.File
 import java.io.IOException
+import java.util.concurrent.atomic.AtomicInteger
 
 
 @RunWith(AndroidJUnit4::class)
@@ -155,4 +162,93 @@ class WebdavRepoTest : SyncRepoTest {
     override fun testRenameBook_sameSubfolderNewLeafName() {
         SyncRepoTest.testRenameBook_sameSubfolderNewLeafName(syncRepo)
     }
-}
\ No newline at end of file
+
+    @Test
+    fun testRequestsPerSync() {
+        val requests = AtomicInteger()
+        val repo = countingRepo(requests)
+        MiscUtils.writeStringToFile("...", File(serverRootDir, "Book one.org"))
+
+        // Listing and the ignore file
+        val listedRook = repo.books.first()
+        assertEquals(2, requests.getAndSet(0))
+
+        val retrievedRook = repo.retrieveBook("Book one.org", tmpFile)
+        assertEquals(1, requests.getAndSet(0))
+        assertEquals(listedRook.uri, retrievedRook.uri)
+        assertEquals(listedRook.revision, retrievedRook.revision)
+
+        MiscUtils.writeStringToFile("......", tmpFile)
+        val storedRook = repo.storeBook(tmpFile, "Book one.org")
+        assertTrue(requests.getAndSet(0) <= 2)
+        assertNotEquals(listedRook.revision, storedRook.revision)
+
+        // Only listing and the ignore file again
+        assertEquals(storedRook.revision, repo.books.first().revision)
+        assertEquals(2, requests.get())
+    }
+
+    @Test
+    fun testRevisionIsEtag() {
+        MiscUtils.writeStringToFile("...", File(serverRootDir, "Book one.org"))
+
+        val rook = syncRepo.books.first()
+
+        assertTrue(rook.revision.startsWith("\""))
+        assertTrue(rook.isSameRevision(rook.mtime.toString()))
+    }
+
+    @Test(expected = IOException::class)
+    fun testStoreBook_modifiedOnServerSinceListed() {
+        val serverFile = File(serverRootDir, "Book one.org")
+        MiscUtils.writeStringToFile("...", serverFile)
+        syncRepo.books
+
+        MiscUtils.writeStringToFile("Modified on server", serverFile)
+        serverFile.setLastModified(serverFile.lastModified() + 60_000)
+
+        MiscUtils.writeStringToFile("Modified locally", tmpFile)
+        syncRepo.storeBook(tmpFile, "Book one.org")
+    }
+
+    @Test
+    fun testRemoteChangeTokenAfterSync_ownUpload() {
+        MiscUtils.writeStringToFile("...", File(serverRootDir, "Book one.org"))
+        syncRepo.books
+
+        val probe = syncRepo as RemoteChangeProbe
+        val probed = probe.remoteChangeToken!!
+
+        MiscUtils.writeStringToFile("Modified locally", tmpFile)
+        syncRepo.storeBook(tmpFile, "Book one.org")
+        syncRepo.storeBook(tmpFile, "Book two.org")
+
+        val afterSync = probe.getRemoteChangeTokenAfterSync(probed)
+        assertNotEquals(probed, afterSync)
+        assertEquals(probe.remoteChangeToken, afterSync)
+    }
+
+    @Test
+    fun testRemoteChangeTokenAfterSync_notProbed() {
+        MiscUtils.writeStringToFile("...", File(serverRootDir, "Book one.org"))
+
+        val probe = syncRepo as RemoteChangeProbe
+        val probed = probe.remoteChangeToken!!
+
+        MiscUtils.writeStringToFile("...", File(serverRootDir, "Book two.org"))
+        probe.remoteChangeToken
+
+        assertNull(probe.getRemoteChangeTokenAfterSync(probed))
+    }
+
+    private fun countingRepo(requests: AtomicInteger): WebdavRepo {
+        val client = OkHttpClient.Builder()
+                .addInterceptor { chain ->
+                    requests.incrementAndGet()
+                    chain.proceed(chain.request())
+                }
+                .build()
+
+        return WebdavRepo(0, Uri.parse(serverUrl), "user", "secret", null, client)
+    }
+}